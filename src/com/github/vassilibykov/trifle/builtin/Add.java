@@ -11,7 +11,8 @@ import java.math.BigInteger;
 
 /**
  * Implements addition on integers of unlimited size, overflowing into
- * {@link BigInteger}s as needed.
+ * {@link BigInteger}s as needed, and on doubles. See {@link NumericTower} for
+ * the handling of operands of different types.
  */
 public class Add extends BuiltinFunction {
     public static final Add INSTANCE = new Add();
@@ -22,10 +23,13 @@ public class Add extends BuiltinFunction {
 
     @Override
     public MethodHandle invoker(MethodType callSiteType) {
-        var type1 = callSiteType.parameterType(0);
-        var type2 = callSiteType.parameterType(1);
-        if (type1 == int.class && type2 == int.class) {
+        var operandType = NumericTower.operandType(callSiteType);
+        if (operandType == int.class) {
             return ADD_INT.asType(callSiteType);
+        } else if (operandType == long.class) {
+            return ADD_LONG.asType(callSiteType);
+        } else if (operandType == double.class) {
+            return ADD_DOUBLE.asType(callSiteType);
         } else {
             return ADD_GENERIC.asType(callSiteType);
         }
@@ -40,6 +44,19 @@ public class Add extends BuiltinFunction {
         }
     }
 
+    public static long add(long x, long y) {
+        try {
+            return Math.addExact(x, y);
+        } catch (ArithmeticException e) {
+            var result = BigInteger.valueOf(x).add(BigInteger.valueOf(y));
+            throw SquarePegException.with(result);
+        }
+    }
+
+    public static double add(double x, double y) {
+        return x + y;
+    }
+
     public static Object add(Object x, Object y) {
         try {
             return Math.addExact((Integer) x, (Integer) y);
@@ -49,34 +66,34 @@ public class Add extends BuiltinFunction {
     }
 
     private static Object generalAdd(Object x, Object y) {
-        if (x instanceof Integer) {
-            if (y instanceof Integer) {
-                return BigInteger.valueOf((Integer) x).add(BigInteger.valueOf((Integer) y));
-            } else if (y instanceof BigInteger) {
-                return BigInteger.valueOf((Integer) x).add((BigInteger) y);
-            } else {
-                throw new IllegalArgumentException();
-            }
-        } else if (x instanceof BigInteger) {
-            if (y instanceof Integer) {
-                return ((BigInteger) x).add(BigInteger.valueOf((Integer) y));
-            } else if (y instanceof BigInteger) {
-                return ((BigInteger) x).add((BigInteger) y);
-            } else {
-                throw new IllegalArgumentException();
-            }
+        if (x instanceof Integer && y instanceof Integer) {
+            return BigInteger.valueOf((Integer) x).add(BigInteger.valueOf((Integer) y));
+        } else if (NumericTower.isAnyDouble(x, y)) {
+            return NumericTower.doubleValue(x) + NumericTower.doubleValue(y);
+        } else if (NumericTower.isAnyBigInteger(x, y)) {
+            return NumericTower.bigInteger(x).add(NumericTower.bigInteger(y));
         } else {
-            throw new IllegalArgumentException();
+            try {
+                return Math.addExact(NumericTower.longValue(x), NumericTower.longValue(y));
+            } catch (ArithmeticException e) {
+                return NumericTower.bigInteger(x).add(NumericTower.bigInteger(y));
+            }
         }
     }
 
     private static final MethodHandle ADD_INT;
+    private static final MethodHandle ADD_LONG;
+    private static final MethodHandle ADD_DOUBLE;
     private static final MethodHandle ADD_GENERIC;
     static {
         var lookup = MethodHandles.lookup();
         try {
             ADD_INT = lookup.findStatic(Add.class, "add",
                 MethodType.methodType(int.class, int.class, int.class));
+            ADD_LONG = lookup.findStatic(Add.class, "add",
+                MethodType.methodType(long.class, long.class, long.class));
+            ADD_DOUBLE = lookup.findStatic(Add.class, "add",
+                MethodType.methodType(double.class, double.class, double.class));
             ADD_GENERIC = lookup.findStatic(Add.class, "add",
                 MethodType.methodType(Object.class, Object.class, Object.class));
         } catch (NoSuchMethodException | IllegalAccessException e) {
@@ -5,18 +5,23 @@ package com.github.vassilibykov.trifle.builtin;
 import java.lang.invoke.MethodHandle;
 import java.lang.invoke.MethodHandles;
 import java.lang.invoke.MethodType;
-import java.math.BigInteger;
 
 public class LessThan extends BuiltinFunction {
     public static final LessThan INSTANCE = new LessThan();
 
     private static final MethodHandle LESS_THAN_INT;
+    private static final MethodHandle LESS_THAN_LONG;
+    private static final MethodHandle LESS_THAN_DOUBLE;
     private static final MethodHandle LESS_THAN_GENERIC;
     static {
         var lookup = MethodHandles.lookup();
         try {
             LESS_THAN_INT = lookup.findStatic(LessThan.class, "lessThan",
                 MethodType.methodType(boolean.class, int.class, int.class));
+            LESS_THAN_LONG = lookup.findStatic(LessThan.class, "lessThan",
+                MethodType.methodType(boolean.class, long.class, long.class));
+            LESS_THAN_DOUBLE = lookup.findStatic(LessThan.class, "lessThan",
+                MethodType.methodType(boolean.class, double.class, double.class));
             LESS_THAN_GENERIC = lookup.findStatic(LessThan.class, "lessThan",
                 MethodType.methodType(boolean.class, Object.class, Object.class));
         } catch (NoSuchMethodException | IllegalAccessException e) {
@@ -30,10 +35,13 @@ public class LessThan extends BuiltinFunction {
 
     @Override
     public MethodHandle invoker(MethodType type) {
-        var type1 = type.parameterType(0);
-        var type2 = type.parameterType(1);
-        if (type1 == int.class && type2 == int.class) {
+        var operandType = NumericTower.operandType(type.changeReturnType(Object.class));
+        if (operandType == int.class) {
             return LESS_THAN_INT.asType(type);
+        } else if (operandType == long.class) {
+            return LESS_THAN_LONG.asType(type);
+        } else if (operandType == double.class) {
+            return LESS_THAN_DOUBLE.asType(type);
         } else {
             return LESS_THAN_GENERIC.asType(type);
         }
@@ -43,6 +51,14 @@ public class LessThan extends BuiltinFunction {
         return x < y;
     }
 
+    public static boolean lessThan(long x, long y) {
+        return x < y;
+    }
+
+    public static boolean lessThan(double x, double y) {
+        return x < y;
+    }
+
     public static boolean lessThan(Object x, Object y) {
         try {
             return (Integer) x < (Integer) y;
@@ -52,24 +68,12 @@ public class LessThan extends BuiltinFunction {
     }
 
     private static boolean generalLessThan(Object x, Object y) {
-        if (x instanceof Integer) {
-            if (y instanceof Integer) {
-                return (Integer) x < (Integer) y;
-            } else if (y instanceof BigInteger) {
-                return BigInteger.valueOf((Integer) x).compareTo((BigInteger) y) < 0;
-            } else {
-                throw new IllegalArgumentException();
-            }
-        } else if (x instanceof BigInteger) {
-            if (y instanceof Integer) {
-                return ((BigInteger) x).compareTo(BigInteger.valueOf((Integer) y)) < 0;
-            } else if (y instanceof BigInteger) {
-                return ((BigInteger) x).compareTo((BigInteger) y) < 0;
-            } else {
-                throw new IllegalArgumentException();
-            }
+        if (NumericTower.isAnyDouble(x, y)) {
+            return NumericTower.doubleValue(x) < NumericTower.doubleValue(y);
+        } else if (NumericTower.isAnyBigInteger(x, y)) {
+            return NumericTower.bigInteger(x).compareTo(NumericTower.bigInteger(y)) < 0;
         } else {
-            throw new IllegalArgumentException();
+            return NumericTower.longValue(x) < NumericTower.longValue(y);
         }
     }
 }
@@ -11,7 +11,8 @@ import java.math.BigInteger;
 
 /**
  * Implements multiplication on integers of unlimited size, overflowing into
- * {@link BigInteger}s as needed.
+ * {@link BigInteger}s as needed, and on doubles. See {@link NumericTower} for
+ * the handling of operands of different types.
  */
 public class Multiply extends BuiltinFunction {
     public static final Multiply INSTANCE = new Multiply();
@@ -22,10 +23,13 @@ public class Multiply extends BuiltinFunction {
 
     @Override
     public MethodHandle invoker(MethodType callSiteType) {
-        var type1 = callSiteType.parameterType(0);
-        var type2 = callSiteType.parameterType(1);
-        if (type1 == int.class && type2 == int.class) {
+        var operandType = NumericTower.operandType(callSiteType);
+        if (operandType == int.class) {
             return MULTIPLY_INT.asType(callSiteType);
+        } else if (operandType == long.class) {
+            return MULTIPLY_LONG.asType(callSiteType);
+        } else if (operandType == double.class) {
+            return MULTIPLY_DOUBLE.asType(callSiteType);
         } else {
             return MULTIPLY_GENERIC.asType(callSiteType);
         }
@@ -40,6 +44,19 @@ public class Multiply extends BuiltinFunction {
         }
     }
 
+    public static long multiply(long x, long y) {
+        try {
+            return Math.multiplyExact(x, y);
+        } catch (ArithmeticException e) {
+            var result = BigInteger.valueOf(x).multiply(BigInteger.valueOf(y));
+            throw SquarePegException.with(result);
+        }
+    }
+
+    public static double multiply(double x, double y) {
+        return x * y;
+    }
+
     public static Object multiply(Object x, Object y) {
         try {
             return Math.multiplyExact((Integer) x, (Integer) y);
@@ -49,34 +66,34 @@ public class Multiply extends BuiltinFunction {
     }
 
     private static Object generalMultiply(Object x, Object y) {
-        if (x instanceof Integer) {
-            if (y instanceof Integer) {
-                return BigInteger.valueOf((Integer) x).multiply(BigInteger.valueOf((Integer) y));
-            } else if (y instanceof BigInteger) {
-                return BigInteger.valueOf((Integer) x).multiply((BigInteger) y);
-            } else {
-                throw new IllegalArgumentException();
-            }
-        } else if (x instanceof BigInteger) {
-            if (y instanceof Integer) {
-                return ((BigInteger) x).multiply(BigInteger.valueOf((Integer) y));
-            } else if (y instanceof BigInteger) {
-                return ((BigInteger) x).multiply((BigInteger) y);
-            } else {
-                throw new IllegalArgumentException();
-            }
+        if (x instanceof Integer && y instanceof Integer) {
+            return BigInteger.valueOf((Integer) x).multiply(BigInteger.valueOf((Integer) y));
+        } else if (NumericTower.isAnyDouble(x, y)) {
+            return NumericTower.doubleValue(x) * NumericTower.doubleValue(y);
+        } else if (NumericTower.isAnyBigInteger(x, y)) {
+            return NumericTower.bigInteger(x).multiply(NumericTower.bigInteger(y));
         } else {
-            throw new IllegalArgumentException();
+            try {
+                return Math.multiplyExact(NumericTower.longValue(x), NumericTower.longValue(y));
+            } catch (ArithmeticException e) {
+                return NumericTower.bigInteger(x).multiply(NumericTower.bigInteger(y));
+            }
         }
     }
 
     private static final MethodHandle MULTIPLY_INT;
+    private static final MethodHandle MULTIPLY_LONG;
+    private static final MethodHandle MULTIPLY_DOUBLE;
     private static final MethodHandle MULTIPLY_GENERIC;
     static {
         var lookup = MethodHandles.lookup();
         try {
             MULTIPLY_INT = lookup.findStatic(Multiply.class, "multiply",
                 MethodType.methodType(int.class, int.class, int.class));
+            MULTIPLY_LONG = lookup.findStatic(Multiply.class, "multiply",
+                MethodType.methodType(long.class, long.class, long.class));
+            MULTIPLY_DOUBLE = lookup.findStatic(Multiply.class, "multiply",
+                MethodType.methodType(double.class, double.class, double.class));
             MULTIPLY_GENERIC = lookup.findStatic(Multiply.class, "multiply",
                 MethodType.methodType(Object.class, Object.class, Object.class));
         } catch (NoSuchMethodException | IllegalAccessException e) {
@@ -0,0 +1,79 @@
+// Copyright (c) 2018 Vassili Bykov. Licensed under the Apache License, Version 2.0.
+
+package com.github.vassilibykov.trifle.builtin;
+
+import org.jetbrains.annotations.Nullable;
+
+import java.lang.invoke.MethodType;
+import java.math.BigInteger;
+
+/**
+ * Operand promotion shared by the arithmetic builtins. Integers are {@code
+ * Integer}, {@code Long} or {@code BigInteger} values. An operation on
+ * integers produces an integer, overflowing into a {@code BigInteger} as
+ * needed. If either operand is a {@code Double}, the operation is performed
+ * on doubles.
+ */
+final class NumericTower {
+
+    private NumericTower() {}
+
+    /**
+     * Return the primitive type the operands of a binary operation at a call
+     * site of the specified type can be handled as: {@code int.class}, {@code
+     * long.class} or {@code double.class}. Return null if either of the
+     * operands is not of a primitive numeric type, or the result of the
+     * operation could not be converted to the return type of the call site.
+     */
+    @Nullable static Class<?> operandType(MethodType callSiteType) {
+        var type1 = callSiteType.parameterType(0);
+        var type2 = callSiteType.parameterType(1);
+        Class<?> operandType;
+        if (type1 == int.class && type2 == int.class) {
+            operandType = int.class;
+        } else if (isIntegral(type1) && isIntegral(type2)) {
+            operandType = long.class;
+        } else if ((isIntegral(type1) || type1 == double.class) && (isIntegral(type2) || type2 == double.class)) {
+            operandType = double.class;
+        } else {
+            return null;
+        }
+        return canReturn(operandType, callSiteType.returnType()) ? operandType : null;
+    }
+
+    private static boolean canReturn(Class<?> operandType, Class<?> returnType) {
+        return !returnType.isPrimitive()
+            || returnType == operandType
+            || returnType == double.class
+            || (returnType == long.class && operandType == int.class);
+    }
+
+    private static boolean isIntegral(Class<?> type) {
+        return type == int.class || type == long.class;
+    }
+
+    static boolean isAnyDouble(Object x, Object y) {
+        return x instanceof Double || y instanceof Double;
+    }
+
+    static boolean isAnyBigInteger(Object x, Object y) {
+        return x instanceof BigInteger || y instanceof BigInteger;
+    }
+
+    static long longValue(Object x) {
+        if (x instanceof Integer || x instanceof Long) return ((Number) x).longValue();
+        throw new IllegalArgumentException();
+    }
+
+    static double doubleValue(Object x) {
+        if (x instanceof Integer || x instanceof Long || x instanceof BigInteger || x instanceof Double) {
+            return ((Number) x).doubleValue();
+        }
+        throw new IllegalArgumentException();
+    }
+
+    static BigInteger bigInteger(Object x) {
+        if (x instanceof BigInteger) return (BigInteger) x;
+        return BigInteger.valueOf(longValue(x));
+    }
+}
@@ -11,7 +11,8 @@ import java.math.BigInteger;
 
 /**
  * Implements subtraction on integers of unlimited size, overflowing into
- * {@link BigInteger}s as needed.
+ * {@link BigInteger}s as needed, and on doubles. See {@link NumericTower} for
+ * the handling of operands of different types.
  */
 public class Subtract extends BuiltinFunction {
     public static final Subtract INSTANCE = new Subtract();
@@ -22,10 +23,13 @@ public class Subtract extends BuiltinFunction {
 
     @Override
     public MethodHandle invoker(MethodType callSiteType) {
-        var type1 = callSiteType.parameterType(0);
-        var type2 = callSiteType.parameterType(1);
-        if (type1 == int.class && type2 == int.class) {
+        var operandType = NumericTower.operandType(callSiteType);
+        if (operandType == int.class) {
             return SUBSTRACT_INT.asType(callSiteType);
+        } else if (operandType == long.class) {
+            return SUBSTRACT_LONG.asType(callSiteType);
+        } else if (operandType == double.class) {
+            return SUBSTRACT_DOUBLE.asType(callSiteType);
         } else {
             return SUBTRACT_GENERIC.asType(callSiteType);
         }
@@ -40,6 +44,19 @@ public class Subtract extends BuiltinFunction {
         }
     }
 
+    public static long subtract(long x, long y) {
+        try {
+            return Math.subtractExact(x, y);
+        } catch (ArithmeticException e) {
+            var result = BigInteger.valueOf(x).subtract(BigInteger.valueOf(y));
+            throw SquarePegException.with(result);
+        }
+    }
+
+    public static double subtract(double x, double y) {
+        return x - y;
+    }
+
     public static Object subtract(Object x, Object y) {
         try {
             return Math.subtractExact((Integer) x, (Integer) y);
@@ -49,34 +66,34 @@ public class Subtract extends BuiltinFunction {
     }
 
     private static Object generalSubstract(Object x, Object y) {
-        if (x instanceof Integer) {
-            if (y instanceof Integer) {
-                return BigInteger.valueOf((Integer) x).subtract(BigInteger.valueOf((Integer) y));
-            } else if (y instanceof BigInteger) {
-                return BigInteger.valueOf((Integer) x).subtract((BigInteger) y);
-            } else {
-                throw new IllegalArgumentException();
-            }
-        } else if (x instanceof BigInteger) {
-            if (y instanceof Integer) {
-                return ((BigInteger) x).subtract(BigInteger.valueOf((Integer) y));
-            } else if (y instanceof BigInteger) {
-                return ((BigInteger) x).subtract((BigInteger) y);
-            } else {
-                throw new IllegalArgumentException();
-            }
+        if (x instanceof Integer && y instanceof Integer) {
+            return BigInteger.valueOf((Integer) x).subtract(BigInteger.valueOf((Integer) y));
+        } else if (NumericTower.isAnyDouble(x, y)) {
+            return NumericTower.doubleValue(x) - NumericTower.doubleValue(y);
+        } else if (NumericTower.isAnyBigInteger(x, y)) {
+            return NumericTower.bigInteger(x).subtract(NumericTower.bigInteger(y));
         } else {
-            throw new IllegalArgumentException();
+            try {
+                return Math.subtractExact(NumericTower.longValue(x), NumericTower.longValue(y));
+            } catch (ArithmeticException e) {
+                return NumericTower.bigInteger(x).subtract(NumericTower.bigInteger(y));
+            }
         }
     }
 
     private static final MethodHandle SUBSTRACT_INT;
+    private static final MethodHandle SUBSTRACT_LONG;
+    private static final MethodHandle SUBSTRACT_DOUBLE;
     private static final MethodHandle SUBTRACT_GENERIC;
     static {
         var lookup = MethodHandles.lookup();
         try {
             SUBSTRACT_INT = lookup.findStatic(Subtract.class, "subtract",
                 MethodType.methodType(int.class, int.class, int.class));
+            SUBSTRACT_LONG = lookup.findStatic(Subtract.class, "subtract",
+                MethodType.methodType(long.class, long.class, long.class));
+            SUBSTRACT_DOUBLE = lookup.findStatic(Subtract.class, "subtract",
+                MethodType.methodType(double.class, double.class, double.class));
             SUBTRACT_GENERIC = lookup.findStatic(Subtract.class, "subtract",
                 MethodType.methodType(Object.class, Object.class, Object.class));
         } catch (NoSuchMethodException | IllegalAccessException e) {
@@ -0,0 +1,441 @@
+// Copyright (c) 2018 Vassili Bykov. Licensed under the Apache License, Version 2.0.
+
+package com.github.vassilibykov.trifle.core;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * A compact encoding of the A-code of a function (see {@link
+ * RecoveryCodeGenerator}) executed by {@link ACodeInterpreter}. The code is an
+ * {@code int[]} array of opcodes, each followed by its operands. Objects
+ * referenced by the code, such as constants and primitive implementations,
+ * are stored in a separate array and referenced by their indices.
+ *
+ * <p>The single register of A-code becomes the top of a value stack.
+ * Atomic expressions of {@code load} and {@code branch} instructions, which
+ * in A-code retain their tree form, are flattened into stack operations, so
+ * that the tree is not walked during execution. The stack is kept in the
+ * frame, above the function's locals. As in the tree interpreter, a slot of
+ * the frame or the stack may hold {@link AbstractVariable#IN_INT_LANE}, with
+ * the actual value in the int lane of the frame.
+ *
+ * <p>Every instruction costs a dispatch through the switch of the interpreter,
+ * so some common sequences are fused into one instruction: the loads of the
+ * two local arguments of a primitive ({@link #LOAD2}), a comparison and the
+ * branch testing it ({@link #PRIMITIVE2_BRANCH_IF_TRUE}), and the jump back to
+ * the head of a loop and the check for its compiled entry ({@link #LOOP}).
+ */
+final class ACode {
+    /** {@code CONST k} - push {@code operands[k]}. */
+    static final int CONST = 0;
+    /** {@code LOAD i} - push the value of the unboxed local {@code i}. */
+    static final int LOAD = 1;
+    /** {@code LOAD2 i j} - push the values of the unboxed locals {@code i} and {@code j}. */
+    static final int LOAD2 = 2;
+    /** {@code LOAD_BOXED i} - push the value of the boxed local {@code i}. */
+    static final int LOAD_BOXED = 3;
+    /** {@code STORE i} - pop the value into the unboxed local {@code i}. */
+    static final int STORE = 4;
+    /** {@code STORE_BOXED i} - pop the value into a new box in local {@code i}. */
+    static final int STORE_BOXED = 5;
+    /** {@code COPY i} - store the top value into the unboxed local {@code i} without popping it. */
+    static final int COPY = 6;
+    /** {@code COPY_BOXED i} - store the top value into the box in local {@code i} without popping it. */
+    static final int COPY_BOXED = 7;
+    /** {@code DROP} - pop the value. */
+    static final int DROP = 8;
+    /** {@code PRIMITIVE1 k} - apply the primitive {@code operands[k]} to the top value. */
+    static final int PRIMITIVE1 = 9;
+    /**
+     * {@code INT_PRIMITIVE1 k box} - apply the {@linkplain
+     * com.github.vassilibykov.trifle.primitive.Primitive1#isIntOperation() int
+     * primitive} {@code operands[k]} to the top value. If {@code box} is 0, an
+     * {@code int} result is left in the int lane.
+     */
+    static final int INT_PRIMITIVE1 = 10;
+    /** {@code PRIMITIVE2 k} - apply the primitive {@code operands[k]} to the top two values. */
+    static final int PRIMITIVE2 = 11;
+    /** {@code INT_PRIMITIVE2 k box} - the binary analog of {@link #INT_PRIMITIVE1}. */
+    static final int INT_PRIMITIVE2 = 12;
+    /** {@code CALL k n} - call the free function {@code operands[k]} with the top {@code n} values. */
+    static final int CALL = 13;
+    /**
+     * {@code CALL_USER k n} - call the function implementation {@code
+     * operands[k]} of a user function, which has no copied values, with the
+     * top {@code n} values through its core call site.
+     */
+    static final int CALL_USER = 14;
+    /** {@code CALL_VALUE n} - call the value below the top {@code n} values with them as arguments. */
+    static final int CALL_VALUE = 15;
+    /** {@code CLOSURE k} - push a new closure of the closure node {@code operands[k]}. */
+    static final int CLOSURE = 16;
+    /** {@code EVALUATE k} - push the value of the node {@code operands[k]} computed by the tree interpreter. */
+    static final int EVALUATE = 17;
+    /** {@code BRANCH_IF_TRUE a} - pop a boolean and jump to {@code a} if it's true. */
+    static final int BRANCH_IF_TRUE = 18;
+    /** {@code BRANCH_IF_FALSE a} - pop a boolean and jump to {@code a} if it's false. */
+    static final int BRANCH_IF_FALSE = 19;
+    /**
+     * {@code PRIMITIVE2_BRANCH_IF_TRUE k a} - apply the primitive {@code
+     * operands[k]} to the top two values, pop them, and jump to {@code a} if
+     * the result is true. A {@link #PRIMITIVE2} fused with the branch testing
+     * its result, typically a comparison at the head of a loop.
+     */
+    static final int PRIMITIVE2_BRANCH_IF_TRUE = 20;
+    /** {@code PRIMITIVE2_BRANCH_IF_FALSE k a} - the analog of {@link #PRIMITIVE2_BRANCH_IF_TRUE}. */
+    static final int PRIMITIVE2_BRANCH_IF_FALSE = 21;
+    /** {@code GOTO a} - jump to {@code a}. */
+    static final int GOTO = 22;
+    /**
+     * {@code LOOP k a} - at the end of an iteration of the loop {@code
+     * operands[k]}, continue in compiled code if the loop has a compiled
+     * entry, with the top value as the loop value. Otherwise, jump to the head
+     * of the loop at {@code a}. The jump back to the head, fused with the check
+     * the tree interpreter also makes after each iteration.
+     */
+    static final int LOOP = 23;
+    /** {@code RETURN} - return the top value from the function. */
+    static final int RETURN = 24;
+
+    static ACode of(FunctionImplementation function) {
+        var acode = RecoveryCodeGenerator.EvaluatorNodeToACodeTranslator.translateFunction(function.body());
+        return new Encoder(acode).encode();
+    }
+
+    /*
+        Instance
+     */
+
+    final int[] code;
+    final Object[] operands;
+    /** The maximum number of values on the stack. */
+    final int maxStackDepth;
+
+    private ACode(int[] code, Object[] operands, int maxStackDepth) {
+        this.code = code;
+        this.operands = operands;
+        this.maxStackDepth = maxStackDepth;
+    }
+
+    /**
+     * Flattens A-code instructions and their atomic expressions into an
+     * {@link ACode}.
+     */
+    private static class Encoder implements EvaluatorNode.Visitor<Void> {
+        private final RecoveryCodeGenerator.Instruction[] acode;
+        private int[] code = new int[32];
+        private int pc = 0;
+        private final List<Object> operands = new ArrayList<>();
+        private final Map<RecoveryCodeGenerator.Instruction, Integer> addresses = new HashMap<>();
+        /** Locations of jump operands, with the instructions they jump to. */
+        private final Map<Integer, RecoveryCodeGenerator.Instruction> jumps = new HashMap<>();
+        /** Whether the atomic expression being encoded may leave an int in the int lane. */
+        private boolean mayLeaveUnboxed;
+        private int depth = 0;
+        private int maxDepth = 0;
+
+        Encoder(RecoveryCodeGenerator.Instruction[] acode) {
+            this.acode = acode;
+        }
+
+        ACode encode() {
+            var depths = stackDepths();
+            var jumpTargets = jumpTargets();
+            for (int i = 0; i < acode.length; i++) {
+                var instruction = acode[i];
+                addresses.put(instruction, pc);
+                depth = depths[i];
+                if (instruction instanceof RecoveryCodeGenerator.Load) {
+                    var next = i + 1 < acode.length ? acode[i + 1] : null;
+                    mayLeaveUnboxed = next instanceof RecoveryCodeGenerator.Store // includes Copy
+                        || next instanceof RecoveryCodeGenerator.Drop;
+                    ((RecoveryCodeGenerator.Load) instruction).expression.accept(this);
+                } else if (instruction instanceof RecoveryCodeGenerator.Copy) {
+                    var variable = ((RecoveryCodeGenerator.Copy) instruction).variable;
+                    var next = i + 1 < acode.length ? acode[i + 1] : null;
+                    if (!variable.isBoxed()
+                        && next instanceof RecoveryCodeGenerator.Drop
+                        && !jumpTargets.contains(next))
+                    {
+                        // A set whose value is not used: fuse copy+drop into a store.
+                        emit(STORE, variable.index());
+                        i++;
+                    } else {
+                        emit(variable.isBoxed() ? COPY_BOXED : COPY, variable.index());
+                    }
+                } else if (instruction instanceof RecoveryCodeGenerator.Store) {
+                    var variable = ((RecoveryCodeGenerator.Store) instruction).variable;
+                    emit(variable.isBoxed() ? STORE_BOXED : STORE, variable.index());
+                } else if (instruction instanceof RecoveryCodeGenerator.Drop) {
+                    emit(DROP);
+                } else if (instruction instanceof RecoveryCodeGenerator.Branch) {
+                    var branch = (RecoveryCodeGenerator.Branch) instruction;
+                    if (branch.test instanceof Primitive2Node && !((Primitive2Node) branch.test).isIntOperation) {
+                        // A test of a comparison: fuse the primitive and the branch.
+                        var test = (Primitive2Node) branch.test;
+                        encodeArguments(test);
+                        emit(branch.branchesOnTrue ? PRIMITIVE2_BRANCH_IF_TRUE : PRIMITIVE2_BRANCH_IF_FALSE,
+                            operand(test.implementation()), 0);
+                    } else {
+                        mayLeaveUnboxed = true;
+                        branch.test.accept(this);
+                        emit(branch.branchesOnTrue ? BRANCH_IF_TRUE : BRANCH_IF_FALSE, 0);
+                    }
+                    jumps.put(pc - 1, branch.target);
+                } else if (instruction instanceof RecoveryCodeGenerator.Goto) {
+                    var target = ((RecoveryCodeGenerator.Goto) instruction).target;
+                    var loop = target instanceof RecoveryCodeGenerator.Branch ? ((RecoveryCodeGenerator.Branch) target).loop : null;
+                    if (loop != null) {
+                        emit(LOOP, operand(loop), 0);
+                    } else {
+                        emit(GOTO, 0);
+                    }
+                    jumps.put(pc - 1, target);
+                } else if (instruction instanceof RecoveryCodeGenerator.Return) {
+                    emit(RETURN);
+                } else {
+                    throw new AssertionError("unexpected instruction: " + instruction);
+                }
+            }
+            jumps.forEach((location, target) -> code[location] = addresses.get(target));
+            return new ACode(Arrays.copyOf(code, pc), operands.toArray(), maxDepth);
+        }
+
+        /**
+         * Compute the stack depth on entry into each instruction. Instructions
+         * other than {@code load} and {@code branch} do not evaluate anything,
+         * so the depth of the stack of A-code is the depth of its register.
+         */
+        private int[] stackDepths() {
+            var depths = new int[acode.length];
+            Arrays.fill(depths, -1);
+            var pathways = new ArrayList<Integer>();
+            pathways.add(0);
+            depths[0] = 0;
+            var indices = new HashMap<RecoveryCodeGenerator.Instruction, Integer>();
+            for (int i = 0; i < acode.length; i++) indices.put(acode[i], i);
+            while (!pathways.isEmpty()) {
+                int i = pathways.remove(pathways.size() - 1);
+                int depth = depths[i];
+                var instruction = acode[i];
+                if (instruction instanceof RecoveryCodeGenerator.Load) {
+                    depth++;
+                } else if (instruction instanceof RecoveryCodeGenerator.Copy) {
+                    // no change
+                } else if (instruction instanceof RecoveryCodeGenerator.Store
+                    || instruction instanceof RecoveryCodeGenerator.Drop)
+                {
+                    depth--;
+                } else if (instruction instanceof RecoveryCodeGenerator.Return) {
+                    continue;
+                } else if (instruction instanceof RecoveryCodeGenerator.Goto) {
+                    propagate(depths, indices.get(((RecoveryCodeGenerator.Goto) instruction).target), depth, pathways);
+                    continue;
+                } else if (instruction instanceof RecoveryCodeGenerator.Branch) {
+                    propagate(depths, indices.get(((RecoveryCodeGenerator.Branch) instruction).target), depth, pathways);
+                }
+                if (i + 1 < acode.length) propagate(depths, i + 1, depth, pathways);
+            }
+            return depths;
+        }
+
+        private Set<RecoveryCodeGenerator.Instruction> jumpTargets() {
+            var targets = new HashSet<RecoveryCodeGenerator.Instruction>();
+            for (var instruction : acode) {
+                if (instruction instanceof RecoveryCodeGenerator.JumpInstruction) {
+                    targets.add(((RecoveryCodeGenerator.JumpInstruction) instruction).target);
+                }
+            }
+            return targets;
+        }
+
+        private static void propagate(int[] depths, int index, int depth, List<Integer> pathways) {
+            if (depths[index] < 0) {
+                depths[index] = depth;
+                pathways.add(index);
+            }
+        }
+
+        private void emit(int... words) {
+            if (pc + words.length > code.length) code = Arrays.copyOf(code, code.length * 2);
+            System.arraycopy(words, 0, code, pc, words.length);
+            pc += words.length;
+        }
+
+        private int operand(Object object) {
+            operands.add(object);
+            return operands.size() - 1;
+        }
+
+        private void push() {
+            depth++;
+            maxDepth = Math.max(maxDepth, depth);
+        }
+
+        private void pop(int count) {
+            depth -= count;
+        }
+
+        /**
+         * Encode an atomic subexpression whose value may be left in the int
+         * lane. The flag is restored for the rest of the containing expression.
+         */
+        private void encodeOperand(EvaluatorNode node, boolean mayLeaveUnboxed) {
+            var saved = this.mayLeaveUnboxed;
+            this.mayLeaveUnboxed = mayLeaveUnboxed;
+            node.accept(this);
+            this.mayLeaveUnboxed = saved;
+        }
+
+        @Override
+        public Void visitCall(CallNode call) {
+            var dispatcher = call.dispatcher();
+            var arity = call.arity();
+            if (dispatcher instanceof FreeFunctionCallDispatcher) {
+                for (int i = 0; i < arity; i++) encodeOperand(call.argument(i), false);
+                var target = ((FreeFunctionCallDispatcher) dispatcher).target();
+                var implementation = target instanceof UserFunction ? ((UserFunction) target).implementation() : null;
+                if (implementation != null && implementation.declarationArity() == arity) {
+                    emit(CALL_USER, operand(implementation), arity);
+                } else {
+                    emit(CALL, operand(target), arity);
+                }
+                pop(arity);
+            } else if (dispatcher instanceof ExpressionCallDispatcher) {
+                encodeOperand(dispatcher.asEvaluatorNode().get(), false);
+                for (int i = 0; i < arity; i++) encodeOperand(call.argument(i), false);
+                emit(CALL_VALUE, arity);
+                pop(arity + 1);
+            } else {
+                emit(EVALUATE, operand(call));
+            }
+            push();
+            return null;
+        }
+
+        @Override
+        public Void visitClosure(ClosureNode closure) {
+            emit(CLOSURE, operand(closure));
+            push();
+            return null;
+        }
+
+        @Override
+        public Void visitConstant(ConstantNode aConst) {
+            emit(CONST, operand(aConst.value()));
+            push();
+            return null;
+        }
+
+        @Override
+        public Void visitFreeFunctionReference(FreeFunctionReferenceNode reference) {
+            emit(CONST, operand(reference.target()));
+            push();
+            return null;
+        }
+
+        @Override
+        public Void visitGetVar(GetVariableNode varRef) {
+            var variable = varRef.variable();
+            emit(variable.isBoxed() ? LOAD_BOXED : LOAD, variable.index());
+            push();
+            return null;
+        }
+
+        @Override
+        public Void visitPrimitive1(Primitive1Node primitive) {
+            var leaveUnboxed = mayLeaveUnboxed;
+            encodeOperand(primitive.argument(), true);
+            var implementation = operand(primitive.implementation());
+            if (primitive.isIntOperation) {
+                emit(INT_PRIMITIVE1, implementation, leaveUnboxed ? 0 : 1);
+            } else {
+                emit(PRIMITIVE1, implementation);
+            }
+            return null;
+        }
+
+        /**
+         * Encode the arguments of the primitive, both of which may be left in
+         * the int lane. Two reads of unboxed locals are fused into a {@code
+         * LOAD2}.
+         */
+        private void encodeArguments(Primitive2Node primitive) {
+            var local1 = unboxedLocalIndex(primitive.argument1());
+            var local2 = unboxedLocalIndex(primitive.argument2());
+            if (local1 >= 0 && local2 >= 0) {
+                emit(LOAD2, local1, local2);
+                push();
+                push();
+            } else {
+                encodeOperand(primitive.argument1(), true);
+                encodeOperand(primitive.argument2(), true);
+            }
+        }
+
+        /**
+         * Return the index of the unboxed local the node reads, or -1 if it
+         * isn't a read of an unboxed local.
+         */
+        private static int unboxedLocalIndex(EvaluatorNode node) {
+            if (!(node instanceof GetVariableNode)) return -1;
+            var variable = ((GetVariableNode) node).variable();
+            return variable.isBoxed() ? -1 : variable.index();
+        }
+
+        @Override
+        public Void visitPrimitive2(Primitive2Node primitive) {
+            var leaveUnboxed = mayLeaveUnboxed;
+            encodeArguments(primitive);
+            var implementation = operand(primitive.implementation());
+            if (primitive.isIntOperation) {
+                emit(INT_PRIMITIVE2, implementation, leaveUnboxed ? 0 : 1);
+            } else {
+                emit(PRIMITIVE2, implementation);
+            }
+            pop(1);
+            return null;
+        }
+
+        /*
+            Complex expressions are translated into A-code instructions and
+            never appear as atomic expressions.
+         */
+
+        @Override
+        public Void visitBlock(BlockNode block) {
+            throw new AssertionError("not an atomic expression: " + block);
+        }
+
+        @Override
+        public Void visitIf(IfNode anIf) {
+            throw new AssertionError("not an atomic expression: " + anIf);
+        }
+
+        @Override
+        public Void visitLet(LetNode let) {
+            throw new AssertionError("not an atomic expression: " + let);
+        }
+
+        @Override
+        public Void visitReturn(ReturnNode ret) {
+            throw new AssertionError("not an atomic expression: " + ret);
+        }
+
+        @Override
+        public Void visitSetVar(SetVariableNode set) {
+            throw new AssertionError("not an atomic expression: " + set);
+        }
+
+        @Override
+        public Void visitWhile(WhileNode whileNode) {
+            throw new AssertionError("not an atomic expression: " + whileNode);
+        }
+    }
+}
@@ -0,0 +1,381 @@
+// Copyright (c) 2018 Vassili Bykov. Licensed under the Apache License, Version 2.0.
+
+package com.github.vassilibykov.trifle.core;
+
+import com.github.vassilibykov.trifle.primitive.Primitive1;
+import com.github.vassilibykov.trifle.primitive.Primitive2;
+import org.jetbrains.annotations.Nullable;
+
+import java.lang.invoke.MethodHandle;
+
+import static com.github.vassilibykov.trifle.core.ACode.*;
+import static com.github.vassilibykov.trifle.core.AbstractVariable.IN_INT_LANE;
+
+/**
+ * An interpreter executing the {@link ACode} of a function with a single
+ * switch-dispatch loop, instead of walking the tree of {@link EvaluatorNode}s
+ * with a visitor. It does not profile. It runs functions while they are being
+ * compiled if the {@code trifle.acodeInterpreter} system property is true.
+ */
+public class ACodeInterpreter extends Interpreter {
+    public static final ACodeInterpreter INSTANCE = new ACodeInterpreter();
+
+    @Override
+    public Object interpret(FunctionImplementation function, Object[] args) {
+        var acode = function.acode();
+        var frame = new Object[function.frameSize() + acode.maxStackDepth];
+        var allParameters = function.allParameters();
+        for (int i = 0; i < args.length; i++) {
+            allParameters[i].setupArgumentIn(frame, args[i]);
+        }
+        return execute(function, acode, frame);
+    }
+
+    private static Object execute(FunctionImplementation function, ACode acode, Object[] frame) {
+        final int[] code = acode.code;
+        final Object[] operands = acode.operands;
+        int[] ints = null; // the int lane, allocated when first needed
+        int sp = function.frameSize(); // the index of the first free stack slot
+        int pc = 0;
+        while (true) {
+            switch (code[pc]) {
+                case CONST:
+                    frame[sp++] = operands[code[pc + 1]];
+                    pc += 2;
+                    break;
+                case LOAD: {
+                    var index = code[pc + 1];
+                    var value = frame[index];
+                    if (value == IN_INT_LANE) ints[sp] = ints[index];
+                    frame[sp++] = value;
+                    pc += 2;
+                    break;
+                }
+                case LOAD2: {
+                    var index1 = code[pc + 1];
+                    var index2 = code[pc + 2];
+                    var value1 = frame[index1];
+                    var value2 = frame[index2];
+                    if (value1 == IN_INT_LANE) ints[sp] = ints[index1];
+                    if (value2 == IN_INT_LANE) ints[sp + 1] = ints[index2];
+                    frame[sp] = value1;
+                    frame[sp + 1] = value2;
+                    sp += 2;
+                    pc += 3;
+                    break;
+                }
+                case STORE: {
+                    var index = code[pc + 1];
+                    var value = frame[--sp];
+                    if (value == IN_INT_LANE) ints[index] = ints[sp];
+                    frame[index] = value;
+                    pc += 2;
+                    break;
+                }
+                case COPY: {
+                    var index = code[pc + 1];
+                    var value = frame[sp - 1];
+                    if (value == IN_INT_LANE) ints[index] = ints[sp - 1];
+                    frame[index] = value;
+                    pc += 2;
+                    break;
+                }
+                case DROP:
+                    frame[--sp] = null;
+                    pc++;
+                    break;
+                case INT_PRIMITIVE1: {
+                    var primitive = (Primitive1) operands[code[pc + 1]];
+                    var argument = frame[sp - 1];
+                    if (argument == IN_INT_LANE || argument instanceof Integer) {
+                        var result = primitive.applyToInt(argument == IN_INT_LANE ? ints[sp - 1] : (Integer) argument);
+                        if (code[pc + 2] == 0) {
+                            if (ints == null) ints = new int[frame.length];
+                            ints[sp - 1] = result;
+                            frame[sp - 1] = IN_INT_LANE;
+                        } else {
+                            frame[sp - 1] = result;
+                        }
+                    } else {
+                        frame[sp - 1] = primitive.apply(argument);
+                    }
+                    pc += 3;
+                    break;
+                }
+                case PRIMITIVE2: {
+                    var result = apply((Primitive2) operands[code[pc + 1]], frame, ints, sp - 2);
+                    frame[--sp] = null;
+                    frame[sp - 1] = result;
+                    pc += 2;
+                    break;
+                }
+                case INT_PRIMITIVE2: {
+                    var primitive = (Primitive2) operands[code[pc + 1]];
+                    if (isInt(frame[sp - 2]) && isInt(frame[sp - 1])) {
+                        var result = primitive.applyToInts(intAt(frame, ints, sp - 2), intAt(frame, ints, sp - 1));
+                        frame[--sp] = null;
+                        if (code[pc + 2] == 0) {
+                            if (ints == null) ints = new int[frame.length];
+                            ints[sp - 1] = result;
+                            frame[sp - 1] = IN_INT_LANE;
+                        } else {
+                            frame[sp - 1] = result;
+                        }
+                    } else {
+                        var result = primitive.apply(boxedAt(frame, ints, sp - 2), boxedAt(frame, ints, sp - 1));
+                        frame[--sp] = null;
+                        frame[sp - 1] = result;
+                    }
+                    pc += 3;
+                    break;
+                }
+                case CALL: {
+                    var target = (FreeFunction) operands[code[pc + 1]];
+                    var arity = code[pc + 2];
+                    sp -= arity;
+                    frame[sp] = invoke(target, frame, ints, sp, arity);
+                    sp++;
+                    pc += 3;
+                    break;
+                }
+                case CALL_USER: {
+                    var target = (FunctionImplementation) operands[code[pc + 1]];
+                    var arity = code[pc + 2];
+                    sp -= arity;
+                    frame[sp] = invokeExact(target, frame, ints, sp, arity);
+                    sp++;
+                    pc += 3;
+                    break;
+                }
+                case CALL_VALUE: {
+                    var arity = code[pc + 1];
+                    sp -= arity + 1;
+                    Invocable target;
+                    try {
+                        target = (Invocable) frame[sp];
+                    } catch (ClassCastException e) {
+                        throw RuntimeError.message("closure expected");
+                    }
+                    frame[sp] = invoke(target, frame, ints, sp + 1, arity);
+                    sp++;
+                    pc += 2;
+                    break;
+                }
+                case BRANCH_IF_TRUE:
+                    pc = booleanAt(frame, ints, --sp) ? code[pc + 1] : pc + 2;
+                    break;
+                case BRANCH_IF_FALSE:
+                    pc = booleanAt(frame, ints, --sp) ? pc + 2 : code[pc + 1];
+                    break;
+                case PRIMITIVE2_BRANCH_IF_TRUE:
+                    sp -= 2;
+                    pc = test((Primitive2) operands[code[pc + 1]], frame, ints, sp) ? code[pc + 2] : pc + 3;
+                    break;
+                case PRIMITIVE2_BRANCH_IF_FALSE:
+                    sp -= 2;
+                    pc = test((Primitive2) operands[code[pc + 1]], frame, ints, sp) ? pc + 3 : code[pc + 2];
+                    break;
+                case GOTO:
+                    pc = code[pc + 1];
+                    break;
+                case LOOP: {
+                    var loopEntry = ((WhileNode) operands[code[pc + 1]]).loopEntry;
+                    if (loopEntry != null) return enterCompiledLoop(loopEntry, function, frame, ints, sp);
+                    pc = code[pc + 2];
+                    break;
+                }
+                case RETURN:
+                    return boxedAt(frame, ints, sp - 1);
+                default:
+                    sp = executeCold(function, code, operands, pc, frame, ints, sp);
+                    pc += 2;
+            }
+        }
+    }
+
+    /**
+     * Execute an instruction of one of the opcodes {@link #execute} leaves to
+     * its {@code default} case, and return the new stack pointer. These are
+     * the instructions which are rare in hot code. Keeping them out of the
+     * main loop keeps it small enough for the JIT to compile consistently.
+     * All of them have a single operand, and none of them allocates the int
+     * lane.
+     */
+    private static int executeCold(FunctionImplementation function, int[] code, Object[] operands, int pc, Object[] frame, @Nullable int[] ints, int sp) {
+        switch (code[pc]) {
+            case LOAD_BOXED:
+                frame[sp] = ((Box) frame[code[pc + 1]]).valueAsReference();
+                return sp + 1;
+            case STORE_BOXED: {
+                var value = frame[--sp];
+                frame[code[pc + 1]] = value == IN_INT_LANE ? Box.with(ints[sp]) : Box.with(value);
+                return sp;
+            }
+            case COPY_BOXED: {
+                var box = (Box) frame[code[pc + 1]];
+                var value = frame[sp - 1];
+                if (value == IN_INT_LANE) {
+                    box.setValue(ints[sp - 1]);
+                } else {
+                    box.setValue(value);
+                }
+                return sp;
+            }
+            case PRIMITIVE1: {
+                var primitive = (Primitive1) operands[code[pc + 1]];
+                var argument = frame[sp - 1];
+                frame[sp - 1] = argument == IN_INT_LANE
+                    ? primitive.apply(ints[sp - 1])
+                    : primitive.apply(argument);
+                return sp;
+            }
+            case CLOSURE: {
+                var closure = (ClosureNode) operands[code[pc + 1]];
+                int[] indicesToCopy = closure.copiedVariableIndices;
+                var copies = new Object[indicesToCopy.length];
+                for (int i = 0; i < copies.length; i++) copies[i] = boxedAt(frame, ints, indicesToCopy[i]);
+                frame[sp] = Closure.create(closure.function(), copies);
+                return sp + 1;
+            }
+            case EVALUATE:
+                frame[sp] = evaluator().evaluateAtomic((EvaluatorNode) operands[code[pc + 1]], function, frame, ints);
+                return sp + 1;
+            default:
+                throw new AssertionError("invalid opcode " + code[pc] + " at " + pc);
+        }
+    }
+
+    /**
+     * Continue executing the function in compiled code from the head of the
+     * loop whose entry is specified, with the top value as the loop value,
+     * and return the value the compiled code produced.
+     */
+    private static Object enterCompiledLoop(MethodHandle loopEntry, FunctionImplementation function, Object[] frame, @Nullable int[] ints, int sp) {
+        var loopValue = boxedAt(frame, ints, sp - 1);
+        if (ints != null) {
+            // compiled code only sees the reference lane
+            for (int i = 0; i < function.frameSize(); i++) {
+                if (frame[i] == IN_INT_LANE) frame[i] = ints[i];
+            }
+        }
+        try {
+            return loopEntry.invokeExact(frame, loopValue);
+        } catch (RuntimeException | Error e) {
+            throw e;
+        } catch (Throwable e) {
+            throw new AssertionError(e);
+        }
+    }
+
+    private static Object invoke(Invocable target, Object[] frame, @Nullable int[] ints, int start, int arity) {
+        switch (arity) {
+            case 0:
+                return target.invoke();
+            case 1:
+                return target.invoke(boxedAt(frame, ints, start));
+            case 2:
+                return target.invoke(boxedAt(frame, ints, start), boxedAt(frame, ints, start + 1));
+            case 3:
+                return target.invoke(
+                    boxedAt(frame, ints, start),
+                    boxedAt(frame, ints, start + 1),
+                    boxedAt(frame, ints, start + 2));
+            case 4:
+                return target.invoke(
+                    boxedAt(frame, ints, start),
+                    boxedAt(frame, ints, start + 1),
+                    boxedAt(frame, ints, start + 2),
+                    boxedAt(frame, ints, start + 3));
+            default:
+                var arguments = new Object[arity];
+                for (int i = 0; i < arity; i++) arguments[i] = boxedAt(frame, ints, start + i);
+                return target.invokeWithArguments(arguments);
+        }
+    }
+
+    /**
+     * Invoke the core call site of a function with no copied values with the
+     * arguments on the stack.
+     */
+    private static Object invokeExact(FunctionImplementation callee, Object[] frame, @Nullable int[] ints, int start, int arity) {
+        var invoker = callee.callSiteInvoker();
+        try {
+            switch (arity) {
+                case 0:
+                    return invoker.invokeExact();
+                case 1:
+                    return invoker.invokeExact(boxedAt(frame, ints, start));
+                case 2:
+                    return invoker.invokeExact(boxedAt(frame, ints, start), boxedAt(frame, ints, start + 1));
+                case 3:
+                    return invoker.invokeExact(
+                        boxedAt(frame, ints, start),
+                        boxedAt(frame, ints, start + 1),
+                        boxedAt(frame, ints, start + 2));
+                case 4:
+                    return invoker.invokeExact(
+                        boxedAt(frame, ints, start),
+                        boxedAt(frame, ints, start + 1),
+                        boxedAt(frame, ints, start + 2),
+                        boxedAt(frame, ints, start + 3));
+                default:
+                    var arguments = new Object[arity];
+                    for (int i = 0; i < arity; i++) arguments[i] = boxedAt(frame, ints, start + i);
+                    return callee.spreadInvoker().invokeExact(arguments);
+            }
+        } catch (Throwable e) {
+            return CallNode.invocationFailure(e);
+        }
+    }
+
+    /**
+     * Apply the primitive to the two values on the stack starting at the
+     * index. The values are left on the stack.
+     */
+    private static Object apply(Primitive2 primitive, Object[] frame, @Nullable int[] ints, int index) {
+        if (isInt(frame[index]) && isInt(frame[index + 1])) {
+            return primitive.apply(intAt(frame, ints, index), intAt(frame, ints, index + 1));
+        } else {
+            return primitive.apply(boxedAt(frame, ints, index), boxedAt(frame, ints, index + 1));
+        }
+    }
+
+    /**
+     * Apply the primitive to the two values on the stack starting at the
+     * index, clear them, and return the result as a boolean.
+     */
+    private static boolean test(Primitive2 primitive, Object[] frame, @Nullable int[] ints, int index) {
+        var result = apply(primitive, frame, ints, index);
+        frame[index] = null;
+        frame[index + 1] = null;
+        try {
+            return (Boolean) result;
+        } catch (ClassCastException e) {
+            throw RuntimeError.booleanExpected(result);
+        }
+    }
+
+    private static boolean isInt(Object value) {
+        return value == IN_INT_LANE || value instanceof Integer;
+    }
+
+    private static int intAt(Object[] frame, @Nullable int[] ints, int index) {
+        var value = frame[index];
+        return value == IN_INT_LANE ? ints[index] : (Integer) value;
+    }
+
+    private static Object boxedAt(Object[] frame, @Nullable int[] ints, int index) {
+        var value = frame[index];
+        return value == IN_INT_LANE ? (Object) ints[index] : value;
+    }
+
+    private static boolean booleanAt(Object[] frame, @Nullable int[] ints, int index) {
+        var value = boxedAt(frame, ints, index);
+        frame[index] = null;
+        try {
+            return (Boolean) value;
+        } catch (ClassCastException e) {
+            throw RuntimeError.booleanExpected(value);
+        }
+    }
+}
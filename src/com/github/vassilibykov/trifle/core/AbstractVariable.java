@@ -5,6 +5,14 @@ package com.github.vassilibykov.trifle.core;
 import org.jetbrains.annotations.NotNull;
 
 abstract class AbstractVariable {
+    /**
+     * Stored in the frame as the value of a variable whose value is in the
+     * {@code int} lane of the frame. The interpreters keep {@code int} values
+     * of variables in that lane so that they don't need to box them. The lane
+     * is an {@code int[]} array parallel to the frame.
+     */
+    static final Object IN_INT_LANE = new Object();
+
     @NotNull protected final FunctionImplementation hostFunction;
     protected boolean isBoxed = false;
     /*internal*/ int index = -1;
@@ -20,6 +28,15 @@ abstract class AbstractVariable {
         return index;
     }
 
+    /**
+     * The JVM local variable slot of this variable in the method being
+     * generated. Differs from {@link #index()} if the frame contains {@code
+     * long} or {@code double} values, which take two slots.
+     */
+    public int slot() {
+        return hostFunction.localSlot(index);
+    }
+
     /**
      * The function in which the variable is defined, as an argument or as a let-bound
      * variable. {@link #index()} is only meaningful in the frame of this function.
@@ -85,5 +102,36 @@ abstract class AbstractVariable {
         }
     }
 
+    /**
+     * Get the value of the variable from a frame with an int lane, boxing the
+     * value if it is in the lane.
+     */
+    Object getValueIn(Object[] frame, int[] intFrame) {
+        var value = getValueIn(frame);
+        return value == IN_INT_LANE ? (Object) intFrame[index] : value;
+    }
+
+    /**
+     * Initialize the variable in a frame with an int lane. A boxed variable
+     * keeps the value in its box, which has its own {@code int} field.
+     */
+    void initIntValueIn(Object[] frame, int[] intFrame, int value) {
+        if (isBoxed) {
+            frame[index] = Box.with(value);
+        } else {
+            frame[index] = IN_INT_LANE;
+            intFrame[index] = value;
+        }
+    }
+
+    void setIntValueIn(Object[] frame, int[] intFrame, int value) {
+        if (isBoxed) {
+            ((Box) frame[index]).setValue(value);
+        } else {
+            frame[index] = IN_INT_LANE;
+            intFrame[index] = value;
+        }
+    }
+
     abstract void setupArgumentIn(Object[] frame, Object value);
 }
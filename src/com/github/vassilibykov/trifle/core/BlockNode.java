@@ -24,6 +24,11 @@ class BlockNode extends EvaluatorNode {
         return visitor.visitBlock(this);
     }
 
+    @Override
+    Object evaluateUnboxed(Interpreter.Evaluator evaluator) {
+        return evaluator.evaluateBlock(this);
+    }
+
     @Override
     public String toString() {
         return "(block [" + expressions.length + "])";
@@ -2,9 +2,18 @@
 
 package com.github.vassilibykov.trifle.core;
 
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+
 /**
  * Part of the closures implementation. Holds the value of a variable (local or
  * a function parameter) which is mutable and has non-local references.
+ *
+ * <p>A box is not locked. An {@code int} value is stored by writing {@link
+ * #intValue} and then releasing {@link #NO_VALUE} into {@link
+ * #referenceValue}. A reader acquires the reference value first and only then
+ * reads the int. A read therefore returns a value stored by some write, never
+ * a mix of two.
  */
 class Box {
     static final String SET_VALUE = "setValue";
@@ -27,33 +36,43 @@ class Box {
     private int intValue;
 
     private Box(Object referenceValue, int intValue) {
-        this.referenceValue = referenceValue;
         this.intValue = intValue;
+        REFERENCE_VALUE.setRelease(this, referenceValue);
     }
 
     @SuppressWarnings("unused") // called by generated code; see references to VALUE_AS_REFERENCE constant
-    synchronized Object valueAsReference() {
-        return referenceValue != NO_VALUE ? referenceValue : intValue;
+    Object valueAsReference() {
+        var reference = REFERENCE_VALUE.getAcquire(this);
+        return reference != NO_VALUE ? reference : intValue;
     }
 
     @SuppressWarnings("unused") // called by generated code; see references to VALUE_AS_INT constant
-    synchronized int valueAsInt() {
-        if (referenceValue == NO_VALUE) return intValue;
-        if (referenceValue instanceof Integer) return (Integer) referenceValue;
-        throw SquarePegException.with(referenceValue);
+    int valueAsInt() {
+        var reference = REFERENCE_VALUE.getAcquire(this);
+        if (reference == NO_VALUE) return intValue;
+        if (reference instanceof Integer) return (Integer) reference;
+        throw SquarePegException.with(reference);
     }
 
-    synchronized void setValue(Object value) {
+    void setValue(Object value) {
         if (value instanceof Integer) {
-            referenceValue = NO_VALUE;
-            intValue = (Integer) value;
+            setValue((int) (Integer) value);
         } else {
-            referenceValue = value;
+            REFERENCE_VALUE.setRelease(this, value);
         }
     }
 
-    synchronized void setValue(int value) {
-        referenceValue = NO_VALUE;
+    void setValue(int value) {
         intValue = value;
+        REFERENCE_VALUE.setRelease(this, NO_VALUE);
+    }
+
+    private static final VarHandle REFERENCE_VALUE;
+    static {
+        try {
+            REFERENCE_VALUE = MethodHandles.lookup().findVarHandle(Box.class, "referenceValue", Object.class);
+        } catch (NoSuchFieldException | IllegalAccessException e) {
+            throw new AssertionError(e);
+        }
     }
 }
@@ -4,6 +4,7 @@ package com.github.vassilibykov.trifle.core;
 
 import org.jetbrains.annotations.NotNull;
 
+import java.lang.invoke.MethodHandle;
 import java.util.List;
 import java.util.stream.Stream;
 
@@ -59,6 +60,18 @@ public abstract class CallNode extends EvaluatorNode {
         return dispatcher;
     }
 
+    /**
+     * Replace the dispatcher of the call. Used by dispatchers to rewrite the
+     * call into a form specialized for the callees the interpreter has seen,
+     * or back into the generic form when the specialization no longer applies.
+     * The replacement must generate the same code as the original, since
+     * the compiler may see either one. Concurrent rewrites by interpreters on
+     * different threads are benign for the same reason.
+     */
+    void rewrite(CallDispatcher dispatcher) {
+        this.dispatcher = dispatcher;
+    }
+
     public abstract int arity();
 
     public abstract Stream<EvaluatorNode> arguments();
@@ -72,11 +85,174 @@ public abstract class CallNode extends EvaluatorNode {
         return visitor.visitCall(this);
     }
 
+    @Override
+    Object evaluateUnboxed(Interpreter.Evaluator evaluator) {
+        return evaluator.visitCall(this);
+    }
+
     @Override
     public String toString() {
         return "call " + dispatcher;
     }
 
+    /**
+     * Evaluate the arguments of the call using the visitor and invoke the
+     * closure with them through the closure invoker of its implementation
+     * (see {@link FunctionImplementation#closureInvoker()}). Used by the
+     * specialized dispatchers, which have the invoker at hand, to call the
+     * closure without going through {@link Invocable}.
+     */
+    Object invokeClosure(MethodHandle closureInvoker, Closure closure, EvaluatorNode.Visitor<Object> interpreter) {
+        Object result;
+        switch (arity()) {
+            case 0:
+                try {
+                    result = closureInvoker.invokeExact(closure);
+                } catch (Throwable e) {
+                    result = invocationFailure(e);
+                }
+                break;
+            case 1: {
+                var arg = argument(0).accept(interpreter);
+                try {
+                    result = closureInvoker.invokeExact(closure, arg);
+                } catch (Throwable e) {
+                    result = invocationFailure(e);
+                }
+                break;
+            }
+            case 2: {
+                var arg1 = argument(0).accept(interpreter);
+                var arg2 = argument(1).accept(interpreter);
+                try {
+                    result = closureInvoker.invokeExact(closure, arg1, arg2);
+                } catch (Throwable e) {
+                    result = invocationFailure(e);
+                }
+                break;
+            }
+            case 3: {
+                var arg1 = argument(0).accept(interpreter);
+                var arg2 = argument(1).accept(interpreter);
+                var arg3 = argument(2).accept(interpreter);
+                try {
+                    result = closureInvoker.invokeExact(closure, arg1, arg2, arg3);
+                } catch (Throwable e) {
+                    result = invocationFailure(e);
+                }
+                break;
+            }
+            case 4: {
+                var arg1 = argument(0).accept(interpreter);
+                var arg2 = argument(1).accept(interpreter);
+                var arg3 = argument(2).accept(interpreter);
+                var arg4 = argument(3).accept(interpreter);
+                try {
+                    result = closureInvoker.invokeExact(closure, arg1, arg2, arg3, arg4);
+                } catch (Throwable e) {
+                    result = invocationFailure(e);
+                }
+                break;
+            }
+            default:
+                var arguments = new Object[arity()];
+                for (int i = 0; i < arguments.length; i++) {
+                    arguments[i] = argument(i).accept(interpreter);
+                }
+                try {
+                    result = closure.implementation.spreadClosureInvoker().invokeExact(closure, arguments);
+                } catch (Throwable e) {
+                    result = invocationFailure(e);
+                }
+        }
+        return result;
+    }
+
+    /**
+     * Evaluate the arguments of the call using the visitor and invoke the
+     * core call site of the function with them (see {@link
+     * FunctionImplementation#callSiteInvoker()}). The function must have no
+     * copied values and the same arity as the call. Used by dispatchers of
+     * calls whose callee has no copied values, to call it with no closure
+     * argument to drop.
+     */
+    Object invokeExact(FunctionImplementation callee, EvaluatorNode.Visitor<Object> interpreter) {
+        var invoker = callee.callSiteInvoker();
+        Object result;
+        switch (arity()) {
+            case 0:
+                try {
+                    result = invoker.invokeExact();
+                } catch (Throwable e) {
+                    result = invocationFailure(e);
+                }
+                break;
+            case 1: {
+                var arg = argument(0).accept(interpreter);
+                try {
+                    result = invoker.invokeExact(arg);
+                } catch (Throwable e) {
+                    result = invocationFailure(e);
+                }
+                break;
+            }
+            case 2: {
+                var arg1 = argument(0).accept(interpreter);
+                var arg2 = argument(1).accept(interpreter);
+                try {
+                    result = invoker.invokeExact(arg1, arg2);
+                } catch (Throwable e) {
+                    result = invocationFailure(e);
+                }
+                break;
+            }
+            case 3: {
+                var arg1 = argument(0).accept(interpreter);
+                var arg2 = argument(1).accept(interpreter);
+                var arg3 = argument(2).accept(interpreter);
+                try {
+                    result = invoker.invokeExact(arg1, arg2, arg3);
+                } catch (Throwable e) {
+                    result = invocationFailure(e);
+                }
+                break;
+            }
+            case 4: {
+                var arg1 = argument(0).accept(interpreter);
+                var arg2 = argument(1).accept(interpreter);
+                var arg3 = argument(2).accept(interpreter);
+                var arg4 = argument(3).accept(interpreter);
+                try {
+                    result = invoker.invokeExact(arg1, arg2, arg3, arg4);
+                } catch (Throwable e) {
+                    result = invocationFailure(e);
+                }
+                break;
+            }
+            default:
+                var arguments = new Object[arity()];
+                for (int i = 0; i < arguments.length; i++) {
+                    arguments[i] = argument(i).accept(interpreter);
+                }
+                try {
+                    result = callee.spreadInvoker().invokeExact(arguments);
+                } catch (Throwable e) {
+                    result = invocationFailure(e);
+                }
+        }
+        return result;
+    }
+
+    /**
+     * Handle an exception thrown by a method handle invocation the same way as
+     * {@link Closure#invoke()} and friends do.
+     */
+    static Object invocationFailure(Throwable exception) {
+        if (exception instanceof SquarePegException) return ((SquarePegException) exception).value;
+        if (exception instanceof RuntimeError) throw (RuntimeError) exception;
+        throw new InvocationException(exception);
+    }
+
     /*
         Concrete implementations
      */
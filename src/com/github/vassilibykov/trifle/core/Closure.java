@@ -31,16 +31,16 @@ public class Closure implements Invocable {
 
     @NotNull /*internal*/ final FunctionImplementation implementation;
     private final Object[] copiedValues;
-    private final MethodHandle genericInvoker;
-    @Nullable private MethodType specializedInvokerType;
-    @Nullable private MethodHandle specializedInvoker;
 
+    /*
+        A closure holds no method handles of its own, so creating one is
+        just an allocation. Invocations go through the closure invoker of the
+        implementation, shared by all its closures, which receives the closure
+        as the leading argument and spreads its copied values.
+     */
     private Closure(FunctionImplementation implementation, Object[] copiedValues) {
         this.implementation = implementation;
         this.copiedValues = copiedValues;
-        // callSiteInvoker type: (synthetic:Object* declared:Object*) -> Object
-        // invoker type: (declared:Object*) -> Object
-        this.genericInvoker = MethodHandles.insertArguments(implementation.callSiteInvoker(), 0, copiedValues);
     }
 
     boolean hasCopiedValues() {
@@ -53,9 +53,17 @@ public class Closure implements Invocable {
      * which link their inline caches to this function should use {@link
      * #optimalInvoker(MethodType)} instead because that will result in a
      * more efficient call pipeline, both for specialized and generic forms.
+     *
+     * <p>Unless the closure has no copied values, the handle is created anew
+     * by each call. Callers which only need to invoke the closure should use
+     * the {@link FunctionImplementation#closureInvoker()} instead.
      */
     MethodHandle genericInvoker() {
-        return genericInvoker;
+        // callSiteInvoker type: (synthetic:Object* declared:Object*) -> Object
+        // invoker type: (declared:Object*) -> Object
+        return copiedValues.length == 0
+            ? implementation.callSiteInvoker()
+            : MethodHandles.insertArguments(implementation.callSiteInvoker(), 0, copiedValues);
     }
 
     @Override
@@ -68,7 +76,10 @@ public class Closure implements Invocable {
      * the function's declared parameters. It does not include the leading
      * closure as do the types of invokedynamic call sites, nor the types of
      * synthetic parameters. The result uses the implementation's specialized
-     * compiled form, if possible.
+     * compiled form best matching the type, if possible. If the type has
+     * primitive parameter types no specialized form has exactly, calls through
+     * the result count towards requesting a specialization for it from the
+     * implementation.
      *
      * <p>This method should normally be called when linking to a compiled
      * function so we can use more efficient direct links to its compiled
@@ -77,37 +88,50 @@ public class Closure implements Invocable {
      * might later be doing a specialization check on every call.
      */
     MethodHandle optimalInvoker(MethodType requiredType) {
-        if (specializedInvokerType == requiredType) return specializedInvoker;
         if (requiredType.parameterCount() != implementation.declarationArity()) {
             throw new IllegalArgumentException();
         }
+        if (copiedValues.length == 0) return implementation.optimalInvoker(requiredType);
+        var compiledForm = compiledFormInvoker(implementation, copiedValues, requiredType);
+        return compiledForm != null ? compiledForm : genericInvoker().asType(requiredType);
+    }
+
+    /**
+     * Return an invoker of the specified type of the compiled form of the
+     * implementation best matching the type, with the copied values bound to
+     * its synthetic parameters, or null if the implementation is not
+     * compiled. See {@link #optimalInvoker(MethodType)}.
+     */
+    @Nullable static MethodHandle compiledFormInvoker(
+        FunctionImplementation implementation, Object[] copiedValues, MethodType requiredType)
+    {
+        var isSpecializationDemanded = false;
         if (requiredType.hasPrimitives()) {
-            var specializedForm = implementation.specializedImplementation();
+            // The type of specializedForm includes the leading parameters for copied values
+            var specializedForm = implementation.bestSpecializationFor(requiredType, copiedValues.length);
+            isSpecializationDemanded = specializedForm == null
+                || !specializedForm.type().dropParameterTypes(0, copiedValues.length).parameterList()
+                    .equals(requiredType.parameterList());
             if (specializedForm != null) {
-                // The type of specializedForm includes the leading parameters for copied values
-                var cleanType = specializedForm.type().dropParameterTypes(0, copiedValues.length);
-                if (cleanType.equals(requiredType)) {
-                    try {
-                        var specializedInvoker = MethodHandles.insertArguments(specializedForm, 0, copiedValues);
-                        this.specializedInvoker = specializedInvoker.asType(requiredType);
-                        specializedInvokerType = requiredType;
-                        return this.specializedInvoker;
-                    } catch (ClassCastException e) {
-                        // A copied value is incompatible with a specialized parameter for that value;
-                        // can't use the specialized form after all--fall through to below.
-                    }
+                try {
+                    var specializedInvoker = MethodHandles.insertArguments(specializedForm, 0, copiedValues);
+                    var invoker = FunctionImplementation.adaptSpecialization(specializedInvoker, requiredType);
+                    return isSpecializationDemanded
+                        ? implementation.countingSpecializationDemand(invoker, requiredType)
+                        : invoker;
+                } catch (ClassCastException e) {
+                    // A copied value is incompatible with a specialized parameter for that value;
+                    // can't use the specialized form after all--fall through to below.
                 }
             }
         }
         var genericForm = implementation.genericImplementation();
         if (genericForm != null) {
             var genericInvoker = MethodHandles.insertArguments(genericForm, 0, copiedValues);
-            specializedInvoker = JvmType.guardReturnValue(requiredType.returnType(), genericInvoker);
-            specializedInvoker = specializedInvoker.asType(requiredType);
-            specializedInvokerType = requiredType;
-            return specializedInvoker;
+            var invoker = JvmType.guardReturnValue(requiredType.returnType(), genericInvoker).asType(requiredType);
+            return isSpecializationDemanded ? implementation.countingSpecializationDemand(invoker, requiredType) : invoker;
         }
-        return genericInvoker.asType(requiredType);
+        return null;
     }
 
     /**
@@ -125,7 +149,7 @@ public class Closure implements Invocable {
 
     public Object invoke() {
         try {
-            return genericInvoker.invokeExact();
+            return implementation.closureInvoker().invokeExact(this);
         } catch (SquarePegException e) {
             return e.value;
         } catch (RuntimeError e) {
@@ -137,7 +161,7 @@ public class Closure implements Invocable {
 
     public Object invoke(Object arg) {
         try {
-            return genericInvoker.invokeExact(arg);
+            return implementation.closureInvoker().invokeExact(this, arg);
         } catch (SquarePegException e) {
             return e.value;
         } catch (RuntimeError e) {
@@ -149,7 +173,7 @@ public class Closure implements Invocable {
 
     public Object invoke(Object arg1, Object arg2) {
         try {
-            return genericInvoker.invokeExact(arg1, arg2);
+            return implementation.closureInvoker().invokeExact(this, arg1, arg2);
         } catch (SquarePegException e) {
             return e.value;
         } catch (RuntimeError e) {
@@ -161,7 +185,7 @@ public class Closure implements Invocable {
 
     public Object invoke(Object arg1, Object arg2, Object arg3) {
         try {
-            return genericInvoker.invokeExact(arg1, arg2, arg3);
+            return implementation.closureInvoker().invokeExact(this, arg1, arg2, arg3);
         } catch (SquarePegException e) {
             return e.value;
         } catch (RuntimeError e) {
@@ -173,7 +197,7 @@ public class Closure implements Invocable {
 
     public Object invoke(Object arg1, Object arg2, Object arg3, Object arg4) {
         try {
-            return genericInvoker.invokeExact(arg1, arg2, arg3, arg4);
+            return implementation.closureInvoker().invokeExact(this, arg1, arg2, arg3, arg4);
         } catch (SquarePegException e) {
             return e.value;
         } catch (RuntimeError e) {
@@ -185,7 +209,7 @@ public class Closure implements Invocable {
 
     public Object invokeWithArguments(Object... args) {
         try {
-            return genericInvoker.invokeWithArguments(args);
+            return implementation.spreadClosureInvoker().invokeExact(this, args);
         } catch (SquarePegException e) {
             return e.value;
         } catch (RuntimeError e) {
@@ -194,4 +218,16 @@ public class Closure implements Invocable {
             throw new InvocationException(throwable);
         }
     }
+
+    /**
+     * A getter of the copied values of a closure, of type {@code (Closure) -> Object[]}.
+     */
+    static final MethodHandle COPIED_VALUES;
+    static {
+        try {
+            COPIED_VALUES = MethodHandles.lookup().findGetter(Closure.class, "copiedValues", Object[].class);
+        } catch (NoSuchFieldException | IllegalAccessException e) {
+            throw new AssertionError(e);
+        }
+    }
 }
@@ -46,4 +46,9 @@ class ClosureNode extends EvaluatorNode {
     public <T> T accept(Visitor<T> visitor) {
         return visitor.visitClosure(this);
     }
+
+    @Override
+    Object evaluateUnboxed(Interpreter.Evaluator evaluator) {
+        return evaluator.visitClosure(this);
+    }
 }
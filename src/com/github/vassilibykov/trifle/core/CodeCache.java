@@ -0,0 +1,696 @@
+// Copyright (c) 2018 Vassili Bykov. Licensed under the Apache License, Version 2.0.
+
+package com.github.vassilibykov.trifle.core;
+
+import com.github.vassilibykov.trifle.expression.Block;
+import com.github.vassilibykov.trifle.expression.Call;
+import com.github.vassilibykov.trifle.expression.Const;
+import com.github.vassilibykov.trifle.expression.Expression;
+import com.github.vassilibykov.trifle.expression.FreeFunctionReference;
+import com.github.vassilibykov.trifle.expression.If;
+import com.github.vassilibykov.trifle.expression.Lambda;
+import com.github.vassilibykov.trifle.expression.Let;
+import com.github.vassilibykov.trifle.expression.PrimitiveCall;
+import com.github.vassilibykov.trifle.expression.Return;
+import com.github.vassilibykov.trifle.expression.SetVariable;
+import com.github.vassilibykov.trifle.expression.Variable;
+import com.github.vassilibykov.trifle.expression.Visitor;
+import com.github.vassilibykov.trifle.expression.While;
+import org.jetbrains.annotations.Nullable;
+import org.jetbrains.annotations.TestOnly;
+import org.objectweb.asm.ClassReader;
+import org.objectweb.asm.ClassVisitor;
+import org.objectweb.asm.ClassWriter;
+import org.objectweb.asm.Handle;
+import org.objectweb.asm.MethodVisitor;
+import org.objectweb.asm.Opcodes;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.lang.invoke.MethodType;
+import java.net.URISyntaxException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.UUID;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * A persistent cache of compiled units. Allows a new JVM process to install the
+ * compiled forms of a function at its first call, skipping the profiling tier
+ * and the compiler.
+ *
+ * <p>The cache is opt-in: it is enabled by setting the {@code trifle.codeCache}
+ * system property to the path of a directory. An entry is a file holding the
+ * bytecode of a unit together with the profile-derived decisions needed to
+ * install it: the names of the implementation and loop entry methods and the
+ * types of the specialized methods. Entries are keyed by a structural hash of
+ * the {@link Lambda} definition of the top-level function, so any change to
+ * the definition produces a different key. An entry also records the cache
+ * format version, the Java runtime version and a fingerprint of the build of
+ * this runtime, which is a hash of the class files it was loaded from. An entry
+ * written by a different version or build is ignored, and the function goes
+ * through normal profiling. Thus a change to the compiler invalidates existing
+ * entries even if {@link #FORMAT_VERSION} is not changed with it.
+ *
+ * <p>Generated code refers to functions and other runtime objects by integer
+ * IDs which are only meaningful within the process which generated it. Before
+ * storing, the IDs of invokedynamic instructions are replaced with symbolic
+ * references: functions of the unit by their position in the unit, other user
+ * functions by name, and specialization failure sites by their position in the
+ * function body. On loading, the references are resolved against the unit of
+ * the new process. A unit whose code refers to objects which can't be
+ * described this way, such as literal objects from the {@link LiteralPool}, is
+ * not cached. The same applies to a definition whose structure includes such
+ * objects, or calls of kinds other than calls of free functions and lambda
+ * expressions.
+ */
+public final class CodeCache {
+
+    public static final CodeCache INSTANCE = new CodeCache(
+        Optional.ofNullable(System.getProperty("trifle.codeCache")).map(Paths::get).orElse(null));
+
+    private static final int MAGIC = 0x54434331; // "TCC1"
+    private static final int FORMAT_VERSION = 4;
+    private static final String RUNTIME_VERSION = Runtime.version().toString();
+    private static final String ENTRY_SUFFIX = ".unit";
+
+    private static final String UNIT_FUNCTION_REF = "unit:";
+    private static final String USER_FUNCTION_REF = "function:";
+    private static final String FAILURE_SITE_REF = "site:";
+
+    /**
+     * Thrown internally when a definition can't be hashed or a unit can't be
+     * relocated.
+     */
+    private static class UncacheableException extends Exception {
+        private static final long serialVersionUID = 1L;
+
+        private UncacheableException(String message) {
+            super(message, null, false, false);
+        }
+    }
+
+    /**
+     * Holds the fingerprint of the runtime build, computed on first use
+     * because it requires reading all the class files of the runtime.
+     */
+    private static class BuildFingerprint {
+        private static final String VALUE = compute();
+
+        /**
+         * Return a hash of the implementation version of this package, if it
+         * has one, and of the jar file or the class file directory this class
+         * was loaded from. If neither can be read, return a random string, so
+         * that entries are only usable by the process which stored them.
+         */
+        private static String compute() {
+            try {
+                var digest = MessageDigest.getInstance("SHA-256");
+                var version = CodeCache.class.getPackage().getImplementationVersion();
+                if (version != null) digest.update(version.getBytes(StandardCharsets.UTF_8));
+                var codeSource = CodeCache.class.getProtectionDomain().getCodeSource();
+                if (codeSource == null) return UUID.randomUUID().toString();
+                var location = Paths.get(codeSource.getLocation().toURI());
+                if (Files.isDirectory(location)) {
+                    List<Path> classFiles;
+                    try (var files = Files.walk(location)) {
+                        classFiles = files
+                            .filter(each -> each.toString().endsWith(".class"))
+                            .sorted()
+                            .collect(Collectors.toList());
+                    }
+                    for (var each : classFiles) {
+                        digest.update(location.relativize(each).toString().getBytes(StandardCharsets.UTF_8));
+                        digest.update(Files.readAllBytes(each));
+                    }
+                } else {
+                    digest.update(Files.readAllBytes(location));
+                }
+                return hexString(digest.digest());
+            } catch (IOException | URISyntaxException | RuntimeException e) {
+                return UUID.randomUUID().toString();
+            } catch (NoSuchAlgorithmException e) {
+                throw new AssertionError(e);
+            }
+        }
+    }
+
+    private static String hexString(byte[] bytes) {
+        var builder = new StringBuilder();
+        for (var each : bytes) builder.append(String.format("%02x", each));
+        return builder.toString();
+    }
+
+    /*
+        Instance
+     */
+
+    @Nullable private final Path directory;
+    /** If null, the fingerprint of the actual runtime build is used. */
+    @Nullable private final String buildFingerprint;
+    private final AtomicLong hitCount = new AtomicLong();
+    private final AtomicLong missCount = new AtomicLong();
+    private final AtomicLong storeCount = new AtomicLong();
+    private final AtomicLong rejectCount = new AtomicLong();
+
+    CodeCache(@Nullable Path directory) {
+        this(directory, null);
+    }
+
+    /**
+     * Create a cache which pretends to be used by a runtime build with the
+     * specified fingerprint.
+     */
+    @TestOnly
+    CodeCache(@Nullable Path directory, @Nullable String buildFingerprint) {
+        this.directory = directory;
+        this.buildFingerprint = buildFingerprint;
+    }
+
+    private String buildFingerprint() {
+        return buildFingerprint != null ? buildFingerprint : BuildFingerprint.VALUE;
+    }
+
+    public boolean isEnabled() {
+        return directory != null;
+    }
+
+    /**
+     * The number of units installed from the cache.
+     */
+    public long hitCount() {
+        return hitCount.get();
+    }
+
+    /**
+     * The number of lookups which found no usable entry.
+     */
+    public long missCount() {
+        return missCount.get();
+    }
+
+    /**
+     * The number of units written to the cache.
+     */
+    public long storeCount() {
+        return storeCount.get();
+    }
+
+    /**
+     * The number of units which could not be cached, or entries which could
+     * not be used because they failed validation.
+     */
+    public long rejectCount() {
+        return rejectCount.get();
+    }
+
+    /**
+     * Write the compilation result of a unit into the cache, replacing any
+     * existing entry for the same definition.
+     */
+    void store(FunctionImplementation topFunction, Compiler.UnitResult result) {
+        if (directory == null) return;
+        try {
+            if (!result.inlinedFunctions().isEmpty()) throw new UncacheableException("unit has inlined functions");
+            var unit = unitOf(topFunction);
+            var hasher = new StructuralHasher();
+            var key = hasher.hash(topFunction.definition());
+            var bytecode = relocate(result.bytecode(), new Symbolizer(unit));
+            var bytes = new ByteArrayOutputStream();
+            var out = new DataOutputStream(bytes);
+            out.writeInt(MAGIC);
+            out.writeInt(FORMAT_VERSION);
+            out.writeUTF(RUNTIME_VERSION);
+            out.writeUTF(buildFingerprint());
+            out.writeUTF(key);
+            out.writeInt(unit.size());
+            for (var function : unit) {
+                var functionResult = result.functionResultFor(function);
+                out.writeInt(function.implementationArity());
+                out.writeInt(recoverySitesOf(function).size());
+                out.writeUTF(functionResult.genericMethodName());
+                var specializedMethods = functionResult.specializedMethods();
+                out.writeInt(specializedMethods.size());
+                for (var entry : specializedMethods.entrySet()) {
+                    out.writeUTF(entry.getKey());
+                    out.writeUTF(entry.getValue().toMethodDescriptorString());
+                }
+                var loops = loopsOf(function);
+                var loopEntries = functionResult.loopEntryMethodNames();
+                out.writeInt(loops.size());
+                out.writeInt(loopEntries.size());
+                for (var entry : loopEntries.entrySet()) {
+                    out.writeInt(loops.indexOf(entry.getKey()));
+                    out.writeUTF(entry.getValue());
+                }
+            }
+            out.writeInt(bytecode.length);
+            out.write(bytecode);
+            out.close();
+            Files.createDirectories(directory);
+            var entryFile = entryFile(key);
+            var tempFile = Files.createTempFile(directory, key, ".tmp");
+            Files.write(tempFile, bytes.toByteArray());
+            Files.move(tempFile, entryFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            storeCount.incrementAndGet();
+        } catch (UncacheableException e) {
+            rejectCount.incrementAndGet();
+        } catch (IOException e) {
+            System.err.println("failed to write code cache entry for " + topFunction + ": " + e);
+        }
+    }
+
+    /**
+     * Look up a cached compilation result for a unit and relocate it for use
+     * in this process. Return an empty optional if there is no entry for the
+     * unit or the entry is not valid.
+     */
+    Optional<Compiler.UnitResult> load(FunctionImplementation topFunction) {
+        if (directory == null) return Optional.empty();
+        try {
+            var unit = unitOf(topFunction);
+            var hasher = new StructuralHasher();
+            var key = hasher.hash(topFunction.definition());
+            var entryFile = entryFile(key);
+            if (!Files.exists(entryFile)) {
+                missCount.incrementAndGet();
+                return Optional.empty();
+            }
+            var in = new DataInputStream(Files.newInputStream(entryFile));
+            try (in) {
+                if (in.readInt() != MAGIC
+                    || in.readInt() != FORMAT_VERSION
+                    || !in.readUTF().equals(RUNTIME_VERSION)
+                    || !in.readUTF().equals(buildFingerprint())
+                    || !in.readUTF().equals(key)
+                    || in.readInt() != unit.size())
+                {
+                    throw new UncacheableException("entry version, build or key mismatch");
+                }
+                var result = new Compiler.UnitResult();
+                for (var function : unit) {
+                    if (in.readInt() != function.implementationArity()
+                        || in.readInt() != recoverySitesOf(function).size())
+                    {
+                        throw new UncacheableException("unit structure mismatch");
+                    }
+                    var functionResult = new Compiler.FunctionResult(in.readUTF());
+                    var specializedMethodCount = in.readInt();
+                    for (int i = 0; i < specializedMethodCount; i++) {
+                        var name = in.readUTF();
+                        var type = MethodType.fromMethodDescriptorString(in.readUTF(), CodeCache.class.getClassLoader());
+                        functionResult.addSpecializedMethod(name, type);
+                    }
+                    var loops = loopsOf(function);
+                    if (in.readInt() != loops.size()) throw new UncacheableException("unit structure mismatch");
+                    var loopEntryCount = in.readInt();
+                    for (int i = 0; i < loopEntryCount; i++) {
+                        functionResult.addLoopEntryMethod((WhileNode) loops.get(in.readInt()), in.readUTF());
+                    }
+                    result.addFunctionResult(function, functionResult);
+                }
+                var bytecode = new byte[in.readInt()];
+                in.readFully(bytecode);
+                result.setBytecode(relocate(bytecode, new Resolver(unit, hasher.referencedFunctions, result)));
+                hitCount.incrementAndGet();
+                return Optional.of(result);
+            }
+        } catch (UncacheableException | IOException | RuntimeException e) {
+            rejectCount.incrementAndGet();
+            return Optional.empty();
+        }
+    }
+
+    private Path entryFile(String key) {
+        return directory.resolve(key + ENTRY_SUFFIX);
+    }
+
+    private static List<FunctionImplementation> unitOf(FunctionImplementation topFunction) {
+        return Stream.concat(Stream.of(topFunction), topFunction.closureImplementations().stream())
+            .collect(Collectors.toList());
+    }
+
+    /**
+     * Nodes of the specified kind in the body of a function, not including
+     * the bodies of its closures, in the order of a depth-first traversal.
+     */
+    private static List<EvaluatorNode> nodesOf(FunctionImplementation function, Class<?> kind) {
+        var nodes = new ArrayList<EvaluatorNode>();
+        function.body().accept(new EvaluatorNode.VisitorSkeleton<Void>() {
+            @Override
+            public Void visitClosure(ClosureNode closure) {
+                return null;
+            }
+
+            @Override
+            public Void visitLet(LetNode let) {
+                if (kind.isInstance(let)) nodes.add(let);
+                return super.visitLet(let);
+            }
+
+            @Override
+            public Void visitReturn(ReturnNode ret) {
+                if (kind.isInstance(ret)) nodes.add(ret);
+                return super.visitReturn(ret);
+            }
+
+            @Override
+            public Void visitSetVar(SetVariableNode set) {
+                if (kind.isInstance(set)) nodes.add(set);
+                return super.visitSetVar(set);
+            }
+
+            @Override
+            public Void visitWhile(WhileNode whileNode) {
+                if (kind.isInstance(whileNode)) nodes.add(whileNode);
+                return super.visitWhile(whileNode);
+            }
+        });
+        return nodes;
+    }
+
+    private static List<EvaluatorNode> recoverySitesOf(FunctionImplementation function) {
+        return nodesOf(function, RecoverySite.class);
+    }
+
+    private static List<EvaluatorNode> loopsOf(FunctionImplementation function) {
+        return nodesOf(function, WhileNode.class);
+    }
+
+    /*
+        Relocation
+     */
+
+    /**
+     * Maps a bootstrap argument of an invokedynamic instruction which refers
+     * to a runtime object.
+     */
+    private interface ArgumentMapper {
+        Object mapFunction(Object argument) throws UncacheableException;
+        Object mapFailureSite(Object argument) throws UncacheableException;
+    }
+
+    /**
+     * Rewrite the bootstrap arguments of invokedynamic instructions in the
+     * bytecode of a unit using the specified mapper.
+     */
+    private static byte[] relocate(byte[] bytecode, ArgumentMapper mapper) throws UncacheableException {
+        var reader = new ClassReader(bytecode);
+        var writer = new ClassWriter(0);
+        var failure = new UncacheableException[1];
+        reader.accept(new ClassVisitor(Opcodes.ASM6, writer) {
+            @Override
+            public MethodVisitor visitMethod(int access, String name, String descriptor, String signature, String[] exceptions) {
+                return new MethodVisitor(Opcodes.ASM6, super.visitMethod(access, name, descriptor, signature, exceptions)) {
+                    @Override
+                    public void visitInvokeDynamicInsn(String name, String descriptor, Handle bootstrap, Object... arguments) {
+                        try {
+                            super.visitInvokeDynamicInsn(name, descriptor, bootstrap, relocateArguments(name, bootstrap, arguments, mapper));
+                        } catch (UncacheableException e) {
+                            failure[0] = e;
+                            super.visitInvokeDynamicInsn(name, descriptor, bootstrap, arguments);
+                        }
+                    }
+                };
+            }
+        }, 0);
+        if (failure[0] != null) throw failure[0];
+        return writer.toByteArray();
+    }
+
+    private static Object[] relocateArguments(String name, Handle bootstrap, Object[] arguments, ArgumentMapper mapper)
+        throws UncacheableException
+    {
+        if (arguments.length == 0) return arguments;
+        var owner = bootstrap.getOwner();
+        if (owner.equals(GhostWriter.internalClassName(UserFunctionCallInvokeDynamic.class))
+            || owner.equals(GhostWriter.internalClassName(UserFunctionReferenceInvokeDynamic.class))
+            || owner.equals(GhostWriter.internalClassName(ClosureCreationInvokeDynamic.class)))
+        {
+            return new Object[] {mapper.mapFunction(arguments[0])};
+        }
+        if (owner.equals(GhostWriter.internalClassName(DeoptimizationInvokeDynamic.class))
+            && name.equals(DeoptimizationInvokeDynamic.RECORD_FAILURE))
+        {
+            return new Object[] {mapper.mapFailureSite(arguments[0])};
+        }
+        if (Stream.of(arguments).anyMatch(each -> each instanceof Integer)) {
+            throw new UncacheableException("unrelocatable reference in " + owner);
+        }
+        return arguments;
+    }
+
+    /**
+     * Replaces IDs with symbolic references.
+     */
+    private static class Symbolizer implements ArgumentMapper {
+        private final List<FunctionImplementation> unit;
+
+        private Symbolizer(List<FunctionImplementation> unit) {
+            this.unit = unit;
+        }
+
+        @Override
+        public Object mapFunction(Object argument) throws UncacheableException {
+            var function = FunctionImplementation.withId((Integer) argument);
+            var index = unit.indexOf(function);
+            if (index >= 0) return UNIT_FUNCTION_REF + index;
+            if (function.userFunction() != null) return USER_FUNCTION_REF + function.userFunction().name();
+            throw new UncacheableException("reference to an anonymous function outside the unit");
+        }
+
+        @Override
+        public Object mapFailureSite(Object argument) throws UncacheableException {
+            var object = LiteralPool.INSTANCE.get((Integer) argument);
+            if (!(object instanceof SpecializationFailureSite)) throw new UncacheableException("unexpected literal");
+            var site = (SpecializationFailureSite) object;
+            var functionIndex = unit.indexOf(site.function());
+            var siteIndex = recoverySitesOf(site.function()).indexOf((EvaluatorNode) site.site());
+            if (functionIndex < 0 || siteIndex < 0) throw new UncacheableException("failure site outside the unit");
+            return FAILURE_SITE_REF + functionIndex + ":" + siteIndex;
+        }
+    }
+
+    /**
+     * Replaces symbolic references with IDs valid in this process.
+     */
+    private static class Resolver implements ArgumentMapper {
+        private final List<FunctionImplementation> unit;
+        private final Map<String, UserFunction> referencedFunctions;
+        private final Compiler.UnitResult result;
+
+        private Resolver(
+            List<FunctionImplementation> unit,
+            Map<String, UserFunction> referencedFunctions,
+            Compiler.UnitResult result)
+        {
+            this.unit = unit;
+            this.referencedFunctions = referencedFunctions;
+            this.result = result;
+        }
+
+        @Override
+        public Object mapFunction(Object argument) throws UncacheableException {
+            var reference = (String) argument;
+            if (reference.startsWith(UNIT_FUNCTION_REF)) {
+                return result.functionId(unit.get(Integer.parseInt(reference.substring(UNIT_FUNCTION_REF.length()))));
+            }
+            if (reference.startsWith(USER_FUNCTION_REF)) {
+                var function = referencedFunctions.get(reference.substring(USER_FUNCTION_REF.length()));
+                if (function == null) throw new UncacheableException("unresolved function reference " + reference);
+                return result.functionId(function.implementation());
+            }
+            throw new UncacheableException("invalid function reference " + reference);
+        }
+
+        @Override
+        public Object mapFailureSite(Object argument) throws UncacheableException {
+            var reference = (String) argument;
+            if (!reference.startsWith(FAILURE_SITE_REF)) throw new UncacheableException("invalid site reference " + reference);
+            var indices = reference.substring(FAILURE_SITE_REF.length()).split(":");
+            var function = unit.get(Integer.parseInt(indices[0]));
+            var site = (RecoverySite) recoverySitesOf(function).get(Integer.parseInt(indices[1]));
+            return result.registerLiteral(new SpecializationFailureSite(function, site));
+        }
+    }
+
+    /*
+        Structural hashing
+     */
+
+    /**
+     * Computes a hash of a lambda expression which is the same for any two
+     * structurally identical expressions. Variables are identified by the
+     * order in which they are bound, and free functions by their names. As a
+     * side effect, collects the user functions referenced by the expression,
+     * which are needed to resolve references in cached code.
+     */
+    private static class StructuralHasher implements Visitor<Void> {
+        private final MessageDigest digest;
+        private final Map<Variable, Integer> variableIndices = new IdentityHashMap<>();
+        private final Map<String, UserFunction> referencedFunctions = new HashMap<>();
+        @Nullable private UncacheableException problem;
+
+        private StructuralHasher() {
+            try {
+                digest = MessageDigest.getInstance("SHA-256");
+            } catch (NoSuchAlgorithmException e) {
+                throw new AssertionError(e);
+            }
+        }
+
+        String hash(Lambda definition) throws UncacheableException {
+            definition.accept(this);
+            if (problem != null) throw problem;
+            return hexString(digest.digest());
+        }
+
+        private void token(String string) {
+            digest.update(string.getBytes(StandardCharsets.UTF_8));
+            digest.update((byte) 0);
+        }
+
+        private void reject(String reason) {
+            if (problem == null) problem = new UncacheableException(reason);
+        }
+
+        private void bind(Variable variable) {
+            var index = variableIndices.size();
+            variableIndices.put(variable, index);
+            token("bind " + index);
+        }
+
+        private void visitAll(List<? extends Expression> expressions) {
+            token("(" + expressions.size());
+            expressions.forEach(each -> each.accept(this));
+            token(")");
+        }
+
+        @Override
+        public Void visitBlock(Block block) {
+            token("block");
+            visitAll(block.expressions());
+            return null;
+        }
+
+        @Override
+        public Void visitCall(Call call) {
+            token("call");
+            var target = call.target();
+            if (target instanceof Expression) {
+                ((Expression) target).accept(this);
+            } else {
+                reject("unsupported call target " + target.getClass().getName());
+            }
+            visitAll(call.arguments());
+            return null;
+        }
+
+        @Override
+        public Void visitConst(Const aConst) {
+            var value = aConst.value();
+            if (value == null) {
+                token("const null");
+            } else if (value instanceof Integer || value instanceof Boolean || value instanceof String) {
+                token("const " + value.getClass().getSimpleName() + " " + value);
+            } else {
+                reject("unsupported literal " + value.getClass().getName());
+            }
+            return null;
+        }
+
+        @Override
+        public Void visitFunctionReference(FreeFunctionReference reference) {
+            var target = reference.target();
+            token("ref " + target.getClass().getName() + " " + target.name());
+            if (target instanceof UserFunction) {
+                var previous = referencedFunctions.put(target.name(), (UserFunction) target);
+                if (previous != null && previous != target) reject("ambiguous function name " + target.name());
+            }
+            return null;
+        }
+
+        @Override
+        public Void visitIf(If anIf) {
+            token("if");
+            anIf.condition().accept(this);
+            anIf.trueBranch().accept(this);
+            anIf.falseBranch().accept(this);
+            return null;
+        }
+
+        @Override
+        public Void visitLambda(Lambda lambda) {
+            token("lambda");
+            token("(" + lambda.arguments().size());
+            lambda.arguments().forEach(this::bind);
+            lambda.body().accept(this);
+            return null;
+        }
+
+        @Override
+        public Void visitLet(Let let) {
+            token("let");
+            let.initializer().accept(this);
+            bind(let.variable());
+            let.body().accept(this);
+            return null;
+        }
+
+        @Override
+        public Void visitPrimitiveCall(PrimitiveCall primitiveCall) {
+            token("primitive " + primitiveCall.target().getName());
+            visitAll(primitiveCall.arguments());
+            return null;
+        }
+
+        @Override
+        public Void visitReturn(Return aReturn) {
+            token("return");
+            aReturn.value().accept(this);
+            return null;
+        }
+
+        @Override
+        public Void visitSetVariable(SetVariable setVariable) {
+            token("set");
+            setVariable.variable().accept(this);
+            setVariable.value().accept(this);
+            return null;
+        }
+
+        @Override
+        public Void visitVariable(Variable variable) {
+            var index = variableIndices.get(variable);
+            if (index == null) {
+                reject("unbound variable " + variable);
+            } else {
+                token("var " + index);
+            }
+            return null;
+        }
+
+        @Override
+        public Void visitWhile(While aWhile) {
+            token("while");
+            aWhile.condition().accept(this);
+            aWhile.body().accept(this);
+            return null;
+        }
+    }
+}
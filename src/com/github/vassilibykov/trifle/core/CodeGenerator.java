@@ -8,4 +8,18 @@ public interface CodeGenerator extends EvaluatorNode.Visitor<Gist> {
     GhostWriter writer();
     Gist generateCode(EvaluatorNode node);
     MethodType generateArgumentLoad(CallNode callNode);
+
+    /**
+     * Answer the ID by which the generated code may refer to a function. The
+     * function is kept alive for as long as the code is loaded.
+     */
+    int functionId(FunctionImplementation function);
+
+    /**
+     * If the callee can be inlined at a call site of the specified type,
+     * generate an invocation of its inlined copy, assuming the arguments
+     * are already on the stack. Return a boolean indicating whether the
+     * invocation has been generated.
+     */
+    boolean generateInlinedCall(FunctionImplementation callee, MethodType callSiteType);
 }
@@ -0,0 +1,293 @@
+// Copyright (c) 2018 Vassili Bykov. Licensed under the Apache License, Version 2.0.
+
+package com.github.vassilibykov.trifle.core;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.lang.invoke.MutableCallSite;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Compiles units (top-level function implementations together with their
+ * nested closures) in the background. A function whose invocation count
+ * crosses {@link FunctionImplementation#PROFILING_TARGET} is switched to the
+ * simple interpreter and submitted here; callers keep running interpreted code
+ * while a worker thread generates and loads the unit.
+ *
+ * <p>The workers form a pool of bounded size. A worker becoming available
+ * picks the hottest of the waiting requests, that is the one whose unit has
+ * been invoked the most times, counting the invocations in the simple
+ * interpreter while the request was waiting (see {@link
+ * FunctionImplementation#hotness()}). Hotness keeps changing while requests
+ * wait, so it's compared when a request is picked rather than when it's
+ * submitted. Results are not installed one unit at a time.
+ * Instead, a worker completing a unit adds it to a list of pending
+ * installations, then drains the list installing everything in it, with a
+ * single {@link MutableCallSite#syncAll} for all the affected core call sites.
+ *
+ * <p>The number of workers is taken from the {@code trifle.compilerThreads}
+ * system property. A value of 0 disables background compilation, in which case
+ * units are compiled and installed synchronously on the thread which requested
+ * the compilation.
+ *
+ * <p>If the compilation of a unit fails, the failure is counted and reported
+ * to the listener, and the unit is told to fall back (see {@link
+ * FunctionImplementation#compilationFailed()}).
+ */
+public final class CompilationQueue {
+
+    public static final CompilationQueue INSTANCE = new CompilationQueue(
+        Integer.getInteger("trifle.compilerThreads", defaultWorkerCount()));
+
+    private static int defaultWorkerCount() {
+        return Math.max(1, Math.min(4, Runtime.getRuntime().availableProcessors() / 2));
+    }
+
+    /**
+     * Receives notifications of compiled units, for example to collect compile
+     * latency distributions.
+     */
+    public interface Listener {
+        /**
+         * Invoked on the worker thread after a unit has been compiled and installed.
+         *
+         * @param unit The top-level function implementation of the unit.
+         * @param waitNanos The time the request spent in the queue.
+         * @param compileNanos The time it took to generate and load the unit.
+         */
+        void unitCompiled(FunctionImplementation unit, long waitNanos, long compileNanos);
+
+        /**
+         * Invoked on the worker thread after the compilation of a unit has
+         * failed.
+         *
+         * @param unit The top-level function implementation of the unit.
+         * @param error The exception thrown by the compiler.
+         */
+        default void unitCompilationFailed(FunctionImplementation unit, Throwable error) {}
+    }
+
+    /**
+     * A request to compile a unit. Requests are ordered by the current
+     * hotness of their units, hotter first, and in the order of submission
+     * among equally hot units. Because hotness changes, the ordering is only
+     * good for picking the first of the requests at a given moment.
+     */
+    private static class Request implements Comparable<Request> {
+        private static final AtomicLong sequence = new AtomicLong();
+
+        private final FunctionImplementation unit;
+        private final long serial;
+        private final long submittedAt;
+
+        private Request(FunctionImplementation unit) {
+            this.unit = unit;
+            this.serial = sequence.getAndIncrement();
+            this.submittedAt = System.nanoTime();
+        }
+
+        @Override
+        public int compareTo(@NotNull Request other) {
+            var hotness = unit.hotness();
+            var otherHotness = other.unit.hotness();
+            if (hotness != otherHotness) return Long.compare(otherHotness, hotness);
+            return Long.compare(serial, other.serial);
+        }
+    }
+
+    /**
+     * A compiled unit waiting to be installed.
+     */
+    private static class Completion {
+        private final Request request;
+        private final FunctionImplementation.CompiledUnit unit;
+        private final long waitNanos;
+        private final long compileNanos;
+
+        private Completion(Request request, FunctionImplementation.CompiledUnit unit, long waitNanos, long compileNanos) {
+            this.request = request;
+            this.unit = unit;
+            this.waitNanos = waitNanos;
+            this.compileNanos = compileNanos;
+        }
+    }
+
+    /*
+        Instance
+     */
+
+    @Nullable private final ThreadPoolExecutor executor;
+    /**
+     * Requests waiting for a worker. There is one task in the queue of the
+     * executor for each of them, which processes whichever request is the
+     * hottest by the time the task runs.
+     */
+    private final List<Request> waitingRequests = new ArrayList<>();
+    private final List<Completion> pendingInstallations = new ArrayList<>();
+    private final AtomicLong completedCount = new AtomicLong();
+    private final AtomicLong failedCount = new AtomicLong();
+    private final AtomicLong totalCompileNanos = new AtomicLong();
+    private final AtomicLong maxCompileNanos = new AtomicLong();
+    @Nullable private volatile Listener listener;
+
+    /*internal*/ CompilationQueue(int workerCount) {
+        if (workerCount > 0) {
+            executor = new ThreadPoolExecutor(
+                workerCount, workerCount,
+                0, TimeUnit.MILLISECONDS,
+                new LinkedBlockingQueue<>(),
+                new WorkerFactory());
+        } else {
+            executor = null;
+        }
+    }
+
+    /**
+     * Indicate whether units are compiled by background workers, as opposed to
+     * synchronously by the thread submitting them.
+     */
+    public boolean isBackground() {
+        return executor != null;
+    }
+
+    /**
+     * The number of units waiting for a worker to pick them up.
+     */
+    public int queueDepth() {
+        synchronized (waitingRequests) {
+            return waitingRequests.size();
+        }
+    }
+
+    /**
+     * The number of units currently being compiled.
+     */
+    public int activeCount() {
+        return executor != null ? executor.getActiveCount() : 0;
+    }
+
+    /**
+     * The number of units compiled and installed so far.
+     */
+    public long completedCount() {
+        return completedCount.get();
+    }
+
+    /**
+     * The number of units whose compilation failed.
+     */
+    public long failedCount() {
+        return failedCount.get();
+    }
+
+    /**
+     * The total time spent generating and loading units, in nanoseconds.
+     */
+    public long totalCompileNanos() {
+        return totalCompileNanos.get();
+    }
+
+    /**
+     * The longest time spent generating and loading a single unit, in nanoseconds.
+     */
+    public long maxCompileNanos() {
+        return maxCompileNanos.get();
+    }
+
+    public void setListener(@Nullable Listener listener) {
+        this.listener = listener;
+    }
+
+    /**
+     * Submit a unit for compilation. The caller is expected to have already
+     * switched the unit into a state in which it is not resubmitted.
+     */
+    void submit(FunctionImplementation unit) {
+        if (!unit.isTopLevel()) throw new AssertionError("must be a top function implementation");
+        var request = new Request(unit);
+        if (executor != null) {
+            synchronized (waitingRequests) {
+                waitingRequests.add(request);
+            }
+            executor.execute(this::processHottest);
+        } else {
+            process(request);
+        }
+    }
+
+    private void processHottest() {
+        Request hottest;
+        synchronized (waitingRequests) {
+            hottest = Collections.min(waitingRequests);
+            waitingRequests.remove(hottest);
+        }
+        process(hottest);
+    }
+
+    private void process(Request request) {
+        var start = System.nanoTime();
+        FunctionImplementation.CompiledUnit compiledUnit;
+        try {
+            compiledUnit = request.unit.compileUnit();
+        } catch (Throwable e) {
+            failedCount.incrementAndGet();
+            request.unit.compilationFailed();
+            var currentListener = listener;
+            if (currentListener != null) currentListener.unitCompilationFailed(request.unit, e);
+            return;
+        }
+        var compileNanos = System.nanoTime() - start;
+        synchronized (pendingInstallations) {
+            pendingInstallations.add(
+                new Completion(request, compiledUnit, start - request.submittedAt, compileNanos));
+        }
+        installPending();
+    }
+
+    /**
+     * Install all units compiled so far and not yet installed, synchronizing
+     * all their core call sites at once.
+     */
+    private void installPending() {
+        List<Completion> batch;
+        synchronized (pendingInstallations) {
+            if (pendingInstallations.isEmpty()) return; // another worker took care of it
+            batch = new ArrayList<>(pendingInstallations);
+            pendingInstallations.clear();
+        }
+        var callSitesToUpdate = new ArrayList<MutableCallSite>();
+        for (var each : batch) {
+            each.request.unit.installUnit(each.unit, callSitesToUpdate);
+        }
+        MutableCallSite.syncAll(callSitesToUpdate.toArray(new MutableCallSite[0]));
+        var currentListener = listener;
+        for (var each : batch) {
+            completedCount.incrementAndGet();
+            totalCompileNanos.addAndGet(each.compileNanos);
+            maxCompileNanos.accumulateAndGet(each.compileNanos, Math::max);
+            if (currentListener != null) {
+                currentListener.unitCompiled(each.request.unit, each.waitNanos, each.compileNanos);
+            }
+        }
+    }
+
+    private static class WorkerFactory implements ThreadFactory {
+        private final AtomicInteger serial = new AtomicInteger();
+
+        @Override
+        public Thread newThread(@NotNull Runnable runnable) {
+            var thread = new Thread(runnable, "trifle-compiler-" + serial.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        }
+    }
+}
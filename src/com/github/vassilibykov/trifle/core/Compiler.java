@@ -3,7 +3,6 @@
 package com.github.vassilibykov.trifle.core;
 
 import org.jetbrains.annotations.NotNull;
-import org.jetbrains.annotations.Nullable;
 import org.objectweb.asm.ClassWriter;
 import org.objectweb.asm.MethodVisitor;
 import org.objectweb.asm.Opcodes;
@@ -12,10 +11,15 @@ import java.io.File;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.lang.invoke.MethodType;
+import java.lang.invoke.SwitchPoint;
+import java.util.ArrayList;
 import java.util.Collections;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.Objects;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.stream.Stream;
 
 import static com.github.vassilibykov.trifle.core.JvmType.REFERENCE;
@@ -34,7 +38,8 @@ import static org.objectweb.asm.Opcodes.ACC_SUPER;
  * <p>A compilation unit consists of a top-level function and functions for each
  * closure nested in it directly or indirectly. A unit is compiled into a JVM
  * class with static <em>implementation methods</em>. Each function is compiled
- * into a minimum of one and a maximum of two implementation methods.
+ * into one generic implementation method and up to {@link
+ * FunctionImplementation#MAX_SPECIALIZATIONS} specialized ones.
  *
  * <p>A function is always compiled into a <em>generic</em> method. A generic
  * method is a method whose all parameters and return types are Object. The
@@ -43,6 +48,10 @@ import static org.objectweb.asm.Opcodes.ACC_SUPER;
  * primitive type such as {@code int}. A specialized method will have those
  * parameters of the appropriate narrow type, and might have a narrow return
  * type as well, depending on the observations of the function's return values.
+ * In addition, the function is compiled into a specialized method for each
+ * signature requested by call sites linked to it (see {@link
+ * FunctionImplementation#requestSpecialization}). The parameters of such a
+ * method have the types of the request rather than the observed ones.
  *
  * <p>Each implementation method includes the "normal" implementation code
  * generated from the function's body. Operations performed in the
@@ -79,11 +88,25 @@ import static org.objectweb.asm.Opcodes.ACC_SUPER;
  * code which corresponds to the location in normal code where execution would
  * have continued were it not for the SPE. As a result, execution proceeds as
  * if it were running in the recovery code from the beginning.
+ *
+ * <p>In addition, each loop of a function which has been executed by the
+ * interpreter gets a <em>loop entry</em> method. Such a method accepts an
+ * interpreter frame and the current value of the loop, and runs generic code
+ * equivalent to recovery code entered at the head of the loop. This allows an
+ * interpreted invocation stuck in a long-running loop to continue in compiled
+ * code (on-stack replacement).
+ *
+ * <p>Finally, a unit may contain private <em>inlined</em> methods: copies of
+ * the compiled forms of small user functions the unit calls, which are then
+ * invoked directly instead of through an invokedynamic call site. See
+ * {@link Inliner}.
  */
 class Compiler {
 
     private static final String GENERIC_METHOD_PREFIX = "fun";
     private static final String SPECIALIZED_METHOD_SUFFIX = "$s";
+    private static final String LOOP_ENTRY_METHOD_SUFFIX = "$loop";
+    static final MethodType LOOP_ENTRY_METHOD_TYPE = MethodType.methodType(Object.class, Object[].class, Object.class);
     private static final String JAVA_LANG_OBJECT = "java/lang/Object";
     private static final String GENERATED_CODE_PACKAGE = GeneratedCode.class.getPackageName();
     private static final String GENERATED_CLASS_NAME_PREFIX = GENERATED_CODE_PACKAGE + ".$unit";
@@ -98,7 +121,7 @@ class Compiler {
         return result;
     }
 
-    private static void dumpClassFile(byte[] bytecode) {
+    private static synchronized void dumpClassFile(byte[] bytecode) {
         File classFile = new File("generated.class");
         try {
             FileOutputStream classStream = new FileOutputStream(classFile);
@@ -112,14 +135,55 @@ class Compiler {
     static class UnitResult {
         private byte[] bytecode;
         private final Map<FunctionImplementation, FunctionResult> functionResults = new HashMap<>();
+        private final List<Object> retainedObjects = new ArrayList<>();
+        private final Map<FunctionImplementation, SwitchPoint> inlinedFunctions = new HashMap<>();
 
-        private UnitResult() {
+        UnitResult() {
         }
 
         byte[] bytecode() {
             return bytecode;
         }
 
+        /**
+         * Objects referenced by ID from the code of the unit. They are
+         * attached to the generated class, so they stay alive at least as
+         * long as the code referencing them is loaded, even though the
+         * registries mapping the IDs only hold them weakly.
+         */
+        List<Object> retainedObjects() {
+            return Collections.unmodifiableList(retainedObjects);
+        }
+
+        /**
+         * Register an object with the {@link LiteralPool} on behalf of the
+         * unit's code.
+         */
+        int registerLiteral(Object object) {
+            retainedObjects.add(object);
+            return LiteralPool.INSTANCE.register(object);
+        }
+
+        /**
+         * Answer the ID of a function referenced by the unit's code.
+         */
+        int functionId(FunctionImplementation function) {
+            retainedObjects.add(function);
+            return function.id();
+        }
+
+        /**
+         * Functions inlined into the unit, each with the switch point which
+         * guarded its compiled form when it was inlined.
+         */
+        Map<FunctionImplementation, SwitchPoint> inlinedFunctions() {
+            return Collections.unmodifiableMap(inlinedFunctions);
+        }
+
+        void addInlinedFunction(FunctionImplementation function, SwitchPoint compiledFormSwitchPoint) {
+            inlinedFunctions.put(function, compiledFormSwitchPoint);
+        }
+
         FunctionResult functionResultFor(FunctionImplementation function) {
             return Objects.requireNonNull(functionResults.get(function));
         }
@@ -128,19 +192,19 @@ class Compiler {
             return Collections.unmodifiableMap(functionResults);
         }
 
-        private void addFunctionResult(FunctionImplementation function, FunctionResult result) {
+        void addFunctionResult(FunctionImplementation function, FunctionResult result) {
             functionResults.put(function, result);
         }
 
-        private void setBytecode(byte[] bytecode) {
+        void setBytecode(byte[] bytecode) {
             this.bytecode = bytecode;
         }
     }
 
     static class FunctionResult {
         @NotNull private final String genericMethodName;
-        @Nullable private String specializedMethodName;
-        @Nullable private MethodType specializedMethodType;
+        private final Map<String, MethodType> specializedMethods = new LinkedHashMap<>();
+        private final Map<WhileNode, String> loopEntryMethodNames = new HashMap<>();
 
         FunctionResult(@NotNull String genericMethodName)
         {
@@ -151,19 +215,31 @@ class Compiler {
             return genericMethodName;
         }
 
-        String specializedMethodName() {
-            return specializedMethodName;
+        /**
+         * Names and types of the specialized methods of the function, the
+         * primary one (if any) first.
+         */
+        Map<String, MethodType> specializedMethods() {
+            return Collections.unmodifiableMap(specializedMethods);
+        }
+
+        Map<WhileNode, String> loopEntryMethodNames() {
+            return Collections.unmodifiableMap(loopEntryMethodNames);
         }
 
-        MethodType specializedMethodType() {
-            return specializedMethodType;
+        void addSpecializedMethod(String name, MethodType type) {
+            specializedMethods.put(name, type);
+        }
+
+        void addLoopEntryMethod(WhileNode loop, String name) {
+            loopEntryMethodNames.put(loop, name);
         }
     }
 
-    private static long serial = 0;
+    private static final AtomicLong serial = new AtomicLong();
 
     private static String allocateClassName() {
-        return GENERATED_CLASS_NAME_PREFIX + serial++;
+        return GENERATED_CLASS_NAME_PREFIX + serial.getAndIncrement();
     }
 
     /*
@@ -174,6 +250,7 @@ class Compiler {
     private final String className;
     private final UnitResult result;
     private final ClassWriter classWriter = new ClassWriter(ClassWriter.COMPUTE_FRAMES);
+    private final Inliner inliner;
     private int generatedMethodSerial = 0;
 
     private Compiler(FunctionImplementation topLevelFunction) {
@@ -181,13 +258,19 @@ class Compiler {
         this.topLevelFunction = topLevelFunction;
         this.className = allocateClassName();
         this.result = new UnitResult();
+        this.inliner = new Inliner(topLevelFunction, className, classWriter, result);
     }
 
     public UnitResult compile() {
-        inferTypes();
-        setupClassWriter();
-        generateGenericMethods();
-        generateSpecializedMethods();
+        inliner.selectCandidates();
+        try {
+            inferTypes();
+            setupClassWriter();
+            generateGenericMethods();
+            generateSpecializedMethods();
+        } finally {
+            inliner.releaseCandidates();
+        }
         classWriter.visitEnd();
         result.setBytecode(classWriter.toByteArray());
         return result;
@@ -217,20 +300,79 @@ class Compiler {
     private void generateGenericMethodFor(FunctionImplementation function) {
         var methodName = generateGenericMethod(function);
         var functionResult = new FunctionResult(methodName);
+        generateLoopEntryMethods(function, functionResult);
         result.addFunctionResult(function, functionResult);
         generatedMethodSerial++;
     }
 
+    /**
+     * Generate a loop entry method for each loop of the function which has
+     * been executed by the interpreter, so that an interpreted invocation stuck
+     * in a long-running loop can transfer into compiled code. Loops of nested
+     * closures are not included; they get their own loop entry methods when
+     * the closures are processed.
+     */
+    private void generateLoopEntryMethods(FunctionImplementation function, FunctionResult functionResult) {
+        var loops = new ArrayList<WhileNode>();
+        function.body().accept(new EvaluatorNode.VisitorSkeleton<Void>() {
+            @Override
+            public Void visitClosure(ClosureNode closure) {
+                return null;
+            }
+
+            @Override
+            public Void visitWhile(WhileNode whileNode) {
+                if (whileNode.bodyCount.get() > 0) loops.add(whileNode);
+                return super.visitWhile(whileNode);
+            }
+        });
+        for (int i = 0; i < loops.size(); i++) {
+            var loop = loops.get(i);
+            var methodName = functionResult.genericMethodName + LOOP_ENTRY_METHOD_SUFFIX + i;
+            MethodVisitor methodWriter = classWriter.visitMethod(
+                ACC_PUBLIC | ACC_STATIC | ACC_FINAL,
+                methodName,
+                LOOP_ENTRY_METHOD_TYPE.toMethodDescriptorString(),
+                null, null);
+            methodWriter.visitCode();
+            RecoveryCodeGenerator.forLoopEntry(function, result, loop, new GhostWriter(methodWriter)).generateLoopEntry();
+            methodWriter.visitMaxs(-1, -1);
+            methodWriter.visitEnd();
+            functionResult.addLoopEntryMethod(loop, methodName);
+        }
+    }
+
     private void generateSpecializedMethods() {
         SpecializedTypeComputer.process(false, topLevelFunction);
         generateSpecializedMethodFor(topLevelFunction, result.functionResultFor(topLevelFunction));
         topLevelFunction.closureImplementations().forEach(
             each -> generateSpecializedMethodFor(each, result.functionResultFor(each)));
+        generateRequestedSpecializedMethodsFor(topLevelFunction);
+        topLevelFunction.closureImplementations().forEach(this::generateRequestedSpecializedMethodsFor);
     }
 
     private void generateSpecializedMethodFor(FunctionImplementation function, FunctionResult functionResult) {
         if (function.canBeSpecialized()) {
-            generateSpecializedMethod(function, functionResult);
+            generateSpecializedMethod(function, functionResult, SPECIALIZED_METHOD_SUFFIX);
+        }
+    }
+
+    /**
+     * Generate a specialized method for each specialization requested by call
+     * sites linked to the function, unless a method of the same type has
+     * already been generated. Each request is processed starting from the
+     * observed types of the whole unit, because the types of variables copied
+     * into nested closures are shared with the closures.
+     */
+    private void generateRequestedSpecializedMethodsFor(FunctionImplementation function) {
+        var functionResult = result.functionResultFor(function);
+        var serial = 1;
+        for (var signature : function.requestedSpecializations()) {
+            SpecializedTypeComputer.process(false, topLevelFunction);
+            SpecializedTypeComputer.processForSignature(function, signature);
+            if (!functionResult.specializedMethods().containsValue(computeSpecializationType(function))) {
+                generateSpecializedMethod(function, functionResult, SPECIALIZED_METHOD_SUFFIX + serial++);
+            }
         }
     }
 
@@ -242,7 +384,7 @@ class Compiler {
             MethodType.genericMethodType(closureImpl.implementationArity()).toMethodDescriptorString(),
             null, null);
         methodWriter.visitCode();
-        var generator = new MethodCodeGenerator(closureImpl, methodWriter);
+        var generator = new MethodCodeGenerator(closureImpl, result, inliner, methodWriter);
         generator.generate();
 //dumpClassFile(classWriter.toByteArray());
         methodWriter.visitMaxs(-1, -1);
@@ -250,8 +392,8 @@ class Compiler {
         return methodName;
     }
 
-    private void generateSpecializedMethod(FunctionImplementation closureImpl, FunctionResult functionResult) {
-        var methodName = functionResult.genericMethodName + SPECIALIZED_METHOD_SUFFIX;
+    private void generateSpecializedMethod(FunctionImplementation closureImpl, FunctionResult functionResult, String suffix) {
+        var methodName = functionResult.genericMethodName + suffix;
         var methodType = computeSpecializationType(closureImpl);
         System.out.format("generating a specialized method %s%s for %s%n",
             methodName, methodType, closureImpl.name().orElse("?"));
@@ -261,15 +403,14 @@ class Compiler {
             methodType.toMethodDescriptorString(),
             null, null);
         methodWriter.visitCode();
-        var generator = new MethodCodeGenerator(closureImpl, methodWriter);
+        var generator = new MethodCodeGenerator(closureImpl, result, inliner, methodWriter);
         generator.generate();
         methodWriter.visitMaxs(-1, -1);
         methodWriter.visitEnd();
-        functionResult.specializedMethodName = methodName;
-        functionResult.specializedMethodType = methodType;
+        functionResult.addSpecializedMethod(methodName, methodType);
     }
 
-    @NotNull private MethodType computeSpecializationType(FunctionImplementation function) {
+    @NotNull static MethodType computeSpecializationType(FunctionImplementation function) {
         // Boxed synthetic parameters are passed in as boxes, so they are reference type no matter the var type.
         Stream<JvmType> syntheticParamTypes = function.syntheticParameters().stream()
             .map(each -> each.isBoxed() ? REFERENCE : each.specializedType());
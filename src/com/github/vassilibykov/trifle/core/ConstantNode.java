@@ -20,6 +20,11 @@ class ConstantNode extends EvaluatorNode {
         return visitor.visitConstant(this);
     }
 
+    @Override
+    Object evaluateUnboxed(Interpreter.Evaluator evaluator) {
+        return evaluator.visitConstant(this);
+    }
+
     @Override
     public String toString() {
         return "(const " + value + ")";
@@ -12,10 +12,13 @@ import org.jetbrains.annotations.NotNull;
  * variables should already be computed.
  *
  * <p>For type profiling and inferencing, copied variables always delegate to their originals.
+ * The specialized type of an unboxed copy is its own, because the method of the function
+ * receiving it may be generic even if the original is an {@code int} local of its host.
  */
 class CopiedVariable extends AbstractVariable {
     @NotNull private final VariableDefinition original;
     private AbstractVariable supplier;
+    private JvmType specializedType;
 
     CopiedVariable(@NotNull VariableDefinition original, FunctionImplementation hostFunction) {
         super(hostFunction);
@@ -53,8 +56,8 @@ class CopiedVariable extends AbstractVariable {
     }
 
     @Override
-    JvmType specializedType() {
-        return original.specializedType();
+    synchronized JvmType specializedType() {
+        return isBoxed || specializedType == null ? original.specializedType() : specializedType;
     }
 
     @Override
@@ -63,8 +66,8 @@ class CopiedVariable extends AbstractVariable {
     }
 
     @Override
-    void setSpecializedType(@NotNull JvmType type) {
-        // nothing to set; the original determines the type
+    synchronized void setSpecializedType(@NotNull JvmType type) {
+        specializedType = type;
     }
 
     @Override
@@ -0,0 +1,73 @@
+// Copyright (c) 2018 Vassili Bykov. Licensed under the Apache License, Version 2.0.
+
+package com.github.vassilibykov.trifle.core;
+
+import org.objectweb.asm.Handle;
+import org.objectweb.asm.Opcodes;
+
+import java.lang.invoke.CallSite;
+import java.lang.invoke.ConstantCallSite;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+
+/**
+ * An invokedynamic instruction for the sites where compiled code reports
+ * events which may lead to deoptimization of the unit the code belongs to.
+ * The instruction name selects the event:
+ *
+ * <p><b>recordFailure</b> - of type {@code (Object)void}, generated in SPE
+ * handlers. The extra integer parameter is the {@link LiteralPool} ID of the
+ * {@link SpecializationFailureSite} of the handler.
+ *
+ * <p><b>recordWidenedValue</b> - of type {@code (Object)void}, generated in a
+ * deoptimized unit which may be re-profiled, at the sites widened by the
+ * deoptimization. The extra integer parameter is the {@link LiteralPool} ID of
+ * the {@link WidenedSite} watching the site.
+ */
+final class DeoptimizationInvokeDynamic {
+
+    static final Handle BOOTSTRAP = new Handle(
+        Opcodes.H_INVOKESTATIC,
+        GhostWriter.internalClassName(DeoptimizationInvokeDynamic.class),
+        "bootstrap",
+        MethodType.methodType(CallSite.class, MethodHandles.Lookup.class, String.class, MethodType.class, Integer.class)
+            .toMethodDescriptorString(),
+        false);
+
+    static final String RECORD_FAILURE = "recordFailure";
+    static final String RECORD_WIDENED_VALUE = "recordWidenedValue";
+
+    @SuppressWarnings("unused") // called by invokedynamic infrastructure
+    public static CallSite bootstrap(MethodHandles.Lookup lookup, String name, MethodType callSiteType, Integer id) {
+        switch (name) {
+            case RECORD_FAILURE:
+                var site = (SpecializationFailureSite) LiteralPool.INSTANCE.get(id);
+                return new ConstantCallSite(RECORD_FAILURE_METHOD.bindTo(site).asType(callSiteType));
+            case RECORD_WIDENED_VALUE:
+                var widenedSite = (WidenedSite) LiteralPool.INSTANCE.get(id);
+                return new ConstantCallSite(RECORD_WIDENED_VALUE_METHOD.bindTo(widenedSite).asType(callSiteType));
+            default:
+                throw new IllegalArgumentException("unknown deoptimization event: " + name);
+        }
+    }
+
+    private static final MethodHandle RECORD_FAILURE_METHOD;
+    private static final MethodHandle RECORD_WIDENED_VALUE_METHOD;
+
+    static {
+        try {
+            var lookup = MethodHandles.lookup();
+            RECORD_FAILURE_METHOD = lookup.findVirtual(
+                SpecializationFailureSite.class,
+                "recordFailure",
+                MethodType.methodType(void.class, Object.class));
+            RECORD_WIDENED_VALUE_METHOD = lookup.findVirtual(
+                WidenedSite.class,
+                "recordValue",
+                MethodType.methodType(void.class, Object.class));
+        } catch (NoSuchMethodException | IllegalAccessException e) {
+            throw new AssertionError(e);
+        }
+    }
+}
@@ -39,8 +39,9 @@ public class DictionaryAccessInvokeDynamic {
         var dictionary = Dictionary.withId(id);
         String name = keyIn(operation);
         var entry = dictionary.getEntry(name).orElseThrow(NoSuchElementException::new); // TODO use a proper exception
-        var handle = callSiteType.returnType() == int.class ? GET_INT : GET_REF;
-        return new ConstantCallSite(handle.bindTo(entry));
+        if (callSiteType.returnType() == int.class) return new ConstantCallSite(GET_INT.bindTo(entry));
+        var handle = JvmType.guardReturnValue(callSiteType.returnType(), GET_REF.bindTo(entry));
+        return new ConstantCallSite(handle.asType(callSiteType));
     }
 
     @SuppressWarnings("unused") // called by invokedynamic infrastructure
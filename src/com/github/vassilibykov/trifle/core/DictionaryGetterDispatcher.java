@@ -21,7 +21,9 @@ public class DictionaryGetterDispatcher implements CallDispatcher {
         if (call.arity() != 0) {
             throw RuntimeError.message("invalid call expression"); // TODO should probably use a different exception
         }
-        return dictionary.getEntry(key).orElseThrow(NoSuchElementException::new).value(); // TODO use a proper exception
+        var entry = dictionary.getEntry(key).orElseThrow(NoSuchElementException::new); // TODO use a proper exception
+        call.rewrite(new EntryRead(dictionary, key, entry));
+        return entry.value();
     }
 
     @Override
@@ -37,4 +39,23 @@ public class DictionaryGetterDispatcher implements CallDispatcher {
             dictionary.id());
         return returnType == JvmType.REFERENCE ? Gist.INFALLIBLE_REFERENCE : Gist.of(returnType, true);
     }
+
+    /**
+     * The dispatcher a call rewrites itself into once it has found the entry.
+     * Entries are never removed from a dictionary, so the entry of a key
+     * doesn't change once defined and the call can read it with no lookup.
+     */
+    private static class EntryRead extends DictionaryGetterDispatcher {
+        private final Dictionary.Entry entry;
+
+        private EntryRead(Dictionary dictionary, String key, Dictionary.Entry entry) {
+            super(dictionary, key);
+            this.entry = entry;
+        }
+
+        @Override
+        public Object execute(CallNode call, EvaluatorNode.Visitor<Object> interpreter) {
+            return entry.value();
+        }
+    }
 }
@@ -133,6 +133,22 @@ public abstract class EvaluatorNode {
 
     public abstract <T> T accept(Visitor<T> visitor);
 
+    /**
+     * Evaluate the node by the interpreter, without boxing the result if it is
+     * an {@code int}. In that case the result is {@link
+     * AbstractVariable#IN_INT_LANE} and the value is in {@link
+     * Interpreter.Evaluator#intValue}. The caller must retrieve it before
+     * evaluating anything else. Nodes unable to produce such a result evaluate
+     * as if visited by the evaluator.
+     *
+     * <p>The evaluator calls this method directly at each place it evaluates a
+     * subexpression, rather than through a helper of its own. The JIT then
+     * profiles the receiver types of each of those calls separately. Through a
+     * shared helper, all of them would go through a single call site which
+     * sees every node class and can never be inlined.
+     */
+    abstract Object evaluateUnboxed(Interpreter.Evaluator evaluator);
+
     /*internal*/ ExpressionType inferredType() {
         return inferredType;
     }
@@ -4,14 +4,26 @@ package com.github.vassilibykov.trifle.core;
 
 import org.jetbrains.annotations.NotNull;
 
+import java.lang.invoke.MethodHandle;
 import java.util.Optional;
-import java.util.stream.Stream;
 
 public class ExpressionCallDispatcher implements CallDispatcher {
-    @NotNull private final EvaluatorNode expression;
+    @NotNull /*internal*/ final EvaluatorNode expression;
+    /**
+     * Whether the interpreter may rewrite the call into a {@link
+     * MonomorphicClosureCall} when it sees a closure callee. False in the
+     * dispatcher replacing a monomorphic one whose callee has changed, so
+     * the call stays generic from then on.
+     */
+    private final boolean isSpecializable;
 
     public ExpressionCallDispatcher(@NotNull EvaluatorNode expression) {
+        this(expression, true);
+    }
+
+    private ExpressionCallDispatcher(@NotNull EvaluatorNode expression, boolean isSpecializable) {
         this.expression = expression;
+        this.isSpecializable = isSpecializable;
     }
 
     @Override
@@ -21,48 +33,54 @@ public class ExpressionCallDispatcher implements CallDispatcher {
 
     @Override
     public Object execute(CallNode call, EvaluatorNode.Visitor<Object> interpreter) {
+        var function = expression.accept(interpreter);
+        if (isSpecializable && function instanceof Closure) {
+            var implementation = ((Closure) function).implementation;
+            if (implementation.declarationArity() == call.arity()) {
+                var specialized = new MonomorphicClosureCall(expression, implementation);
+                call.rewrite(specialized);
+                return call.invokeClosure(specialized.closureInvoker, (Closure) function, interpreter);
+            }
+        }
+        return invokeGeneric(call, function, interpreter);
+    }
+
+    /**
+     * Call the value of the dispatcher expression, already evaluated, as an
+     * arbitrary {@link Invocable}.
+     */
+    Object invokeGeneric(CallNode call, Object function, EvaluatorNode.Visitor<Object> interpreter) {
         Invocable target;
         try {
-            target = (Invocable) expression.accept(interpreter);
+            target = (Invocable) function;
         } catch (ClassCastException e) {
             throw RuntimeError.message("closure expected");
         }
-        return call.match(new CallNode.ArityMatcher<>() {
-            @Override
-            public Object ifNullary() {
+        switch (call.arity()) {
+            case 0:
                 return target.invoke();
-            }
-
-            @Override
-            public Object ifUnary(EvaluatorNode arg) {
-                return target.invoke(arg.accept(interpreter));
-            }
-
-            @Override
-            public Object ifBinary(EvaluatorNode arg1, EvaluatorNode arg2) {
-                return target.invoke(arg1.accept(interpreter), arg2.accept(interpreter));
-            }
-
-            @Override
-            public Object ifTernary(EvaluatorNode arg1, EvaluatorNode arg2, EvaluatorNode arg3) {
-                return target.invoke(arg1.accept(interpreter), arg2.accept(interpreter), arg3.accept(interpreter));
-            }
-
-            @Override
-            public Object ifQuaternary(EvaluatorNode arg1, EvaluatorNode arg2, EvaluatorNode arg3, EvaluatorNode arg4) {
+            case 1:
+                return target.invoke(call.argument(0).accept(interpreter));
+            case 2:
+                return target.invoke(call.argument(0).accept(interpreter), call.argument(1).accept(interpreter));
+            case 3:
                 return target.invoke(
-                    arg1.accept(interpreter),
-                    arg2.accept(interpreter),
-                    arg3.accept(interpreter),
-                    arg4.accept(interpreter));
-            }
-
-            @Override
-            public Object ifMultifarious(EvaluatorNode[] args) {
-                var arguments = Stream.of(args).map(each -> each.accept(interpreter)).toArray();
+                    call.argument(0).accept(interpreter),
+                    call.argument(1).accept(interpreter),
+                    call.argument(2).accept(interpreter));
+            case 4:
+                return target.invoke(
+                    call.argument(0).accept(interpreter),
+                    call.argument(1).accept(interpreter),
+                    call.argument(2).accept(interpreter),
+                    call.argument(3).accept(interpreter));
+            default:
+                var arguments = new Object[call.arity()];
+                for (int i = 0; i < arguments.length; i++) {
+                    arguments[i] = call.argument(i).accept(interpreter);
+                }
                 return target.invokeWithArguments(arguments);
-            }
-        });
+        }
     }
 
     @Override
@@ -75,4 +93,32 @@ public class ExpressionCallDispatcher implements CallDispatcher {
         var returnType = JvmType.ofClass(callSiteType.returnType());
         return Gist.of(returnType, returnType != JvmType.REFERENCE);
     }
+
+    /**
+     * The dispatcher a call rewrites itself into once it has called a closure.
+     * It caches the implementation of the closure and its closure invoker,
+     * and calls any closure of the same implementation through the invoker
+     * with no further lookup. A callee which is not such a closure rewrites
+     * the call into a generic dispatcher for good.
+     */
+    private static class MonomorphicClosureCall extends ExpressionCallDispatcher {
+        private final FunctionImplementation implementation;
+        private final MethodHandle closureInvoker;
+
+        private MonomorphicClosureCall(EvaluatorNode expression, FunctionImplementation implementation) {
+            super(expression, false);
+            this.implementation = implementation;
+            this.closureInvoker = implementation.closureInvoker();
+        }
+
+        @Override
+        public Object execute(CallNode call, EvaluatorNode.Visitor<Object> interpreter) {
+            var function = expression.accept(interpreter);
+            if (function instanceof Closure && ((Closure) function).implementation == implementation) {
+                return call.invokeClosure(closureInvoker, (Closure) function, interpreter);
+            }
+            call.rewrite(new ExpressionCallDispatcher(expression, false));
+            return invokeGeneric(call, function, interpreter);
+        }
+    }
 }
@@ -60,34 +60,40 @@ final class ExpressionCallInvokeDynamic {
         /* If the implementation function has not been compiled, it doesn't
            make sense to install an inline cache just yet because we can do better
            later. */
-        if (closure.implementation.isCompiled() && !closure.hasCopiedValues() && !thisSite.isMegamorphic()) {
-            // TODO I think we can still do something for closures with copied values, but with a different logic
-            target = closure.optimalCallSiteInvoker(thisSite.type());
-            thisSite.addCacheEntry(
-                IS_SAME_FUNCTION_CLOSURE.bindTo(closure.implementation),
-                MethodHandles.dropArguments(target, 0, Object.class));
+        if (closure.implementation.isCompiled() && !thisSite.isMegamorphic()) {
+            if (closure.hasCopiedValues()) {
+                /* An optimal invoker has the closure's copied values bound into it,
+                   so it can't be shared by other closures of the same function. Instead,
+                   cache an invoker which loads them from the closure on each call. */
+                target = closure.implementation.sharedClosureInvoker(thisSite.type());
+            } else {
+                target = MethodHandles.dropArguments(closure.optimalCallSiteInvoker(thisSite.type()), 0, Object.class);
+            }
+            if (target != null) {
+                thisSite.addCacheEntry(IS_SAME_FUNCTION_CLOSURE.bindTo(closure.implementation), target);
+            }
             // don't use the cached invoker (target) in this call; here we need a generic signature
         }
-        target = closure.genericInvoker();
+        target = closure.implementation.closureInvoker();
         Object result;
         switch (args.length) {
             case 0:
-                result = target.invokeExact();
+                result = target.invokeExact(closure);
                 break;
             case 1:
-                result = target.invokeExact(args[0]);
+                result = target.invokeExact(closure, args[0]);
                 break;
             case 2:
-                result = target.invokeExact(args[0], args[1]);
+                result = target.invokeExact(closure, args[0], args[1]);
                 break;
             case 3:
-                result = target.invokeExact(args[0], args[1], args[2]);
+                result = target.invokeExact(closure, args[0], args[1], args[2]);
                 break;
             case 4:
-                result = target.invokeExact(args[0], args[1], args[2], args[3]);
+                result = target.invokeExact(closure, args[0], args[1], args[2], args[3]);
                 break;
             default:
-                result = target.invokeWithArguments(args);
+                result = closure.implementation.spreadClosureInvoker().invokeExact(closure, args);
         }
         if (JvmType.isCompatibleValue(thisSite.type().returnType(), result)) {
             return result;
@@ -101,7 +107,7 @@ final class ExpressionCallInvokeDynamic {
         var realInvoker = function.invoker(adjustedType);
         var adjustedInvoker = MethodHandles.dropArguments(realInvoker, 0, Object.class);
         thisSite.addCacheEntry(IS_SAME_OBJECT.bindTo(function), adjustedInvoker);
-        var result = realInvoker.invokeWithArguments(args);
+        var result = SpreadInvokers.invoke(realInvoker, args);
         if (JvmType.isCompatibleValue(thisSite.type().returnType(), result)) {
             return result;
         } else {
@@ -118,27 +124,28 @@ final class ExpressionCallInvokeDynamic {
         Object result;
         if (closureArg instanceof FreeFunction) {
             var adjustedType = thisSite.type().dropParameterTypes(0, 1);
-            result = ((FreeFunction) closureArg).invoker(adjustedType).invokeWithArguments(args);
+            result = SpreadInvokers.invoke(((FreeFunction) closureArg).invoker(adjustedType), args);
         } else {
-            MethodHandle target = ((Closure) closureArg).genericInvoker();
+            var closure = (Closure) closureArg;
+            MethodHandle target = closure.implementation.closureInvoker();
             switch (args.length) {
                 case 0:
-                    result = target.invokeExact();
+                    result = target.invokeExact(closure);
                     break;
                 case 1:
-                    result = target.invokeExact(args[0]);
+                    result = target.invokeExact(closure, args[0]);
                     break;
                 case 2:
-                    result = target.invokeExact(args[0], args[1]);
+                    result = target.invokeExact(closure, args[0], args[1]);
                     break;
                 case 3:
-                    result = target.invokeExact(args[0], args[1], args[2]);
+                    result = target.invokeExact(closure, args[0], args[1], args[2]);
                     break;
                 case 4:
-                    result = target.invokeExact(args[0], args[1], args[2], args[3]);
+                    result = target.invokeExact(closure, args[0], args[1], args[2], args[3]);
                     break;
                 default:
-                    result = target.invokeWithArguments(args);
+                    result = closure.implementation.spreadClosureInvoker().invokeExact(closure, args);
             }
         }
         if (JvmType.isCompatibleValue(thisSite.type().returnType(), result)) {
@@ -86,7 +86,7 @@ public interface FreeFunction extends Invocable {
     default Object invokeWithArguments(Object[] arguments) {
         var invoker = invoker(MethodType.genericMethodType(arguments.length));
         try {
-            return invoker.invokeWithArguments(arguments);
+            return SpreadInvokers.invoke(invoker, arguments);
         } catch (SquarePegException e) {
             return e.value;
         } catch (RuntimeError e) {
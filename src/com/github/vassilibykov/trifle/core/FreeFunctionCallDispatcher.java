@@ -5,8 +5,6 @@ package com.github.vassilibykov.trifle.core;
 import com.github.vassilibykov.trifle.builtin.BuiltinFunction;
 import org.jetbrains.annotations.NotNull;
 
-import java.util.stream.Stream;
-
 public class FreeFunctionCallDispatcher implements CallDispatcher {
     @NotNull private final FreeFunction target;
 
@@ -14,44 +12,45 @@ public class FreeFunctionCallDispatcher implements CallDispatcher {
         this.target = target;
     }
 
+    FreeFunction target() {
+        return target;
+    }
+
     @Override
     public Object execute(CallNode call, EvaluatorNode.Visitor<Object> interpreter) {
-        return call.match(new CallNode.ArityMatcher<>() {
-            @Override
-            public Object ifNullary() {
-                return target.invoke();
+        if (target instanceof UserFunction) {
+            var implementation = ((UserFunction) target).implementation();
+            if (implementation.declarationArity() == call.arity()) {
+                var specialized = new UserFunctionCall((UserFunction) target);
+                call.rewrite(specialized);
+                return specialized.execute(call, interpreter);
             }
-
-            @Override
-            public Object ifUnary(EvaluatorNode arg) {
-                return target.invoke(arg.accept(interpreter));
-            }
-
-            @Override
-            public Object ifBinary(EvaluatorNode arg1, EvaluatorNode arg2) {
-                return target.invoke(arg1.accept(interpreter), arg2.accept(interpreter));
-            }
-
-            @Override
-            public Object ifTernary(EvaluatorNode arg1, EvaluatorNode arg2, EvaluatorNode arg3) {
-                return target.invoke(arg1.accept(interpreter), arg2.accept(interpreter), arg3.accept(interpreter));
-            }
-
-            @Override
-            public Object ifQuaternary(EvaluatorNode arg1, EvaluatorNode arg2, EvaluatorNode arg3, EvaluatorNode arg4) {
+        }
+        switch (call.arity()) {
+            case 0:
+                return target.invoke();
+            case 1:
+                return target.invoke(call.argument(0).accept(interpreter));
+            case 2:
+                return target.invoke(call.argument(0).accept(interpreter), call.argument(1).accept(interpreter));
+            case 3:
                 return target.invoke(
-                    arg1.accept(interpreter),
-                    arg2.accept(interpreter),
-                    arg3.accept(interpreter),
-                    arg4.accept(interpreter));
-            }
-
-            @Override
-            public Object ifMultifarious(EvaluatorNode[] args) {
-                var arguments = Stream.of(args).map(each -> each.accept(interpreter)).toArray();
+                    call.argument(0).accept(interpreter),
+                    call.argument(1).accept(interpreter),
+                    call.argument(2).accept(interpreter));
+            case 4:
+                return target.invoke(
+                    call.argument(0).accept(interpreter),
+                    call.argument(1).accept(interpreter),
+                    call.argument(2).accept(interpreter),
+                    call.argument(3).accept(interpreter));
+            default:
+                var arguments = new Object[call.arity()];
+                for (int i = 0; i < arguments.length; i++) {
+                    arguments[i] = call.argument(i).accept(interpreter);
+                }
                 return target.invokeWithArguments(arguments);
-            }
-        });
+        }
     }
 
     @Override
@@ -67,13 +66,14 @@ public class FreeFunctionCallDispatcher implements CallDispatcher {
             return Gist.of(returnType, returnType != JvmType.REFERENCE);
         } else if (target instanceof UserFunction) {
             var userFunction = (UserFunction) this.target;
-            var id = userFunction.implementation().id();
             var callSiteType = generator.generateArgumentLoad(call);
-            generator.writer().invokeDynamic(
-                UserFunctionCallInvokeDynamic.BOOTSTRAP,
-                userFunction.name(),
-                callSiteType,
-                id);
+            if (!generator.generateInlinedCall(userFunction.implementation(), callSiteType)) {
+                generator.writer().invokeDynamic(
+                    UserFunctionCallInvokeDynamic.BOOTSTRAP,
+                    userFunction.name(),
+                    callSiteType,
+                    generator.functionId(userFunction.implementation()));
+            }
             var returnType = JvmType.ofClass(callSiteType.returnType());
             return Gist.of(returnType, returnType != JvmType.REFERENCE);
         } else {
@@ -85,4 +85,25 @@ public class FreeFunctionCallDispatcher implements CallDispatcher {
     public String toString() {
         return target.name();
     }
+
+    /**
+     * The dispatcher a call of a user function rewrites itself into once
+     * interpreted. A user function's implementation never changes, so the
+     * call can invoke the core call site of the implementation, which is
+     * cached here, with no checks. Going through a closure of the
+     * implementation instead would add an adapter dropping the closure.
+     */
+    private static class UserFunctionCall extends FreeFunctionCallDispatcher {
+        private final FunctionImplementation implementation;
+
+        private UserFunctionCall(UserFunction target) {
+            super(target);
+            this.implementation = target.implementation();
+        }
+
+        @Override
+        public Object execute(CallNode call, EvaluatorNode.Visitor<Object> interpreter) {
+            return call.invokeExact(implementation, interpreter);
+        }
+    }
 }
@@ -28,13 +28,19 @@ class FreeFunctionReferenceNode extends EvaluatorNode {
         return visitor.visitFreeFunctionReference(this);
     }
 
+    @Override
+    Object evaluateUnboxed(Interpreter.Evaluator evaluator) {
+        return evaluator.visitFreeFunctionReference(this);
+    }
+
     /**
-     * Using the supplied writer, generate code that results in the target of
+     * Using the writer of the supplied generator, generate code that results in the target of
      * the reference being loaded on the stack. This code is here to avoid
      * duplication across all the code generators which all handle this the same
      * way.
      */
-    Gist generateLoad(GhostWriter writer) {
+    Gist generateLoad(CodeGenerator generator) {
+        var writer = generator.writer();
         if (target instanceof BuiltinFunction) {
             writer.invokeDynamic(
                 BuiltinFunctionReferenceInvokeDynamic.BOOTSTRAP,
@@ -45,7 +51,7 @@ class FreeFunctionReferenceNode extends EvaluatorNode {
                 UserFunctionReferenceInvokeDynamic.BOOTSTRAP,
                 "userFunctionRef",
                 MethodType.methodType(Object.class),
-                ((UserFunction) target).implementation().id());
+                generator.functionId(((UserFunction) target).implementation()));
         } else {
             throw new AssertionError("unexpected target: " + target);
         }
@@ -11,10 +11,20 @@ import java.lang.invoke.MethodHandle;
 import java.lang.invoke.MethodHandles;
 import java.lang.invoke.MethodType;
 import java.lang.invoke.MutableCallSite;
+import java.lang.invoke.SwitchPoint;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
 import java.util.Optional;
+import java.util.Set;
+import java.util.WeakHashMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
 import java.util.stream.Stream;
 
 import static com.github.vassilibykov.trifle.core.JvmType.REFERENCE;
@@ -41,8 +51,8 @@ import static com.github.vassilibykov.trifle.core.JvmType.REFERENCE;
  * using the best currently available option. For a newly created function
  * implementation that would be execution by a profiling interpreter. Later the
  * target of the call site is changed to a faster non-profiling interpreter
- * while the function is being compiled, and eventually to a method handle to
- * the generic compiled form of the function.
+ * while the function is being compiled by the {@link CompilationQueue}, and
+ * eventually to a method handle to the generic compiled form of the function.
  *
  * <p>In a top-level function with {@code n} declared parameters, the core call
  * site has the type
@@ -72,30 +82,43 @@ import static com.github.vassilibykov.trifle.core.JvmType.REFERENCE;
  * }</pre>
  *
  * <p>The extra leading argument is the closure being called. Internally a
- * closure maintains an {@link Closure#genericInvoker} method handle which calls
- * its function implementation's {@link #callSiteInvoker} after inserting copied
+ * closure is invoked by its function implementation's {@link #closureInvoker},
+ * which calls the {@link #callSiteInvoker} after spreading the closure's copied
  * values, if any, to be received by the synthetic parameters prepended by the
- * closure converter.
+ * closure converter. The closure invoker is shared by all closures of the
+ * function, so creating a closure creates no method handles.
  *
  * <p>In addition to the generically-typed compiled form bound to the core {@link
- * #callSite}, a function implementation may have a specialized compiled form. A
- * specialized form is produced by the compiler if the profiling interpreter
- * observed at least one of the function arguments to always be of a primitive
- * type. In a specialized form is available, the {@link
- * #specializedImplementation} field is not null. It contains a method handle of
- * the specialized compiled form. Compared to the signature of the generic method,
- * the signature of the specialized one has some of the parameters of primitive
- * types, and may have a primitive return type.
+ * #callSite}, a function implementation may have up to {@link
+ * #MAX_SPECIALIZATIONS} specialized compiled forms. The primary specialized
+ * form is produced by the compiler if the profiling interpreter observed at
+ * least one of the function arguments to always be of a primitive type. The
+ * others are produced on demand of compiled call sites: a call site is typed
+ * according to the argument profiles at that site, and if a function is linked
+ * to a call site with primitive argument types none of its specialized forms
+ * has, the calls made through that site are counted. Once the calls through
+ * all such sites of the same type reach {@link
+ * #SPECIALIZATION_DEMAND_THRESHOLD}, the signature is recorded as a
+ * specialization request and the unit is recompiled (see {@link
+ * #requestSpecialization}). Merely linking a call site that is never or
+ * rarely called does not cause a recompilation. This lets a
+ * function called with {@code int} arguments from one place and {@code double}
+ * arguments from another have a specialized form for each, even though its
+ * merged parameter profiles only show references. The method handles of the
+ * specialized forms are kept in {@link #specializedImplementations}, the
+ * primary one first. Compared to the signature of the generic method, the
+ * signature of a specialized one has some of the parameters of primitive types,
+ * and may have a primitive return type.
  *
  * <p>There are two mechanisms of how a specialized implementation can be
  * invoked. One is from the "normal" generic invocation pipeline, which includes
- * both the interpreted and the compiled generic cases. If a function has a
- * specialization, the method handle of its core {@link #callSite} is a guard
- * testing the current arguments for applicability to the specialized form. For
- * example, if a unary function has an {@code (int)} specialization, the guard
- * would test the invocation argument for being an {@code Integer}. Depending on
- * the result of the test, either the specialized or the generic form is
- * invoked.
+ * both the interpreted and the compiled generic cases. If a function has
+ * specializations, the method handle of its core {@link #callSite} is a chain
+ * of guards testing the current arguments for applicability to each of the
+ * specialized forms in turn. For example, if a unary function has an {@code
+ * (int)} specialization, the guard would test the invocation argument for being
+ * an {@code Integer}. The first specialized form whose test succeeds is
+ * invoked, or the generic form if none does.
  *
  * <p>The other mechanism is an invocation from specialized code. The
  * specialized code compiler generates a call site with the signature matching
@@ -104,7 +127,9 @@ import static com.github.vassilibykov.trifle.core.JvmType.REFERENCE;
  * its call site typed as {@code (Object int int) -> int} (the leading argument
  * is again the closure typed as Object). The same function might be called
  * elsewhere from a call site typed as {@code (Object int Object) -> Object} if
- * those were the types observed at that call site.
+ * those were the types observed at that call site. Each call site is linked
+ * by {@link #invoker(MethodType)} to the specialized form which best matches
+ * its type.
  */
 public class FunctionImplementation {
 
@@ -114,23 +139,67 @@ public class FunctionImplementation {
      */
     public static final long PROFILING_TARGET = 10;
 
+    /**
+     * The number of specialization failures at a single recovery site of
+     * compiled code which causes the unit of the function to be deoptimized
+     * and recompiled with the profiles leading to the failures widened.
+     */
+    public static final long DEOPTIMIZATION_THRESHOLD = 100;
+
+    /**
+     * The number of consecutive values received by a site widened by
+     * deoptimization which fit the type the site had before, after which the
+     * unit is re-profiled (see {@link WidenedSite}). This allows a unit
+     * deoptimized in one phase of the program to be re-specialized if the
+     * program enters a phase in which narrower types would fit again.
+     */
+    public static final long REPROFILING_WINDOW = 10_000;
+
+    /**
+     * The maximum number of times a unit is deoptimized or re-profiled. Once
+     * the count is reached, the unit keeps its current compiled form.
+     */
+    public static final int MAX_DEOPTIMIZATIONS = 4;
+
+    /**
+     * The maximum number of specialized compiled forms of a function,
+     * including the primary one derived from the merged parameter profiles.
+     */
+    public static final int MAX_SPECIALIZATIONS = 4;
+
+    /**
+     * The number of calls through call sites linked to a compiled form which
+     * doesn't exactly match their primitive parameter types, after which a
+     * specialization for those types is requested.
+     */
+    public static final long SPECIALIZATION_DEMAND_THRESHOLD = 1_000;
+    /**
+     * The interpreter which runs functions while they are being compiled. It
+     * is the tree-walking {@link Interpreter}, unless the {@code
+     * trifle.acodeInterpreter} system property is true, in which case it is
+     * {@link ACodeInterpreter}. With the per-site type profiles of the tree
+     * interpreter, the JIT compiles it into faster code than the switch loop
+     * of the a-code interpreter (see doc/basic-benchmarks.md).
+     */
+    private static final Interpreter SIMPLE_INTERPRETER = Boolean.getBoolean("trifle.acodeInterpreter")
+        ? ACodeInterpreter.INSTANCE
+        : Interpreter.INSTANCE;
+
     private enum State {
         INVALID,
         PROFILING,
         COMPILING,
-        COMPILED
+        COMPILED,
+        /** The unit failed to compile and runs in the simple interpreter for good. */
+        INTERPRETED
     }
 
-    private static final List<FunctionImplementation> registry = new ArrayList<>(100);
+    private static final WeakRegistry<FunctionImplementation> registry = new WeakRegistry<>();
 
-    private static synchronized int register(FunctionImplementation implementation) {
-        var id = registry.size();
-        registry.add(implementation);
-        return id;
-    }
-
-    static synchronized FunctionImplementation withId(int id) {
-        return registry.get(id);
+    static FunctionImplementation withId(int id) {
+        var function = registry.get(id);
+        if (function == null) throw new IllegalArgumentException("function ID does not exist: " + id);
+        return function;
     }
 
     /*
@@ -172,6 +241,12 @@ public class FunctionImplementation {
     private int frameSize = -1;
     /*internal*/ FunctionProfile profile;
     private JvmType specializedReturnType;
+    /**
+     * The JVM local variable slots of frame indices in the method currently
+     * being generated for this function. Set along with specialized types.
+     */
+    private int[] localSlots;
+    private int localSlotCount;
     /**
      * The unique ID of the function in the function registry.
      */
@@ -186,19 +261,113 @@ public class FunctionImplementation {
      * The dynamic invoker of {@link #callSite}.
      */
     private MethodHandle callSiteInvoker;
+    /**
+     * The invoker shared by all closures of this function, of type {@code
+     * (Closure Object{n}) -> Object}. Lazily computed by the getter.
+     */
+    private volatile MethodHandle closureInvoker;
+    /**
+     * The spreading form of {@link #callSiteInvoker}, of type {@code
+     * (Object[]) -> Object}. Lazily computed by the getter.
+     */
+    private volatile MethodHandle spreadInvoker;
+    /**
+     * The spreading form of {@link #closureInvoker}, of type {@code (Closure
+     * Object[]) -> Object}. Lazily computed by the getter.
+     */
+    private volatile MethodHandle spreadClosureInvoker;
+    /**
+     * Invokers of the compiled forms returned by {@link #optimalInvoker} for
+     * closures with no copied values. Discarded when the compiled forms
+     * change.
+     */
+    private volatile OptimalInvokers optimalInvokers;
     private MethodHandle genericImplementation;
-    private MethodHandle specializedImplementation;
+    /**
+     * Method handles of the specialized compiled forms, the primary one (if
+     * any) first. Replaced as a whole whenever the compiled forms change.
+     */
+    private volatile List<MethodHandle> specializedImplementations = List.of();
+    /**
+     * The declared parameter signatures of call sites which asked for a
+     * specialization this function did not have. Each one is compiled into an
+     * additional specialized form the next time the unit is compiled. Never
+     * longer than {@link #MAX_SPECIALIZATIONS} - 1.
+     */
+    private final List<MethodType> requestedSpecializations = new ArrayList<>();
+    /**
+     * The counts of calls made through call sites linked to a compiled form
+     * not matching their primitive parameter types, by the declared parameter
+     * types of the call sites.
+     */
+    private final Map<List<Class<?>>, SpecializationDemand> specializationDemands = new ConcurrentHashMap<>();
     /**
      * Internal representation of this function's code from which recovery
      * portion of the bytecode can be generated. It's the same for generic and
      * specialized forms, so it's cached here. Lazily computed by the getter.
      */
     private RecoveryCodeGenerator.Instruction[] recoveryCode;
+    /**
+     * The code executed by {@link ACodeInterpreter}. Lazily computed by the
+     * getter.
+     */
+    private volatile ACode acode;
     private volatile State state;
+    /**
+     * In a top-level function implementation, the number of invocations of
+     * the functions of the unit in the simple interpreter while the unit is
+     * waiting to be compiled. Like the invocation count of a profile, it is
+     * approximate.
+     */
+    private volatile long interpretedInvocationCount = 0;
+    /**
+     * Guards direct links to the compiled forms of this function made by
+     * {@link #invoker(MethodType)}. Invalidated when the compiled forms are
+     * replaced or discarded.
+     */
+    private volatile SwitchPoint compiledFormSwitchPoint = new SwitchPoint();
+    /**
+     * In a top-level function implementation, the number of times the unit
+     * has been deoptimized or re-profiled. Written under the monitor of the
+     * function, read by the compiler without it.
+     */
+    private volatile int deoptimizationCount = 0;
+    /**
+     * In a top-level function implementation, indicates that the unit has
+     * been deoptimized and its compiled code should watch the widened sites
+     * for a phase change which calls for re-profiling.
+     */
+    private volatile boolean isReprofilingScheduled = false;
+    /**
+     * The recovery sites of this function whose continuation profiles were
+     * widened by deoptimization since the unit was last profiled.
+     */
+    private final Map<RecoverySite, WidenedSite> widenedSites = new ConcurrentHashMap<>();
+    /**
+     * In a top-level function implementation, indicates that the code cache
+     * has been consulted for a compiled form of the unit.
+     */
+    private volatile boolean isCodeCacheChecked = false;
+    /**
+     * Serializes compilation and installation of the unit headed by this
+     * function. Only used in top-level function implementations. Also held by
+     * the compiler of a unit into which this unit is being inlined.
+     */
+    private final ReentrantLock compilationLock = new ReentrantLock();
+    /**
+     * In a top-level function implementation, the units which have inlined
+     * the compiled form of this one and must be recompiled when it changes.
+     */
+    private final Set<FunctionImplementation> inliningDependents = Collections.newSetFromMap(new WeakHashMap<>());
+    /**
+     * In a top-level function implementation, the units whose compiled forms
+     * have been inlined into the installed compiled form of this one.
+     */
+    private volatile Set<FunctionImplementation> inlinedUnits = Set.of();
 
     FunctionImplementation(@NotNull Lambda definition, @Nullable FunctionImplementation topFunction) {
         this.definition = definition;
-        this.id = register(this);
+        this.id = registry.register(this);
         this.topImplementation = topFunction != null ? topFunction : this;
         this.arity = definition.arguments().size();
         this.state = State.INVALID;
@@ -340,6 +509,14 @@ public class FunctionImplementation {
         return frameSize;
     }
 
+    /**
+     * The implementation of the top-level function of the unit this function
+     * belongs to. For a top-level function, this is the function itself.
+     */
+    FunctionImplementation topImplementation() {
+        return topImplementation;
+    }
+
     public boolean isTopLevel() {
         return topImplementation == this;
     }
@@ -348,10 +525,77 @@ public class FunctionImplementation {
         return state == State.COMPILED;
     }
 
+    /**
+     * Indicate whether the unit of this function failed to compile and is
+     * running in the simple interpreter for good.
+     */
+    public boolean hasCompilationFailed() {
+        return topImplementation.state == State.INTERPRETED;
+    }
+
+    /**
+     * An estimate of how hot the unit headed by this top-level function
+     * implementation is, for ordering compilation requests: the number of
+     * times it was invoked while profiled, plus the number of times it was
+     * invoked in the simple interpreter since.
+     */
+    long hotness() {
+        return profile.invocationCount() + interpretedInvocationCount;
+    }
+
     MethodHandle callSiteInvoker() {
         return callSiteInvoker;
     }
 
+    /**
+     * Return a method handle which invokes a closure of this function passed
+     * to it as the leading argument, followed by the declared arguments. The
+     * handle is the same for all closures, so creating a closure needs no
+     * method handles of its own.
+     */
+    MethodHandle closureInvoker() {
+        var result = closureInvoker;
+        if (result == null) {
+            var syntheticCount = implementationArity() - declarationArity();
+            result = syntheticCount == 0
+                ? MethodHandles.dropArguments(callSiteInvoker, 0, Closure.class)
+                : MethodHandles.filterArguments(
+                    callSiteInvoker.asSpreader(0, Object[].class, syntheticCount), 0, Closure.COPIED_VALUES);
+            closureInvoker = result;
+        }
+        return result;
+    }
+
+    /**
+     * Return a method handle which invokes the core call site with the
+     * arguments in an array. Used for calls with more arguments than the
+     * {@code invokeExact} fast paths enumerate. The handle is created once
+     * for this function and invoked with its exact type, so unlike {@link
+     * SpreadInvokers} it needs no conversion on each call.
+     */
+    MethodHandle spreadInvoker() {
+        var result = spreadInvoker;
+        if (result == null) {
+            result = callSiteInvoker.asSpreader(Object[].class, implementationArity());
+            spreadInvoker = result;
+        }
+        return result;
+    }
+
+    /**
+     * Return a method handle which invokes a closure of this function passed
+     * to it as the leading argument, followed by the declared arguments in an
+     * array. See {@link #spreadInvoker()}.
+     */
+    MethodHandle spreadClosureInvoker() {
+        var result = spreadClosureInvoker;
+        if (result == null) {
+            result = closureInvoker().asSpreader(Object[].class, declarationArity());
+            spreadClosureInvoker = result;
+        }
+        return result;
+    }
+
     JvmType specializedReturnType() {
         return specializedReturnType;
     }
@@ -360,12 +604,196 @@ public class FunctionImplementation {
         this.specializedReturnType = specializedReturnType;
     }
 
+    /**
+     * Map frame indices to JVM local variable slots according to the
+     * specialized types of variables. Parameters take consecutive slots as
+     * determined by the method signature. Because let-bound variables of
+     * different types share frame indices, each index past the parameters
+     * gets two slots if any of the variables is a {@code long} or a {@code
+     * double}, and one slot otherwise. Thus in the absence of such values a
+     * frame index is the same as its slot.
+     */
+    void assignLocalSlots(boolean hasWideLocals) {
+        var slots = new int[frameSize];
+        int next = 0;
+        int i;
+        for (i = 0; i < allParameters.length; i++) {
+            slots[i] = next;
+            next += allParameters[i].specializedType().slotSize();
+        }
+        var localSlotSize = hasWideLocals ? 2 : 1;
+        for (; i < frameSize; i++) {
+            slots[i] = next;
+            next += localSlotSize;
+        }
+        localSlots = slots;
+        localSlotCount = next;
+    }
+
+    /**
+     * The JVM local variable slot of the specified frame index.
+     */
+    int localSlot(int index) {
+        return localSlots[index];
+    }
+
+    /**
+     * The number of JVM local variable slots taken by the frame.
+     */
+    int localSlotCount() {
+        return localSlotCount;
+    }
+
+    /**
+     * The current mapping of frame indices to slots, to be restored by {@link
+     * #restoreLocalSlots(int[], int)}. The array is never modified.
+     */
+    int[] localSlots() {
+        return localSlots;
+    }
+
+    void restoreLocalSlots(int[] localSlots, int localSlotCount) {
+        this.localSlots = localSlots;
+        this.localSlotCount = localSlotCount;
+    }
+
     MethodHandle genericImplementation() {
         return genericImplementation;
     }
 
-    MethodHandle specializedImplementation() {
-        return specializedImplementation;
+    List<MethodHandle> specializedImplementations() {
+        return specializedImplementations;
+    }
+
+    List<MethodType> requestedSpecializations() {
+        synchronized (requestedSpecializations) {
+            return new ArrayList<>(requestedSpecializations);
+        }
+    }
+
+    /**
+     * Record that a call site with the specified declared parameter signature
+     * would benefit from a specialized form of this function, and recompile
+     * the unit if it's already compiled. The request is ignored if the
+     * signature has no primitive parameter types, if an existing or already
+     * requested specialization has the same parameter types, or if the
+     * function already has as many specializations as it may.
+     */
+    void requestSpecialization(MethodType signature) {
+        if (!canRequestSpecialization(signature)) return;
+        synchronized (requestedSpecializations) {
+            if (!canRequestSpecialization(signature)) return;
+            requestedSpecializations.add(signature);
+        }
+        topImplementation.recompile();
+    }
+
+    private boolean canRequestSpecialization(MethodType signature) {
+        if (signature.parameterCount() != declarationArity()
+            || signature.parameterList().stream().noneMatch(Class::isPrimitive)
+            || hasSpecializationFor(signature))
+        {
+            return false;
+        }
+        synchronized (requestedSpecializations) {
+            return requestedSpecializations.size() + 1 < MAX_SPECIALIZATIONS
+                && requestedSpecializations.stream().noneMatch(
+                    each -> each.parameterList().equals(signature.parameterList()));
+        }
+    }
+
+    /**
+     * Wrap an invoker linked to a call site whose declared parameter types
+     * are described by the signature, and which none of the specialized forms
+     * matches exactly, so that calls made through it count towards requesting
+     * a specialization of the signature. Return the invoker as is if such a
+     * specialization can't be requested.
+     */
+    MethodHandle countingSpecializationDemand(MethodHandle invoker, MethodType signature) {
+        if (!canRequestSpecialization(signature)) return invoker;
+        var demand = specializationDemands.computeIfAbsent(
+            signature.parameterList(), key -> new SpecializationDemand(this, signature));
+        var counter = MethodHandles.dropArguments(
+            COUNT_DEMANDED_CALL.bindTo(demand), 0, invoker.type().parameterList());
+        return MethodHandles.foldArguments(invoker, counter);
+    }
+
+    /**
+     * Counts the calls made through the call sites linked to a function with
+     * no specialized form for their parameter types, and requests one when
+     * the count reaches {@link #SPECIALIZATION_DEMAND_THRESHOLD}.
+     */
+    private static class SpecializationDemand {
+        private final FunctionImplementation function;
+        private final MethodType signature;
+        private final AtomicLong callCount = new AtomicLong();
+        private volatile boolean isRequested = false;
+
+        private SpecializationDemand(FunctionImplementation function, MethodType signature) {
+            this.function = function;
+            this.signature = signature;
+        }
+
+        @SuppressWarnings("unused") // called by call sites linked to the function
+        void countCall() {
+            if (isRequested) return;
+            if (callCount.incrementAndGet() >= SPECIALIZATION_DEMAND_THRESHOLD) {
+                isRequested = true;
+                function.requestSpecialization(signature);
+            }
+        }
+    }
+
+    private boolean hasUnservedSpecializationRequests() {
+        return requestedSpecializations().stream().anyMatch(each -> !hasSpecializationFor(each));
+    }
+
+    /**
+     * Indicate whether the function has a specialized form with the same
+     * declared parameter types as the specified signature.
+     */
+    private boolean hasSpecializationFor(MethodType signature) {
+        var syntheticCount = implementationArity() - declarationArity();
+        return specializedImplementations.stream().anyMatch(each ->
+            each.type().dropParameterTypes(0, syntheticCount).parameterList().equals(signature.parameterList()));
+    }
+
+    /**
+     * Return the specialized form best matching a call site of the specified
+     * type, or null if none of them can be used by the call site. The type
+     * does not include synthetic parameters; the specified number of leading
+     * parameters of each specialized form is disregarded. A specialized form
+     * can be used if each of its parameters of a primitive type is of the same
+     * type in the call site. Of those, the one with the most such parameters
+     * is the best match, with the one of the same return type as the call site
+     * preferred among equals.
+     */
+    @Nullable MethodHandle bestSpecializationFor(MethodType callSiteType, int syntheticCount) {
+        MethodHandle best = null;
+        int bestScore = 0;
+        for (var each : specializedImplementations) {
+            var score = matchScore(each.type().dropParameterTypes(0, syntheticCount), callSiteType);
+            if (score > bestScore) {
+                best = each;
+                bestScore = score;
+            }
+        }
+        return best;
+    }
+
+    private static int matchScore(MethodType specialization, MethodType callSiteType) {
+        if (specialization.parameterCount() != callSiteType.parameterCount()) return -1;
+        int score = 0;
+        for (int i = 0; i < specialization.parameterCount(); i++) {
+            var specializedParameter = specialization.parameterType(i);
+            if (specializedParameter == callSiteType.parameterType(i)) {
+                if (specializedParameter.isPrimitive()) score += 2;
+            } else if (specializedParameter.isPrimitive()) {
+                return -1;
+            }
+        }
+        if (score > 0 && specialization.returnType() == callSiteType.returnType()) score++;
+        return score;
     }
 
     RecoveryCodeGenerator.Instruction[] recoveryCode() {
@@ -375,18 +803,216 @@ public class FunctionImplementation {
         return recoveryCode;
     }
 
+    ACode acode() {
+        var result = acode;
+        if (result == null) {
+            result = ACode.of(this);
+            acode = result;
+        }
+        return result;
+    }
+
     /*
         Invocation
      */
 
+    /**
+     * Return a method handle of the specified type invoking this function. If
+     * the function is compiled, the handle links directly to the compiled
+     * form, guarded by a switch point so that callers fall back to the core
+     * call site if the unit is later recompiled or deoptimized.
+     */
     public MethodHandle invoker(MethodType callSiteType) {
-        if (specializedImplementation != null && callSiteType == specializedImplementation.type()) {
-            return specializedImplementation;
+        var switchPoint = compiledFormSwitchPoint;
+        var fallback = JvmType.adaptToCallSite(callSiteType, callSiteInvoker);
+        var compiledForm = compiledFormInvoker(callSiteType);
+        return compiledForm == null ? fallback : switchPoint.guardWithTest(compiledForm, fallback);
+    }
+
+    /**
+     * Return an invoker of the compiled form best matching a call site of
+     * the specified type, or null if the function is not compiled. If the
+     * call site has primitive parameter types and there is no specialization
+     * of exactly those types, calls through the invoker count towards
+     * requesting one.
+     */
+    @Nullable private MethodHandle compiledFormInvoker(MethodType callSiteType) {
+        var generic = genericImplementation;
+        if (generic == null) return null;
+        if (isTopLevel() && callSiteType.hasPrimitives()) {
+            var specialized = bestSpecializationFor(callSiteType, 0);
+            var invoker = specialized != null
+                ? adaptSpecialization(specialized, callSiteType)
+                : JvmType.adaptToCallSite(callSiteType, generic);
+            if (specialized == null || !specialized.type().parameterList().equals(callSiteType.parameterList())) {
+                invoker = countingSpecializationDemand(invoker, callSiteType);
+            }
+            return invoker;
         }
-        if (genericImplementation != null) {
-            return JvmType.adaptToCallSite(callSiteType, genericImplementation);
+        return JvmType.adaptToCallSite(callSiteType, generic);
+    }
+
+    /**
+     * Return an invoker of the specified declared parameter type for the
+     * closures of this function with no copied values, as described in {@link
+     * Closure#optimalInvoker(MethodType)}. Invokers of the compiled forms are
+     * cached until the compiled forms change, so that all such closures share
+     * them.
+     */
+    MethodHandle optimalInvoker(MethodType requiredType) {
+        var switchPoint = compiledFormSwitchPoint;
+        var cache = optimalInvokers;
+        if (cache == null || cache.switchPoint != switchPoint) {
+            cache = new OptimalInvokers(switchPoint);
+            optimalInvokers = cache;
+        }
+        var invoker = cache.invokers.get(requiredType);
+        if (invoker == null) {
+            invoker = Closure.compiledFormInvoker(this, NO_COPIED_VALUES, requiredType);
+            if (invoker == null) return callSiteInvoker.asType(requiredType);
+            cache.invokers.put(requiredType, invoker);
         }
-        return JvmType.adaptToCallSite(callSiteType, callSiteInvoker);
+        return invoker;
+    }
+
+    /**
+     * Return an invoker for a closure call site of the specified type, whose
+     * leading parameter is the closure, usable with any closure of this
+     * function. Unlike an optimal invoker of a closure, it has no copied
+     * values bound into it. Each synthetic parameter of a compiled form is
+     * instead filtered by a getter of the corresponding copied value of the
+     * closure, so the values are loaded individually rather than spread from
+     * the array. A specialized form is invoked if it fits the declared
+     * parameter types of the call site and the copied values fit its
+     * synthetic parameter types, otherwise the generic form is. Calls through an invoker without a
+     * specialized form exactly matching the call site count towards
+     * requesting one. Return null if the function is not compiled.
+     */
+    @Nullable MethodHandle sharedClosureInvoker(MethodType callSiteType) {
+        var genericForm = genericImplementation;
+        if (genericForm == null) return null;
+        var requiredType = callSiteType.dropParameterTypes(0, 1);
+        var syntheticCount = implementationArity() - declarationArity();
+        var genericType = requiredType.insertParameterTypes(0, Collections.nCopies(syntheticCount, Object.class));
+        var invoker = loadingCopiedValues(JvmType.adaptToCallSite(genericType, genericForm), syntheticCount);
+        var isSpecializationDemanded = false;
+        if (requiredType.hasPrimitives()) {
+            var specializedForm = bestSpecializationFor(requiredType, syntheticCount);
+            isSpecializationDemanded = specializedForm == null
+                || !specializedForm.type().dropParameterTypes(0, syntheticCount).parameterList()
+                    .equals(requiredType.parameterList());
+            if (specializedForm != null) {
+                var specializedType = requiredType.insertParameterTypes(
+                    0, specializedForm.type().parameterList().subList(0, syntheticCount));
+                var specialized = loadingCopiedValues(adaptSpecialization(specializedForm, specializedType), syntheticCount);
+                invoker = makeCopiedValuesGuard(invoker, specialized, specializedType, syntheticCount);
+            }
+        }
+        return isSpecializationDemanded ? countingSpecializationDemand(invoker, requiredType) : invoker;
+    }
+
+    /**
+     * Replace the leading synthetic parameters of a compiled form invoker
+     * with a single closure parameter, filtering each by a getter of the
+     * corresponding copied value of the closure converted to the type of the
+     * parameter.
+     */
+    private static MethodHandle loadingCopiedValues(MethodHandle invoker, int syntheticCount) {
+        var type = invoker.type();
+        var getters = new MethodHandle[syntheticCount];
+        for (int i = 0; i < syntheticCount; i++) {
+            getters[i] = copiedValueGetter(i).asType(MethodType.methodType(type.parameterType(i), Object.class));
+        }
+        var filtered = MethodHandles.filterArguments(invoker, 0, getters);
+        var reorder = new int[type.parameterCount()];
+        for (int i = syntheticCount; i < reorder.length; i++) {
+            reorder[i] = i - syntheticCount + 1;
+        }
+        var closureType = type.dropParameterTypes(0, syntheticCount).insertParameterTypes(0, Object.class);
+        return MethodHandles.permuteArguments(filtered, closureType, reorder);
+    }
+
+    /**
+     * Wrap a specialized form invoker produced by {@link #loadingCopiedValues}
+     * into a guard which invokes it if each copied value of the closure fits
+     * the type of its synthetic parameter, or the {@code otherwise} handle if
+     * any doesn't. Like {@link #makeSpecializationGuard}, this is a chain of
+     * {@code guardWithTest} combinators with one {@code instanceof} check for
+     * each synthetic parameter of a primitive type, each loading only the
+     * value it tests.
+     */
+    private static MethodHandle makeCopiedValuesGuard(
+        MethodHandle otherwise, MethodHandle specialized, MethodType specializedType, int syntheticCount)
+    {
+        var guard = specialized;
+        for (int i = syntheticCount - 1; i >= 0; i--) {
+            var parameterType = specializedType.parameterType(i);
+            if (parameterType.isPrimitive()) {
+                var test = MethodHandles.filterReturnValue(
+                    copiedValueGetter(i), JvmType.compatibilityTest(parameterType));
+                guard = MethodHandles.guardWithTest(test, guard, otherwise);
+            }
+        }
+        return guard;
+    }
+
+    /**
+     * Return a getter of the copied value at the specified index of a closure
+     * passed as an {@code Object}, of type {@code (Object) -> Object}.
+     */
+    private static MethodHandle copiedValueGetter(int index) {
+        return MethodHandles.filterReturnValue(
+            COPIED_VALUES_OF_OBJECT,
+            MethodHandles.insertArguments(MethodHandles.arrayElementGetter(Object[].class), 1, index));
+    }
+
+    private static class OptimalInvokers {
+        private final SwitchPoint switchPoint;
+        private final Map<MethodType, MethodHandle> invokers = new ConcurrentHashMap<>();
+
+        private OptimalInvokers(SwitchPoint switchPoint) {
+            this.switchPoint = switchPoint;
+        }
+    }
+
+    /**
+     * Return a call site of the specified type linked to this function the
+     * same way as by {@link #invoker(MethodType)}. Unlike a call site bound to
+     * such an invoker once, this one relinks itself whenever the compiled
+     * forms of the function are replaced, so it picks up a specialization
+     * produced in response to its own request.
+     */
+    MutableCallSite linkedCallSite(MethodType callSiteType) {
+        var site = new MutableCallSite(callSiteType);
+        relink(site);
+        return site;
+    }
+
+    @SuppressWarnings("unused") // also called by the relinking fallback of a linked call site
+    private MethodHandle relink(MutableCallSite site) {
+        var type = site.type();
+        var switchPoint = compiledFormSwitchPoint;
+        var compiledForm = compiledFormInvoker(type);
+        var current = compiledForm != null ? compiledForm : JvmType.adaptToCallSite(type, callSiteInvoker);
+        var relinker = MethodHandles.foldArguments(MethodHandles.exactInvoker(type), RELINK.bindTo(this).bindTo(site));
+        var target = switchPoint.guardWithTest(current, relinker);
+        site.setTarget(target);
+        return target;
+    }
+
+    /**
+     * Adapt a specialized form to a call site whose parameter types it
+     * accepts. If the form has a primitive return type the call site doesn't,
+     * a return value not fitting that type comes back as a {@link
+     * SquarePegException} and is passed through as the result.
+     */
+    static MethodHandle adaptSpecialization(MethodHandle specialization, MethodType callSiteType) {
+        var type = specialization.type();
+        if (type.returnType().isPrimitive() && type.returnType() != callSiteType.returnType()) {
+            var generic = specialization.asType(type.changeReturnType(Object.class));
+            specialization = MethodHandles.catchException(generic, SquarePegException.class, EXTRACT_SQUARE_PEG);
+        }
+        return JvmType.adaptToCallSite(callSiteType, specialization);
     }
 
     private MethodHandle profilingInterpreterInvoker() {
@@ -394,11 +1020,11 @@ public class FunctionImplementation {
     }
 
     private MethodHandle simpleInterpreterInvoker() {
-        return MethodHandles.insertArguments(INTERPRET_METHOD, 0, Interpreter.INSTANCE, this)
-            .asCollector(Object[].class, implementationArity());
+        return INTERPRET_WHILE_COMPILING_METHOD.bindTo(this).asCollector(Object[].class, implementationArity());
     }
 
     public Object profile(Object[] args) {
+        if (!topImplementation.isCodeCacheChecked) topImplementation.installFromCodeCache(CodeCache.INSTANCE);
         Object result = ProfilingInterpreter.INSTANCE.interpret(this, args);
         if (profile.invocationCount() > PROFILING_TARGET) {
             scheduleCompilation();
@@ -406,19 +1032,152 @@ public class FunctionImplementation {
         return result;
     }
 
+    public Object interpretWhileCompiling(Object[] args) {
+        topImplementation.interpretedInvocationCount++;
+        return SIMPLE_INTERPRETER.interpret(this, args);
+    }
+
     /*
         Compilation
      */
 
-    private void scheduleCompilation() {
-        topImplementation.scheduleCompilationAtTop();
+    /**
+     * A compiled unit with its generated class already loaded, ready to be
+     * installed.
+     */
+    static class CompiledUnit {
+        private final Compiler.UnitResult result;
+        private final Class<?> implementationClass;
+
+        private CompiledUnit(Compiler.UnitResult result, Class<?> implementationClass) {
+            this.result = result;
+            this.implementationClass = implementationClass;
+        }
+    }
+
+    /**
+     * Indicate whether SPE handlers of compiled code of this function should
+     * report failures, possibly leading to deoptimization.
+     */
+    boolean shouldRecordSpecializationFailures() {
+        return topImplementation.deoptimizationCount < MAX_DEOPTIMIZATIONS;
+    }
+
+    /**
+     * Record that the continuation profile of the specified recovery site of
+     * this function has been widened from the specified type, so that the
+     * recompiled code watches the values received by the site.
+     */
+    void recordWidening(RecoverySite site, JvmType typeBeforeWidening) {
+        widenedSites.putIfAbsent(site, new WidenedSite(this, typeBeforeWidening));
+    }
+
+    /**
+     * Return the watcher which compiled code of this function should pass the
+     * values received by the specified recovery site to, or null if the site
+     * has not been widened or the unit is not to be re-profiled.
+     */
+    @Nullable WidenedSite widenedSite(RecoverySite site) {
+        return topImplementation.isReprofilingScheduled ? widenedSites.get(site) : null;
+    }
+
+    /**
+     * The number of times the unit of this function has been deoptimized or
+     * re-profiled.
+     */
+    public int deoptimizationCount() {
+        return topImplementation.deoptimizationCount;
+    }
+
+    /**
+     * Invoked by a {@link SpecializationFailureSite} of this function after its
+     * failure count reached the threshold and it widened the profiles which
+     * caused the failures. Recompile the unit in the background with the
+     * widened profiles. The current compiled code continues to run until the
+     * new code is installed.
+     */
+    void deoptimize() {
+        topImplementation.deoptimizeAtTop();
+    }
+
+    private synchronized void deoptimizeAtTop() {
+        if (state != State.COMPILED || deoptimizationCount >= MAX_DEOPTIMIZATIONS) return;
+        deoptimizationCount++;
+        isReprofilingScheduled = deoptimizationCount < MAX_DEOPTIMIZATIONS;
+        state = State.COMPILING;
+        for (var each : closureImplementations) each.state = State.COMPILING;
+        CompilationQueue.INSTANCE.submit(this);
+    }
+
+    /**
+     * Invoked by a {@link WidenedSite} of this function once the values it
+     * receives fit the type it had before deoptimization again. Discard the
+     * compiled code of the unit and all its profile data, and return to
+     * profiling. The unit will be compiled again after it is invoked {@link
+     * #PROFILING_TARGET} times, specialized according to the types it is
+     * seeing now.
+     */
+    void reprofile() {
+        topImplementation.reprofileAtTop();
+    }
+
+    private synchronized void reprofileAtTop() {
+        if (state != State.COMPILED || !isReprofilingScheduled) return;
+        isReprofilingScheduled = false;
+        deoptimizationCount++;
+        interpretedInvocationCount = 0;
+        var unit = Stream.concat(Stream.of(this), closureImplementations.stream()).toArray(FunctionImplementation[]::new);
+        var switchPoints = new SwitchPoint[unit.length];
+        var callSites = new MutableCallSite[unit.length];
+        for (int i = 0; i < unit.length; i++) {
+            var each = unit[i];
+            each.resetProfiles();
+            each.widenedSites.clear();
+            each.genericImplementation = null;
+            each.specializedImplementations = List.of();
+            switchPoints[i] = each.compiledFormSwitchPoint;
+            each.compiledFormSwitchPoint = new SwitchPoint();
+            each.state = State.PROFILING;
+            each.callSite.setTarget(each.profilingInterpreterInvoker());
+            callSites[i] = each.callSite;
+        }
+        MutableCallSite.syncAll(callSites);
+        SwitchPoint.invalidateAll(switchPoints);
+        inlinedUnits = Set.of();
+        recompileInliningDependents();
+    }
+
+    private void resetProfiles() {
+        profile.reset();
+        body.accept(new EvaluatorNode.VisitorSkeleton<Void>() {
+            @Override
+            public Void visitCall(CallNode call) {
+                call.profile.reset();
+                return super.visitCall(call);
+            }
+
+            @Override
+            public Void visitClosure(ClosureNode closure) {
+                return null; // closure implementations are reset on their own
+            }
+
+            @Override
+            public Void visitLet(LetNode let) {
+                let.variable().profile.reset();
+                return super.visitLet(let);
+            }
+        });
+    }
+
+    void scheduleCompilation() {
+        if (topImplementation.state == State.PROFILING) topImplementation.scheduleCompilationAtTop();
     }
 
     private synchronized void scheduleCompilationAtTop() {
         if (state == State.PROFILING) {
             markAsBeingCompiled();
             for (var each : closureImplementations) each.markAsBeingCompiled();
-            forceCompile();
+            CompilationQueue.INSTANCE.submit(this);
         }
     }
 
@@ -432,83 +1191,261 @@ public class FunctionImplementation {
         markAsBeingCompiled();
     }
 
+    /**
+     * Keep running the function in the tree-walking {@link Interpreter},
+     * without ever scheduling its compilation.
+     */
+    @TestOnly
+    void useTreeInterpreter() {
+        useInterpreter(Interpreter.INSTANCE);
+    }
+
+    /**
+     * Keep running the function in {@link ACodeInterpreter}, without ever
+     * scheduling its compilation.
+     */
+    @TestOnly
+    void useACodeInterpreter() {
+        useInterpreter(ACodeInterpreter.INSTANCE);
+    }
+
+    private void useInterpreter(Interpreter interpreter) {
+        state = State.COMPILING;
+        callSite.setTarget(MethodHandles.insertArguments(INTERPRET_METHOD, 0, interpreter, this)
+            .asCollector(Object[].class, implementationArity()));
+    }
+
+    /**
+     * Keep running the function in the profiling interpreter without ever
+     * scheduling its compilation.
+     */
+    @TestOnly
+    void useProfilingInterpreter() {
+        state = State.COMPILING;
+        callSite.setTarget(profilingInterpreterInvoker());
+    }
+
+    /**
+     * Compile the unit and install the result synchronously on the current
+     * thread, bypassing the {@link CompilationQueue}.
+     */
     void forceCompile() {
+        var callSitesToUpdate = new ArrayList<MutableCallSite>();
+        installUnit(compileUnit(), callSitesToUpdate);
+        MutableCallSite.syncAll(callSitesToUpdate.toArray(new MutableCallSite[0]));
+    }
+
+    /**
+     * Compile the unit headed by this top-level function implementation and
+     * load the generated class, without installing the result. Compilations of
+     * the same unit are serialized because the compiler annotates the
+     * evaluator nodes of the unit as it goes.
+     */
+    CompiledUnit compileUnit() {
         if (this != topImplementation) throw new AssertionError("must be invoked on a top function implementation");
-        var result = Compiler.compile(this);
-        applyCompilationResult(result);
+        compilationLock.lock();
+        try {
+            var result = Compiler.compile(this);
+            var compiledUnit = new CompiledUnit(result, GeneratedCode.defineClass(result));
+            CodeCache.INSTANCE.store(this, result);
+            return compiledUnit;
+        } finally {
+            compilationLock.unlock();
+        }
     }
 
-    private synchronized void applyCompilationResult(Compiler.UnitResult result) {
-        var implClass = GeneratedCode.defineClass(result);
-        var callSitesToUpdate = new ArrayList<MutableCallSite>();
-        for (var entry : result.results().entrySet()) {
-            var functionImpl = entry.getKey();
-            functionImpl.installCompiledForm(implClass, entry.getValue());
-            callSitesToUpdate.add(functionImpl.callSite);
+    /**
+     * Install the compiled form of the unit headed by this top-level function
+     * implementation from the specified code cache, if the cache has a valid
+     * entry for it. Only a unit which is still being profiled is installed.
+     * Return a boolean indicating whether the unit has been installed.
+     */
+    synchronized boolean installFromCodeCache(CodeCache cache) {
+        if (this != topImplementation) throw new AssertionError("must be invoked on a top function implementation");
+        isCodeCacheChecked = true;
+        if (!cache.isEnabled() || state != State.PROFILING) return false;
+        var cached = cache.load(this);
+        if (cached.isEmpty()) return false;
+        CompiledUnit compiledUnit;
+        try {
+            compiledUnit = new CompiledUnit(cached.get(), GeneratedCode.defineClass(cached.get()));
+        } catch (RuntimeException | LinkageError e) {
+            return false;
         }
+        var callSitesToUpdate = new ArrayList<MutableCallSite>();
+        installUnit(compiledUnit, callSitesToUpdate);
         MutableCallSite.syncAll(callSitesToUpdate.toArray(new MutableCallSite[0]));
+        return true;
+    }
+
+    /**
+     * Install the compiled forms of all functions of a compiled unit. The core
+     * call sites of the functions are added to the specified collection; it is
+     * the caller's responsibility to {@link MutableCallSite#syncAll} them.
+     */
+    void installUnit(CompiledUnit unit, Collection<MutableCallSite> callSitesToUpdate) {
+        var replacedSwitchPoints = new ArrayList<SwitchPoint>();
+        compilationLock.lock();
+        try {
+            for (var entry : unit.result.results().entrySet()) {
+                var functionImpl = entry.getKey();
+                replacedSwitchPoints.add(functionImpl.compiledFormSwitchPoint);
+                functionImpl.installCompiledForm(unit.implementationClass, entry.getValue());
+                callSitesToUpdate.add(functionImpl.callSite);
+            }
+            inlinedUnits = Set.copyOf(unit.result.inlinedFunctions().keySet());
+            interpretedInvocationCount = 0;
+        } finally {
+            compilationLock.unlock();
+        }
+        SwitchPoint.invalidateAll(replacedSwitchPoints.toArray(new SwitchPoint[0]));
+        recompileInliningDependents();
+        var isInlinedCodeStale = false;
+        for (var entry : unit.result.inlinedFunctions().entrySet()) {
+            entry.getKey().addInliningDependent(this);
+            isInlinedCodeStale |= entry.getValue().hasBeenInvalidated();
+        }
+        // A specialization could have been requested while the unit was being compiled
+        var hasUnservedRequests = unit.result.results().keySet().stream()
+            .anyMatch(FunctionImplementation::hasUnservedSpecializationRequests);
+        if (isInlinedCodeStale || hasUnservedRequests) recompile();
+    }
+
+    /*
+        Inlining support
+     */
+
+    boolean tryLockCompilation() {
+        return compilationLock.tryLock();
+    }
+
+    void unlockCompilation() {
+        compilationLock.unlock();
+    }
+
+    SwitchPoint compiledFormSwitchPoint() {
+        return compiledFormSwitchPoint;
+    }
+
+    /**
+     * Indicate whether the installed compiled form of this unit has inlined
+     * the specified unit, or a unit whose installed compiled form has inlined
+     * it, and so on. A unit must not inline a unit which has inlined it. Each
+     * of them would be recompiled whenever the other one is installed, and the
+     * recompilations would never stop.
+     */
+    boolean hasInlined(FunctionImplementation unit) {
+        var visited = new HashSet<FunctionImplementation>();
+        var pending = new ArrayDeque<FunctionImplementation>();
+        pending.add(this);
+        while (!pending.isEmpty()) {
+            for (var each : pending.remove().inlinedUnits) {
+                if (each == unit) return true;
+                if (visited.add(each)) pending.add(each);
+            }
+        }
+        return false;
+    }
+
+    private void addInliningDependent(FunctionImplementation unit) {
+        synchronized (inliningDependents) {
+            inliningDependents.add(unit);
+        }
+    }
+
+    /**
+     * Recompile the units which have inlined the previous compiled form of
+     * this unit.
+     */
+    private void recompileInliningDependents() {
+        List<FunctionImplementation> dependents;
+        synchronized (inliningDependents) {
+            dependents = new ArrayList<>(inliningDependents);
+            inliningDependents.clear();
+        }
+        dependents.forEach(FunctionImplementation::recompile);
+    }
+
+    /**
+     * Compile the unit again with its current profile data, keeping the
+     * current compiled code in use until the new code is installed.
+     */
+    private synchronized void recompile() {
+        if (state != State.COMPILED) return;
+        state = State.COMPILING;
+        for (var each : closureImplementations) each.state = State.COMPILING;
+        CompilationQueue.INSTANCE.submit(this);
+    }
+
+    /**
+     * Invoked by the {@link CompilationQueue} on a top-level function
+     * implementation whose unit failed to compile. A unit being recompiled
+     * keeps its current compiled code and may be recompiled again. A unit
+     * compiled for the first time (or after re-profiling) stays in the simple
+     * interpreter for good, instead of being resubmitted and failing again on
+     * every invocation.
+     */
+    synchronized void compilationFailed() {
+        if (this != topImplementation) throw new AssertionError("must be invoked on a top function implementation");
+        if (state != State.COMPILING) return;
+        var fallback = genericImplementation != null ? State.COMPILED : State.INTERPRETED;
+        state = fallback;
+        for (var each : closureImplementations) each.state = fallback;
     }
 
     private void installCompiledForm(Class<?> generatedClass, Compiler.FunctionResult result) {
-        MethodHandle specializedMethod = null;
+        var specializedMethods = new ArrayList<MethodHandle>();
         try {
             genericImplementation = MethodHandles.lookup().findStatic(
                 generatedClass,
                 result.genericMethodName(),
                 MethodType.genericMethodType(implementationArity()));
-            if (result.specializedMethodName() != null) {
-                specializedMethod = MethodHandles.lookup().findStatic(
+            for (var entry : result.specializedMethods().entrySet()) {
+                specializedMethods.add(MethodHandles.lookup().findStatic(
                     generatedClass,
-                    result.specializedMethodName(),
-                    result.specializedMethodType());
+                    entry.getKey(),
+                    entry.getValue()));
+            }
+            for (var entry : result.loopEntryMethodNames().entrySet()) {
+                entry.getKey().loopEntry = MethodHandles.lookup().findStatic(
+                    generatedClass,
+                    entry.getValue(),
+                    Compiler.LOOP_ENTRY_METHOD_TYPE);
             }
         } catch (NoSuchMethodException | IllegalAccessException e) {
             throw new AssertionError(e);
         }
-        if (specializedMethod == null) {
-            callSite.setTarget(genericImplementation);
-            specializedImplementation = null;
-            // this will not work if we allow de-specializing
-        } else {
-            callSite.setTarget(
-                makeSpecializationGuard(genericImplementation, specializedMethod, result.specializedMethodType()));
-            specializedImplementation = specializedMethod;
+        var target = genericImplementation;
+        for (int i = specializedMethods.size() - 1; i >= 0; i--) {
+            target = makeSpecializationGuard(target, specializedMethods.get(i));
         }
+        callSite.setTarget(target);
+        specializedImplementations = List.copyOf(specializedMethods);
+        compiledFormSwitchPoint = new SwitchPoint();
         state = State.COMPILED;
     }
 
-    private MethodHandle makeSpecializationGuard(MethodHandle generic, MethodHandle specialized, MethodType type) {
-        MethodHandle checker = CHECK.bindTo(type);
-        return MethodHandles.guardWithTest(
-            checker.asCollector(Object[].class, type.parameterCount()),
-            generify(specialized),
-            generic);
-    }
-
     /**
-     * Take a method handle of a type involving some primitive types and wrap it
-     * so that it accepts and returns all Objects.
+     * Wrap a specialized form into a guard which invokes it if the arguments
+     * fit its parameter types, or the {@code otherwise} handle if they don't.
+     * The guard is a chain of {@code guardWithTest} combinators, one for each
+     * parameter of a primitive type, each testing its argument with an {@code
+     * instanceof} check. Unlike a test of all arguments collected into an
+     * array, it allocates nothing.
      */
-    private MethodHandle generify(MethodHandle specialization) {
-        MethodHandle generic = specialization.asType(specialization.type().generic());
-        // If return type is primitive, a return value not fitting the type will come back as SPE
-        if (specialization.type().returnType().isPrimitive()) {
-            return MethodHandles.catchException(generic, SquarePegException.class, EXTRACT_SQUARE_PEG);
-        } else {
-            return generic;
-        }
-    }
-
-    @SuppressWarnings("unused") // called by generated code
-    public static boolean checkSpecializationApplicability(MethodType specialization, Object[] args) {
-        for (int i = 0; i < args.length; i++) {
-            Class<?> type = specialization.parameterType(i);
-            if (type.isPrimitive()) {
-                Object arg = args[i];
-                if (!JvmType.isCompatibleValue(type, arg)) return false;
+    private MethodHandle makeSpecializationGuard(MethodHandle otherwise, MethodHandle specialized) {
+        var type = specialized.type();
+        var genericType = type.generic();
+        var guard = adaptSpecialization(specialized, genericType);
+        for (int i = type.parameterCount() - 1; i >= 0; i--) {
+            var parameterType = type.parameterType(i);
+            if (parameterType.isPrimitive()) {
+                var test = MethodHandles.dropArguments(
+                    JvmType.compatibilityTest(parameterType), 0, genericType.parameterList().subList(0, i));
+                guard = MethodHandles.guardWithTest(test, guard, otherwise);
             }
         }
-        return true;
+        return guard;
     }
 
     @SuppressWarnings("unused") // called by generated code
@@ -516,18 +1453,23 @@ public class FunctionImplementation {
         return exception.value;
     }
 
-    private static final MethodHandle CHECK;
+    private static final Object[] NO_COPIED_VALUES = new Object[0];
+    private static final MethodHandle COPIED_VALUES_OF_OBJECT =
+        Closure.COPIED_VALUES.asType(MethodType.methodType(Object[].class, Object.class));
+    private static final MethodHandle COUNT_DEMANDED_CALL;
     private static final MethodHandle EXTRACT_SQUARE_PEG;
     private static final MethodHandle INTERPRET_METHOD;
+    private static final MethodHandle INTERPRET_WHILE_COMPILING_METHOD;
     private static final MethodHandle PROFILE_METHOD;
+    private static final MethodHandle RELINK;
 
     static {
         try {
             var lookup = MethodHandles.lookup();
-            CHECK = lookup.findStatic(
-                FunctionImplementation.class,
-                "checkSpecializationApplicability",
-                MethodType.methodType(boolean.class, MethodType.class, Object[].class));
+            COUNT_DEMANDED_CALL = lookup.findVirtual(
+                SpecializationDemand.class,
+                "countCall",
+                MethodType.methodType(void.class));
             EXTRACT_SQUARE_PEG = lookup.findStatic(
                 FunctionImplementation.class,
                 "extractSquarePeg", MethodType.methodType(Object.class, SquarePegException.class));
@@ -535,10 +1477,18 @@ public class FunctionImplementation {
                 Interpreter.class,
                 "interpret",
                 MethodType.methodType(Object.class, FunctionImplementation.class, Object[].class));
+            INTERPRET_WHILE_COMPILING_METHOD = lookup.findVirtual(
+                FunctionImplementation.class,
+                "interpretWhileCompiling",
+                MethodType.methodType(Object.class, Object[].class));
             PROFILE_METHOD = lookup.findVirtual(
                 FunctionImplementation.class,
                 "profile",
                 MethodType.methodType(Object.class, Object[].class));
+            RELINK = lookup.findVirtual(
+                FunctionImplementation.class,
+                "relink",
+                MethodType.methodType(MethodHandle.class, MutableCallSite.class));
         } catch (NoSuchMethodException | IllegalAccessException e) {
             throw new AssertionError(e);
         }
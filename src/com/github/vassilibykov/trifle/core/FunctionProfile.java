@@ -6,18 +6,19 @@ import java.util.List;
 
 /**
  * Counts function invocations and records observed types of function
- * arguments and other locals.
+ * arguments and other locals. Like {@link ValueProfile}, not synchronized, and
+ * the invocation count is approximate and saturates.
  */
 class FunctionProfile {
-    private final List<VariableDefinition> methodParameters;
+    private final VariableDefinition[] methodParameters;
     private long invocationCount = 0;
     private final ValueProfile resultProfile = new ValueProfile();
 
     FunctionProfile(List<VariableDefinition> arguments) {
-        this.methodParameters = arguments;
+        this.methodParameters = arguments.toArray(new VariableDefinition[0]);
     }
 
-    synchronized long invocationCount() {
+    long invocationCount() {
         return invocationCount;
     }
 
@@ -25,19 +26,25 @@ class FunctionProfile {
         return resultProfile;
     }
 
-    synchronized void recordArguments(Object[] frame) {
+    void reset() {
+        invocationCount = 0;
+        resultProfile.reset();
+        for (var each : methodParameters) each.profile.reset();
+    }
+
+    void recordArguments(Object[] frame) {
         for (var each : methodParameters) {
             each.profile.recordValue(each.getValueIn(frame));
         }
     }
 
-    synchronized void recordResult(Object result) {
+    void recordResult(Object result) {
         /* It's important to count invocations here, after the function returns,
            and not in 'recordArguments' before it's invoked. Counting there may
            in case of recursive calls trigger compilation too early (on the first
            return from a recursive call), when profile data has not yet been
            collected for parts of the function following the recursive return. */
-        invocationCount++;
+        if (invocationCount < ValueProfile.SATURATION) invocationCount++;
         resultProfile.recordValue(result);
     }
 }
@@ -22,8 +22,10 @@ import com.github.vassilibykov.trifle.primitive.Primitive2;
 import java.lang.reflect.InvocationTargetException;
 import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 import java.util.stream.Collectors;
 
 /**
@@ -42,7 +44,8 @@ import java.util.stream.Collectors;
  *     original expressions. {@link VariableDefinition}s have their {@link
  *     VariableDefinition#isReferencedNonlocally} and {@link
  *     VariableDefinition#isMutable} properties set according to the structure
- *     of the source.</li>
+ *     of the source. A variable is boxed if it may be assigned after a
+ *     closure referencing it has been created.</li>
  *
  *     <li>Scope structure is validated by {@link
  *     FunctionAnalyzer.ScopeValidator} to ensure any variable references are in
@@ -80,6 +83,54 @@ public class FunctionTranslator {
     private final FunctionImplementation topFunctionImplementation;
     private final Map<Variable, VariableDefinition> variableDefinitions = new HashMap<>();
     private final List<FunctionImplementation> nestedFunctions = new ArrayList<>();
+    /**
+     * The loops enclosing the expression being translated, outermost first,
+     * including the loops of enclosing lambdas.
+     */
+    private final List<While> loops = new ArrayList<>();
+    private final Map<VariableDefinition, CaptureState> captureStates = new HashMap<>();
+
+    /**
+     * Tracks references and assignments of a variable in the order they would
+     * be executed, to determine whether the variable may be assigned after it
+     * has been captured by a closure. The source is translated in execution
+     * order, except that the body of a loop is repeated, so an assignment and
+     * a capture in the same loop are considered to follow each other in both
+     * orders. Only the loops entered after the variable has been defined are
+     * considered, as each iteration of an outer loop defines a new instance of
+     * the variable.
+     */
+    private class CaptureState {
+        private final int loopDepth;
+        private boolean isCaptured = false;
+        private final Set<While> captureLoops = new HashSet<>();
+        private final Set<While> assignmentLoops = new HashSet<>();
+
+        private CaptureState(int loopDepth) {
+            this.loopDepth = loopDepth;
+        }
+
+        private List<While> innerLoops() {
+            return loops.subList(Math.min(loopDepth, loops.size()), loops.size());
+        }
+
+        boolean recordCapture() {
+            isCaptured = true;
+            var inner = innerLoops();
+            captureLoops.addAll(inner);
+            return inner.stream().anyMatch(assignmentLoops::contains);
+        }
+
+        boolean recordAssignment() {
+            var inner = innerLoops();
+            assignmentLoops.addAll(inner);
+            return isCaptured || inner.stream().anyMatch(captureLoops::contains);
+        }
+    }
+
+    private CaptureState captureState(VariableDefinition variable) {
+        return captureStates.computeIfAbsent(variable, k -> new CaptureState(loops.size()));
+    }
 
     private FunctionTranslator(FunctionImplementation topFunctionImplementation) {
         this.topLambda = topFunctionImplementation.definition();
@@ -106,6 +157,7 @@ public class FunctionTranslator {
                 var definition = new VariableDefinition(each, thisFunction);
                 parameters.add(definition);
                 variableDefinitions.put(each, definition);
+                captureState(definition);
             }
             var body = thisLambda.body().accept(this);
             thisFunction.partiallyInitialize(parameters, body);
@@ -115,6 +167,7 @@ public class FunctionTranslator {
             if (variableDefinitions.containsKey(variable)) throw new CompilerError("variable is already defined");
             var definition = new VariableDefinition(variable, thisFunction);
             variableDefinitions.put(variable, definition);
+            captureState(definition);
             return definition;
         }
 
@@ -202,21 +255,35 @@ public class FunctionTranslator {
         @Override
         public EvaluatorNode visitSetVariable(SetVariable setVar) {
             var variable = lookupVariable(setVar.variable());
+            var value = setVar.value().accept(this);
             variable.markAsMutable();
-            if (variable.isFreeIn(thisFunction)) variable.markAsReferencedNonlocally();
-            return new SetVariableNode(variable, setVar.value().accept(this));
+            if (variable.isFreeIn(thisFunction)) {
+                variable.markAsReferencedNonlocally();
+                variable.markAsAssignedWhileCaptured();
+            } else if (captureState(variable).recordAssignment()) {
+                variable.markAsAssignedWhileCaptured();
+            }
+            return new SetVariableNode(variable, value);
         }
 
         @Override
         public EvaluatorNode visitVariable(Variable expressionVariable) {
             var variable = lookupVariable(expressionVariable);
-            if (variable.isFreeIn(thisFunction)) variable.markAsReferencedNonlocally();
+            if (variable.isFreeIn(thisFunction)) {
+                variable.markAsReferencedNonlocally();
+                if (captureState(variable).recordCapture()) variable.markAsAssignedWhileCaptured();
+            }
             return new GetVariableNode(variable);
         }
 
         @Override
         public EvaluatorNode visitWhile(While aWhile) {
-            return new WhileNode(aWhile.condition().accept(this), aWhile.body().accept(this));
+            loops.add(aWhile);
+            try {
+                return new WhileNode(aWhile.condition().accept(this), aWhile.body().accept(this));
+            } finally {
+                loops.remove(loops.size() - 1);
+            }
         }
     }
 }
@@ -2,30 +2,31 @@
 
 package com.github.vassilibykov.trifle.core;
 
-import sun.misc.Unsafe;
-
-import java.lang.reflect.Field;
+import java.lang.invoke.MethodHandles;
 
 /**
- * A loader and container of generated code. Using Unsafe to load generated
- * code, as opposed to using a custom classloader as in early versions, appears
- * to result in slightly better performance for specialized code.
+ * A loader and container of generated code. Each unit is defined as a hidden
+ * class in this package, which like the {@code Unsafe} anonymous classes
+ * of earlier versions does not involve a custom class loader and keeps the
+ * performance of specialized code unchanged. The class is defined without the
+ * {@code STRONG} option, so its lifetime is not tied to the class loader of
+ * this class. A unit is unloaded once the function implementations using it,
+ * and therefore the method handles referencing its methods, are unreachable.
+ *
+ * <p>The objects the code of a unit refers to by ID are attached to its class
+ * as class data. The registries resolving the IDs only reference the objects
+ * weakly, so it is the loaded code that keeps them alive.
  */
-@SuppressWarnings("sunapi")
 class GeneratedCode {
-    private static final Unsafe UNSAFE = getUnsafe();
+    private static final MethodHandles.Lookup LOOKUP = MethodHandles.lookup();
 
-    private static Unsafe getUnsafe() {
+    static Class<?> defineClass(Compiler.UnitResult compilerResult) {
         try {
-            Field singleoneInstanceField = Unsafe.class.getDeclaredField("theUnsafe");
-            singleoneInstanceField.setAccessible(true);
-            return (Unsafe) singleoneInstanceField.get(null);
-        } catch (NoSuchFieldException | IllegalAccessException e) {
+            return LOOKUP
+                .defineHiddenClassWithClassData(compilerResult.bytecode(), compilerResult.retainedObjects(), true)
+                .lookupClass();
+        } catch (IllegalAccessException e) {
             throw new AssertionError(e);
         }
     }
-
-    static Class<?> defineClass(Compiler.UnitResult compilerResult) {
-        return UNSAFE.defineAnonymousClass(GeneratedCode.class, compilerResult.bytecode(), null);
-    }
 }
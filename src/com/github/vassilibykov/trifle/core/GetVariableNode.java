@@ -38,6 +38,11 @@ class GetVariableNode extends EvaluatorNode {
         return visitor.visitGetVar(this);
     }
 
+    @Override
+    Object evaluateUnboxed(Interpreter.Evaluator evaluator) {
+        return evaluator.evaluateGetVar(this);
+    }
+
     public String toString() {
         return variable.toString();
     }
@@ -53,6 +53,8 @@ public class GhostWriter {
     private static final String OBJECT_DESC = "Ljava/lang/Object;";
     private static final String INTEGER_ICN = internalClassName(Integer.class);
     private static final String BOOLEAN_ICN = internalClassName(Boolean.class);
+    private static final String LONG_ICN = internalClassName(Long.class);
+    private static final String DOUBLE_ICN = internalClassName(Double.class);
 
     /*
         Instance
@@ -68,35 +70,24 @@ public class GhostWriter {
         return asmWriter;
     }
 
+    /**
+     * Assuming that a value of type 'from' is on the stack, convert it to a
+     * value of type 'to'. A conversion between a reference and a primitive
+     * type assumes the reference is to the appropriate wrapper; a conversion
+     * between two different primitive types is a compiler error.
+     */
     public GhostWriter adaptValue(JvmType from, JvmType to) {
-        from.match(new JvmType.VoidMatcher() {
-            public void ifReference() {
-                to.match(new JvmType.VoidMatcher() {
-                    public void ifReference() { }
-                    public void ifInt() { unwrapInteger(); }
-                    public void ifBoolean() { unwrapBoolean(); }
-                });
-            }
-            public void ifInt() {
-                to.match(new JvmType.VoidMatcher() {
-                    public void ifReference() { wrapInteger(); }
-                    public void ifInt() { }
-                    public void ifBoolean() { throw new CompilerError("cannot adapt int to boolean"); }
-                });
-            }
-            public void ifBoolean() {
-                to.match(new JvmType.VoidMatcher() {
-                    public void ifReference() { wrapBoolean(); }
-                    public void ifInt() {
-                        throw new CompilerError("cannot adapt boolean to int");
-                    }
-                    public void ifBoolean() { }
-                });
-            }
-            public void ifVoid() {
-                // means the computation that produced the value terminated the current invocation
-            }
-        });
+        if (from == to || from == JvmType.VOID) {
+            // in the latter case, the computation that produced the value terminated the current invocation
+            return this;
+        }
+        if (from == JvmType.REFERENCE) {
+            unwrap(to);
+        } else if (to == JvmType.REFERENCE) {
+            wrap(from);
+        } else {
+            throw new CompilerError("cannot adapt " + from + " to " + to);
+        }
         return this;
     }
 
@@ -109,7 +100,8 @@ public class GhostWriter {
      * the general case be converted to a value of 'to', for example
      * {@code reference -> int} when the reference is not to an {@code Integer},
      * the generated code may throw an exception to complete the evaluation in
-     * recovery mode.
+     * recovery mode. A value of one primitive type is never converted to
+     * another primitive type, so such a pair always throws.
      *
      * <p>If the 'to' type is VOID, that means the value will be discarded by
      * the continuation, so it doesn't matter what it is.
@@ -133,94 +125,87 @@ public class GhostWriter {
      *         thrown in the generated code.
      */
     public boolean bridgeValue(JvmType from, JvmType to) {
-        return from.match(new JvmType.Matcher<>() {
-            public Boolean ifReference() {
-                return to.match(new JvmType.Matcher<>() {
-                    public Boolean ifReference() {
-                        return false;
-                    }
-                    public Boolean ifInt() {
-                        unwrapIntegerOr(GhostWriter.this::throwSquarePegException);
-                        return true;
-                    }
-                    public Boolean ifBoolean() {
-                        unwrapBooleanOr(GhostWriter.this::throwSquarePegException);
-                        return true;
-                    }
-                    public Boolean ifVoid() {
-                        return false;
-                    }
-                });
-            }
-            public Boolean ifInt() {
-                return to.match(new JvmType.Matcher<>() {
-                    public Boolean ifReference() {
-                        wrapInteger();
-                        return false;
-                    }
-                    public Boolean ifInt() {
-                        return false;
-                    }
-                    public Boolean ifBoolean() {
-                        wrapInteger().throwSquarePegException();
-                        return true;
-                    }
-                    public Boolean ifVoid() {
-                        return false;
-                    }
-                });
-            }
-            public Boolean ifBoolean() {
-                return to.match(new JvmType.Matcher<>() {
-                    public Boolean ifReference() {
-                        wrapBoolean();
-                        return false;
-                    }
-                    public Boolean ifInt() {
-                        wrapBoolean().throwSquarePegException();
-                        return true;
-                    }
-                    public Boolean ifBoolean() {
-                        return false;
-                    }
-                    public Boolean ifVoid() {
-                        return false;
-                    }
-                });
-            }
-            public Boolean ifVoid() {
-                // occurs in the middle of blocks and in return statements; nothing needs to be done
-                return false;
-            }
+        if (from == to || from == JvmType.VOID || to == JvmType.VOID) {
+            // VOID occurs in the middle of blocks and in return statements; nothing needs to be done
+            return false;
+        }
+        if (from == JvmType.REFERENCE) {
+            unwrapOr(to, this::throwSquarePegException);
+            return true;
+        }
+        wrap(from);
+        if (to == JvmType.REFERENCE) return false;
+        throwSquarePegException();
+        return true;
+    }
+
+    /**
+     * Similar to {@link #bridgeValue(JvmType, JvmType)}, but a value which
+     * cannot be converted is a user program error rather than a
+     * specialization failure.
+     */
+    public GhostWriter ensureValue(JvmType from, JvmType to) {
+        if (from == to) return this;
+        if (from == JvmType.REFERENCE) {
+            to.match(new JvmType.VoidMatcher() {
+                public void ifReference() { }
+                public void ifInt() { unwrapIntegerOr(() -> throwIntegerExpected()); }
+                public void ifBoolean() { unwrapBooleanOr(() -> throwBooleanExpected()); }
+                public void ifLong() { unwrapOr(to, () -> throwError("long expected")); }
+                public void ifDouble() { unwrapOr(to, () -> throwError("double expected")); }
+            });
+        } else if (to == JvmType.REFERENCE) {
+            wrap(from);
+        } else {
+            throw new CompilerError("cannot convert " + from + " to " + to);
+        }
+        return this;
+    }
+
+    /**
+     * Generate code to convert a primitive value on the stack into an instance
+     * of its wrapper class.
+     */
+    public GhostWriter wrap(JvmType type) {
+        type.match(new JvmType.VoidMatcher() {
+            public void ifReference() { }
+            public void ifInt() { wrapInteger(); }
+            public void ifBoolean() { wrapBoolean(); }
+            public void ifLong() { wrapLong(); }
+            public void ifDouble() { wrapDouble(); }
         });
+        return this;
     }
 
+    /**
+     * Generate code to convert a wrapper instance on the stack into a value of
+     * the specified primitive type. The value must be of the appropriate
+     * wrapper class.
+     */
+    public GhostWriter unwrap(JvmType type) {
+        type.match(new JvmType.VoidMatcher() {
+            public void ifReference() { }
+            public void ifInt() { unwrapInteger(); }
+            public void ifBoolean() { unwrapBoolean(); }
+            public void ifLong() { unwrapLong(); }
+            public void ifDouble() { unwrapDouble(); }
+        });
+        return this;
+    }
 
-    public GhostWriter ensureValue(JvmType from, JvmType to) {
-        from.match(new JvmType.VoidMatcher() {
-            public void ifReference() {
-                to.match(new JvmType.VoidMatcher() {
-                    public void ifReference() { }
-                    public void ifInt() { unwrapIntegerOr(() -> throwIntegerExpected()); }
-                    public void ifBoolean() { unwrapBooleanOr(() -> throwBooleanExpected()); }
-                });
-            }
-            public void ifInt() {
-                to.match(new JvmType.VoidMatcher() {
-                    public void ifReference() { wrapInteger(); }
-                    public void ifInt() { }
-                    public void ifBoolean() { throw new CompilerError("cannot convert int to boolean"); }
-                });
-            }
-            public void ifBoolean() {
-                to.match(new JvmType.VoidMatcher() {
-                    public void ifReference() { wrapBoolean(); }
-                    public void ifInt() {
-                        throw new CompilerError("cannot convert boolean to int");
-                    }
-                    public void ifBoolean() { }
-                });
-            }
+    /**
+     * Generate code to convert a reference on the stack into a value of the
+     * specified primitive type, or do whatever is generated by the failure
+     * code generator if the reference is not to an instance of the type's
+     * wrapper class.
+     */
+    public GhostWriter unwrapOr(JvmType type, Runnable failureCodeGenerator) {
+        type.match(new JvmType.VoidMatcher() {
+            public void ifReference() { }
+            public void ifInt() { unwrapIntegerOr(failureCodeGenerator); }
+            public void ifBoolean() { unwrapBooleanOr(failureCodeGenerator); }
+            public void ifLong() { unwrapWrapperOr(LONG_ICN, "longValue", long.class, failureCodeGenerator); }
+            public void ifDouble() { unwrapWrapperOr(DOUBLE_ICN, "doubleValue", double.class, failureCodeGenerator); }
         });
         return this;
     }
@@ -235,6 +220,16 @@ public class GhostWriter {
         return this;
     }
 
+    public GhostWriter wrapLong() {
+        invokeStatic(Long.class, "valueOf", Long.class, long.class);
+        return this;
+    }
+
+    public GhostWriter wrapDouble() {
+        invokeStatic(Double.class, "valueOf", Double.class, double.class);
+        return this;
+    }
+
     public GhostWriter checkCast(Class<?> castClass) {
         asmWriter.visitTypeInsn(CHECKCAST, internalClassName(castClass));
         return this;
@@ -250,6 +245,8 @@ public class GhostWriter {
             public void ifReference() { loadNull(); }
             public void ifInt() { loadInt(0); }
             public void ifBoolean() { loadInt(0); }
+            public void ifLong() { asmWriter.visitInsn(LCONST_0); }
+            public void ifDouble() { asmWriter.visitInsn(DCONST_0); }
         });
         return this;
     }
@@ -259,6 +256,15 @@ public class GhostWriter {
         return this;
     }
 
+    /**
+     * Duplicate the value on the stack, taking into account the number of
+     * stack entries taken by a value of the specified type.
+     */
+    public GhostWriter dup(JvmType type) {
+        asmWriter.visitInsn(type.slotSize() == 2 ? DUP2 : DUP);
+        return this;
+    }
+
     public GhostWriter extractBoxedVariable() {
         checkCast(Box.class);
         invokeVirtual(Box.class, Box.VALUE_AS_REFERENCE, Object.class);
@@ -279,6 +285,8 @@ public class GhostWriter {
             public void ifReference() { initBoxedReference(index); }
             public void ifBoolean() { initBoxedBool(index); }
             public void ifInt() { initBoxedInt(index); }
+            public void ifLong() { wrapLong().initBoxedReference(index); }
+            public void ifDouble() { wrapDouble().initBoxedReference(index); }
         });
         return this;
     }
@@ -331,6 +339,16 @@ public class GhostWriter {
         return this;
     }
 
+    public GhostWriter invokeStatic(String ownerClassName, String methodName, MethodType methodType) {
+        asmWriter.visitMethodInsn(
+            INVOKESTATIC,
+            ownerClassName,
+            methodName,
+            methodType.toMethodDescriptorString(),
+            false);
+        return this;
+    }
+
     public GhostWriter invokeVirtual(Class<?> owner, String methodName, Class<?> returnType, Class<?>... argTypes) {
         invokeVirtual(internalClassName(owner), methodName, returnType, argTypes);
         return this;
@@ -380,15 +398,47 @@ public class GhostWriter {
         return this;
     }
 
+    /**
+     * Load a {@code long} constant on the stack.
+     */
+    public GhostWriter loadLong(long value) {
+        if (value == 0 || value == 1) {
+            asmWriter.visitInsn(value == 0 ? LCONST_0 : LCONST_1);
+        } else {
+            asmWriter.visitLdcInsn(value);
+        }
+        return this;
+    }
+
+    /**
+     * Load a {@code double} constant on the stack.
+     */
+    public GhostWriter loadDouble(double value) {
+        if (Double.doubleToRawLongBits(value) == 0L || value == 1.0) {
+            asmWriter.visitInsn(value == 1.0 ? DCONST_1 : DCONST_0);
+        } else {
+            asmWriter.visitLdcInsn(value);
+        }
+        return this;
+    }
+
     public GhostWriter loadLocal(JvmType type, int index) {
         type.match(new JvmType.VoidMatcher() {
             public void ifReference() { asmWriter.visitVarInsn(ALOAD, index); }
             public void ifInt() { asmWriter.visitVarInsn(ILOAD, index); }
             public void ifBoolean() { asmWriter.visitVarInsn(ILOAD, index); }
+            public void ifLong() { asmWriter.visitVarInsn(LLOAD, index); }
+            public void ifDouble() { asmWriter.visitVarInsn(DLOAD, index); }
         });
         return this;
     }
 
+    public GhostWriter loadArray(int index) {
+        loadInt(index);
+        asmWriter.visitInsn(AALOAD);
+        return this;
+    }
+
     public GhostWriter loadNull() {
         asmWriter.visitInsn(ACONST_NULL);
         return this;
@@ -410,11 +460,22 @@ public class GhostWriter {
         return this;
     }
 
+    /**
+     * Discard the value on the stack, taking into account the number of
+     * stack entries taken by a value of the specified type.
+     */
+    public GhostWriter pop(JvmType type) {
+        asmWriter.visitInsn(type.slotSize() == 2 ? POP2 : POP);
+        return this;
+    }
+
     public GhostWriter ret(JvmType type) {
         type.match(new JvmType.VoidMatcher() {
             public void ifReference() { asmWriter.visitInsn(ARETURN); }
             public void ifInt() { asmWriter.visitInsn(IRETURN); }
             public void ifBoolean() { asmWriter.visitInsn(IRETURN); }
+            public void ifLong() { asmWriter.visitInsn(LRETURN); }
+            public void ifDouble() { asmWriter.visitInsn(DRETURN); }
         });
         return this;
     }
@@ -437,6 +498,8 @@ public class GhostWriter {
             public void ifReference() { asmWriter.visitVarInsn(ASTORE, index); }
             public void ifInt() { asmWriter.visitVarInsn(ISTORE, index); }
             public void ifBoolean() { asmWriter.visitVarInsn(ISTORE, index); }
+            public void ifLong() { asmWriter.visitVarInsn(LSTORE, index); }
+            public void ifDouble() { asmWriter.visitVarInsn(DSTORE, index); }
         });
         return this;
     }
@@ -446,6 +509,8 @@ public class GhostWriter {
             public void ifReference() { storeBoxedReference(index); }
             public void ifBoolean() { storeBoxedBool(index); }
             public void ifInt() { storeBoxedInt(index); }
+            public void ifLong() { wrapLong().storeBoxedReference(index); }
+            public void ifDouble() { wrapDouble().storeBoxedReference(index); }
         });
         return this;
     }
@@ -524,6 +589,14 @@ public class GhostWriter {
                 invokeVirtual(Box.class, Box.VALUE_AS_REFERENCE, Object.class);
                 unwrapBoolean();
             }
+            public void ifLong() {
+                invokeVirtual(Box.class, Box.VALUE_AS_REFERENCE, Object.class);
+                unwrapLong();
+            }
+            public void ifDouble() {
+                invokeVirtual(Box.class, Box.VALUE_AS_REFERENCE, Object.class);
+                unwrapDouble();
+            }
         });
         return this;
     }
@@ -575,6 +648,46 @@ public class GhostWriter {
         return this;
     }
 
+    public GhostWriter unwrapLong() {
+        checkCast(LONG_ICN);
+        invokeVirtual(LONG_ICN, "longValue", long.class);
+        return this;
+    }
+
+    public GhostWriter unwrapDouble() {
+        checkCast(DOUBLE_ICN);
+        invokeVirtual(DOUBLE_ICN, "doubleValue", double.class);
+        return this;
+    }
+
+    private void unwrapWrapperOr(String wrapperClassName, String accessorName, Class<?> primitiveType, Runnable failureCodeGenerator) {
+        dup();
+        instanceOf(wrapperClassName);
+        withLabelAtEnd(onSuccess -> {
+            jumpIfNot0(onSuccess);
+            failureCodeGenerator.run();
+        });
+        checkCast(wrapperClassName);
+        invokeVirtual(wrapperClassName, accessorName, primitiveType);
+    }
+
+    /**
+     * Assuming the stack holds a value of the specified type under a
+     * single-slot value, convert the former to a reference, leaving the
+     * latter on top.
+     */
+    public GhostWriter wrapUnderTop(JvmType type) {
+        if (type == JvmType.REFERENCE) return this;
+        if (type.slotSize() == 2) {
+            asmWriter.visitInsn(DUP_X2);
+            asmWriter.visitInsn(POP);
+        } else {
+            swap();
+        }
+        wrap(type);
+        return swap();
+    }
+
     public GhostWriter unwrapSPE() {
         asmWriter.visitFieldInsn(GETFIELD, internalClassName(SquarePegException.class), "value", OBJECT_DESC);
         return this;
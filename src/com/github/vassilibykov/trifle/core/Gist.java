@@ -3,7 +3,9 @@
 package com.github.vassilibykov.trifle.core;
 
 import static com.github.vassilibykov.trifle.core.JvmType.BOOL;
+import static com.github.vassilibykov.trifle.core.JvmType.DOUBLE;
 import static com.github.vassilibykov.trifle.core.JvmType.INT;
+import static com.github.vassilibykov.trifle.core.JvmType.LONG;
 import static com.github.vassilibykov.trifle.core.JvmType.REFERENCE;
 import static com.github.vassilibykov.trifle.core.JvmType.VOID;
 
@@ -20,10 +22,14 @@ public enum Gist {
 
     INFALLIBLE_INT(INT, false),
     INFALLIBLE_BOOL(BOOL, false),
+    INFALLIBLE_LONG(LONG, false),
+    INFALLIBLE_DOUBLE(DOUBLE, false),
     INFALLIBLE_REFERENCE(REFERENCE, false),
     INFALLIBLE_VOID(VOID, false),
     FALLIBLE_INT(INT, true),
     FALLIBLE_BOOL(BOOL, true),
+    FALLIBLE_LONG(LONG, true),
+    FALLIBLE_DOUBLE(DOUBLE, true),
     FALLIBLE_REFERENCE(REFERENCE, true),
     FALLIBLE_VOID(VOID, true);
 
@@ -48,6 +54,16 @@ public enum Gist {
                 return canFail ? FALLIBLE_BOOL : INFALLIBLE_BOOL;
             }
 
+            @Override
+            public Gist ifLong() {
+                return canFail ? FALLIBLE_LONG : INFALLIBLE_LONG;
+            }
+
+            @Override
+            public Gist ifDouble() {
+                return canFail ? FALLIBLE_DOUBLE : INFALLIBLE_DOUBLE;
+            }
+
             @Override
             public Gist ifVoid() {
                 return canFail ? FALLIBLE_VOID : INFALLIBLE_VOID;
@@ -39,6 +39,11 @@ class IfNode extends EvaluatorNode {
         return visitor.visitIf(this);
     }
 
+    @Override
+    Object evaluateUnboxed(Interpreter.Evaluator evaluator) {
+        return evaluator.evaluateIf(this);
+    }
+
     @Override
     public String toString() {
         return "(if " + condition + " " + trueBranch + " " + falseBranch + ")";
@@ -3,11 +3,15 @@
 package com.github.vassilibykov.trifle.core;
 
 import org.jetbrains.annotations.Nullable;
+import org.jetbrains.annotations.TestOnly;
 
 import java.lang.invoke.MethodHandle;
 import java.lang.invoke.MethodHandles;
 import java.lang.invoke.MethodType;
 import java.lang.invoke.MutableCallSite;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
 
 /**
  * A mutable call site with inline cache management support. A site is
@@ -17,22 +21,130 @@ import java.lang.invoke.MutableCallSite;
  * to add an inline cache entry to bypass the original dispatch for a future
  * call, if the call meets the cache guard condition.
  *
- * <p>An instance counts the number of cache entries already established. If
- * their number exceeds {@link #CACHE_LIMIT}, the call site becomes megamorphic.
- * If a {@link #megamorphicDispatch} method handle has been specified at the
- * call site creation time, it becomes the dispatch method. Otherwise, the call
- * site reverts to the original dispatch method. However, because the site is
- * now in the megamorphic state, further attempts to add inline cache entries
- * will be ignored.
+ * <p>Each cache entry counts its hits. Whenever the site target is rebuilt,
+ * the entries are ordered by their hit counts so that the most frequently
+ * taken one is tested first. The target is rebuilt when an entry is added,
+ * and when the hit count of an entry reaches {@link #HIT_COUNT_LIMIT}. At
+ * that point the entry stops counting, so a settled site runs its cached
+ * paths without the counting overhead. Hits are counted without
+ * synchronization, so racing threads may lose some, or jump past the limit.
+ * An entry therefore settles at any count at or above the limit, and only
+ * once.
+ *
+ * <p>A site holds at most {@link #cacheLimit()} entries. The limit starts as
+ * the {@link #defaultCacheLimit()}, which can be set with the {@code
+ * trifle.inlineCacheLimit} system property. When the cache is full and another
+ * entry is offered, the site adapts. If all of its entries have been hit since
+ * they were added, the site is polymorphic with a working set larger than the
+ * limit, so the limit is doubled, up to {@link #MAX_CACHE_LIMIT}. Otherwise
+ * the entry is rejected, and the call is handled by the dispatch method
+ * without caching. Once more entries are rejected than the current limit, or
+ * the limit can't grow any more, the site becomes megamorphic. If a {@link
+ * #megamorphicDispatch} method handle has been specified at the call site
+ * creation time, it becomes the dispatch method. Otherwise, the call site
+ * reverts to the original dispatch method. However, because the site is now in
+ * the megamorphic state, further attempts to add inline cache entries will be
+ * ignored. A {@link #reset()} discards the entries and the megamorphic state,
+ * but not the adapted limit.
+ *
+ * <p>Changes of site targets are not {@link MutableCallSite#syncAll synced}
+ * one at a time. Sites with changed targets are queued and synced in batches,
+ * so a storm of new receivers at startup doesn't cause a sync per entry. This
+ * is safe because any target a site ever had remains correct: a stale cache
+ * entry is either guarded by a switch point or falls through to the dispatch
+ * method. A thread still running an earlier target only misses the cache.
  */
 public class InlineCachingCallSite extends MutableCallSite {
-    private static final int CACHE_LIMIT = 3;
+    /** The largest number of entries a site can adapt to hold. */
+    public static final int MAX_CACHE_LIMIT = 8;
+    /** The hit count at which an entry is considered settled and stops counting. */
+    private static final int HIT_COUNT_LIMIT = 1 << 12;
+    /** The number of sites with changed targets that triggers a sync of all of them. */
+    private static final int SYNC_BATCH_SIZE = 32;
+    /** The age of the oldest unsynced change which triggers a sync of all sites on the next change. */
+    private static final long SYNC_DELAY_NANOS = 1_000_000;
+
+    private static int defaultCacheLimit = Math.max(1, Math.min(
+        Integer.getInteger("trifle.inlineCacheLimit", 3), MAX_CACHE_LIMIT));
+
+    /** Sites with target changes not yet synced. Also the lock guarding the two fields. */
+    private static final List<MutableCallSite> unsyncedSites = new ArrayList<>();
+    private static long oldestUnsyncedChange;
+
+    public static int defaultCacheLimit() {
+        return defaultCacheLimit;
+    }
+
+    @TestOnly
+    public static void defaultCacheLimit(int limit) {
+        if (limit < 1 || limit > MAX_CACHE_LIMIT) throw new IllegalArgumentException();
+        defaultCacheLimit = limit;
+    }
+
+    /**
+     * Sync the targets of all sites with unsynced changes. Sites sync
+     * themselves in batches; this method is only needed if all threads must
+     * see the latest targets right away.
+     */
+    public static void syncPendingChanges() {
+        synchronized (unsyncedSites) {
+            if (!unsyncedSites.isEmpty()) {
+                MutableCallSite.syncAll(unsyncedSites.toArray(new MutableCallSite[0]));
+                unsyncedSites.clear();
+            }
+        }
+    }
+
+    private static void noteTargetChange(InlineCachingCallSite site, boolean syncNow) {
+        synchronized (unsyncedSites) {
+            var now = System.nanoTime();
+            if (unsyncedSites.isEmpty()) oldestUnsyncedChange = now;
+            if (!unsyncedSites.contains(site)) unsyncedSites.add(site);
+            if (syncNow || unsyncedSites.size() >= SYNC_BATCH_SIZE || now - oldestUnsyncedChange >= SYNC_DELAY_NANOS) {
+                syncPendingChanges();
+            }
+        }
+    }
+
+    private class CacheEntry {
+        private final MethodHandle guard;
+        private final MethodHandle guardedPath;
+        /** The guarded path with a hit counter increment in front. */
+        private final MethodHandle countingPath;
+        private int hits; // updated without synchronization; an occasional lost hit is harmless
+        /** Set once, by {@link #settle}, under the site lock. */
+        private volatile boolean isSettled;
+
+        private CacheEntry(MethodHandle guard, MethodHandle guardedPath) {
+            this.guard = guard;
+            this.guardedPath = guardedPath;
+            var type = guardedPath.type();
+            var recordHit = MethodHandles.dropArguments(RECORD_HIT.bindTo(this), 0, type.parameterList());
+            this.countingPath = MethodHandles.foldArguments(guardedPath, recordHit);
+        }
+
+        @SuppressWarnings("unused") // called by countingPath
+        private void recordHit() {
+            if (isSettled) return; // a thread may run the counting path until it sees the new target
+            if (++hits >= HIT_COUNT_LIMIT) settle(this);
+        }
+    }
+
+    /*
+        Instance
+     */
 
     /** The original dispatch method installed in this call site. */
     private final MethodHandle originalDispatch;
     /** The dispatch method to permanently switch to when the cache limit is hit. */
     @Nullable private final MethodHandle megamorphicDispatch;
-    private int cacheSize = 0;
+    /** The cache entries, in the order they are tested by the current target. Guarded by this. */
+    private final List<CacheEntry> entries = new ArrayList<>();
+    /** Guarded by this. */
+    private int cacheLimit = defaultCacheLimit;
+    /** The number of entries rejected because the cache was full since the last reset. Guarded by this. */
+    private int rejectedEntries = 0;
+    private volatile boolean megamorphic = false;
 
     public InlineCachingCallSite(MethodType type, MethodHandle dispatch, @Nullable MethodHandle megamorphicDispatch) {
         super(type);
@@ -53,8 +165,23 @@ public class InlineCachingCallSite extends MutableCallSite {
      * method to decide whether to build and add an inline cache entry. However,
      * it is harmless and will only result in an one ignored attempt to do so.
      */
-    public synchronized boolean isMegamorphic() {
-        return cacheSize > CACHE_LIMIT;
+    public boolean isMegamorphic() {
+        return megamorphic;
+    }
+
+    /**
+     * Return the number of entries the cache of this site may currently hold.
+     */
+    public synchronized int cacheLimit() {
+        return cacheLimit;
+    }
+
+    /**
+     * Return the hit counts of the cache entries, in the order the entries
+     * are tested.
+     */
+    public synchronized int[] hitCounts() {
+        return entries.stream().mapToInt(e -> e.hits).toArray();
     }
 
     /**
@@ -62,21 +189,68 @@ public class InlineCachingCallSite extends MutableCallSite {
      * site is megamorphic, this method does nothing.
      */
     public synchronized void addCacheEntry(MethodHandle guard, MethodHandle guardedPath) {
-        if (cacheSize < CACHE_LIMIT) {
-            cacheSize++;
-            MethodHandle entry = MethodHandles.guardWithTest(guard, guardedPath, getTarget());
-            setTarget(entry);
-        } else if (cacheSize == CACHE_LIMIT) {
-            cacheSize++;
-            setTarget(megamorphicDispatch != null ? megamorphicDispatch : originalDispatch);
+        if (megamorphic) return;
+        if (entries.size() >= cacheLimit) {
+            var canGrow = cacheLimit < MAX_CACHE_LIMIT;
+            if (canGrow && entries.stream().allMatch(e -> e.hits > 0)) {
+                cacheLimit = Math.min(cacheLimit * 2, MAX_CACHE_LIMIT);
+            } else if (canGrow && ++rejectedEntries <= cacheLimit) {
+                return;
+            } else {
+                megamorphic = true;
+                entries.clear();
+                setTarget(megamorphicDispatch != null ? megamorphicDispatch : originalDispatch);
+                noteTargetChange(this, true);
+                return;
+            }
+        }
+        entries.add(new CacheEntry(guard, guardedPath));
+        rebuild();
+    }
+
+    /**
+     * Stop the entry counting its hits and rebuild the target, unless
+     * another thread has already done so.
+     */
+    private synchronized void settle(CacheEntry entry) {
+        if (entry.isSettled) return;
+        entry.isSettled = true;
+        rebuild();
+    }
+
+    /**
+     * Set the target to a chain of tests of the current entries, ordered by
+     * their hit counts.
+     */
+    private synchronized void rebuild() {
+        if (megamorphic || entries.isEmpty()) return; // an entry settled after a reset or a megamorphic switch
+        entries.sort(Comparator.comparingInt((CacheEntry e) -> e.hits).reversed());
+        var target = originalDispatch;
+        for (int i = entries.size() - 1; i >= 0; i--) {
+            var entry = entries.get(i);
+            var path = entry.isSettled ? entry.guardedPath : entry.countingPath;
+            target = MethodHandles.guardWithTest(entry.guard, path, target);
         }
-        MutableCallSite.syncAll(new MutableCallSite[]{this});
+        setTarget(target);
+        noteTargetChange(this, false);
     }
 
     public synchronized void reset() {
-        cacheSize = 0;
+        entries.clear();
+        rejectedEntries = 0;
+        megamorphic = false;
         setTarget(originalDispatch);
-        MutableCallSite.syncAll(new MutableCallSite[]{this});
+        noteTargetChange(this, true);
+    }
+
+    /**
+     * Return the original dispatch method of this call site, bound to the site.
+     * A megamorphic dispatch method may fall back to it for calls it can't
+     * handle itself. Once the site is megamorphic, the original dispatch
+     * method no longer adds cache entries.
+     */
+    public MethodHandle dispatchInvoker() {
+        return originalDispatch;
     }
 
     /**
@@ -89,10 +263,13 @@ public class InlineCachingCallSite extends MutableCallSite {
     }
 
     private static final MethodHandle RESET;
+    private static final MethodHandle RECORD_HIT;
     static {
         try {
             RESET = MethodHandles.lookup().findVirtual(
                 InlineCachingCallSite.class, "reset", MethodType.methodType(void.class));
+            RECORD_HIT = MethodHandles.lookup().findVirtual(
+                CacheEntry.class, "recordHit", MethodType.methodType(void.class));
         } catch (NoSuchMethodException | IllegalAccessException e) {
             throw new AssertionError(e);
         }
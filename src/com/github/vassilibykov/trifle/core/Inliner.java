@@ -0,0 +1,324 @@
+// Copyright (c) 2018 Vassili Bykov. Licensed under the Apache License, Version 2.0.
+
+package com.github.vassilibykov.trifle.core;
+
+import org.objectweb.asm.ClassWriter;
+import org.objectweb.asm.MethodVisitor;
+
+import java.lang.invoke.MethodType;
+import java.lang.invoke.SwitchPoint;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+
+import static org.objectweb.asm.Opcodes.ACC_FINAL;
+import static org.objectweb.asm.Opcodes.ACC_PRIVATE;
+import static org.objectweb.asm.Opcodes.ACC_STATIC;
+
+/**
+ * Inlines calls of small user functions into the unit being compiled. The body
+ * of an inlined function is compiled into a private static method of the
+ * caller's class, specialized according to the callee's own profile, and the
+ * call is made by an {@code invokestatic} instead of going through {@link
+ * UserFunctionCallInvokeDynamic}.
+ *
+ * <p>A function is inlined if it is compiled, its body is no larger than
+ * {@link #NODE_BUDGET} nodes, it has no nested closures, and it is not part
+ * of the unit being compiled. The compiled form is only used at call sites
+ * whose type is exactly the type of the callee's generic or specialized
+ * method, so that the inlined code behaves the same as the callee's own
+ * compiled code would if the call site were linked to it directly.
+ *
+ * <p>Generating an inlined copy reuses the evaluator nodes of the callee,
+ * recomputing their specialization types, so the compilation lock of each
+ * callee is held for the duration of the caller's compilation. The types and
+ * the slot assignment of the callee are saved before and restored after
+ * generating a copy, so the callee keeps the annotations of its own
+ * compilation. To rule out deadlocks between units inlining each other, a
+ * callee whose lock is not immediately available is not inlined. Nor is a
+ * callee whose compiled form has already inlined the unit being compiled,
+ * directly or indirectly; see {@link FunctionImplementation#hasInlined}.
+ *
+ * <p>The inlined code is a snapshot of the callee's compiled form. Each inlined
+ * function is recorded in the {@link Compiler.UnitResult} together with the
+ * switch point guarding its compiled form at the time. When the unit is
+ * installed, it registers as a dependent of the callees, and it is recompiled
+ * when any of them is recompiled or re-profiled.
+ */
+class Inliner {
+
+    /**
+     * The maximum number of evaluator nodes in the body of a function which
+     * can be inlined.
+     */
+    public static final int NODE_BUDGET = 24;
+    private static final String INLINED_METHOD_PREFIX = "inl";
+
+    static int nodeCount(FunctionImplementation function) {
+        return NodeCollector.nodesOf(function).size();
+    }
+
+    private final FunctionImplementation unit;
+    private final String className;
+    private final ClassWriter classWriter;
+    private final Compiler.UnitResult result;
+    private final Map<FunctionImplementation, SwitchPoint> candidates = new LinkedHashMap<>();
+    private final Map<FunctionImplementation, Map<MethodType, Optional<String>>> inlinedMethods = new HashMap<>();
+    private int inlinedMethodSerial = 0;
+
+    Inliner(FunctionImplementation unit, String className, ClassWriter classWriter, Compiler.UnitResult result) {
+        this.unit = unit;
+        this.className = className;
+        this.classWriter = classWriter;
+        this.result = result;
+    }
+
+    /**
+     * Find the user functions called by the unit which can be inlined and lock
+     * them for the duration of the compilation.
+     */
+    void selectCandidates() {
+        var callees = new ArrayList<FunctionImplementation>();
+        var collector = new EvaluatorNode.VisitorSkeleton<Void>() {
+            @Override
+            public Void visitCall(CallNode call) {
+                var dispatcher = call.dispatcher();
+                if (dispatcher instanceof FreeFunctionCallDispatcher) {
+                    var target = ((FreeFunctionCallDispatcher) dispatcher).target();
+                    if (target instanceof UserFunction) callees.add(((UserFunction) target).implementation());
+                }
+                return super.visitCall(call);
+            }
+        };
+        unit.body().accept(collector); // also descends into nested closures
+        for (var callee : callees) {
+            if (!candidates.containsKey(callee) && isInlinable(callee) && callee.tryLockCompilation()) {
+                if (callee.isCompiled()) {
+                    candidates.put(callee, callee.compiledFormSwitchPoint());
+                } else {
+                    callee.unlockCompilation();
+                }
+            }
+        }
+    }
+
+    private boolean isInlinable(FunctionImplementation callee) {
+        return callee.topImplementation() != unit.topImplementation()
+            && callee.isCompiled()
+            && callee.closureImplementations().isEmpty()
+            && nodeCount(callee) <= NODE_BUDGET
+            && !callee.hasInlined(unit.topImplementation());
+    }
+
+    /**
+     * Release the compilation locks of the candidates.
+     */
+    void releaseCandidates() {
+        candidates.keySet().forEach(FunctionImplementation::unlockCompilation);
+    }
+
+    /**
+     * Generate an invocation of an inlined copy of the callee with the
+     * specified call site type, if the callee can be inlined at such a call
+     * site. The arguments must already be on the stack. Return a boolean
+     * indicating whether the invocation has been generated.
+     */
+    boolean generateInlinedCall(FunctionImplementation callee, MethodType callSiteType, GhostWriter writer) {
+        if (!candidates.containsKey(callee)) return false;
+        var methodName = inlinedMethodsOf(callee)
+            .computeIfAbsent(callSiteType, type -> generateInlinedMethod(callee, type));
+        if (methodName.isEmpty()) return false;
+        writer.invokeStatic(GhostWriter.internalClassName(className), methodName.get(), callSiteType);
+        return true;
+    }
+
+    private Map<MethodType, Optional<String>> inlinedMethodsOf(FunctionImplementation callee) {
+        return inlinedMethods.computeIfAbsent(callee, k -> new HashMap<>());
+    }
+
+    private Optional<String> generateInlinedMethod(FunctionImplementation callee, MethodType type) {
+        var savedAnnotations = new Annotations(callee);
+        try {
+            return generateInlinedMethodWithCurrentAnnotations(callee, type);
+        } finally {
+            savedAnnotations.restore();
+        }
+    }
+
+    private Optional<String> generateInlinedMethodWithCurrentAnnotations(FunctionImplementation callee, MethodType type) {
+        ExpressionTypeInferencer.inferTypesIn(callee);
+        if (type.equals(MethodType.genericMethodType(callee.implementationArity()))) {
+            SpecializedTypeComputer.process(true, callee);
+        } else {
+            SpecializedTypeComputer.process(false, callee);
+            if (!callee.canBeSpecialized() || !Compiler.computeSpecializationType(callee).equals(type)) {
+                if (!callee.requestedSpecializations().contains(type)) return Optional.empty();
+                SpecializedTypeComputer.processForSignature(callee, type);
+            }
+        }
+        var methodName = INLINED_METHOD_PREFIX + inlinedMethodSerial++;
+        MethodVisitor methodWriter = classWriter.visitMethod(
+            ACC_PRIVATE | ACC_STATIC | ACC_FINAL,
+            methodName,
+            type.toMethodDescriptorString(),
+            null, null);
+        methodWriter.visitCode();
+        new MethodCodeGenerator(callee, result, null, methodWriter).generate();
+        methodWriter.visitMaxs(-1, -1);
+        methodWriter.visitEnd();
+        result.addInlinedFunction(callee, candidates.get(callee));
+        return Optional.of(methodName);
+    }
+
+    /**
+     * The inferred and specialized types of the nodes and variables of a
+     * function, and its specialized return type and slot assignment, as they
+     * were when an instance was created.
+     */
+    private static class Annotations {
+        private final FunctionImplementation function;
+        private final List<EvaluatorNode> nodes;
+        private final ExpressionType[] nodeInferredTypes;
+        private final JvmType[] nodeSpecializedTypes;
+        private final List<AbstractVariable> variables;
+        private final ExpressionType[] variableInferredTypes;
+        private final JvmType[] variableSpecializedTypes;
+        private final JvmType specializedReturnType;
+        private final int[] localSlots;
+        private final int localSlotCount;
+
+        private Annotations(FunctionImplementation function) {
+            this.function = function;
+            nodes = NodeCollector.nodesOf(function);
+            nodeInferredTypes = new ExpressionType[nodes.size()];
+            nodeSpecializedTypes = new JvmType[nodes.size()];
+            for (int i = 0; i < nodes.size(); i++) {
+                nodeInferredTypes[i] = nodes.get(i).inferredType();
+                nodeSpecializedTypes[i] = nodes.get(i).specializedType();
+            }
+            variables = new ArrayList<>(Arrays.asList(function.allParameters()));
+            for (var each : nodes) {
+                if (each instanceof LetNode) variables.add(((LetNode) each).variable());
+            }
+            variableInferredTypes = new ExpressionType[variables.size()];
+            variableSpecializedTypes = new JvmType[variables.size()];
+            for (int i = 0; i < variables.size(); i++) {
+                variableInferredTypes[i] = variables.get(i).inferredType();
+                variableSpecializedTypes[i] = variables.get(i).specializedType();
+            }
+            specializedReturnType = function.specializedReturnType();
+            localSlots = function.localSlots();
+            localSlotCount = function.localSlotCount();
+        }
+
+        private void restore() {
+            for (int i = 0; i < nodes.size(); i++) {
+                nodes.get(i).setInferredType(nodeInferredTypes[i]);
+                if (nodeSpecializedTypes[i] != null) nodes.get(i).setSpecializedType(nodeSpecializedTypes[i]);
+            }
+            for (int i = 0; i < variables.size(); i++) {
+                variables.get(i).setInferredType(variableInferredTypes[i]);
+                if (variableSpecializedTypes[i] != null) variables.get(i).setSpecializedType(variableSpecializedTypes[i]);
+            }
+            function.setSpecializedReturnType(specializedReturnType);
+            function.restoreLocalSlots(localSlots, localSlotCount);
+        }
+    }
+
+    /**
+     * Collects the evaluator nodes of a function body, including the bodies
+     * of nested closures.
+     */
+    private static class NodeCollector extends EvaluatorNode.VisitorSkeleton<Void> {
+
+        static List<EvaluatorNode> nodesOf(FunctionImplementation function) {
+            var collector = new NodeCollector();
+            function.body().accept(collector);
+            return collector.nodes;
+        }
+
+        private final List<EvaluatorNode> nodes = new ArrayList<>();
+
+        @Override
+        public Void visitBlock(BlockNode block) {
+            nodes.add(block);
+            return super.visitBlock(block);
+        }
+
+        @Override
+        public Void visitCall(CallNode call) {
+            nodes.add(call);
+            return super.visitCall(call);
+        }
+
+        @Override
+        public Void visitConstant(ConstantNode aConst) {
+            nodes.add(aConst);
+            return super.visitConstant(aConst);
+        }
+
+        @Override
+        public Void visitClosure(ClosureNode closure) {
+            nodes.add(closure);
+            return super.visitClosure(closure);
+        }
+
+        @Override
+        public Void visitGetVar(GetVariableNode var) {
+            nodes.add(var);
+            return super.visitGetVar(var);
+        }
+
+        @Override
+        public Void visitFreeFunctionReference(FreeFunctionReferenceNode topLevelBinding) {
+            nodes.add(topLevelBinding);
+            return super.visitFreeFunctionReference(topLevelBinding);
+        }
+
+        @Override
+        public Void visitIf(IfNode anIf) {
+            nodes.add(anIf);
+            return super.visitIf(anIf);
+        }
+
+        @Override
+        public Void visitLet(LetNode let) {
+            nodes.add(let);
+            return super.visitLet(let);
+        }
+
+        @Override
+        public Void visitPrimitive1(Primitive1Node primitive) {
+            nodes.add(primitive);
+            return super.visitPrimitive1(primitive);
+        }
+
+        @Override
+        public Void visitPrimitive2(Primitive2Node primitive) {
+            nodes.add(primitive);
+            return super.visitPrimitive2(primitive);
+        }
+
+        @Override
+        public Void visitReturn(ReturnNode ret) {
+            nodes.add(ret);
+            return super.visitReturn(ret);
+        }
+
+        @Override
+        public Void visitSetVar(SetVariableNode set) {
+            nodes.add(set);
+            return super.visitSetVar(set);
+        }
+
+        @Override
+        public Void visitWhile(WhileNode whileNode) {
+            nodes.add(whileNode);
+            return super.visitWhile(whileNode);
+        }
+    }
+}
@@ -2,32 +2,126 @@
 
 package com.github.vassilibykov.trifle.core;
 
+import org.jetbrains.annotations.Nullable;
+
+import java.lang.invoke.MethodHandle;
+
 public class Interpreter {
     public static final Interpreter INSTANCE = new Interpreter();
 
+    /**
+     * Evaluators are reused by all interpreted invocations on a thread, see
+     * {@link Evaluator#evaluate}.
+     */
+    private static final ThreadLocal<Evaluator> EVALUATOR = ThreadLocal.withInitial(ProfilingInterpreter.ProfilingEvaluator::new);
+
+    /**
+     * Unwinds the evaluation of a function body on a {@code return}. The
+     * returned value is passed in {@link Evaluator#returnValue}, so a single
+     * stackless instance serves all returns.
+     */
     static class ReturnException extends RuntimeException {
-        final Object value;
+        static final ReturnException INSTANCE = new ReturnException();
 
-        ReturnException(Object value) {
-            this.value = value;
+        private ReturnException() {
+            super(null, null, false, false);
         }
     }
 
     public static class Evaluator implements EvaluatorNode.Visitor<Object> {
-        protected final Object[] frame;
+        protected FunctionImplementation function;
+        protected Object[] frame;
+        /**
+         * The int lane of the frame. Allocated when the first {@code int} is
+         * stored in it, so functions with no {@code int} locals don't pay
+         * for it. See {@link AbstractVariable#IN_INT_LANE}.
+         */
+        protected int[] intFrame;
+        /**
+         * The value of the last expression evaluated by {@link
+         * EvaluatorNode#evaluateUnboxed} for which that method returned {@link
+         * AbstractVariable#IN_INT_LANE}.
+         */
+        protected int intValue;
+        private Object returnValue;
 
-        public Evaluator(Object[] frame) {
+        /**
+         * Evaluate the body of the function in the specified frame. An
+         * evaluator is reentrant: the function and the frame of the caller, if
+         * any, are saved for the duration of the evaluation and restored
+         * afterwards.
+         */
+        Object evaluate(FunctionImplementation function, Object[] frame) {
+            var callerFunction = this.function;
+            var callerFrame = this.frame;
+            var callerIntFrame = this.intFrame;
+            this.function = function;
             this.frame = frame;
+            this.intFrame = null;
+            try {
+                return function.body().accept(this);
+            } catch (ReturnException e) {
+                var result = returnValue;
+                returnValue = null;
+                return result;
+            } finally {
+                this.function = callerFunction;
+                this.frame = callerFrame;
+                this.intFrame = callerIntFrame;
+            }
+        }
+
+        /**
+         * Evaluate an atomic expression in the specified frame of the
+         * function. Used by {@link ACodeInterpreter} for the expressions it
+         * doesn't encode itself. Atomic expressions don't store into the
+         * frame, so the int lane is only read.
+         */
+        Object evaluateAtomic(EvaluatorNode node, FunctionImplementation function, Object[] frame, @Nullable int[] intFrame) {
+            var callerFunction = this.function;
+            var callerFrame = this.frame;
+            var callerIntFrame = this.intFrame;
+            this.function = function;
+            this.frame = frame;
+            this.intFrame = intFrame;
+            try {
+                return node.accept(this);
+            } finally {
+                this.function = callerFunction;
+                this.frame = callerFrame;
+                this.intFrame = callerIntFrame;
+            }
+        }
+
+        protected final int[] intFrame() {
+            if (intFrame == null) intFrame = new int[frame.length];
+            return intFrame;
+        }
+
+        protected static Object boxed(Object value, int intValue) {
+            return value == AbstractVariable.IN_INT_LANE ? (Object) intValue : value;
+        }
+
+        private Object boxed(Object value) {
+            return boxed(value, intValue);
+        }
+
+        private static boolean isInt(Object value) {
+            return value == AbstractVariable.IN_INT_LANE || value instanceof Integer;
         }
 
         @Override
         public Object visitBlock(BlockNode block) {
+            return boxed(evaluateBlock(block));
+        }
+
+        protected Object evaluateBlock(BlockNode block) {
             EvaluatorNode[] expressions = block.expressions();
             int exprCount = expressions.length;
             if (exprCount > 0) {
                 int i;
-                for (i = 0; i < exprCount - 1; i++) expressions[i].accept(this);
-                return expressions[i].accept(this);
+                for (i = 0; i < exprCount - 1; i++) expressions[i].evaluateUnboxed(this);
+                return expressions[i].evaluateUnboxed(this);
             } else {
                 return null;
             }
@@ -43,7 +137,10 @@ public class Interpreter {
             int[] indicesToCopy = closure.copiedVariableIndices;
             var size = indicesToCopy.length;
             var copies = new Object[size];
-            for (int i = 0; i < size; i++) copies[i] = frame[indicesToCopy[i]];
+            for (int i = 0; i < size; i++) {
+                var index = indicesToCopy[i];
+                copies[i] = frame[index] == AbstractVariable.IN_INT_LANE ? (Object) intFrame[index] : frame[index];
+            }
             return Closure.create(closure.function(), copies);
         }
 
@@ -54,7 +151,14 @@ public class Interpreter {
 
         @Override
         public Object visitGetVar(GetVariableNode varRef) {
-            return varRef.variable().getValueIn(frame);
+            return boxed(evaluateGetVar(varRef));
+        }
+
+        protected Object evaluateGetVar(GetVariableNode varRef) {
+            var variable = varRef.variable();
+            var value = variable.getValueIn(frame);
+            if (value == AbstractVariable.IN_INT_LANE) intValue = intFrame[variable.index()];
+            return value;
         }
 
         @Override
@@ -64,52 +168,136 @@ public class Interpreter {
 
         @Override
         public Object visitIf(IfNode anIf) {
+            return boxed(evaluateIf(anIf));
+        }
+
+        protected Object evaluateIf(IfNode anIf) {
             if (evaluateCondition(anIf.condition())) {
-                return anIf.trueBranch().accept(this);
+                return anIf.trueBranch().evaluateUnboxed(this);
             } else {
-                return anIf.falseBranch().accept(this);
+                return anIf.falseBranch().evaluateUnboxed(this);
             }
         }
 
         @Override
         public Object visitLet(LetNode let) {
-            var var = let.variable();
-            var value = let.initializer().accept(this);
-            var.initValueIn(frame, value);
-            return let.body().accept(this);
+            return boxed(evaluateLet(let));
+        }
+
+        protected Object evaluateLet(LetNode let) {
+            var variable = let.variable();
+            var value = let.initializer().evaluateUnboxed(this);
+            if (value == AbstractVariable.IN_INT_LANE) {
+                variable.initIntValueIn(frame, intFrame(), intValue);
+            } else {
+                variable.initValueIn(frame, value);
+            }
+            return let.body().evaluateUnboxed(this);
         }
 
         @Override
         public Object visitPrimitive1(Primitive1Node primitiveNode) {
-            return primitiveNode.implementation().apply(primitiveNode.argument().accept(this));
+            return boxed(evaluatePrimitive1(primitiveNode));
+        }
+
+        protected Object evaluatePrimitive1(Primitive1Node primitiveNode) {
+            var implementation = primitiveNode.implementation();
+            var argument = primitiveNode.argument().evaluateUnboxed(this);
+            if (!isInt(argument)) return implementation.apply(argument);
+            int intArgument = argument == AbstractVariable.IN_INT_LANE ? intValue : (Integer) argument;
+            if (primitiveNode.isIntOperation) {
+                intValue = implementation.applyToInt(intArgument);
+                return AbstractVariable.IN_INT_LANE;
+            } else {
+                return implementation.apply(intArgument);
+            }
         }
 
         @Override
         public Object visitPrimitive2(Primitive2Node primitiveNode) {
-            return primitiveNode.implementation().apply(
-                primitiveNode.argument1().accept(this),
-                primitiveNode.argument2().accept(this));
+            return boxed(evaluatePrimitive2(primitiveNode));
+        }
+
+        protected Object evaluatePrimitive2(Primitive2Node primitiveNode) {
+            var implementation = primitiveNode.implementation();
+            var argument1 = primitiveNode.argument1().evaluateUnboxed(this);
+            var intArgument1 = intValue;
+            var argument2 = primitiveNode.argument2().evaluateUnboxed(this);
+            var intArgument2 = intValue;
+            if (primitiveNode.isIntSpecialized) {
+                if (isInt(argument1) && isInt(argument2)) {
+                    if (argument1 != AbstractVariable.IN_INT_LANE) intArgument1 = (Integer) argument1;
+                    if (argument2 != AbstractVariable.IN_INT_LANE) intArgument2 = (Integer) argument2;
+                    intValue = implementation.applyToInts(intArgument1, intArgument2);
+                    return AbstractVariable.IN_INT_LANE;
+                }
+                primitiveNode.isIntSpecialized = false;
+            }
+            if (!isInt(argument1) || !isInt(argument2)) {
+                return implementation.apply(boxed(argument1, intArgument1), boxed(argument2, intArgument2));
+            }
+            if (argument1 != AbstractVariable.IN_INT_LANE) intArgument1 = (Integer) argument1;
+            if (argument2 != AbstractVariable.IN_INT_LANE) intArgument2 = (Integer) argument2;
+            return implementation.apply(intArgument1, intArgument2);
         }
 
         @Override
         public Object visitReturn(ReturnNode ret) {
-            throw new ReturnException(ret.value().accept(this));
+            returnValue = ret.value().accept(this);
+            throw ReturnException.INSTANCE;
         }
 
         @Override
         public Object visitSetVar(SetVariableNode set) {
-            var value = set.value().accept(this);
-            set.variable().setValueIn(frame, value);
+            return boxed(evaluateSetVar(set));
+        }
+
+        protected Object evaluateSetVar(SetVariableNode set) {
+            var variable = set.variable();
+            var value = set.value().evaluateUnboxed(this);
+            if (value == AbstractVariable.IN_INT_LANE) {
+                variable.setIntValueIn(frame, intFrame(), intValue);
+            } else {
+                variable.setValueIn(frame, value);
+            }
             return value;
         }
 
         @Override
         public Object visitWhile(WhileNode whileNode) {
             Object result = null;
+            int intResult = 0;
             while (evaluateCondition(whileNode.condition())) {
-                result = whileNode.body().accept(this);
+                result = whileNode.body().evaluateUnboxed(this);
+                intResult = intValue;
+                var loopEntry = whileNode.loopEntry;
+                if (loopEntry != null) enterCompiledLoop(loopEntry, boxed(result, intResult));
             }
-            return result;
+            return boxed(result, intResult);
+        }
+
+        /**
+         * Continue executing the function in compiled code from the head of
+         * the loop whose entry is specified, then return from the function the
+         * value the compiled code produced. Does not return normally.
+         */
+        protected void enterCompiledLoop(MethodHandle loopEntry, Object loopValue) {
+            if (intFrame != null) {
+                // compiled code only sees the reference lane
+                for (int i = 0; i < frame.length; i++) {
+                    if (frame[i] == AbstractVariable.IN_INT_LANE) frame[i] = intFrame[i];
+                }
+            }
+            Object functionResult;
+            try {
+                functionResult = loopEntry.invokeExact(frame, loopValue);
+            } catch (RuntimeException | Error e) {
+                throw e;
+            } catch (Throwable e) {
+                throw new AssertionError(e);
+            }
+            returnValue = functionResult;
+            throw ReturnException.INSTANCE;
         }
 
         protected boolean evaluateCondition(EvaluatorNode condition) {
@@ -131,10 +319,10 @@ public class Interpreter {
         for (int i = 0; i < args.length; i++) {
             function.allParameters()[i].setupArgumentIn(frame, args[i]);
         }
-        try {
-            return function.body().accept(new ProfilingInterpreter.ProfilingEvaluator(frame));
-        } catch (ReturnException e) {
-            return e.value;
-        }
+        return EVALUATOR.get().evaluate(function, frame);
+    }
+
+    static Evaluator evaluator() {
+        return EVALUATOR.get();
     }
 }
@@ -9,11 +9,17 @@ import java.lang.invoke.MethodType;
 /**
  * A broad category of types as seen by the JVM, i.e. reference types vs.
  * primitive {@code int}s, vs other primitive types.
+ *
+ * <p>Note that {@link #LONG} and {@link #DOUBLE} values occupy two local
+ * variable slots and two stack entries, so code generators working with
+ * values of those types must account for their {@link #slotSize()}.
  */
 public enum JvmType {
     REFERENCE(Object.class),
     INT(int.class),
     BOOL(boolean.class),
+    LONG(long.class),
+    DOUBLE(double.class),
     /**
      * The type of a continuation which accepts any value, such as a non-tail
      * expression of a {@link BlockNode}, or the type of an expression which
@@ -27,6 +33,10 @@ public enum JvmType {
             return INT;
         } else if (value instanceof Boolean) {
             return BOOL;
+        } else if (value instanceof Long) {
+            return LONG;
+        } else if (value instanceof Double) {
+            return DOUBLE;
         } else {
             return REFERENCE;
         }
@@ -35,6 +45,8 @@ public enum JvmType {
     public static JvmType ofClass(Class<?> klass) {
         if (klass.equals(int.class)) return INT;
         if (klass.equals(boolean.class)) return BOOL;
+        if (klass.equals(long.class)) return LONG;
+        if (klass.equals(double.class)) return DOUBLE;
         if (!klass.isPrimitive()) return REFERENCE;
         throw new IllegalArgumentException("unexpected primitive class: " + klass);
     }
@@ -45,13 +57,46 @@ public enum JvmType {
            those ever change. So, it's better to keep it here. */
         if (typeToken == int.class && !(value instanceof Integer)) return false;
         if (typeToken == boolean.class && !(value instanceof Boolean)) return false;
+        if (typeToken == long.class && !(value instanceof Long)) return false;
+        if (typeToken == double.class && !(value instanceof Double)) return false;
         return true;
     }
 
+    /**
+     * Return a method handle of type {@code (Object)boolean} answering the same
+     * question as {@link #isCompatibleValue(Class, Object)} for the specified
+     * primitive type, with a single {@code instanceof} check.
+     */
+    public static MethodHandle compatibilityTest(Class<?> primitiveType) {
+        if (primitiveType == int.class) return IS_INTEGER;
+        if (primitiveType == boolean.class) return IS_BOOLEAN;
+        if (primitiveType == long.class) return IS_LONG;
+        if (primitiveType == double.class) return IS_DOUBLE;
+        throw new IllegalArgumentException("not a primitive type: " + primitiveType);
+    }
+
+    private static boolean isInteger(Object value) {
+        return value instanceof Integer;
+    }
+
+    private static boolean isBoolean(Object value) {
+        return value instanceof Boolean;
+    }
+
+    private static boolean isLong(Object value) {
+        return value instanceof Long;
+    }
+
+    private static boolean isDouble(Object value) {
+        return value instanceof Double;
+    }
+
     public interface Matcher<T> {
         T ifReference();
         T ifInt();
         T ifBoolean();
+        T ifLong();
+        T ifDouble();
         default T ifVoid() {
             // A void type category is only used in one specific case, as the type of
             // a continuation that will discard its value. We don't expect to see it in other
@@ -64,6 +109,8 @@ public enum JvmType {
         void ifReference();
         void ifInt();
         void ifBoolean();
+        void ifLong();
+        void ifDouble();
         default void ifVoid() {
             // A void type is only used in one specific case, as the type of
             // a continuation that will discard its value. We don't expect to see it in other
@@ -100,13 +147,23 @@ public enum JvmType {
     }
 
     private static final MethodHandle ENSURE_UNBOXABLE_VALUE;
+    private static final MethodHandle IS_INTEGER;
+    private static final MethodHandle IS_BOOLEAN;
+    private static final MethodHandle IS_LONG;
+    private static final MethodHandle IS_DOUBLE;
     static {
         try {
-            ENSURE_UNBOXABLE_VALUE = MethodHandles.lookup()
+            var lookup = MethodHandles.lookup();
+            ENSURE_UNBOXABLE_VALUE = lookup
                 .findStatic(
                     JvmType.class,
                     "ensureUnboxableValue",
                     MethodType.methodType(Object.class, Class.class, Object.class));
+            var testType = MethodType.methodType(boolean.class, Object.class);
+            IS_INTEGER = lookup.findStatic(JvmType.class, "isInteger", testType);
+            IS_BOOLEAN = lookup.findStatic(JvmType.class, "isBoolean", testType);
+            IS_LONG = lookup.findStatic(JvmType.class, "isLong", testType);
+            IS_DOUBLE = lookup.findStatic(JvmType.class, "isDouble", testType);
         } catch (NoSuchMethodException | IllegalAccessException e) {
             throw new AssertionError();
         }
@@ -120,6 +177,8 @@ public enum JvmType {
     private static Class<?> primitiveToWrapper(Class<?> primitiveType) {
         if (primitiveType == int.class) return Integer.class;
         if (primitiveType == boolean.class) return Boolean.class;
+        if (primitiveType == long.class) return Long.class;
+        if (primitiveType == double.class) return Double.class;
         throw new AssertionError("unsupported primitive type");
     }
 
@@ -139,6 +198,14 @@ public enum JvmType {
         return representativeType;
     }
 
+    /**
+     * The number of local variable slots (and operand stack entries) taken
+     * by a value of this type.
+     */
+    public int slotSize() {
+        return this == LONG || this == DOUBLE ? 2 : 1;
+    }
+
     /**
      * Return a union of this type and another, with {@link #VOID} being
      * the zero: a union of it with any type is the other type.
@@ -158,6 +225,8 @@ public enum JvmType {
             case REFERENCE: return matcher.ifReference();
             case INT: return matcher.ifInt();
             case BOOL: return matcher.ifBoolean();
+            case LONG: return matcher.ifLong();
+            case DOUBLE: return matcher.ifDouble();
             case VOID: return matcher.ifVoid();
             default:
                 throw new AssertionError("no match() method case for " + this);
@@ -175,6 +244,12 @@ public enum JvmType {
             case BOOL:
                 matcher.ifBoolean();
                 break;
+            case LONG:
+                matcher.ifLong();
+                break;
+            case DOUBLE:
+                matcher.ifDouble();
+                break;
             case VOID:
                 matcher.ifVoid();
                 break;
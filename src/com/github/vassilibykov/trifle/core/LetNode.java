@@ -42,11 +42,26 @@ class LetNode extends EvaluatorNode implements RecoverySite {
         this.recoverySiteLabel = recoverySiteLabel;
     }
 
+    @Override
+    public EvaluatorNode recoveredExpression() {
+        return initializer;
+    }
+
+    @Override
+    public ValueProfile continuationProfile(FunctionImplementation function) {
+        return variable.profile;
+    }
+
     @Override
     public <T> T accept(Visitor<T> visitor) {
         return visitor.visitLet(this);
     }
 
+    @Override
+    Object evaluateUnboxed(Interpreter.Evaluator evaluator) {
+        return evaluator.evaluateLet(this);
+    }
+
     @Override
     public String toString() {
         return "(let (" + variable() + " ...) ...)";
@@ -2,32 +2,28 @@
 
 package com.github.vassilibykov.trifle.core;
 
-import java.util.ArrayList;
-import java.util.List;
-
 /**
  * Stores objects used by compiled code as literals, which are not
- * directly supported as literals by JVM code.
+ * directly supported as literals by JVM code. The pool references the
+ * objects weakly. They are kept alive by the classes of the units
+ * using them, which is why compiled code registers them through
+ * {@link Compiler.UnitResult#registerLiteral(Object)}.
  */
 final class LiteralPool {
 
     public static final LiteralPool INSTANCE = new LiteralPool();
 
-    private final List<Object> objects = new ArrayList<>();
+    private final WeakRegistry<Object> objects = new WeakRegistry<>();
 
     private LiteralPool() {}
 
-    public synchronized int register(Object object) {
-        int id = objects.size();
-        objects.add(object);
-        return id;
+    public int register(Object object) {
+        return objects.register(object);
     }
 
-    public synchronized Object get(int id) {
-        try {
-            return objects.get(id);
-        } catch (IndexOutOfBoundsException e) {
-            throw new IllegalArgumentException("object ID does not exist: " + id);
-        }
+    public Object get(int id) {
+        var object = objects.get(id);
+        if (object == null) throw new IllegalArgumentException("object ID does not exist: " + id);
+        return object;
     }
 }
@@ -3,6 +3,7 @@
 package com.github.vassilibykov.trifle.core;
 
 import com.github.vassilibykov.trifle.primitive.IfAware;
+import org.jetbrains.annotations.Nullable;
 import org.objectweb.asm.Label;
 import org.objectweb.asm.MethodVisitor;
 
@@ -40,11 +41,16 @@ class MethodCodeGenerator implements CodeGenerator {
          * resume.
          */
         private final Label recoverySiteLabel;
+        /**
+         * The evaluator node whose continuation the handler recovers.
+         */
+        private final RecoverySite site;
 
-        private SquarePegHandler(Label handlerStart, List<AbstractVariable> liveLocals) {
+        private SquarePegHandler(Label handlerStart, List<AbstractVariable> liveLocals, RecoverySite site) {
             this.handlerStart = handlerStart;
             this.liveLocals = liveLocals;
             this.recoverySiteLabel = new Label();
+            this.site = site;
         }
     }
 
@@ -53,12 +59,21 @@ class MethodCodeGenerator implements CodeGenerator {
      */
 
     private final FunctionImplementation function;
+    private final Compiler.UnitResult unit;
+    @Nullable private final Inliner inliner;
     private final GhostWriter writer;
     private final List<AbstractVariable> liveLocals = new ArrayList<>();
     private final List<SquarePegHandler> squarePegHandlers = new ArrayList<>();
 
-    MethodCodeGenerator(FunctionImplementation function, MethodVisitor writer) {
+    MethodCodeGenerator(
+        FunctionImplementation function,
+        Compiler.UnitResult unit,
+        @Nullable Inliner inliner,
+        MethodVisitor writer)
+    {
         this.function = function;
+        this.unit = unit;
+        this.inliner = inliner;
         this.writer = new GhostWriter(writer);
     }
 
@@ -67,6 +82,16 @@ class MethodCodeGenerator implements CodeGenerator {
         return writer;
     }
 
+    @Override
+    public int functionId(FunctionImplementation function) {
+        return unit.functionId(function);
+    }
+
+    @Override
+    public boolean generateInlinedCall(FunctionImplementation callee, MethodType callSiteType) {
+        return inliner != null && inliner.generateInlinedCall(callee, callSiteType, writer);
+    }
+
     void generate() {
         generatePrologue();
         var bodyGist = function.body().accept(this);
@@ -92,10 +117,10 @@ class MethodCodeGenerator implements CodeGenerator {
         for (var each : function.declaredParameters()) {
             if (each.isBoxed()) {
                 var paramType = each.specializedType();
-                int index = each.index();
+                int slot = each.slot();
                 writer
-                    .loadLocal(paramType, index)
-                    .initBoxedVariable(paramType, index);
+                    .loadLocal(paramType, slot)
+                    .initBoxedVariable(paramType, slot);
             }
         }
     }
@@ -105,7 +130,7 @@ class MethodCodeGenerator implements CodeGenerator {
     }
 
     private void generateRecoveryCode() {
-        var generator = new RecoveryCodeGenerator(function, writer);
+        var generator = new RecoveryCodeGenerator(function, unit, writer);
         generator.generate();
     }
 
@@ -160,11 +185,11 @@ class MethodCodeGenerator implements CodeGenerator {
         var copiedOuterVariables = closure.copiedOuterVariables;
         for (var copiedVar : copiedOuterVariables) {
             if (copiedVar.isBoxed()) {
-                writer.loadLocal(REFERENCE, copiedVar.index());
+                writer.loadLocal(REFERENCE, copiedVar.slot());
             } else {
                 JvmType variableType = copiedVar.specializedType();
                 writer
-                    .loadLocal(variableType, copiedVar.index())
+                    .loadLocal(variableType, copiedVar.slot())
                     .adaptValue(variableType, REFERENCE);
             }
         }
@@ -172,7 +197,7 @@ class MethodCodeGenerator implements CodeGenerator {
             ClosureCreationInvokeDynamic.BOOTSTRAP,
             "createClosure",
             MethodType.genericMethodType(copiedOuterVariables.size()),
-            closure.function().id());
+            unit.functionId(closure.function()));
         return Gist.INFALLIBLE_REFERENCE;
     }
 
@@ -181,6 +206,10 @@ class MethodCodeGenerator implements CodeGenerator {
         Object value = aConst.value();
         if (value instanceof Integer) {
             writer.loadInt((Integer) value);
+        } else if (value instanceof Long) {
+            writer.loadLong((Long) value);
+        } else if (value instanceof Double) {
+            writer.loadDouble((Double) value);
         } else if (value instanceof String) {
             writer.loadString((String) value);
         } else if (value == null) {
@@ -188,7 +217,7 @@ class MethodCodeGenerator implements CodeGenerator {
         } else if (value instanceof Boolean) {
             writer.loadInt((Boolean) value ? 1 : 0);
         } else {
-            var id = LiteralPool.INSTANCE.register(value);
+            var id = unit.registerLiteral(value);
             writer.invokeDynamic(
                 LiteralObjectInvokeDynamic.BOOTSTRAP,
                 "literal",
@@ -204,10 +233,10 @@ class MethodCodeGenerator implements CodeGenerator {
         var varType = variable.specializedType();
         if (variable.isBoxed()) {
             writer
-                .loadLocal(REFERENCE, variable.index())
+                .loadLocal(REFERENCE, variable.slot())
                 .unboxValue(varType);
         } else {
-            writer.loadLocal(varType, variable.index());
+            writer.loadLocal(varType, variable.slot());
         }
         return Gist.infallible(varType);
     }
@@ -282,10 +311,11 @@ class MethodCodeGenerator implements CodeGenerator {
             var bridgeCanFail = writer.bridgeValue(initGist.type(), varType);
             return initGist.canFail() || bridgeCanFail;
         });
+        generateWidenedSiteWatch(let, varType);
         if (variable.isBoxed()) {
-            writer.initBoxedVariable(varType, variable.index());
+            writer.initBoxedVariable(varType, variable.slot());
         } else {
-            writer.storeLocal(varType, variable.index());
+            writer.storeLocal(varType, variable.slot());
         }
         liveLocals.add(variable);
         var bodyGist = let.body().accept(this);
@@ -319,8 +349,8 @@ class MethodCodeGenerator implements CodeGenerator {
         }
         int i;
         for (i = 0; i < expressions.length - 1; i++) {
-            expressions[i].accept(this);
-            writer.pop();
+            var gist = expressions[i].accept(this);
+            writer.pop(gist.type());
         }
         return expressions[i].accept(this);
     }
@@ -341,6 +371,7 @@ class MethodCodeGenerator implements CodeGenerator {
             var bridgeCanFail = writer.bridgeValue(valueGist.type(), function.specializedReturnType());
             return valueGist.canFail() || bridgeCanFail;
         });
+        generateWidenedSiteWatch(returnNode, function.specializedReturnType());
         writer.ret(function.specializedReturnType());
         return Gist.INFALLIBLE_VOID;
     }
@@ -354,18 +385,19 @@ class MethodCodeGenerator implements CodeGenerator {
             var bridgingCanFail = writer.bridgeValue(valueGist.type(), varType);
             return valueGist.canFail() && bridgingCanFail;
         });
-        writer.dup(); // the duplicate is left on the stack as the expression value
+        generateWidenedSiteWatch(set, varType);
+        writer.dup(varType); // the duplicate is left on the stack as the expression value
         if (var.isBoxed()) {
-            writer.storeBoxedVariable(varType, var.index());
+            writer.storeBoxedVariable(varType, var.slot());
         } else {
-            writer.storeLocal(varType, var.index());
+            writer.storeLocal(varType, var.slot());
         }
         return Gist.infallible(varType);
     }
 
     @Override
     public Gist visitFreeFunctionReference(FreeFunctionReferenceNode reference) {
-        return reference.generateLoad(writer);
+        return reference.generateLoad(this);
     }
 
     @Override
@@ -401,7 +433,8 @@ class MethodCodeGenerator implements CodeGenerator {
                 Label handlerStart = new Label();
                 SquarePegHandler handler = new SquarePegHandler(
                     handlerStart,
-                    new ArrayList<>(liveLocals));
+                    new ArrayList<>(liveLocals),
+                    requestor);
                 requestor.setRecoverySiteLabel(handler.recoverySiteLabel);
                 squarePegHandlers.add(handler);
                 writer.handleSquarePegException(begin, end, handlerStart);
@@ -409,6 +442,23 @@ class MethodCodeGenerator implements CodeGenerator {
         });
     }
 
+    /**
+     * If the continuation of the site has been widened by deoptimization and
+     * the unit is watching for a phase change, pass a copy of the value on the
+     * stack, which is of the specified type, to the {@link WidenedSite}.
+     */
+    private void generateWidenedSiteWatch(RecoverySite site, JvmType valueType) {
+        var widenedSite = function.widenedSite(site);
+        if (widenedSite == null || valueType != REFERENCE) return;
+        writer
+            .dup()
+            .invokeDynamic(
+                DeoptimizationInvokeDynamic.BOOTSTRAP,
+                DeoptimizationInvokeDynamic.RECORD_WIDENED_VALUE,
+                MethodType.methodType(void.class, Object.class),
+                unit.registerLiteral(widenedSite));
+    }
+
     /**
      * Generate the code of an exception handler for recovering from an SPE. The
      * handler should unwrap the SPE currently on the stack and unspecialize any
@@ -422,13 +472,23 @@ class MethodCodeGenerator implements CodeGenerator {
             .setLabelHere(handler.handlerStart)
             .unwrapSPE();
         // stack: continuation value
+        if (function.shouldRecordSpecializationFailures()) {
+            var failureSite = new SpecializationFailureSite(function, handler.site);
+            writer
+                .dup()
+                .invokeDynamic(
+                    DeoptimizationInvokeDynamic.BOOTSTRAP,
+                    DeoptimizationInvokeDynamic.RECORD_FAILURE,
+                    MethodType.methodType(void.class, Object.class),
+                    unit.registerLiteral(failureSite));
+        }
         Stream.concat(Stream.of(function.allParameters()), handler.liveLocals.stream()).forEach(var -> {
             var varType = var.specializedType();
             if (!var.isBoxed() && varType != REFERENCE) {
                 writer
-                    .loadLocal(varType, var.index())
+                    .loadLocal(varType, var.slot())
                     .adaptValue(varType, REFERENCE)
-                    .storeLocal(REFERENCE, var.index());
+                    .storeLocal(REFERENCE, var.slot());
             }
         });
         writer.jump(handler.recoverySiteLabel);
@@ -12,10 +12,12 @@ import org.jetbrains.annotations.NotNull;
  */
 public class Primitive1Node extends PrimitiveNode {
     @NotNull private final EvaluatorNode argument;
+    /*internal*/ final boolean isIntOperation;
 
     protected Primitive1Node(@NotNull Primitive1 primitive, @NotNull EvaluatorNode argument) {
         super(primitive);
         this.argument = argument;
+        this.isIntOperation = primitive.isIntOperation();
     }
 
     public Primitive1 implementation() {
@@ -30,4 +32,9 @@ public class Primitive1Node extends PrimitiveNode {
     public <T> T accept(Visitor<T> visitor) {
         return visitor.visitPrimitive1(this);
     }
+
+    @Override
+    Object evaluateUnboxed(Interpreter.Evaluator evaluator) {
+        return evaluator.evaluatePrimitive1(this);
+    }
 }
@@ -11,13 +11,26 @@ import org.jetbrains.annotations.NotNull;
  * Note that we conflate the notions of a primitive and a call of a primitive.
  */
 public class Primitive2Node extends PrimitiveNode {
+
     @NotNull private final EvaluatorNode argument1;
     @NotNull private final EvaluatorNode argument2;
+    /*internal*/ final boolean isIntOperation;
+    /**
+     * Whether the interpreter evaluates the node in the int form, applying
+     * the primitive to unboxed ints. Initially true if the primitive is an
+     * {@link Primitive2#isIntOperation() int operation}. The first evaluation
+     * with an operand which isn't an int rewrites the node to the generic
+     * form for good. This is the only state the interpreter reads, so the int
+     * form costs no more than the unconditional int check it replaces.
+     */
+    /*internal*/ boolean isIntSpecialized;
 
     protected Primitive2Node(@NotNull Primitive2 primitive, @NotNull EvaluatorNode argument1, @NotNull EvaluatorNode argument2) {
         super(primitive);
         this.argument1 = argument1;
         this.argument2 = argument2;
+        this.isIntOperation = primitive.isIntOperation();
+        this.isIntSpecialized = isIntOperation;
     }
 
     public Primitive2 implementation() {
@@ -36,4 +49,9 @@ public class Primitive2Node extends PrimitiveNode {
     public <T> T accept(Visitor<T> visitor) {
         return visitor.visitPrimitive2(this);
     }
+
+    @Override
+    Object evaluateUnboxed(Interpreter.Evaluator evaluator) {
+        return evaluator.evaluatePrimitive2(this);
+    }
 }
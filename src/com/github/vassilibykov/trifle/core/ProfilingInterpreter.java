@@ -2,14 +2,12 @@
 
 package com.github.vassilibykov.trifle.core;
 
+import java.util.concurrent.atomic.AtomicLong;
+
 public class ProfilingInterpreter extends Interpreter {
     public static final ProfilingInterpreter INSTANCE = new ProfilingInterpreter();
 
     static class ProfilingEvaluator extends Evaluator {
-        ProfilingEvaluator(Object[] frame) {
-            super(frame);
-        }
-
         @Override
         public Object visitCall(CallNode call) {
             var result = call.dispatcher().execute(call, this);
@@ -18,7 +16,7 @@ public class ProfilingInterpreter extends Interpreter {
         }
 
         @Override
-        public Object visitIf(IfNode anIf) {
+        protected Object evaluateIf(IfNode anIf) {
             Object testValue = anIf.condition().accept(this);
             boolean test;
             try {
@@ -27,44 +25,71 @@ public class ProfilingInterpreter extends Interpreter {
                 throw RuntimeError.booleanExpected(testValue);
             }
             if (test) {
-                Object result = anIf.trueBranch().accept(this);
+                Object result = anIf.trueBranch().evaluateUnboxed(this);
                 // The count must be incremented after the branch. Counts logically track the cases
                 // when a value has been produced by a branch, not when it has been invoked.
                 // Descending into a branch may fail to produce a value if there is a return in the branch.
-                anIf.trueBranchCount.incrementAndGet();
+                countBranch(anIf.trueBranchCount);
                 return result;
             } else {
-                Object result = anIf.falseBranch().accept(this);
-                anIf.falseBranchCount.incrementAndGet();
+                Object result = anIf.falseBranch().evaluateUnboxed(this);
+                countBranch(anIf.falseBranchCount);
                 return result;
             }
         }
 
         @Override
-        public Object visitLet(LetNode let) {
+        protected Object evaluateLet(LetNode let) {
             VariableDefinition variable = let.variable();
-            Object value;
-            value = let.initializer().accept(this);
-            variable.initValueIn(frame, value);
-            variable.profile.recordValue(value);
-            return let.body().accept(this);
+            Object value = let.initializer().evaluateUnboxed(this);
+            if (value == AbstractVariable.IN_INT_LANE) {
+                variable.initIntValueIn(frame, intFrame(), intValue);
+                variable.profile.recordIntValue();
+            } else {
+                variable.initValueIn(frame, value);
+                variable.profile.recordValue(value);
+            }
+            return let.body().evaluateUnboxed(this);
         }
 
         @Override
-        public Object visitSetVar(SetVariableNode setVar) {
-            var value = super.visitSetVar(setVar);
-            setVar.variable().profile().recordValue(value);
+        protected Object evaluateSetVar(SetVariableNode setVar) {
+            var value = super.evaluateSetVar(setVar);
+            if (value == AbstractVariable.IN_INT_LANE) {
+                setVar.variable().profile().recordIntValue();
+            } else {
+                setVar.variable().profile().recordValue(value);
+            }
             return value;
         }
 
         @Override
         public Object visitWhile(WhileNode whileNode) {
             Object result = null;
+            int intResult = 0;
             while (evaluateCondition(whileNode.condition())) {
-                result = whileNode.body().accept(this);
-                whileNode.bodyCount.incrementAndGet();
+                result = whileNode.body().evaluateUnboxed(this);
+                intResult = intValue;
+                var count = whileNode.bodyCount.incrementAndGet();
+                if (count >= WhileNode.OSR_THRESHOLD) {
+                    var loopEntry = whileNode.loopEntry;
+                    if (loopEntry != null) {
+                        enterCompiledLoop(loopEntry, boxed(result, intResult));
+                    } else if (count == WhileNode.OSR_THRESHOLD) {
+                        function.scheduleCompilation();
+                    }
+                }
             }
-            return result;
+            return boxed(result, intResult);
+        }
+
+        /**
+         * Increment a branch count unless it has reached {@link
+         * ValueProfile#SATURATION}, so that a hot branch stops writing to
+         * the count shared by all threads.
+         */
+        private static void countBranch(AtomicLong count) {
+            if (count.get() < ValueProfile.SATURATION) count.incrementAndGet();
         }
     }
 
@@ -80,12 +105,7 @@ public class ProfilingInterpreter extends Interpreter {
             allParameters[i].setupArgumentIn(frame, args[i]);
         }
         function.profile.recordArguments(frame);
-        Object result;
-        try {
-            result = function.body().accept(new ProfilingEvaluator(frame));
-        } catch (ReturnException e) {
-            result = e.value;
-        }
+        var result = evaluator().evaluate(function, frame);
         function.profile.recordResult(result);
         return result;
     }
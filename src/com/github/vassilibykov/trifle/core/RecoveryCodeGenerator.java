@@ -86,7 +86,7 @@ class RecoveryCodeGenerator {
         abstract void accept(RecoveryCodeGenerator visitor);
     }
 
-    private static abstract class JumpInstruction extends Instruction {
+    static abstract class JumpInstruction extends Instruction {
         int address;
         Instruction target;
 
@@ -99,9 +99,11 @@ class RecoveryCodeGenerator {
      * Set the instruction pointer to the specified address if the test evaluates to
      * true (or for an inverted branch, if it evaluates to false).
      */
-    private static class Branch extends JumpInstruction {
+    static class Branch extends JumpInstruction {
         final EvaluatorNode test;
         final boolean branchesOnTrue;
+        /** The loop if this is the test at the head of a loop. */
+        @Nullable WhileNode loop;
 
         Branch(EvaluatorNode test, int address) {
             this(test, true, address);
@@ -127,7 +129,7 @@ class RecoveryCodeGenerator {
     /**
      * Unconditionally set the instruction pointer to the specified address.
      */
-    private static class Goto extends JumpInstruction {
+    static class Goto extends JumpInstruction {
         Goto(int address) {
             super(address);
         }
@@ -146,7 +148,7 @@ class RecoveryCodeGenerator {
     /**
      * Evaluate the atomic expression and set the value register to contain the result.
      */
-    private static class Load extends Instruction {
+    static class Load extends Instruction {
         @NotNull final EvaluatorNode expression;
 
         Load(@NotNull EvaluatorNode expression) {
@@ -167,7 +169,7 @@ class RecoveryCodeGenerator {
     /**
      * Return the value of the register as the result of this invocation.
      */
-    private static class Return extends Instruction {
+    static class Return extends Instruction {
         final RecoverySite recoverySite;
 
         Return(RecoverySite recoverySite) {
@@ -188,7 +190,7 @@ class RecoveryCodeGenerator {
     /**
      * Store the value of the register in the specified local variable.
      */
-    private static class Store extends Instruction {
+    static class Store extends Instruction {
         @NotNull final AbstractVariable variable;
         final RecoverySite recoverySite;
 
@@ -208,7 +210,7 @@ class RecoveryCodeGenerator {
         }
     }
 
-    private static class Copy extends Store {
+    static class Copy extends Store {
         Copy(@NotNull AbstractVariable variable, RecoverySite recoverySite) {
             super(variable, recoverySite);
         }
@@ -219,7 +221,7 @@ class RecoveryCodeGenerator {
         }
     }
 
-    private static class Drop extends Instruction {
+    static class Drop extends Instruction {
         Drop() {}
 
         @Override
@@ -234,7 +236,17 @@ class RecoveryCodeGenerator {
      */
     static class EvaluatorNodeToACodeTranslator implements EvaluatorNode.Visitor<Void> {
         static Instruction[] translate(EvaluatorNode functionBody) {
-            var translator = new EvaluatorNodeToACodeTranslator(functionBody);
+            var translator = new EvaluatorNodeToACodeTranslator(functionBody, null, false);
+            return translator.translate();
+        }
+
+        /**
+         * Translate the function body into A-code executing the whole
+         * function, with the start of the body as the only entry point. Used
+         * by {@link ACodeInterpreter}.
+         */
+        static Instruction[] translateFunction(EvaluatorNode functionBody) {
+            var translator = new EvaluatorNodeToACodeTranslator(functionBody, null, true);
             return translator.translate();
         }
 
@@ -243,14 +255,33 @@ class RecoveryCodeGenerator {
          */
 
         private final EvaluatorNode functionBody;
+        /**
+         * If not null, the loop whose head is the only entry point of the code,
+         * as required by a loop entry method. Otherwise, entry points are
+         * recovery sites.
+         */
+        @Nullable private final WhileNode entryLoop;
+        /**
+         * If true, the start of the function is the only entry point. Takes
+         * precedence over {@link #entryLoop}.
+         */
+        private final boolean isWholeFunction;
         private final List<Instruction> code = new ArrayList<>();
         private List<Integer> entryPoints = new ArrayList<>();
+        @Nullable private Instruction loopHead;
 
-        private EvaluatorNodeToACodeTranslator(EvaluatorNode functionBody) {
+        private EvaluatorNodeToACodeTranslator(
+            EvaluatorNode functionBody,
+            @Nullable WhileNode entryLoop,
+            boolean isWholeFunction)
+        {
             this.functionBody = functionBody;
+            this.entryLoop = entryLoop;
+            this.isWholeFunction = isWholeFunction;
         }
 
         private Instruction[] translate() {
+            if (isWholeFunction) entryPoints.add(0);
             functionBody.accept(this); // populates 'code' and 'entryPoints'
             if (entryPoints.isEmpty()) {
                 /* Recovery code generation is only expected after generating normal code
@@ -379,8 +410,8 @@ class RecoveryCodeGenerator {
         @Override
         public Void visitLet(LetNode let) {
             let.initializer().accept(this);
-            entryPoints.add(nextInstructionAddress());
-            emit(new Store(let.variable(), let));
+            addRecoveryEntryPoint();
+            emit(new Store(let.variable(), recoverySite(let)));
             let.body().accept(this);
             return null;
         }
@@ -416,16 +447,16 @@ class RecoveryCodeGenerator {
         @Override
         public Void visitReturn(ReturnNode ret) {
             ret.value().accept(this);
-            entryPoints.add(nextInstructionAddress());
-            emit(new Return(ret));
+            addRecoveryEntryPoint();
+            emit(new Return(recoverySite(ret)));
             return null;
         }
 
         @Override
         public Void visitSetVar(SetVariableNode set) {
             set.value().accept(this);
-            entryPoints.add(nextInstructionAddress());
-            emit(new Copy(set.variable(), set));
+            addRecoveryEntryPoint();
+            emit(new Copy(set.variable(), recoverySite(set)));
             return null;
         }
 
@@ -440,6 +471,11 @@ class RecoveryCodeGenerator {
             emit(new Load(new ConstantNode(null)));
             int start = nextInstructionAddress();
             var branch = new Branch(whileNode.condition(), false, -1);
+            branch.loop = whileNode;
+            if (whileNode == entryLoop && !isWholeFunction) {
+                entryPoints.add(start);
+                loopHead = branch;
+            }
             emit(branch);
             emit(new Drop());
             whileNode.body().accept(this);
@@ -452,6 +488,15 @@ class RecoveryCodeGenerator {
             code.add(instruction);
         }
 
+        private void addRecoveryEntryPoint() {
+            if (entryLoop == null && !isWholeFunction) entryPoints.add(nextInstructionAddress());
+        }
+
+        @Nullable
+        private RecoverySite recoverySite(RecoverySite site) {
+            return entryLoop == null && !isWholeFunction ? site : null;
+        }
+
         private int nextInstructionAddress() {
             return code.size();
         }
@@ -463,6 +508,16 @@ class RecoveryCodeGenerator {
             return writer;
         }
 
+        @Override
+        public int functionId(FunctionImplementation function) {
+            return unit.functionId(function);
+        }
+
+        @Override
+        public boolean generateInlinedCall(FunctionImplementation callee, MethodType callSiteType) {
+            return false;
+        }
+
         @Override
         public Gist generateCode(EvaluatorNode node) {
             return node.accept(this);
@@ -492,7 +547,7 @@ class RecoveryCodeGenerator {
                 ClosureCreationInvokeDynamic.BOOTSTRAP,
                 "createClosure",
                 MethodType.genericMethodType(indicesToCopy.length),
-                closure.function().id());
+                unit.functionId(closure.function()));
             return Gist.INFALLIBLE_REFERENCE;
         }
 
@@ -512,7 +567,7 @@ class RecoveryCodeGenerator {
                 writer.loadInt((Boolean) value ? 1 : 0);
                 return Gist.INFALLIBLE_BOOL;
             } else {
-                var id = LiteralPool.INSTANCE.register(value);
+                var id = unit.registerLiteral(value);
                 writer.invokeDynamic(
                     LiteralObjectInvokeDynamic.BOOTSTRAP,
                     "literal",
@@ -525,7 +580,7 @@ class RecoveryCodeGenerator {
         @Override
         public Gist visitGetVar(GetVariableNode getVar) {
             var variable = getVar.variable();
-            writer.loadLocal(REFERENCE, variable.index());
+            writer.loadLocal(REFERENCE, variable.slot());
             if (variable.isBoxed()) writer.extractBoxedVariable();
             return Gist.INFALLIBLE_REFERENCE;
         }
@@ -572,7 +627,7 @@ class RecoveryCodeGenerator {
 
         @Override
         public Gist visitFreeFunctionReference(FreeFunctionReferenceNode constFunction) {
-            return constFunction.generateLoad(writer);
+            return constFunction.generateLoad(this);
         }
 
         @Override
@@ -582,18 +637,51 @@ class RecoveryCodeGenerator {
     }
 
 
+    /**
+     * Create a generator of the body of a loop entry method. Such a method
+     * receives the interpreter frame and the current value of the loop,
+     * unpacks the frame into local variables and continues executing the
+     * function from the head of the loop until it returns. Because locals are
+     * generic, the code is the same as recovery code, but with the loop head
+     * as its only entry point.
+     */
+    static RecoveryCodeGenerator forLoopEntry(
+        FunctionImplementation function,
+        Compiler.UnitResult unit,
+        WhileNode loop,
+        GhostWriter writer)
+    {
+        var translator = new EvaluatorNodeToACodeTranslator(function.body(), loop, false);
+        var acode = translator.translate();
+        return new RecoveryCodeGenerator(function, unit, acode, translator.loopHead, writer);
+    }
+
     /*
         Instance
      */
 
     private final FunctionImplementation function;
+    private final Compiler.UnitResult unit;
     private final Instruction[] acode;
     protected final GhostWriter writer;
     private final AtomicExpressionCodeGenerator atomicGenerator;
+    @Nullable private final Instruction loopHead;
 
-    RecoveryCodeGenerator(FunctionImplementation function, GhostWriter writer) {
+    RecoveryCodeGenerator(FunctionImplementation function, Compiler.UnitResult unit, GhostWriter writer) {
+        this(function, unit, function.recoveryCode(), null, writer);
+    }
+
+    private RecoveryCodeGenerator(
+        FunctionImplementation function,
+        Compiler.UnitResult unit,
+        Instruction[] acode,
+        @Nullable Instruction loopHead,
+        GhostWriter writer)
+    {
         this.function = function;
-        this.acode = function.recoveryCode();
+        this.unit = unit;
+        this.acode = acode;
+        this.loopHead = loopHead;
         assignJumpLabels();
         this.writer = writer;
         this.atomicGenerator = new AtomicExpressionCodeGenerator();
@@ -622,6 +710,34 @@ class RecoveryCodeGenerator {
         writer.ret(function.specializedReturnType());
     }
 
+    /**
+     * Generate a loop entry method. The method has the signature {@code
+     * (Object[] frame, Object loopValue)}. The arguments are moved out of the
+     * way into slots past the end of the frame before the frame is unpacked.
+     * Frame indices are mapped to the same slots as in the generic method.
+     */
+    void generateLoopEntry() {
+        if (loopHead == null) throw new AssertionError("not a loop entry generator");
+        if (loopHead.incomingJumpLabel == null) loopHead.incomingJumpLabel = new Label();
+        var frameSize = function.frameSize();
+        var frameArgIndex = Math.max(function.localSlotCount(), 2);
+        writer
+            .loadLocal(REFERENCE, 0)
+            .storeLocal(REFERENCE, frameArgIndex)
+            .loadLocal(REFERENCE, 1)
+            .storeLocal(REFERENCE, frameArgIndex + 1);
+        for (int i = 0; i < frameSize; i++) {
+            writer
+                .loadLocal(REFERENCE, frameArgIndex)
+                .loadArray(i)
+                .storeLocal(REFERENCE, function.localSlot(i));
+        }
+        writer
+            .loadLocal(REFERENCE, frameArgIndex + 1)
+            .jump(loopHead.incomingJumpLabel);
+        generate();
+    }
+
     private void visitBranch(Branch branch) {
         var valueType = branch.test.accept(atomicGenerator).type();
         writer.adaptValue(valueType, BOOL);
@@ -650,14 +766,23 @@ class RecoveryCodeGenerator {
 
     private void visitStore(Store store) {
         setRecoveryLabelHere(store.recoverySite);
-        writer.storeLocal(REFERENCE, store.variable.index());
+        var variable = store.variable;
+        if (variable.isBoxed()) {
+            writer.initBoxedReference(variable.slot());
+        } else {
+            writer.storeLocal(REFERENCE, variable.slot());
+        }
     }
 
     private void visitCopy(Copy copy) {
         setRecoveryLabelHere(copy.recoverySite);
-        writer
-            .dup()
-            .storeLocal(REFERENCE, copy.variable.index());
+        var variable = copy.variable;
+        writer.dup();
+        if (variable.isBoxed()) {
+            writer.storeBoxedReference(variable.slot());
+        } else {
+            writer.storeLocal(REFERENCE, variable.slot());
+        }
     }
 
     private void visitDrop(Drop drop) {
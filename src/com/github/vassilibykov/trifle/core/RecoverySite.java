@@ -11,4 +11,15 @@ import org.objectweb.asm.Label;
 interface RecoverySite {
     Label recoverySiteLabel();
     void setRecoverySiteLabel(Label recoverySiteLabel);
+
+    /**
+     * The expression whose value is received by the continuation of this site.
+     */
+    EvaluatorNode recoveredExpression();
+
+    /**
+     * The profile of values received by the continuation of this site, which
+     * is in the specified function.
+     */
+    ValueProfile continuationProfile(FunctionImplementation function);
 }
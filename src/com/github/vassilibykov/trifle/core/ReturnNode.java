@@ -29,11 +29,26 @@ class ReturnNode extends EvaluatorNode implements RecoverySite {
         this.recoverySiteLabel = recoverySiteLabel;
     }
 
+    @Override
+    public EvaluatorNode recoveredExpression() {
+        return value;
+    }
+
+    @Override
+    public ValueProfile continuationProfile(FunctionImplementation function) {
+        return function.profile.resultProfile();
+    }
+
     @Override
     public <T> T accept(Visitor<T> visitor) {
         return visitor.visitReturn(this);
     }
 
+    @Override
+    Object evaluateUnboxed(Interpreter.Evaluator evaluator) {
+        return evaluator.visitReturn(this);
+    }
+
     @Override
     public String toString() {
         return "(ret " + value + ")";
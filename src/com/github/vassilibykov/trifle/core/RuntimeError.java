@@ -32,6 +32,14 @@ public class RuntimeError extends RuntimeException {
         return message("integer expected, got: " + actual1 + " and: " + actual2);
     }
 
+    public static RuntimeError numberExpected(Object actual) {
+        return message("number expected, got: " + actual);
+    }
+
+    public static RuntimeError numberExpected(Object actual1, Object actual2) {
+        return message("number expected, got: " + actual1 + " and: " + actual2);
+    }
+
     private RuntimeError(String message) {
         super(message);
     }
@@ -41,11 +41,26 @@ class SetVariableNode extends EvaluatorNode implements RecoverySite {
         this.recoverySiteLabel = recoverySiteLabel;
     }
 
+    @Override
+    public EvaluatorNode recoveredExpression() {
+        return value;
+    }
+
+    @Override
+    public ValueProfile continuationProfile(FunctionImplementation function) {
+        return variable.profile();
+    }
+
     @Override
     public <T> T accept(Visitor<T> visitor) {
         return visitor.visitSetVar(this);
     }
 
+    @Override
+    Object evaluateUnboxed(Interpreter.Evaluator evaluator) {
+        return evaluator.evaluateSetVar(this);
+    }
+
     @Override
     public String toString() {
         return "(set! " + variable + " " + value + ")";
@@ -0,0 +1,141 @@
+// Copyright (c) 2018 Vassili Bykov. Licensed under the Apache License, Version 2.0.
+
+package com.github.vassilibykov.trifle.core;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Counts specialization failures at a recovery site of a compiled function.
+ * The SPE handler of the site reports each value which did not fit the
+ * specialization. When the count reaches {@link
+ * FunctionImplementation#DEOPTIMIZATION_THRESHOLD}, the profiles which led to
+ * the failing specialization are widened to include the value and the unit of
+ * the function is deoptimized, so that it is recompiled with wider types. The
+ * recompiled code watches the widened site for the values to fit its former
+ * type again (see {@link WidenedSite}).
+ *
+ * <p>Instances are created by the compiler, one per SPE handler, and are
+ * made available to generated code through the {@link LiteralPool}. A
+ * recompiled unit gets new instances, so counts start from zero again.
+ */
+final class SpecializationFailureSite {
+    private final FunctionImplementation function;
+    private final RecoverySite site;
+    private final AtomicLong failureCount = new AtomicLong();
+
+    SpecializationFailureSite(FunctionImplementation function, RecoverySite site) {
+        this.function = function;
+        this.site = site;
+    }
+
+    FunctionImplementation function() {
+        return function;
+    }
+
+    RecoverySite site() {
+        return site;
+    }
+
+    long failureCount() {
+        return failureCount.get();
+    }
+
+    @SuppressWarnings("unused") // called by generated code
+    public void recordFailure(Object value) {
+        if (failureCount.incrementAndGet() == FunctionImplementation.DEOPTIMIZATION_THRESHOLD) {
+            var typeBeforeWidening = site.continuationProfile(function).jvmType();
+            widenProfiles(value);
+            if (typeBeforeWidening != JvmType.REFERENCE) function.recordWidening(site, typeBeforeWidening);
+            function.deoptimize();
+        }
+    }
+
+    /**
+     * Record the value in the profile of the continuation, and in the profiles
+     * of all calls in tail positions of the expression which produced it. One
+     * of those calls has returned the value, while the call site was
+     * specialized to expect something narrower.
+     */
+    private void widenProfiles(Object value) {
+        site.continuationProfile(function).recordValue(value);
+        site.recoveredExpression().accept(new TailCallProfileWidener(value));
+    }
+
+    private static class TailCallProfileWidener implements EvaluatorNode.Visitor<Void> {
+        private final Object value;
+
+        private TailCallProfileWidener(Object value) {
+            this.value = value;
+        }
+
+        @Override
+        public Void visitBlock(BlockNode block) {
+            var expressions = block.expressions();
+            if (expressions.length > 0) expressions[expressions.length - 1].accept(this);
+            return null;
+        }
+
+        @Override
+        public Void visitCall(CallNode call) {
+            call.profile.recordValue(value);
+            return null;
+        }
+
+        @Override
+        public Void visitClosure(ClosureNode closure) {
+            return null;
+        }
+
+        @Override
+        public Void visitConstant(ConstantNode aConst) {
+            return null;
+        }
+
+        @Override
+        public Void visitFreeFunctionReference(FreeFunctionReferenceNode constFunction) {
+            return null;
+        }
+
+        @Override
+        public Void visitGetVar(GetVariableNode varRef) {
+            return null;
+        }
+
+        @Override
+        public Void visitIf(IfNode anIf) {
+            anIf.trueBranch().accept(this);
+            anIf.falseBranch().accept(this);
+            return null;
+        }
+
+        @Override
+        public Void visitLet(LetNode let) {
+            return let.body().accept(this);
+        }
+
+        @Override
+        public Void visitPrimitive1(Primitive1Node primitive) {
+            return null;
+        }
+
+        @Override
+        public Void visitPrimitive2(Primitive2Node primitive) {
+            return null;
+        }
+
+        @Override
+        public Void visitReturn(ReturnNode ret) {
+            return null;
+        }
+
+        @Override
+        public Void visitSetVar(SetVariableNode set) {
+            return set.value().accept(this);
+        }
+
+        @Override
+        public Void visitWhile(WhileNode whileNode) {
+            return whileNode.body().accept(this);
+        }
+    }
+}
@@ -2,6 +2,10 @@
 
 package com.github.vassilibykov.trifle.core;
 
+import org.jetbrains.annotations.Nullable;
+
+import java.lang.invoke.MethodType;
+
 import static com.github.vassilibykov.trifle.core.JvmType.REFERENCE;
 
 /**
@@ -28,6 +32,22 @@ class SpecializedTypeComputer implements EvaluatorNode.Visitor<JvmType> {
         topLevelFunction.closureImplementations().forEach(each -> processFunction(useGenericSignature, each));
     }
 
+    /**
+     * Set {@code specializedType} fields of variable and evaluator nodes in a
+     * single function so that its declared parameters and result have the
+     * types of the specified signature rather than the observed ones. The rest
+     * of the function is processed according to the observed values, as by
+     * {@code process(false, ...)}.
+     */
+    static void processForSignature(FunctionImplementation function, MethodType signature) {
+        if (signature.parameterCount() != function.declarationArity()) {
+            throw new IllegalArgumentException("signature does not match the function arity");
+        }
+        var computer = new SpecializedTypeComputer(false, function);
+        computer.signature = signature;
+        computer.process();
+    }
+
     private static void processFunction(boolean isForGenericSignature, FunctionImplementation function) {
         var computer = new SpecializedTypeComputer(isForGenericSignature, function);
         computer.process();
@@ -39,6 +59,8 @@ class SpecializedTypeComputer implements EvaluatorNode.Visitor<JvmType> {
 
     private final boolean useGenericSignature;
     private final FunctionImplementation function;
+    @Nullable private MethodType signature;
+    private boolean hasWideLocals = false;
 
     private SpecializedTypeComputer(boolean useGenericSignature, FunctionImplementation function) {
         this.useGenericSignature = useGenericSignature;
@@ -49,8 +71,17 @@ class SpecializedTypeComputer implements EvaluatorNode.Visitor<JvmType> {
         for (var eachParam : function.allParameters()) {
             eachParam.setSpecializedType(effectiveTypeInSignature(eachParam.profile().observedType()));
         }
+        if (signature != null) {
+            var declaredParameters = function.declaredParameters();
+            for (int i = 0; i < declaredParameters.size(); i++) {
+                declaredParameters.get(i).setSpecializedType(JvmType.ofClass(signature.parameterType(i)));
+            }
+        }
         function.body().accept(this);
-        function.setSpecializedReturnType(effectiveTypeInSignature(function.profile.resultProfile().observedType()));
+        function.setSpecializedReturnType(signature != null
+            ? JvmType.ofClass(signature.returnType())
+            : effectiveTypeInSignature(function.profile.resultProfile().observedType()));
+        function.assignLocalSlots(hasWideLocals);
     }
     
     private JvmType effectiveTypeInSignature(ExpressionType type) {
@@ -133,6 +164,7 @@ class SpecializedTypeComputer implements EvaluatorNode.Visitor<JvmType> {
             ? initType
             : observedType.jvmType().orElse(REFERENCE);
         var.setSpecializedType(type);
+        if (type.slotSize() == 2) hasWideLocals = true;
         var bodyType = let.body().accept(this);
         return setSpecializedType(let, bodyType);
     }
@@ -0,0 +1,51 @@
+// Copyright (c) 2018 Vassili Bykov. Licensed under the Apache License, Version 2.0.
+
+package com.github.vassilibykov.trifle.core;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+
+/**
+ * Invokes method handles with arguments in an array, for calls with more
+ * arguments than the {@code invokeExact} fast paths of the interpreters and
+ * call sites enumerate. {@link MethodHandle#invokeWithArguments(Object...)}
+ * creates a new spreader for each call. These methods use spreading invokers
+ * created once per arity and shared by all callers, up to {@link
+ * #MAX_ARITY} arguments. Beyond that they fall back to {@code
+ * invokeWithArguments}.
+ *
+ * <p>Calls of user functions and closures don't come here. They go through
+ * the {@linkplain FunctionImplementation#spreadInvoker() spreading invokers}
+ * of the callee, created once for the callee and invoked with their exact
+ * type. These methods are for the callees which have no such invokers:
+ * built-in functions and the targets of message sends.
+ *
+ * <p>As with {@code invokeWithArguments}, the invoked handle may be of any
+ * type the arguments can be converted to.
+ */
+public final class SpreadInvokers {
+    public static final int MAX_ARITY = 16;
+
+    /**
+     * Invokers of type {@code (MethodHandle Object[]) -> Object}, by the
+     * length of the array. Lazily created.
+     */
+    private static final MethodHandle[] SPREAD_INVOKERS = new MethodHandle[MAX_ARITY + 1];
+
+    private SpreadInvokers() {}
+
+    /**
+     * Invoke the method handle with the arguments in the array.
+     */
+    public static Object invoke(MethodHandle target, Object[] arguments) throws Throwable {
+        var arity = arguments.length;
+        if (arity > MAX_ARITY) return target.invokeWithArguments(arguments);
+        var invoker = SPREAD_INVOKERS[arity];
+        if (invoker == null) {
+            invoker = MethodHandles.spreadInvoker(MethodType.genericMethodType(arity), 0);
+            SPREAD_INVOKERS[arity] = invoker;
+        }
+        return invoker.invokeExact(target, arguments);
+    }
+}
@@ -35,6 +35,12 @@ package com.github.vassilibykov.trifle.core;
  * but the current continuation corresponds to the "hole" in the formal language
  * of evaluation contexts, so a value incompatible with the current continuation
  * type is quite literally a square peg in a round hole.
+ *
+ * <p>An SPE is a signal rather than an error, and in mixed-type code it may be
+ * thrown often. It is always caught by the code expecting it, so it carries no
+ * stack trace, suppressed exceptions, message or cause. This makes creating one
+ * as cheap as any other small allocation, and lets the JIT compiler turn a
+ * throw into a jump to the handler when both end up in the same compiled code.
  */
 public class SquarePegException extends RuntimeException {
     public static final String INTERNAL_CLASS_NAME = GhostWriter.internalClassName(SquarePegException.class);
@@ -46,6 +52,7 @@ public class SquarePegException extends RuntimeException {
     public final Object value;
 
     private SquarePegException(Object value) {
+        super(null, null, false, false);
         this.value = value;
     }
 }
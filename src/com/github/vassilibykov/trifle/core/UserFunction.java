@@ -104,7 +104,25 @@ public class UserFunction implements FreeFunction {
 
     @Override
     public MethodHandle invoker(MethodType callSiteType) {
-        return implementation.callSiteInvoker().asType(callSiteType);
+        // A generic invocation goes through the core call site so it can take a specialized path
+        if (!callSiteType.hasPrimitives()) return implementation.callSiteInvoker().asType(callSiteType);
+        return implementation.invoker(callSiteType);
+    }
+
+    @Override
+    public Object invokeWithArguments(Object[] arguments) {
+        if (arguments.length != implementation.declarationArity()) {
+            return FreeFunction.super.invokeWithArguments(arguments); // fails the same way as other calls
+        }
+        try {
+            return implementation.spreadInvoker().invokeExact(arguments);
+        } catch (SquarePegException e) {
+            return e.value;
+        } catch (RuntimeError e) {
+            throw e;
+        } catch (Throwable throwable) {
+            throw new InvocationException(throwable);
+        }
     }
 
     @TestOnly
@@ -112,6 +130,21 @@ public class UserFunction implements FreeFunction {
         implementation.useSimpleInterpreter();
     }
 
+    @TestOnly
+    public void useTreeInterpreter() {
+        implementation.useTreeInterpreter();
+    }
+
+    @TestOnly
+    public void useACodeInterpreter() {
+        implementation.useACodeInterpreter();
+    }
+
+    @TestOnly
+    public void useProfilingInterpreter() {
+        implementation.useProfilingInterpreter();
+    }
+
     @TestOnly
     public void forceCompile() {
         implementation.forceCompile();
@@ -7,7 +7,6 @@ import org.objectweb.asm.Handle;
 import org.objectweb.asm.Opcodes;
 
 import java.lang.invoke.CallSite;
-import java.lang.invoke.ConstantCallSite;
 import java.lang.invoke.MethodHandles.Lookup;
 import java.lang.invoke.MethodType;
 
@@ -33,6 +32,6 @@ public final class UserFunctionCallInvokeDynamic {
     @SuppressWarnings("unused") // called by invokedynamic infrastructure
     public static CallSite bootstrap(Lookup lookupAtCaller, String name, MethodType callSiteType, Integer targetId) {
         var callable = FunctionImplementation.withId(targetId);
-        return new ConstantCallSite(callable.invoker(callSiteType));
+        return callable.linkedCallSite(callSiteType);
     }
 }
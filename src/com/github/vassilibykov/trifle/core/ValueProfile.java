@@ -2,35 +2,101 @@
 
 package com.github.vassilibykov.trifle.core;
 
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+
 import static com.github.vassilibykov.trifle.core.JvmType.BOOL;
+import static com.github.vassilibykov.trifle.core.JvmType.DOUBLE;
 import static com.github.vassilibykov.trifle.core.JvmType.INT;
+import static com.github.vassilibykov.trifle.core.JvmType.LONG;
 import static com.github.vassilibykov.trifle.core.JvmType.REFERENCE;
 
 /**
  * Accepts values associated with a variable or an expression and
  * aggregates that data.
+ *
+ * <p>Profiles are updated by all threads running a function in the profiling
+ * interpreter, so they are not synchronized. Concurrent increments may be
+ * lost, which makes the counts approximate, but a count once non-zero never
+ * becomes zero except by a reset. That is all the compiler relies on. A count
+ * stops at {@link #SATURATION}, so that the profile of a hot expression is
+ * no longer written to by each thread evaluating it.
+ *
+ * <p>The counts are read and written in opaque mode, so they are never torn
+ * and a count written by one thread eventually becomes visible to the others
+ * without fencing each increment. A reset replaces the array of counts instead
+ * of zeroing it. An increment racing with the reset then lands in the
+ * discarded array, rather than undoing the reset.
  */
 class ValueProfile {
-    private long referenceCases = 0;
-    private long intCases = 0;
-    private long boolCases = 0;
+    /**
+     * The value at which counts stop being incremented.
+     */
+    static final long SATURATION = 1 << 16;
+
+    private static final int REFERENCE_CASES = 0;
+    private static final int INT_CASES = 1;
+    private static final int BOOL_CASES = 2;
+    private static final int LONG_CASES = 3;
+    private static final int DOUBLE_CASES = 4;
+    private static final int CASE_KINDS = 5;
+
+    private static final VarHandle COUNT = MethodHandles.arrayElementVarHandle(long[].class);
 
-    public synchronized void recordValue(Object value) {
+    /**
+     * The counts of the recorded values, indexed by the {@code _CASES}
+     * constants.
+     */
+    private volatile long[] counts = new long[CASE_KINDS];
+
+    public void recordValue(Object value) {
         if (value instanceof Integer) {
-            intCases++;
+            increment(INT_CASES);
         } else if (value instanceof Boolean) {
-            boolCases++;
+            increment(BOOL_CASES);
+        } else if (value instanceof Long) {
+            increment(LONG_CASES);
+        } else if (value instanceof Double) {
+            increment(DOUBLE_CASES);
         } else {
-            referenceCases++;
+            increment(REFERENCE_CASES);
         }
     }
 
-    public synchronized ExpressionType observedType() {
-        if (hasProfileData()) {
-            if (referenceCases == 0) {
-                if (boolCases == 0) return ExpressionType.known(INT);
-                if (intCases == 0) return ExpressionType.known(BOOL);
-                // if both are non-0, then the union type is a reference
+    /**
+     * Record an {@code int} value without boxing it.
+     */
+    public void recordIntValue() {
+        increment(INT_CASES);
+    }
+
+    private void increment(int kind) {
+        var counts = this.counts;
+        var count = (long) COUNT.getOpaque(counts, kind);
+        if (count < SATURATION) COUNT.setOpaque(counts, kind, count + 1);
+    }
+
+    /**
+     * Forget all values recorded so far, so that the profile reflects only the
+     * values recorded after the reset.
+     */
+    public void reset() {
+        counts = new long[CASE_KINDS];
+    }
+
+    public ExpressionType observedType() {
+        var counts = this.counts;
+        if (hasProfileData(counts)) {
+            if (count(counts, REFERENCE_CASES) == 0) {
+                var intCases = count(counts, INT_CASES);
+                var boolCases = count(counts, BOOL_CASES);
+                var longCases = count(counts, LONG_CASES);
+                var doubleCases = count(counts, DOUBLE_CASES);
+                if (intCases == 0 && longCases == 0 && doubleCases == 0) return ExpressionType.known(BOOL);
+                if (boolCases == 0 && longCases == 0 && doubleCases == 0) return ExpressionType.known(INT);
+                if (boolCases == 0 && intCases == 0 && doubleCases == 0) return ExpressionType.known(LONG);
+                if (boolCases == 0 && intCases == 0 && longCases == 0) return ExpressionType.known(DOUBLE);
+                // if more than one is non-0, then the union type is a reference
             }
             return ExpressionType.known(REFERENCE);
         } else {
@@ -38,33 +104,63 @@ class ValueProfile {
         }
     }
 
-    public synchronized long referenceCases() {
-        return referenceCases;
+    public long referenceCases() {
+        return count(counts, REFERENCE_CASES);
+    }
+
+    public long intCases() {
+        return count(counts, INT_CASES);
+    }
+
+    public long boolCases() {
+        return count(counts, BOOL_CASES);
     }
 
-    public synchronized long intCases() {
-        return intCases;
+    public long longCases() {
+        return count(counts, LONG_CASES);
     }
 
-    public synchronized long boolCases() {
-        return boolCases;
+    public long doubleCases() {
+        return count(counts, DOUBLE_CASES);
     }
 
-    public synchronized JvmType jvmType() {
+    public JvmType jvmType() {
         return observedType().jvmType().orElse(REFERENCE);
     }
 
-    public synchronized boolean hasProfileData() {
-        return referenceCases > 0 || intCases > 0 || boolCases > 0;
+    public boolean hasProfileData() {
+        return hasProfileData(counts);
     }
 
-    public synchronized boolean isPureInt() {
-        if (!hasProfileData()) throw new AssertionError("no profile data");
-        return referenceCases == 0 && boolCases == 0;
+    public boolean isPureInt() {
+        return isPure(INT_CASES);
+    }
+
+    public boolean isPureBool() {
+        return isPure(BOOL_CASES);
+    }
+
+    /**
+     * Indicate whether all values recorded are of the specified kind. The
+     * profile must have data.
+     */
+    private boolean isPure(int kind) {
+        var counts = this.counts;
+        if (!hasProfileData(counts)) throw new AssertionError("no profile data");
+        for (int i = 0; i < CASE_KINDS; i++) {
+            if (i != kind && count(counts, i) != 0) return false;
+        }
+        return true;
+    }
+
+    private static boolean hasProfileData(long[] counts) {
+        for (int i = 0; i < CASE_KINDS; i++) {
+            if (count(counts, i) > 0) return true;
+        }
+        return false;
     }
 
-    public synchronized boolean isPureBool() {
-        if (!hasProfileData()) throw new AssertionError("no profile data");
-        return referenceCases == 0 && intCases == 0;
+    private static long count(long[] counts, int kind) {
+        return (long) COUNT.getOpaque(counts, kind);
     }
 }
@@ -51,12 +51,20 @@ class VariableDefinition extends AbstractVariable {
 
     /*internal*/ void markAsReferencedNonlocally() {
         isReferencedNonlocally = true;
-        isBoxed = isMutable;
     }
 
     /*internal*/ void markAsMutable() {
         isMutable = true;
-        isBoxed = isReferencedNonlocally;
+    }
+
+    /**
+     * Mark the variable as one which may be assigned after a closure
+     * referencing it has been created, so it must be kept in a box shared
+     * with the closure. A mutable variable referenced nonlocally only after
+     * its last assignment needs no box, as closures can copy its value.
+     */
+    /*internal*/ void markAsAssignedWhileCaptured() {
+        isBoxed = true;
     }
 
     @Override
@@ -0,0 +1,62 @@
+// Copyright (c) 2018 Vassili Bykov. Licensed under the Apache License, Version 2.0.
+
+package com.github.vassilibykov.trifle.core;
+
+import org.jetbrains.annotations.Nullable;
+
+import java.lang.ref.Reference;
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Assigns integer IDs to objects so that generated code can refer to them in
+ * bootstrap arguments of invokedynamic instructions. The registry references
+ * the objects weakly; generated code is responsible for keeping the objects
+ * it refers to alive (see {@link Compiler.UnitResult#retainedObjects()}).
+ * Lookups take no locks. IDs are never reused, so a lookup of a reclaimed
+ * object fails rather than returning an unrelated one.
+ */
+final class WeakRegistry<T> {
+
+    private static class Entry<T> extends WeakReference<T> {
+        private final int id;
+
+        private Entry(int id, T referent, ReferenceQueue<? super T> queue) {
+            super(referent, queue);
+            this.id = id;
+        }
+    }
+
+    private final AtomicInteger nextId = new AtomicInteger();
+    private final ConcurrentHashMap<Integer, Entry<T>> entries = new ConcurrentHashMap<>();
+    private final ReferenceQueue<T> reclaimed = new ReferenceQueue<>();
+
+    int register(T object) {
+        expungeReclaimed();
+        var id = nextId.getAndIncrement();
+        entries.put(id, new Entry<>(id, object, reclaimed));
+        return id;
+    }
+
+    @Nullable T get(int id) {
+        var entry = entries.get(id);
+        return entry != null ? entry.get() : null;
+    }
+
+    /**
+     * The number of registered objects not yet known to be reclaimed.
+     */
+    int size() {
+        expungeReclaimed();
+        return entries.size();
+    }
+
+    private void expungeReclaimed() {
+        Reference<? extends T> each;
+        while ((each = reclaimed.poll()) != null) {
+            entries.remove(((Entry<?>) each).id);
+        }
+    }
+}
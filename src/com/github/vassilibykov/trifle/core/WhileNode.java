@@ -3,13 +3,29 @@
 package com.github.vassilibykov.trifle.core;
 
 import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
 
+import java.lang.invoke.MethodHandle;
 import java.util.concurrent.atomic.AtomicLong;
 
 public class WhileNode extends EvaluatorNode {
+    /**
+     * The number of iterations after which an interpreted loop attempts to
+     * transfer into compiled code by invoking its {@link #loopEntry}, or
+     * requests a compilation of its unit if there is no loop entry yet.
+     */
+    public static final long OSR_THRESHOLD = 1000;
+
     @NotNull private final EvaluatorNode condition;
     @NotNull private final EvaluatorNode body;
     /*internal*/ final AtomicLong bodyCount = new AtomicLong();
+    /**
+     * A method handle of type {@code (Object[], Object)Object} continuing
+     * execution of the function at the head of this loop with the specified
+     * interpreter frame and current loop value. Installed when the function
+     * is compiled.
+     */
+    @Nullable /*internal*/ volatile MethodHandle loopEntry;
 
     public WhileNode(@NotNull EvaluatorNode condition, @NotNull EvaluatorNode body) {
         this.condition = condition;
@@ -29,6 +45,11 @@ public class WhileNode extends EvaluatorNode {
         return visitor.visitWhile(this);
     }
 
+    @Override
+    Object evaluateUnboxed(Interpreter.Evaluator evaluator) {
+        return evaluator.visitWhile(this);
+    }
+
     @Override
     public String toString() {
         return "(while " + condition + " " + body + ")";
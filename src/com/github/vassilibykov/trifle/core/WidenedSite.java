@@ -0,0 +1,53 @@
+// Copyright (c) 2018 Vassili Bykov. Licensed under the Apache License, Version 2.0.
+
+package com.github.vassilibykov.trifle.core;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Watches a recovery site whose continuation profile was widened when the
+ * unit was deoptimized (see {@link SpecializationFailureSite}). The code of the
+ * deoptimized unit accepts any value at the site, but passes each one here to
+ * be checked against the type the site was specialized to before. Once {@link
+ * FunctionImplementation#REPROFILING_WINDOW} values in a row have fit that
+ * type, the program has evidently entered a phase in which the narrower type
+ * would no longer fail, and the unit is re-profiled.
+ *
+ * <p>An instance is created for each site when the unit is deoptimized, and
+ * is shared by all methods and recompilations of the unit until it is
+ * re-profiled, so that all values received by the site are counted together.
+ * Generated code reaches it through the {@link LiteralPool}.
+ */
+final class WidenedSite {
+    private final FunctionImplementation function;
+    private final JvmType typeBeforeWidening;
+    private final AtomicLong valueCount = new AtomicLong();
+    /**
+     * The value count at the time of the last value which did not fit {@link
+     * #typeBeforeWidening}. Racing updates may leave it slightly behind, which
+     * only delays re-profiling.
+     */
+    private volatile long lastMisfitCount = 0;
+    private volatile boolean isReprofilingRequested = false;
+
+    WidenedSite(FunctionImplementation function, JvmType typeBeforeWidening) {
+        this.function = function;
+        this.typeBeforeWidening = typeBeforeWidening;
+    }
+
+    JvmType typeBeforeWidening() {
+        return typeBeforeWidening;
+    }
+
+    @SuppressWarnings("unused") // called by generated code
+    public void recordValue(Object value) {
+        if (isReprofilingRequested) return;
+        var count = valueCount.incrementAndGet();
+        if (!JvmType.isCompatibleValue(typeBeforeWidening.representativeClass(), value)) {
+            lastMisfitCount = count;
+        } else if (count - lastMisfitCount >= FunctionImplementation.REPROFILING_WINDOW) {
+            isReprofilingRequested = true;
+            function.reprofile();
+        }
+    }
+}
@@ -24,7 +24,7 @@ import java.lang.invoke.MethodType;
  */
 public class FieldAccessInvokeDynamic {
 
-    static FieldAccessImplementation FACTORY = new FieldAccessImplementation() {
+    static final FieldAccessImplementation FACTORY = new FieldAccessImplementation() {
         @Override
         public Handle getterBootstrapper() {
             return BOOTSTRAP_GET;
@@ -54,14 +54,16 @@ public class FieldAccessInvokeDynamic {
     public static CallSite bootstrapGet(MethodHandles.Lookup lookup, String operationName, MethodType callSiteType) {
         var fieldName = FieldAccessImplementation.extractFieldName(operationName);
         var dispatch = DISPATCH_GET.bindTo(fieldName);
-        return new InlineCachingCallSite(callSiteType, dispatch); // TODO worry about the megamorphic case later
+        var megamorphicDispatch = MEGAMORPHIC_GET.bindTo(new FieldIndexCache(fieldName));
+        return new InlineCachingCallSite(callSiteType, dispatch, megamorphicDispatch);
     }
 
     @SuppressWarnings("unused") // called by invokedynamic infrastructure
     public static CallSite bootstrapSet(MethodHandles.Lookup lookup, String operationName, MethodType callSiteType) {
         var fieldName = FieldAccessImplementation.extractFieldName(operationName);
         var dispatch = DISPATCH_SET.bindTo(fieldName);
-        return new InlineCachingCallSite(callSiteType, dispatch); // TODO worry about the megamorphic case later
+        var megamorphicDispatch = MEGAMORPHIC_SET.bindTo(new FieldIndexCache(fieldName));
+        return new InlineCachingCallSite(callSiteType, dispatch, megamorphicDispatch);
     }
 
     public static Object dispatchGet(String fieldName, InlineCachingCallSite thisSite, Object object) throws Throwable {
@@ -74,7 +76,9 @@ public class FieldAccessInvokeDynamic {
         if (index < 0) {
             throw RuntimeError.message(String.format("object '%s' has no field '%s", fixedObject, fieldName));
         }
-        var getter = MethodHandles.insertArguments(GET, 0, index);
+        var getter = layout.hasStorageClass()
+            ? layout.storageGetter(index)
+            : MethodHandles.insertArguments(GET, 0, index);
         var handler = layout.switchPoint().guardWithTest(getter, thisSite.resetAndDispatchInvoker());
         thisSite.addCacheEntry(CHECK_LAYOUT.bindTo(layout), handler);
         return handler.invokeExact(object);
@@ -92,12 +96,39 @@ public class FieldAccessInvokeDynamic {
         if (index < 0) {
             throw RuntimeError.message(String.format("object '%s' has no field '%s", fixedObject, fieldName));
         }
-        var setter = MethodHandles.insertArguments(SET, 0, index);
+        var setter = layout.hasStorageClass()
+            ? layout.storageSetter(index)
+            : MethodHandles.insertArguments(SET, 0, index);
         var handler = layout.switchPoint().guardWithTest(setter, thisSite.resetAndDispatchInvoker());
         thisSite.addCacheEntry(CHECK_LAYOUT.bindTo(layout), handler);
         handler.invokeExact(object, value);
     }
 
+    /*
+        Once a site is megamorphic, the following methods handle all accesses.
+        Instead of looking up the field name in the layout, they look up the
+        layout in the site's own FieldIndexCache, and access the object data
+        directly rather than through newly built method handles.
+     */
+
+    public static Object megamorphicGet(FieldIndexCache cache, InlineCachingCallSite thisSite, Object object) {
+        if (!(object instanceof FixedObject)) {
+            throw RuntimeError.message("not an object: " + object);
+        }
+        var fixedObject = (FixedObject) object;
+        var index = cache.requiredFieldIndex(fixedObject, fixedObject.upToDateLayout());
+        return fixedObject.getAt(index);
+    }
+
+    public static void megamorphicSet(FieldIndexCache cache, InlineCachingCallSite thisSite, Object object, Object value) {
+        if (!(object instanceof FixedObject)) {
+            throw RuntimeError.message("not an object: " + object);
+        }
+        var fixedObject = (FixedObject) object;
+        var index = cache.requiredFieldIndex(fixedObject, fixedObject.upToDateLayout());
+        fixedObject.setAt(index, value);
+    }
+
     public static boolean checkLayout(FixedObjectLayout expected, Object object) {
         return object instanceof FixedObject && ((FixedObject) object).layout == expected;
     }
@@ -122,6 +153,8 @@ public class FieldAccessInvokeDynamic {
 
     private static final MethodHandle DISPATCH_GET;
     private static final MethodHandle DISPATCH_SET;
+    private static final MethodHandle MEGAMORPHIC_GET;
+    private static final MethodHandle MEGAMORPHIC_SET;
     private static final MethodHandle CHECK_LAYOUT;
     private static final MethodHandle GET;
     private static final MethodHandle SET;
@@ -136,6 +169,14 @@ public class FieldAccessInvokeDynamic {
                 FieldAccessInvokeDynamic.class,
                 "dispatchSet",
                 MethodType.methodType(void.class, String.class, InlineCachingCallSite.class, Object.class, Object.class));
+            MEGAMORPHIC_GET = lookup.findStatic(
+                FieldAccessInvokeDynamic.class,
+                "megamorphicGet",
+                MethodType.methodType(Object.class, FieldIndexCache.class, InlineCachingCallSite.class, Object.class));
+            MEGAMORPHIC_SET = lookup.findStatic(
+                FieldAccessInvokeDynamic.class,
+                "megamorphicSet",
+                MethodType.methodType(void.class, FieldIndexCache.class, InlineCachingCallSite.class, Object.class, Object.class));
             CHECK_LAYOUT = lookup.findStatic(
                 FieldAccessInvokeDynamic.class,
                 "checkLayout",
@@ -21,6 +21,8 @@ import java.lang.invoke.MethodType;
  * to data objects, so concurrent access to a data object from multiple threads
  * should work as intended. This is probably an overkill, and the default
  * implementation with thread confinement assumption is sufficient in practice.
+ * {@link FieldAccessInvokeDynamicOptimistic} is equally safe without the
+ * locking.
  */
 public class FieldAccessInvokeDynamicConcurrent {
 
@@ -55,14 +57,16 @@ public class FieldAccessInvokeDynamicConcurrent {
     public static CallSite bootstrapGet(MethodHandles.Lookup lookup, String operationName, MethodType callSiteType) {
         var fieldName = FieldAccessImplementation.extractFieldName(operationName);
         var dispatch = DISPATCH_GET.bindTo(fieldName);
-        return new InlineCachingCallSite(callSiteType, dispatch); // TODO worry about the megamorphic case later
+        var megamorphicDispatch = MEGAMORPHIC_GET.bindTo(new FieldIndexCache(fieldName));
+        return new InlineCachingCallSite(callSiteType, dispatch, megamorphicDispatch);
     }
 
     @SuppressWarnings("unused") // called by invokedynamic infrastructure
     public static CallSite bootstrapSet(MethodHandles.Lookup lookup, String operationName, MethodType callSiteType) {
         var fieldName = FieldAccessImplementation.extractFieldName(operationName);
         var dispatch = DISPATCH_SET.bindTo(fieldName);
-        return new InlineCachingCallSite(callSiteType, dispatch); // TODO worry about the megamorphic case later
+        var megamorphicDispatch = MEGAMORPHIC_SET.bindTo(new FieldIndexCache(fieldName));
+        return new InlineCachingCallSite(callSiteType, dispatch, megamorphicDispatch);
     }
 
     @SuppressWarnings("SynchronizationOnLocalVariableOrMethodParameter")
@@ -123,6 +127,45 @@ public class FieldAccessInvokeDynamicConcurrent {
         }
     }
 
+    /*
+        Once a site is megamorphic, the following methods handle all accesses.
+        They look up the layout in the site's own FieldIndexCache instead of
+        looking up the field name in the layout. Because no guard is involved,
+        they can update the layout and access the data while holding the
+        object's monitor.
+     */
+
+    @SuppressWarnings("SynchronizationOnLocalVariableOrMethodParameter")
+    public static Object megamorphicGet(FieldIndexCache cache, InlineCachingCallSite thisSite, Object object) {
+        if (!(object instanceof FixedObject)) {
+            throw RuntimeError.message("not an object: " + object);
+        }
+        var fixedObject = (FixedObject) object;
+        synchronized (fixedObject) {
+            while (true) {
+                var layout = fixedObject.upToDateLayout();
+                var index = cache.requiredFieldIndex(fixedObject, layout);
+                var value = fixedObject.readAt(layout, index);
+                if (value != FixedObject.STALE_LAYOUT) return value;
+            }
+        }
+    }
+
+    @SuppressWarnings("SynchronizationOnLocalVariableOrMethodParameter")
+    public static void megamorphicSet(FieldIndexCache cache, InlineCachingCallSite thisSite, Object object, Object value) {
+        if (!(object instanceof FixedObject)) {
+            throw RuntimeError.message("not an object: " + object);
+        }
+        var fixedObject = (FixedObject) object;
+        synchronized (fixedObject) {
+            while (true) {
+                var layout = fixedObject.upToDateLayout();
+                var index = cache.requiredFieldIndex(fixedObject, layout);
+                if (fixedObject.writeAt(layout, index, value)) return;
+            }
+        }
+    }
+
     /*
         The following 'checkLayout' test method is combined with the 'get' and
         'set' action methods using 'guardWithTest' to create an inline cache
@@ -148,29 +191,23 @@ public class FieldAccessInvokeDynamicConcurrent {
     @SuppressWarnings("SynchronizationOnLocalVariableOrMethodParameter")
     public static Object get(FixedObjectLayout expectedLayout, int index, Object object) {
         synchronized (object) {
-            var fixedObject = (FixedObject) object;
-            if (fixedObject.layout != expectedLayout) throw new StaleLayoutException();
-            var ref = fixedObject.referenceData[index];
-            return ref == FixedObject.NO_VALUE ? fixedObject.intData[index] : ref;
+            var value = ((FixedObject) object).readAt(expectedLayout, index);
+            if (value == FixedObject.STALE_LAYOUT) throw new StaleLayoutException();
+            return value;
         }
     }
 
     @SuppressWarnings("SynchronizationOnLocalVariableOrMethodParameter")
     public static void set(FixedObjectLayout expectedLayout, int index, Object object, Object value) {
         synchronized (object) {
-            var fixedObject = (FixedObject) object;
-            if (fixedObject.layout != expectedLayout) throw new StaleLayoutException();
-            if (value instanceof Integer) {
-                fixedObject.intData[index] = (Integer) value;
-                fixedObject.referenceData[index] = FixedObject.NO_VALUE;
-            } else {
-                fixedObject.referenceData[index] = value;
-            }
+            if (!((FixedObject) object).writeAt(expectedLayout, index, value)) throw new StaleLayoutException();
         }
     }
 
     private static final MethodHandle DISPATCH_GET;
     private static final MethodHandle DISPATCH_SET;
+    private static final MethodHandle MEGAMORPHIC_GET;
+    private static final MethodHandle MEGAMORPHIC_SET;
     private static final MethodHandle CHECK_LAYOUT;
     private static final MethodHandle GET;
     private static final MethodHandle SET;
@@ -185,6 +222,14 @@ public class FieldAccessInvokeDynamicConcurrent {
                 FieldAccessInvokeDynamicConcurrent.class,
                 "dispatchSet",
                 MethodType.methodType(void.class, String.class, InlineCachingCallSite.class, Object.class, Object.class));
+            MEGAMORPHIC_GET = lookup.findStatic(
+                FieldAccessInvokeDynamicConcurrent.class,
+                "megamorphicGet",
+                MethodType.methodType(Object.class, FieldIndexCache.class, InlineCachingCallSite.class, Object.class));
+            MEGAMORPHIC_SET = lookup.findStatic(
+                FieldAccessInvokeDynamicConcurrent.class,
+                "megamorphicSet",
+                MethodType.methodType(void.class, FieldIndexCache.class, InlineCachingCallSite.class, Object.class, Object.class));
             CHECK_LAYOUT = lookup.findStatic(
                 FieldAccessInvokeDynamicConcurrent.class,
                 "checkLayout",
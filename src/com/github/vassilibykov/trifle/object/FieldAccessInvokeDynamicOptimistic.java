@@ -0,0 +1,213 @@
+// Copyright (c) 2018 Vassili Bykov. Licensed under the Apache License, Version 2.0.
+
+package com.github.vassilibykov.trifle.object;
+
+import com.github.vassilibykov.trifle.core.GhostWriter;
+import com.github.vassilibykov.trifle.core.InlineCachingCallSite;
+import com.github.vassilibykov.trifle.core.RuntimeError;
+import com.github.vassilibykov.trifle.object.FieldAccessInvokeDynamicConcurrent.StaleLayoutException;
+import org.objectweb.asm.Handle;
+import org.objectweb.asm.Opcodes;
+
+import java.lang.invoke.CallSite;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+
+/**
+ * An invokedynamic instruction of a call site getting or setting the value of a
+ * field of a {@link FixedObject}.
+ *
+ * <p>Like {@link FieldAccessInvokeDynamicConcurrent}, this implementation
+ * supports access to a data object from multiple threads, but it takes no
+ * monitors or definition locks. Reads are optimistic: they read the data
+ * between two checks of the object's stamp and retry if a write or a layout
+ * migration happened in between. Writes and migrations of an object exclude
+ * each other by the stamp. See {@link FixedObject} for the details. Objects
+ * shared by many threads and rarely written are read about as fast as with
+ * the default implementation.
+ */
+public class FieldAccessInvokeDynamicOptimistic {
+
+    public static final FieldAccessImplementation FACTORY = new FieldAccessImplementation() {
+        @Override
+        public Handle getterBootstrapper() {
+            return BOOTSTRAP_GET;
+        }
+
+        @Override
+        public Handle setterBootstrapper() {
+            return BOOTSTRAP_SET;
+        }
+    };
+
+    private static final Handle BOOTSTRAP_GET = new Handle(
+        Opcodes.H_INVOKESTATIC,
+        GhostWriter.internalClassName(FieldAccessInvokeDynamicOptimistic.class),
+        "bootstrapGet",
+        MethodType.methodType(CallSite.class, MethodHandles.Lookup.class, String.class, MethodType.class).toMethodDescriptorString(),
+        false);
+
+    private static final Handle BOOTSTRAP_SET = new Handle(
+        Opcodes.H_INVOKESTATIC,
+        GhostWriter.internalClassName(FieldAccessInvokeDynamicOptimistic.class),
+        "bootstrapSet",
+        MethodType.methodType(CallSite.class, MethodHandles.Lookup.class, String.class, MethodType.class).toMethodDescriptorString(),
+        false);
+
+    @SuppressWarnings("unused") // called by invokedynamic infrastructure
+    public static CallSite bootstrapGet(MethodHandles.Lookup lookup, String operationName, MethodType callSiteType) {
+        var fieldName = FieldAccessImplementation.extractFieldName(operationName);
+        var dispatch = DISPATCH_GET.bindTo(fieldName);
+        var megamorphicDispatch = MEGAMORPHIC_GET.bindTo(new FieldIndexCache(fieldName));
+        return new InlineCachingCallSite(callSiteType, dispatch, megamorphicDispatch);
+    }
+
+    @SuppressWarnings("unused") // called by invokedynamic infrastructure
+    public static CallSite bootstrapSet(MethodHandles.Lookup lookup, String operationName, MethodType callSiteType) {
+        var fieldName = FieldAccessImplementation.extractFieldName(operationName);
+        var dispatch = DISPATCH_SET.bindTo(fieldName);
+        var megamorphicDispatch = MEGAMORPHIC_SET.bindTo(new FieldIndexCache(fieldName));
+        return new InlineCachingCallSite(callSiteType, dispatch, megamorphicDispatch);
+    }
+
+    public static Object dispatchGet(String fieldName, InlineCachingCallSite thisSite, Object object) throws Throwable {
+        if (!(object instanceof FixedObject)) {
+            throw RuntimeError.message("not an object: " + object);
+        }
+        var fixedObject = (FixedObject) object;
+        var layout = fixedObject.ensureUpToDateLayout();
+        var index = layout.fieldIndex(fieldName);
+        if (index < 0) {
+            throw RuntimeError.message(String.format("object '%s' has no field '%s", fixedObject, fieldName));
+        }
+        var getter = MethodHandles.insertArguments(GET, 0, layout, index);
+        getter = MethodHandles.catchException( // see the block comment below
+            getter,
+            StaleLayoutException.class,
+            MethodHandles.dropArguments(thisSite.resetAndDispatchInvoker(), 0, StaleLayoutException.class));
+        var handler = layout.switchPoint().guardWithTest(getter, thisSite.resetAndDispatchInvoker());
+        thisSite.addCacheEntry(CHECK_LAYOUT.bindTo(layout), handler);
+        return handler.invokeExact(object);
+    }
+
+    public static void dispatchSet(String fieldName, InlineCachingCallSite thisSite, Object object, Object value)
+        throws Throwable
+    {
+        if (!(object instanceof FixedObject)) {
+            throw RuntimeError.message("not an object: " + object);
+        }
+        var fixedObject = (FixedObject) object;
+        var layout = fixedObject.ensureUpToDateLayout();
+        var index = layout.fieldIndex(fieldName);
+        if (index < 0) {
+            throw RuntimeError.message(String.format("object '%s' has no field '%s", fixedObject, fieldName));
+        }
+        var setter = MethodHandles.insertArguments(SET, 0, layout, index);
+        setter = MethodHandles.catchException( // see the block comment below
+            setter,
+            StaleLayoutException.class,
+            MethodHandles.dropArguments(thisSite.resetAndDispatchInvoker(), 0, StaleLayoutException.class));
+        var handler = layout.switchPoint().guardWithTest(setter, thisSite.resetAndDispatchInvoker());
+        thisSite.addCacheEntry(CHECK_LAYOUT.bindTo(layout), handler);
+        handler.invokeExact(object, value);
+    }
+
+    /*
+        Once a site is megamorphic, the following methods handle all accesses.
+        An access fails only if the object is migrated to a new layout after
+        its layout is looked up in the site's FieldIndexCache, in which case
+        it is simply repeated.
+     */
+
+    public static Object megamorphicGet(FieldIndexCache cache, InlineCachingCallSite thisSite, Object object) {
+        if (!(object instanceof FixedObject)) {
+            throw RuntimeError.message("not an object: " + object);
+        }
+        var fixedObject = (FixedObject) object;
+        while (true) {
+            var layout = fixedObject.upToDateLayout();
+            var index = cache.requiredFieldIndex(fixedObject, layout);
+            var value = fixedObject.readAt(layout, index);
+            if (value != FixedObject.STALE_LAYOUT) return value;
+        }
+    }
+
+    public static void megamorphicSet(FieldIndexCache cache, InlineCachingCallSite thisSite, Object object, Object value) {
+        if (!(object instanceof FixedObject)) {
+            throw RuntimeError.message("not an object: " + object);
+        }
+        var fixedObject = (FixedObject) object;
+        while (true) {
+            var layout = fixedObject.upToDateLayout();
+            var index = cache.requiredFieldIndex(fixedObject, layout);
+            if (fixedObject.writeAt(layout, index, value)) return;
+        }
+    }
+
+    /*
+        As in the concurrent implementation, the layout of an object may change
+        between the 'checkLayout' guard of a cache entry and the 'get' or 'set'
+        action. The actions are bound to the layout they expect, and
+        'readAt' and 'writeAt' check it again, consistently with the data they
+        access. On a mismatch the action throws a StaleLayoutException, which
+        resets the call site.
+     */
+
+    public static boolean checkLayout(FixedObjectLayout expected, Object object) {
+        return object instanceof FixedObject && ((FixedObject) object).layout == expected;
+    }
+
+    public static Object get(FixedObjectLayout expectedLayout, int index, Object object) {
+        var value = ((FixedObject) object).readAt(expectedLayout, index);
+        if (value == FixedObject.STALE_LAYOUT) throw new StaleLayoutException();
+        return value;
+    }
+
+    public static void set(FixedObjectLayout expectedLayout, int index, Object object, Object value) {
+        if (!((FixedObject) object).writeAt(expectedLayout, index, value)) throw new StaleLayoutException();
+    }
+
+    private static final MethodHandle DISPATCH_GET;
+    private static final MethodHandle DISPATCH_SET;
+    private static final MethodHandle MEGAMORPHIC_GET;
+    private static final MethodHandle MEGAMORPHIC_SET;
+    private static final MethodHandle CHECK_LAYOUT;
+    private static final MethodHandle GET;
+    private static final MethodHandle SET;
+    static {
+        try {
+            var lookup = MethodHandles.lookup();
+            DISPATCH_GET = lookup.findStatic(
+                FieldAccessInvokeDynamicOptimistic.class,
+                "dispatchGet",
+                MethodType.methodType(Object.class, String.class, InlineCachingCallSite.class, Object.class));
+            DISPATCH_SET = lookup.findStatic(
+                FieldAccessInvokeDynamicOptimistic.class,
+                "dispatchSet",
+                MethodType.methodType(void.class, String.class, InlineCachingCallSite.class, Object.class, Object.class));
+            MEGAMORPHIC_GET = lookup.findStatic(
+                FieldAccessInvokeDynamicOptimistic.class,
+                "megamorphicGet",
+                MethodType.methodType(Object.class, FieldIndexCache.class, InlineCachingCallSite.class, Object.class));
+            MEGAMORPHIC_SET = lookup.findStatic(
+                FieldAccessInvokeDynamicOptimistic.class,
+                "megamorphicSet",
+                MethodType.methodType(void.class, FieldIndexCache.class, InlineCachingCallSite.class, Object.class, Object.class));
+            CHECK_LAYOUT = lookup.findStatic(
+                FieldAccessInvokeDynamicOptimistic.class,
+                "checkLayout",
+                MethodType.methodType(boolean.class, FixedObjectLayout.class, Object.class));
+            GET = lookup.findStatic(
+                FieldAccessInvokeDynamicOptimistic.class,
+                "get",
+                MethodType.methodType(Object.class, FixedObjectLayout.class, int.class, Object.class));
+            SET = lookup.findStatic(
+                FieldAccessInvokeDynamicOptimistic.class,
+                "set",
+                MethodType.methodType(void.class, FixedObjectLayout.class, int.class, Object.class, Object.class));
+        } catch (NoSuchMethodException | IllegalAccessException e) {
+            throw new AssertionError(e);
+        }
+    }
+}
@@ -0,0 +1,67 @@
+// Copyright (c) 2018 Vassili Bykov. Licensed under the Apache License, Version 2.0.
+
+package com.github.vassilibykov.trifle.object;
+
+import com.github.vassilibykov.trifle.core.RuntimeError;
+
+/**
+ * A table of the indices of a particular field in different layouts, keyed by
+ * layout identity. A field access site in the megamorphic state uses it
+ * instead of looking up the field name in the layout of every object it
+ * accesses. Like {@link GlobalMethodCache}, it is fixed-size and lossy: a new
+ * entry simply replaces whatever entry was at its index.
+ *
+ * <p>Because layouts are immutable, an entry never becomes wrong. An entry
+ * for a layout that is no longer current stops being hit, because objects are
+ * migrated to the current layout of their definition before the lookup.
+ * Entries are immutable and the table is not synchronized; a racing update may
+ * cause a lost entry, but never an inconsistent one.
+ */
+final class FieldIndexCache {
+    private static final int SIZE = 16; // must be a power of 2
+
+    private static class Entry {
+        private final FixedObjectLayout layout;
+        private final int index;
+
+        private Entry(FixedObjectLayout layout, int index) {
+            this.layout = layout;
+            this.index = index;
+        }
+    }
+
+    private final String fieldName;
+    private final Entry[] entries = new Entry[SIZE];
+
+    FieldIndexCache(String fieldName) {
+        this.fieldName = fieldName;
+    }
+
+    /**
+     * Return the index of the field in the specified layout, or -1 if the
+     * layout has no such field.
+     */
+    int fieldIndex(FixedObjectLayout layout) {
+        var slot = layout.serialNumber() & (SIZE - 1);
+        var entry = entries[slot];
+        if (entry != null && entry.layout == layout) return entry.index;
+        var index = layout.fieldIndex(fieldName);
+        entries[slot] = new Entry(layout, index);
+        return index;
+    }
+
+    /**
+     * Return the index of the field in the specified layout of the object, as
+     * {@link #fieldIndex(FixedObjectLayout)} does. This is the lookup of a
+     * megamorphic field access, which fails if the object has no such field.
+     *
+     * @throws RuntimeError if the layout has no such field.
+     */
+    int requiredFieldIndex(FixedObject object, FixedObjectLayout layout) {
+        var index = fieldIndex(layout);
+        if (index < 0) {
+            throw RuntimeError.message(String.format("object '%s' has no field '%s'", object, fieldName));
+        }
+        return index;
+    }
+}
@@ -5,17 +5,49 @@ package com.github.vassilibykov.trifle.object;
 import com.github.vassilibykov.trifle.core.RuntimeError;
 import org.jetbrains.annotations.TestOnly;
 
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+
 /**
  * An object with storage locations (fields), identified by names (strings).
  * It is "fixed" in the sense that the set of fields of an object is determined
  * by its definition, and cannot be changed for a particular object without
  * changing it for all other objects sharing the same definition.
+ *
+ * <p>Changes of an object's data, both field writes and migrations to a new
+ * layout, are made under a {@link #stamp} used like a sequence lock. A writer
+ * makes the stamp odd for the duration of the change. A reader does not lock
+ * the object. It reads the stamp, then the data, and accepts what it has read
+ * only if the stamp is even and unchanged. The field access implementation
+ * which assumes thread confinement bypasses the stamp, except for migrations.
  */
 public class FixedObject {
 
     static final Object NO_VALUE = new Object();
+    /** Returned by {@link #readAt} if the object doesn't have the expected layout. */
+    static final Object STALE_LAYOUT = new Object();
+    private static final int SPINS_BEFORE_YIELD = 64;
+
+    private static FieldAccessImplementation accessImplementation = initialAccessImplementation();
 
-    private static FieldAccessImplementation accessImplementation = FieldAccessInvokeDynamic.FACTORY;
+    /**
+     * Return the field access implementation selected by the {@code
+     * trifle.fieldAccess} system property: {@code default}, which assumes
+     * thread confinement, {@code concurrent} or {@code optimistic}.
+     */
+    private static FieldAccessImplementation initialAccessImplementation() {
+        var name = System.getProperty("trifle.fieldAccess", "default");
+        switch (name) {
+            case "default":
+                return FieldAccessInvokeDynamic.FACTORY;
+            case "concurrent":
+                return FieldAccessInvokeDynamicConcurrent.FACTORY;
+            case "optimistic":
+                return FieldAccessInvokeDynamicOptimistic.FACTORY;
+            default:
+                throw new IllegalArgumentException("unknown field access implementation: " + name);
+        }
+    }
 
     static FieldAccessImplementation accessImplementation() {
         return accessImplementation;
@@ -38,15 +70,25 @@ public class FixedObject {
      * synchronize this object's data layout with the definition.
      */
     /*internal*/ volatile FixedObjectLayout layout;
+    /** The data if the definition uses {@link FixedObjectDefinition.Storage#ARRAYS} storage, otherwise null. */
     /*internal*/ Object[] referenceData;
     /*internal*/ int[] intData;
+    /** The data if the definition uses {@link FixedObjectDefinition.Storage#LAYOUT_CLASS} storage, otherwise null. */
+    /*internal*/ LayoutStorage storage;
+    /** Even when the data is stable, odd while it is being changed. */
+    @SuppressWarnings("unused") // accessed via STAMP
+    private volatile int stamp;
 
     protected FixedObject(FixedObjectDefinition definition) {
         this.definition = definition;
         this.layout = definition.layout();
-        var size = layout.size();
-        this.referenceData = new Object[size];
-        this.intData = new int[size];
+        if (layout.hasStorageClass()) {
+            this.storage = layout.newStorage();
+        } else {
+            var size = layout.size();
+            this.referenceData = new Object[size];
+            this.intData = new int[size];
+        }
     }
 
     public FixedObjectDefinition definition() {
@@ -56,35 +98,174 @@ public class FixedObject {
     FixedObjectLayout ensureUpToDateLayout() {
         FixedObjectLayout currentLayout = definition.layout();
         if (currentLayout != layout) {
-            var migrator = layout.getMigrator(currentLayout);
-            layout = currentLayout;
-            referenceData = migrator.migrate(referenceData);
-            intData = migrator.migrate(intData);
+            var stamp = lockForWrite();
+            try {
+                if (currentLayout != layout) {
+                    var migrator = layout.getMigrator(currentLayout);
+                    layout = currentLayout;
+                    if (storage != null) {
+                        storage = migrator.migrate(storage);
+                    } else {
+                        referenceData = migrator.migrate(referenceData);
+                        intData = migrator.migrate(intData);
+                    }
+                }
+            } finally {
+                unlockForWrite(stamp);
+            }
         }
         return layout;
     }
 
-    public synchronized Object get(String fieldName) {
-        ensureUpToDateLayout();
-        var index = layout.fieldIndex(fieldName);
-        if (index < 0) {
-            throw RuntimeError.message("no such field: " + fieldName);
+    /**
+     * Return the layout this object's data complies with, migrating the data
+     * first if the layout is no longer current. Unlike {@link
+     * #ensureUpToDateLayout()}, does not lock the definition unless the
+     * current layout has been superseded.
+     */
+    FixedObjectLayout upToDateLayout() {
+        var layout = this.layout;
+        return layout.switchPoint().hasBeenInvalidated() ? ensureUpToDateLayout() : layout;
+    }
+
+    public Object get(String fieldName) {
+        while (true) {
+            var layout = ensureUpToDateLayout();
+            var index = layout.fieldIndex(fieldName);
+            if (index < 0) {
+                throw RuntimeError.message("no such field: " + fieldName);
+            }
+            var value = readAt(layout, index);
+            if (value != STALE_LAYOUT) return value;
+        }
+    }
+
+    public void set(String fieldName, Object value) {
+        while (true) {
+            var layout = ensureUpToDateLayout();
+            var index = layout.fieldIndex(fieldName);
+            if (index < 0) {
+                throw RuntimeError.message("no such field: " + fieldName);
+            }
+            if (writeAt(layout, index, value)) return;
+        }
+    }
+
+    /**
+     * Wait until no change of the data is in progress and return the stamp,
+     * to be checked by {@link #validate(int)} after reading the data.
+     */
+    int readStamp() {
+        for (int spins = 0; ; spins++) {
+            var stamp = (int) STAMP.getAcquire(this);
+            if ((stamp & 1) == 0) return stamp;
+            waitForWriter(spins);
+        }
+    }
+
+    /**
+     * Indicate whether the data has not changed since the specified stamp was
+     * obtained from {@link #readStamp()}, so the values read in between are
+     * consistent.
+     */
+    boolean validate(int stamp) {
+        VarHandle.acquireFence();
+        return stamp == (int) STAMP.getVolatile(this);
+    }
+
+    /**
+     * Wait until no other change of the data is in progress and mark the
+     * data as being changed. Return the stamp to pass to {@link
+     * #unlockForWrite(int)}.
+     */
+    int lockForWrite() {
+        for (int spins = 0; ; spins++) {
+            var stamp = (int) STAMP.getVolatile(this);
+            if ((stamp & 1) == 0 && STAMP.compareAndSet(this, stamp, stamp + 1)) return stamp + 1;
+            waitForWriter(spins);
         }
+    }
+
+    /**
+     * Writes are short, so spin for a while, but then yield in case the
+     * writer has been descheduled.
+     */
+    private static void waitForWriter(int spins) {
+        if (spins < SPINS_BEFORE_YIELD) {
+            Thread.onSpinWait();
+        } else {
+            Thread.yield();
+        }
+    }
+
+    void unlockForWrite(int stamp) {
+        STAMP.setRelease(this, stamp + 1);
+    }
+
+    /**
+     * Return the value of the field with the specified index without
+     * locking, provided the object has the specified layout. If it doesn't,
+     * return {@link #STALE_LAYOUT}.
+     */
+    Object readAt(FixedObjectLayout expectedLayout, int index) {
+        while (true) {
+            var stamp = readStamp();
+            if (layout != expectedLayout) return STALE_LAYOUT;
+            try {
+                var value = getAt(index);
+                if (validate(stamp)) return value;
+            } catch (IndexOutOfBoundsException e) {
+                // a migration replaced the data while we were reading; retry
+            }
+        }
+    }
+
+    /**
+     * Set the value of the field with the specified index, provided the
+     * object has the specified layout. Return false if it doesn't.
+     */
+    boolean writeAt(FixedObjectLayout expectedLayout, int index, Object value) {
+        var stamp = lockForWrite();
+        try {
+            if (layout != expectedLayout) return false;
+            setAt(index, value);
+            return true;
+        } finally {
+            unlockForWrite(stamp);
+        }
+    }
+
+    /**
+     * Return the value of the field with the specified index in the current
+     * layout, whatever the storage of the object. Does not check the stamp.
+     */
+    Object getAt(int index) {
+        if (storage != null) return storage.get(index);
         var ref = referenceData[index];
         return ref != NO_VALUE ? ref : intData[index];
     }
 
-    public synchronized void set(String fieldName, Object value) {
-        ensureUpToDateLayout();
-        var index = layout.fieldIndex(fieldName);
-        if (index < 0) {
-            throw RuntimeError.message("no such field: " + fieldName);
-        }
-        if (value instanceof Integer) {
+    /**
+     * Set the value of the field with the specified index in the current
+     * layout, whatever the storage of the object. Does not lock the stamp.
+     */
+    void setAt(int index, Object value) {
+        if (storage != null) {
+            storage.set(index, value);
+        } else if (value instanceof Integer) {
             referenceData[index] = NO_VALUE;
             intData[index] = (Integer) value;
         } else {
             referenceData[index] = value;
         }
     }
+
+    private static final VarHandle STAMP;
+    static {
+        try {
+            STAMP = MethodHandles.lookup().findVarHandle(FixedObject.class, "stamp", int.class);
+        } catch (NoSuchFieldException | IllegalAccessException e) {
+            throw new AssertionError(e);
+        }
+    }
 }
@@ -13,9 +13,30 @@ import java.util.concurrent.locks.ReentrantLock;
  */
 public class FixedObjectDefinition {
 
-    private FixedObjectLayout layout;
     /**
-     * Guards all access to this object and the stability of its layout. An
+     * How objects following a definition store their field values.
+     */
+    public enum Storage {
+        /**
+         * In an array of references and an array of ints, each with a slot
+         * for every field. Int values are stored unboxed.
+         */
+        ARRAYS,
+        /**
+         * In an instance of a class generated for the layout, with a field of
+         * type {@code Object} for every field. Field access sites read and
+         * write those fields directly. Int values are stored boxed. Takes less
+         * memory than {@link #ARRAYS}, but every access goes through the
+         * storage object, so it is not the default. See {@link LayoutStorage}.
+         */
+        LAYOUT_CLASS
+    }
+
+    private final Storage storage;
+    /** Written under the lock, but read without it. */
+    private volatile FixedObjectLayout layout;
+    /**
+     * Guards all changes of this object and the stability of its layout. An
      * explicit lock is used instead of the intrinsic monitor to support
      * transactional atomic modifications when a FixedObjectDefinition is a
      * foundation of a class, and a modification affects multiple classes in a
@@ -24,25 +45,24 @@ public class FixedObjectDefinition {
     private final Lock lock = new ReentrantLock();
 
     public FixedObjectDefinition(List<String> fieldNames) {
-        this.layout = new FixedObjectLayout(fieldNames);
+        this(fieldNames, Storage.ARRAYS);
+    }
+
+    public FixedObjectDefinition(List<String> fieldNames, Storage storage) {
+        this.storage = storage;
+        this.layout = new FixedObjectLayout(fieldNames, storage);
+    }
+
+    public Storage storage() {
+        return storage;
     }
 
     public FixedObjectLayout layout() {
-        lock();
-        try {
-            return layout;
-        } finally {
-            unlock();
-        }
+        return layout;
     }
 
     public List<String> fieldNames() {
-        lock();
-        try {
-            return layout.fieldNames();
-        } finally {
-            unlock();
-        }
+        return layout.fieldNames();
     }
 
     public void setFieldNames(List<String> fieldNames) {
@@ -50,7 +70,7 @@ public class FixedObjectDefinition {
         try {
             if (layout.fieldNames().equals(fieldNames)) return;
             var oldLayout = layout;
-            layout = new FixedObjectLayout(fieldNames);
+            layout = new FixedObjectLayout(fieldNames, storage);
             SwitchPoint.invalidateAll(new SwitchPoint[] {oldLayout.switchPoint()});
         } finally {
             unlock();
@@ -2,12 +2,16 @@
 
 package com.github.vassilibykov.trifle.object;
 
+import org.jetbrains.annotations.Nullable;
+
+import java.lang.invoke.MethodHandle;
 import java.lang.invoke.SwitchPoint;
 import java.util.ArrayList;
 import java.util.Collections;
-import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * An immutable snapshot of the field-name-to-index mapping of a
@@ -16,14 +20,16 @@ import java.util.Map;
 class FixedObjectLayout {
 
     static class Migrator {
+        private final FixedObjectLayout newLayout;
         private final int newSize;
         private final int[] oldToNewMap;
 
         private Migrator(FixedObjectLayout oldLayout, FixedObjectLayout newLayout) {
+            this.newLayout = newLayout;
             this.newSize = newLayout.size();
             this.oldToNewMap = new int[oldLayout.size()];
-            for (var entry : oldLayout.fieldIndices.entrySet()) {
-                this.oldToNewMap[entry.getValue()] = newLayout.fieldIndex(entry.getKey());
+            for (int i = 0; i < oldToNewMap.length; i++) {
+                this.oldToNewMap[i] = newLayout.fieldIndex(oldLayout.fieldNames.get(i));
             }
         }
 
@@ -44,26 +50,65 @@ class FixedObjectLayout {
             }
             return newData;
         }
+
+        LayoutStorage migrate(LayoutStorage oldStorage) {
+            var newStorage = newLayout.newStorage();
+            for (int i = 0; i < oldToNewMap.length; i++) {
+                var newIndex = oldToNewMap[i];
+                if (newIndex >= 0) newStorage.set(newIndex, oldStorage.get(i));
+            }
+            return newStorage;
+        }
     }
 
+    private static final AtomicInteger serialNumberCounter = new AtomicInteger();
+
     /*
         Instance
      */
 
     /** Field names, in the order they appears in data arrays of objects with this layout. */
     private final List<String> fieldNames;
-    /** A map from a field name to a field index for all field names. */
-    private final Map<String, Integer> fieldIndices;
+    /**
+     * An open-addressed hash table of field names, with linear probing. Its
+     * size is a power of 2 at least twice the number of fields, so it always
+     * has empty slots.
+     */
+    private final String[] indexedNames;
+    /** The field indices of the names in the same slots of {@link #indexedNames}. */
+    private final int[] fieldIndices;
+    /** Distinguishes this layout from others in per-site field index caches. */
+    private final int serialNumber;
+    /**
+     * An empty instance of the storage class of objects with this layout if
+     * its definition uses {@link FixedObjectDefinition.Storage#LAYOUT_CLASS}
+     * storage, otherwise null.
+     */
+    @Nullable private final LayoutStorage storagePrototype;
     /** Guards all dependent access sites; invalidated once this layout is no longer the current one. */
     private final SwitchPoint switchPoint;
-    private final Map<FixedObjectLayout, Migrator> migrators = new HashMap<>();
+    private final Map<FixedObjectLayout, Migrator> migrators = new ConcurrentHashMap<>();
 
     FixedObjectLayout(List<String> fieldNames) {
+        this(fieldNames, FixedObjectDefinition.Storage.ARRAYS);
+    }
+
+    FixedObjectLayout(List<String> fieldNames, FixedObjectDefinition.Storage storage) {
         this.fieldNames = Collections.unmodifiableList(new ArrayList<>(fieldNames));
-        this.fieldIndices = new HashMap<>();
+        var tableSize = Integer.highestOneBit(Math.max(1, this.fieldNames.size()) * 2 - 1) << 1;
+        this.indexedNames = new String[tableSize];
+        this.fieldIndices = new int[tableSize];
         for (int i = 0; i < this.fieldNames.size(); i++) {
-            fieldIndices.put(this.fieldNames.get(i), i);
+            var name = this.fieldNames.get(i);
+            var slot = name.hashCode() & (tableSize - 1);
+            while (indexedNames[slot] != null) slot = (slot + 1) & (tableSize - 1);
+            indexedNames[slot] = name;
+            fieldIndices[slot] = i;
         }
+        this.serialNumber = serialNumberCounter.incrementAndGet();
+        this.storagePrototype = storage == FixedObjectDefinition.Storage.LAYOUT_CLASS
+            ? LayoutStorage.prototype(this.fieldNames.size())
+            : null;
         this.switchPoint = new SwitchPoint();
     }
 
@@ -76,8 +121,48 @@ class FixedObjectLayout {
     }
 
     public int fieldIndex(String name) {
-        var index = fieldIndices.get(name);
-        return index != null ? index : -1;
+        var mask = indexedNames.length - 1;
+        for (int slot = name.hashCode() & mask; ; slot = (slot + 1) & mask) {
+            var indexedName = indexedNames[slot];
+            if (indexedName == null) return -1;
+            if (indexedName.equals(name)) return fieldIndices[slot];
+        }
+    }
+
+    int serialNumber() {
+        return serialNumber;
+    }
+
+    boolean hasStorageClass() {
+        return storagePrototype != null;
+    }
+
+    /**
+     * Return a new empty storage object for an object with this layout. Valid
+     * only if the layout {@link #hasStorageClass()}.
+     */
+    LayoutStorage newStorage() {
+        return storagePrototype.newInstance();
+    }
+
+    /**
+     * Return a method handle of type {@code (Object) -> Object} reading the
+     * field with the specified index directly from the storage object of a
+     * {@link FixedObject} with this layout. Valid only if the layout {@link
+     * #hasStorageClass()}.
+     */
+    MethodHandle storageGetter(int index) {
+        return LayoutStorage.getter(size(), index);
+    }
+
+    /**
+     * Return a method handle of type {@code (Object Object) -> void} writing
+     * the field with the specified index directly into the storage object of
+     * a {@link FixedObject} with this layout. Valid only if the layout {@link
+     * #hasStorageClass()}.
+     */
+    MethodHandle storageSetter(int index) {
+        return LayoutStorage.setter(size(), index);
     }
 
     SwitchPoint switchPoint() {
@@ -0,0 +1,71 @@
+// Copyright (c) 2018 Vassili Bykov. Licensed under the Apache License, Version 2.0.
+
+package com.github.vassilibykov.trifle.object;
+
+import org.jetbrains.annotations.Nullable;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodType;
+import java.lang.invoke.SwitchPoint;
+
+/**
+ * A runtime-wide cache of message send invokers, used by send sites in the
+ * megamorphic state instead of a full selector lookup. Like the global method
+ * cache of a Smalltalk VM, it is a fixed-size table indexed by a hash of the
+ * receiver's behavior token and the selector. A new entry simply replaces
+ * whatever entry was at its index. An entry also records the type of the
+ * call site it was created for, because the invoker is adapted to that type,
+ * and the invalidation switch point of the receiver at the time of the
+ * lookup. An entry whose switch point has been invalidated is treated as a
+ * miss.
+ *
+ * <p>Entries are immutable and the table is not synchronized. A racing
+ * update may cause a lost entry, but never an inconsistent one.
+ */
+final class GlobalMethodCache {
+    private static final int SIZE = 1024; // must be a power of 2
+    private static final Entry[] entries = new Entry[SIZE];
+
+    private GlobalMethodCache() {}
+
+    private static class Entry {
+        private final Object behaviorToken;
+        private final String selector;
+        private final MethodType type;
+        private final SwitchPoint switchPoint;
+        private final MethodHandle invoker;
+
+        private Entry(Object behaviorToken, String selector, MethodType type, SwitchPoint switchPoint, MethodHandle invoker) {
+            this.behaviorToken = behaviorToken;
+            this.selector = selector;
+            this.type = type;
+            this.switchPoint = switchPoint;
+            this.invoker = invoker;
+        }
+    }
+
+    /**
+     * Return an invoker of the specified call site type of the method the
+     * receiver has for the selector, or null if there is no such method.
+     */
+    @Nullable static MethodHandle lookup(MessageReceiver receiver, String selector, MethodType type) {
+        var behaviorToken = receiver.behaviorToken();
+        var index = (System.identityHashCode(behaviorToken) * 31 + selector.hashCode()) & (SIZE - 1);
+        var entry = entries[index];
+        if (entry != null
+            && entry.behaviorToken == behaviorToken
+            && entry.type.equals(type)
+            && entry.selector.equals(selector)
+            && !entry.switchPoint.hasBeenInvalidated())
+        {
+            return entry.invoker;
+        }
+        // Get the switch point first, so that an entry made stale by a concurrent change is invalidated.
+        var switchPoint = receiver.invalidationSwitchPoint();
+        var method = receiver.lookupSelector(selector);
+        if (!method.isPresent()) return null;
+        var invoker = method.get().invoker(type);
+        entries[index] = new Entry(behaviorToken, selector, type, switchPoint, invoker);
+        return invoker;
+    }
+}
@@ -0,0 +1,211 @@
+// Copyright (c) 2018 Vassili Bykov. Licensed under the Apache License, Version 2.0.
+
+package com.github.vassilibykov.trifle.object;
+
+import com.github.vassilibykov.trifle.core.GhostWriter;
+import org.objectweb.asm.ClassWriter;
+import org.objectweb.asm.Label;
+import org.objectweb.asm.MethodVisitor;
+import org.objectweb.asm.Opcodes;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.util.Arrays;
+
+import static org.objectweb.asm.Opcodes.*;
+
+/**
+ * The field values of a {@link FixedObject} whose definition uses {@link
+ * FixedObjectDefinition.Storage#LAYOUT_CLASS} storage. Concrete subclasses
+ * are generated at run time as hidden classes with one field of type {@code
+ * Object} per field of a layout, named {@code f0}, {@code f1} and so on. The
+ * classes only depend on the number of fields, so all layouts of the same
+ * size share one.
+ *
+ * <p>Field access sites read and write the fields directly, using the
+ * handles produced by {@link #getter(int, int)} and {@link #setter(int,
+ * int)}. The abstract methods of this class are for the generic and
+ * megamorphic paths, and for migration of objects to a new layout.
+ */
+abstract class LayoutStorage {
+
+    /**
+     * A generated storage class of a particular size, with an empty instance
+     * to create new instances from and the field access handles.
+     */
+    private static class StorageClass {
+        private final LayoutStorage prototype;
+        /** Of type {@code (Object) -> Object}, taking a {@link FixedObject}. */
+        private final MethodHandle[] getters;
+        /** Of type {@code (Object Object) -> void}, taking a {@link FixedObject}. */
+        private final MethodHandle[] setters;
+
+        private StorageClass(int size) {
+            try {
+                var lookup = MethodHandles.lookup().defineHiddenClass(generate(size), true);
+                var storageClass = lookup.lookupClass();
+                prototype = (LayoutStorage) lookup.findConstructor(storageClass, MethodType.methodType(void.class)).invoke();
+                getters = new MethodHandle[size];
+                setters = new MethodHandle[size];
+                for (int i = 0; i < size; i++) {
+                    var getter = lookup.findGetter(storageClass, fieldName(i), Object.class)
+                        .asType(MethodType.methodType(Object.class, LayoutStorage.class));
+                    getters[i] = MethodHandles.filterArguments(getter, 0, STORAGE)
+                        .asType(MethodType.genericMethodType(1));
+                    var setter = lookup.findSetter(storageClass, fieldName(i), Object.class)
+                        .asType(MethodType.methodType(void.class, LayoutStorage.class, Object.class));
+                    setters[i] = MethodHandles.filterArguments(setter, 0, STORAGE)
+                        .asType(MethodType.methodType(void.class, Object.class, Object.class));
+                }
+            } catch (Throwable e) {
+                throw new AssertionError(e);
+            }
+        }
+    }
+
+    /** Storage classes by size, created on demand. Guarded by the class monitor. */
+    private static StorageClass[] storageClasses = new StorageClass[16];
+
+    private static synchronized StorageClass storageClass(int size) {
+        if (size >= storageClasses.length) {
+            storageClasses = Arrays.copyOf(storageClasses, Math.max(size + 1, storageClasses.length * 2));
+        }
+        var storageClass = storageClasses[size];
+        if (storageClass == null) {
+            storageClass = new StorageClass(size);
+            storageClasses[size] = storageClass;
+        }
+        return storageClass;
+    }
+
+    /**
+     * Return an empty instance of the storage class of the specified size.
+     * Its {@link #newInstance()} method creates more.
+     */
+    static LayoutStorage prototype(int size) {
+        return storageClass(size).prototype;
+    }
+
+    /**
+     * Return a method handle of type {@code (Object) -> Object} which reads
+     * the field with the specified index of a {@link FixedObject} with
+     * storage of the specified size.
+     */
+    static MethodHandle getter(int size, int index) {
+        return storageClass(size).getters[index];
+    }
+
+    /**
+     * Return a method handle of type {@code (Object Object) -> void} which
+     * writes the field with the specified index of a {@link FixedObject} with
+     * storage of the specified size.
+     */
+    static MethodHandle setter(int size, int index) {
+        return storageClass(size).setters[index];
+    }
+
+    private static String fieldName(int index) {
+        return "f" + index;
+    }
+
+    private static byte[] generate(int size) {
+        var className = GhostWriter.internalClassName(LayoutStorage.class) + size;
+        var superclassName = GhostWriter.internalClassName(LayoutStorage.class);
+        var objectDescriptor = "Ljava/lang/Object;";
+        var classWriter = new ClassWriter(ClassWriter.COMPUTE_FRAMES);
+        classWriter.visit(Opcodes.V9, ACC_FINAL | ACC_SUPER, className, null, superclassName, null);
+        for (int i = 0; i < size; i++) {
+            classWriter.visitField(0, fieldName(i), objectDescriptor, null, null).visitEnd();
+        }
+
+        var init = classWriter.visitMethod(0, "<init>", "()V", null, null);
+        init.visitCode();
+        init.visitVarInsn(ALOAD, 0);
+        init.visitMethodInsn(INVOKESPECIAL, superclassName, "<init>", "()V", false);
+        init.visitInsn(RETURN);
+        init.visitMaxs(0, 0);
+        init.visitEnd();
+
+        var newInstance = classWriter.visitMethod(0, "newInstance", "()L" + superclassName + ";", null, null);
+        newInstance.visitCode();
+        newInstance.visitTypeInsn(NEW, className);
+        newInstance.visitInsn(DUP);
+        newInstance.visitMethodInsn(INVOKESPECIAL, className, "<init>", "()V", false);
+        newInstance.visitInsn(ARETURN);
+        newInstance.visitMaxs(0, 0);
+        newInstance.visitEnd();
+
+        var get = classWriter.visitMethod(0, "get", "(I)" + objectDescriptor, null, null);
+        get.visitCode();
+        var getCases = switchOnIndex(get, size);
+        for (int i = 0; i < size; i++) {
+            get.visitLabel(getCases[i]);
+            get.visitVarInsn(ALOAD, 0);
+            get.visitFieldInsn(GETFIELD, className, fieldName(i), objectDescriptor);
+            get.visitInsn(ARETURN);
+        }
+        get.visitMaxs(0, 0);
+        get.visitEnd();
+
+        var set = classWriter.visitMethod(0, "set", "(I" + objectDescriptor + ")V", null, null);
+        set.visitCode();
+        var setCases = switchOnIndex(set, size);
+        for (int i = 0; i < size; i++) {
+            set.visitLabel(setCases[i]);
+            set.visitVarInsn(ALOAD, 0);
+            set.visitVarInsn(ALOAD, 2);
+            set.visitFieldInsn(PUTFIELD, className, fieldName(i), objectDescriptor);
+            set.visitInsn(RETURN);
+        }
+        set.visitMaxs(0, 0);
+        set.visitEnd();
+
+        classWriter.visitEnd();
+        return classWriter.toByteArray();
+    }
+
+    /**
+     * Generate a switch on the int in local 1, throwing an {@link
+     * IndexOutOfBoundsException} if it's not a valid field index. Return the
+     * labels of the cases, to be generated by the caller.
+     */
+    private static Label[] switchOnIndex(MethodVisitor method, int size) {
+        var cases = new Label[size];
+        for (int i = 0; i < size; i++) cases[i] = new Label();
+        var outOfBounds = new Label();
+        if (size > 0) {
+            method.visitVarInsn(ILOAD, 1);
+            method.visitTableSwitchInsn(0, size - 1, outOfBounds, cases);
+        }
+        method.visitLabel(outOfBounds);
+        var exceptionClass = GhostWriter.internalClassName(IndexOutOfBoundsException.class);
+        method.visitTypeInsn(NEW, exceptionClass);
+        method.visitInsn(DUP);
+        method.visitMethodInsn(INVOKESPECIAL, exceptionClass, "<init>", "()V", false);
+        method.visitInsn(ATHROW);
+        return cases;
+    }
+
+    private static final MethodHandle STORAGE;
+    static {
+        try {
+            STORAGE = MethodHandles.lookup()
+                .findGetter(FixedObject.class, "storage", LayoutStorage.class)
+                .asType(MethodType.methodType(LayoutStorage.class, Object.class));
+        } catch (NoSuchFieldException | IllegalAccessException e) {
+            throw new AssertionError(e);
+        }
+    }
+
+    /*
+        Instance
+     */
+
+    /** Return a new instance of the same class, with all fields null. */
+    abstract LayoutStorage newInstance();
+
+    abstract Object get(int index);
+
+    abstract void set(int index, Object value);
+}
@@ -5,6 +5,7 @@ package com.github.vassilibykov.trifle.object;
 import com.github.vassilibykov.trifle.core.GhostWriter;
 import com.github.vassilibykov.trifle.core.InlineCachingCallSite;
 import com.github.vassilibykov.trifle.core.Invocable;
+import com.github.vassilibykov.trifle.core.SpreadInvokers;
 import org.objectweb.asm.Handle;
 import org.objectweb.asm.Opcodes;
 
@@ -97,7 +98,41 @@ public class MessageSendInvokeDynamic {
         var selector = extractSelector(indyName);
         var handler = DISPATCH.bindTo(selector);
         handler = handler.asCollector(Object[].class, callSiteType.parameterCount());
-        return new InlineCachingCallSite(callSiteType, handler);
+        return new InlineCachingCallSite(callSiteType, handler, megamorphicHandler(selector, callSiteType));
+    }
+
+    /**
+     * Return the megamorphic dispatch method of a site of the specified type,
+     * which has an extra leading parameter of the site itself. It looks up the
+     * invoker in the {@link GlobalMethodCache} using the receiver and invokes
+     * it with the original arguments, without collecting them into an array.
+     * In Java terms, it is
+     *
+     * <pre>{@code
+     * (site, receiver, args...) -> megamorphicLookup(selector, site, receiver).invokeExact(receiver, args...)
+     * }</pre>
+     */
+    private static MethodHandle megamorphicHandler(String selector, MethodType callSiteType) {
+        var invoke = MethodHandles.dropArguments(
+            MethodHandles.exactInvoker(callSiteType), 1, InlineCachingCallSite.class);
+        var lookup = MEGAMORPHIC_LOOKUP.bindTo(selector)
+            .asType(MethodType.methodType(MethodHandle.class, InlineCachingCallSite.class, callSiteType.parameterType(0)));
+        return MethodHandles.foldArguments(invoke, lookup);
+    }
+
+    /**
+     * Return the invoker to use for a send with the specified receiver at a
+     * megamorphic site. If the receiver is a {@link MessageReceiver} which
+     * understands the selector, that is the invoker from the global method
+     * cache. Otherwise it is the original dispatch method of the site, which
+     * handles strange receivers and messages not understood.
+     */
+    private static MethodHandle megamorphicLookup(String selector, InlineCachingCallSite thisSite, Object receiver) {
+        if (receiver instanceof MessageReceiver) {
+            var invoker = GlobalMethodCache.lookup((MessageReceiver) receiver, selector, thisSite.type());
+            if (invoker != null) return invoker;
+        }
+        return thisSite.dispatchInvoker();
     }
 
     public static Object dispatch(String selector, InlineCachingCallSite thisSite, Object[] args) throws Throwable {
@@ -130,13 +165,13 @@ public class MessageSendInvokeDynamic {
             // as ints. We can work around this by allowing a dispatcher extension to supply
             // a custom cache guard.
             thisSite.setTarget(invoker.asType(thisSite.type()));
-            return invoker.invokeWithArguments(args);
+            return SpreadInvokers.invoke(invoker, args);
         } else {
             cacheGuard = firstArg == null ? CHECK_NULL : CHECK_CLASS.bindTo(firstArg.getClass());
             flushableInvoker = invoker;
         }
         thisSite.addCacheEntry(cacheGuard, flushableInvoker);
-        return invoker.invokeWithArguments(args);
+        return SpreadInvokers.invoke(invoker, args);
     }
 
     private static boolean checkBehavior(Object expectedToken, Object receiver) {
@@ -159,6 +194,7 @@ public class MessageSendInvokeDynamic {
     }
 
     private static final MethodHandle DISPATCH;
+    private static final MethodHandle MEGAMORPHIC_LOOKUP;
     private static final MethodHandle CHECK_BEHAVIOR;
     private static final MethodHandle CHECK_CLASS;
     private static final MethodHandle CHECK_NULL;
@@ -169,6 +205,10 @@ public class MessageSendInvokeDynamic {
                 MessageSendInvokeDynamic.class,
                 "dispatch",
                 MethodType.methodType(Object.class, String.class, InlineCachingCallSite.class, Object[].class));
+            MEGAMORPHIC_LOOKUP = lookup.findStatic(
+                MessageSendInvokeDynamic.class,
+                "megamorphicLookup",
+                MethodType.methodType(MethodHandle.class, String.class, InlineCachingCallSite.class, Object.class));
             CHECK_BEHAVIOR = lookup.findStatic(
                 MessageSendInvokeDynamic.class,
                 "checkBehavior",
@@ -2,44 +2,33 @@
 
 package com.github.vassilibykov.trifle.primitive;
 
-import com.github.vassilibykov.trifle.core.ExpressionType;
 import com.github.vassilibykov.trifle.core.GhostWriter;
 import com.github.vassilibykov.trifle.core.JvmType;
 import com.github.vassilibykov.trifle.core.RuntimeError;
 
 import static com.github.vassilibykov.trifle.core.JvmType.INT;
+import static org.objectweb.asm.Opcodes.DADD;
 import static org.objectweb.asm.Opcodes.IADD;
+import static org.objectweb.asm.Opcodes.LADD;
 
 /**
- * Integer addition with the semantics of Java {@code +}
- * (overflow by wrapping around).
+ * Addition with the semantics of Java {@code +} (integer overflow by
+ * wrapping around) on ints, longs and doubles.
  */
-public class Add extends Primitive2 {
+public class Add extends ArithmeticPrimitive2 {
 
-    @Override
-    public ExpressionType inferredType(ExpressionType argument1Type, ExpressionType argument2Type) {
-        return ExpressionType.known(INT);
+    public Add() {
+        super(IADD, LADD, DADD, "add");
     }
 
     @Override
     public Object apply(Object arg1, Object arg2) {
-        try {
-            return (Integer) arg1 + (Integer) arg2;
-        } catch (ClassCastException e) {
-            throw RuntimeError.integerExpected();
-        }
-    }
-
-    @Override
-    protected JvmType generateForReferenceReference(GhostWriter writer) {
-        writer.invokeStatic(Add.class, "add", int.class, Object.class, Object.class);
-        return INT;
+        return add(arg1, arg2);
     }
 
     @Override
-    protected JvmType generateForReferenceInt(GhostWriter writer) {
-        writer.invokeStatic(Add.class, "add", int.class, Object.class, int.class);
-        return INT;
+    public int applyToInts(int arg1, int arg2) {
+        return arg1 + arg2;
     }
 
     @Override
@@ -48,18 +37,6 @@ public class Add extends Primitive2 {
         return INT;
     }
 
-    @Override
-    protected JvmType generateForIntReference(GhostWriter writer) {
-        writer.invokeStatic(Add.class, "add", int.class, int.class, Object.class);
-        return INT;
-    }
-
-    @Override
-    protected JvmType generateForIntInt(GhostWriter writer) {
-        writer.asm().visitInsn(IADD);
-        return INT;
-    }
-
     @Override
     protected JvmType generateForIntBoolean(GhostWriter writer) {
         writer.throwError("cannot add a boolean");
@@ -85,29 +62,11 @@ public class Add extends Primitive2 {
     }
 
     @SuppressWarnings("unused") // called by generated code
-    public static int add(Object arg1, Object arg2) {
-        try {
-            return (Integer) arg1 + (Integer) arg2;
-        } catch (ClassCastException e) {
-            throw RuntimeError.integerExpected();
-        }
-    }
-
-    @SuppressWarnings("unused") // called by generated code
-    public static int add(Object arg1, int arg2) {
-        try {
-            return (Integer) arg1 + arg2;
-        } catch (ClassCastException e) {
-            throw RuntimeError.integerExpected();
-        }
-    }
-
-    @SuppressWarnings("unused") // called by generated code
-    public static int add(int arg1, Object arg2) {
-        try {
-            return arg1 + (Integer) arg2;
-        } catch (ClassCastException e) {
-            throw RuntimeError.integerExpected();
-        }
+    public static Object add(Object arg1, Object arg2) {
+        if (arg1 instanceof Integer && arg2 instanceof Integer) return (Integer) arg1 + (Integer) arg2;
+        var type = Numbers.promotedType(arg1, arg2);
+        if (type == JvmType.LONG) return ((Number) arg1).longValue() + ((Number) arg2).longValue();
+        if (type == JvmType.DOUBLE) return ((Number) arg1).doubleValue() + ((Number) arg2).doubleValue();
+        throw RuntimeError.numberExpected(arg1, arg2);
     }
 }
@@ -0,0 +1,91 @@
+// Copyright (c) 2018 Vassili Bykov. Licensed under the Apache License, Version 2.0.
+
+package com.github.vassilibykov.trifle.primitive;
+
+import com.github.vassilibykov.trifle.core.ExpressionType;
+import com.github.vassilibykov.trifle.core.GhostWriter;
+import com.github.vassilibykov.trifle.core.JvmType;
+
+import static com.github.vassilibykov.trifle.core.JvmType.DOUBLE;
+import static com.github.vassilibykov.trifle.core.JvmType.INT;
+import static com.github.vassilibykov.trifle.core.JvmType.LONG;
+import static com.github.vassilibykov.trifle.core.JvmType.REFERENCE;
+
+/**
+ * The abstract superclass of binary arithmetic primitives. The operations are
+ * defined on {@code int}, {@code long} and {@code double} values with the
+ * semantics of the corresponding Java operators, with operands of different
+ * types promoted as described in {@link Numbers}. When both operands are
+ * known to be of the same primitive type, the operation compiles into a
+ * single instruction. Any other combination is handled by a static method of
+ * the subclass, which accepts and returns wrapped values.
+ */
+public abstract class ArithmeticPrimitive2 extends Primitive2 {
+    private final int intOpcode;
+    private final int longOpcode;
+    private final int doubleOpcode;
+    private final String genericMethodName;
+
+    /**
+     * Create an instance.
+     *
+     * @param intOpcode The instruction performing the operation on ints.
+     * @param longOpcode The instruction performing the operation on longs.
+     * @param doubleOpcode The instruction performing the operation on doubles.
+     * @param genericMethodName The name of a public static method of the
+     *        subclass with the signature {@code (Object, Object)Object}
+     *        implementing the operation on wrapped values.
+     */
+    protected ArithmeticPrimitive2(int intOpcode, int longOpcode, int doubleOpcode, String genericMethodName) {
+        this.intOpcode = intOpcode;
+        this.longOpcode = longOpcode;
+        this.doubleOpcode = doubleOpcode;
+        this.genericMethodName = genericMethodName;
+    }
+
+    @Override
+    public ExpressionType inferredType(ExpressionType argument1Type, ExpressionType argument2Type) {
+        return Numbers.inferredResultType(argument1Type, argument2Type);
+    }
+
+    @Override
+    public boolean isIntOperation() {
+        return true;
+    }
+
+    @Override
+    protected JvmType generateForReferenceReference(GhostWriter writer) {
+        writer.invokeStatic(getClass(), genericMethodName, Object.class, Object.class, Object.class);
+        return REFERENCE;
+    }
+
+    @Override
+    protected JvmType generateForReferenceInt(GhostWriter writer) {
+        writer.wrapInteger();
+        return generateForReferenceReference(writer);
+    }
+
+    @Override
+    protected JvmType generateForIntReference(GhostWriter writer) {
+        writer.wrapUnderTop(INT);
+        return generateForReferenceReference(writer);
+    }
+
+    @Override
+    protected JvmType generateForIntInt(GhostWriter writer) {
+        writer.asm().visitInsn(intOpcode);
+        return INT;
+    }
+
+    @Override
+    protected JvmType generateForLongLong(GhostWriter writer) {
+        writer.asm().visitInsn(longOpcode);
+        return LONG;
+    }
+
+    @Override
+    protected JvmType generateForDoubleDouble(GhostWriter writer) {
+        writer.asm().visitInsn(doubleOpcode);
+        return DOUBLE;
+    }
+}
@@ -19,8 +19,10 @@ import static com.github.vassilibykov.trifle.core.JvmType.REFERENCE;
 
 /**
  * Object equivalence, generally in the sense of {@code ==}. Exceptions are
- * comparisons of Integer and Boolean wrapper instances, which should be
- * indistinguishable from comparing their underlying primitive values.
+ * comparisons of Integer, Long, Double and Boolean wrapper instances, which
+ * should be indistinguishable from comparing their underlying primitive
+ * values. Doubles are compared as by {@link Double#equals(Object)}, and
+ * numbers of different types are never equal.
  */
 public class EQ extends Primitive2 implements IfAware {
 
@@ -31,13 +33,22 @@ public class EQ extends Primitive2 implements IfAware {
 
     @Override
     public Object apply(Object argument1, Object argument2) {
-        if (argument1 instanceof Integer || argument1 instanceof Boolean) {
+        if (argument1 instanceof Integer
+            || argument1 instanceof Boolean
+            || argument1 instanceof Long
+            || argument1 instanceof Double)
+        {
             return Objects.equals(argument1, argument2);
         } else {
             return argument1 == argument2;
         }
     }
 
+    @Override
+    public Object apply(int argument1, int argument2) {
+        return argument1 == argument2;
+    }
+
     @Override
     protected JvmType generateForReferenceReference(GhostWriter writer) {
         writer.invokeStatic(Objects.class, "equals", boolean.class, Object.class, Object.class);
@@ -98,6 +109,19 @@ public class EQ extends Primitive2 implements IfAware {
         return BOOL;
     }
 
+    @Override
+    protected JvmType generateForLongLong(GhostWriter writer) {
+        Numbers.generateComparison(writer, Opcodes.LCMP, Opcodes.IFNE);
+        return BOOL;
+    }
+
+    @Override
+    protected JvmType generateForDoubleDouble(GhostWriter writer) {
+        writer.invokeStatic(Double.class, "compare", int.class, double.class, double.class);
+        Numbers.generateTest(writer, Opcodes.IFNE);
+        return BOOL;
+    }
+
     private void generateCompareInts(GhostWriter writer) {
         writer.withLabelAtEnd(end -> {
             var notEqual = new Label();
@@ -16,7 +16,8 @@ import static com.github.vassilibykov.trifle.core.JvmType.BOOL;
 import static com.github.vassilibykov.trifle.core.JvmType.INT;
 
 /**
- * A greater-than comparison of integers.
+ * A greater-than comparison of numbers. Operands of different types are
+ * promoted as described in {@link Numbers}.
  */
 public class GT extends Primitive2 implements IfAware {
     @Override
@@ -26,11 +27,12 @@ public class GT extends Primitive2 implements IfAware {
 
     @Override
     public Object apply(Object argument1, Object argument2) {
-        try {
-            return (Integer) argument1 > (Integer) argument2;
-        } catch (ClassCastException e) {
-            throw RuntimeError.integerExpected(argument1, argument2);
-        }
+        return greaterThan(argument1, argument2);
+    }
+
+    @Override
+    public Object apply(int argument1, int argument2) {
+        return argument1 > argument2;
     }
 
     @Override
@@ -87,6 +89,18 @@ public class GT extends Primitive2 implements IfAware {
         return BOOL;
     }
 
+    @Override
+    protected JvmType generateForLongLong(GhostWriter writer) {
+        Numbers.generateComparison(writer, Opcodes.LCMP, Opcodes.IFLE);
+        return BOOL;
+    }
+
+    @Override
+    protected JvmType generateForDoubleDouble(GhostWriter writer) {
+        Numbers.generateComparison(writer, Opcodes.DCMPL, Opcodes.IFLE);
+        return BOOL;
+    }
+
     @Override
     public Optional<OptimizedIfForm> optimizedFormFor(PrimitiveNode ifCondition) {
         var primitive = (Primitive2Node) ifCondition; // cast must succeed
@@ -101,17 +115,21 @@ public class GT extends Primitive2 implements IfAware {
 
     @SuppressWarnings("unused") // called by generated code
     public static boolean greaterThan(Object a, Object b) {
-        return (Integer) a > (Integer) b;
+        if (a instanceof Integer && b instanceof Integer) return (Integer) a > (Integer) b;
+        var type = Numbers.promotedType(a, b);
+        if (type == JvmType.LONG) return ((Number) a).longValue() > ((Number) b).longValue();
+        if (type == JvmType.DOUBLE) return ((Number) a).doubleValue() > ((Number) b).doubleValue();
+        throw RuntimeError.numberExpected(a, b);
     }
 
     @SuppressWarnings("unused") // called by generated code
     public static boolean greaterThan(Object a, int b) {
-        return (Integer) a > b;
+        return a instanceof Integer ? (Integer) a > b : greaterThan(a, (Object) b);
     }
 
     @SuppressWarnings("unused") // called by generated code
     public static boolean greaterThan(int a, Object b) {
-        return a > (Integer) b;
+        return b instanceof Integer ? a > (Integer) b : greaterThan((Object) a, b);
     }
 
     @SuppressWarnings("unused") // called by generated code
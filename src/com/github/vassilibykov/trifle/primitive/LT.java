@@ -17,7 +17,8 @@ import static com.github.vassilibykov.trifle.core.JvmType.BOOL;
 import static com.github.vassilibykov.trifle.core.JvmType.INT;
 
 /**
- * A less-than comparison of integers.
+ * A less-than comparison of numbers. Operands of different types are
+ * promoted as described in {@link Numbers}.
  */
 public class LT extends Primitive2 implements IfAware {
 
@@ -28,11 +29,12 @@ public class LT extends Primitive2 implements IfAware {
 
     @Override
     public Object apply(Object arg1, Object arg2) {
-        try {
-            return (Integer) arg1 < (Integer) arg2;
-        } catch (ClassCastException e) {
-            throw RuntimeError.integerExpected(arg1, arg2);
-        }
+        return lessThan(arg1, arg2);
+    }
+
+    @Override
+    public Object apply(int arg1, int arg2) {
+        return arg1 < arg2;
     }
 
     @Override
@@ -89,6 +91,18 @@ public class LT extends Primitive2 implements IfAware {
         return BOOL;
     }
 
+    @Override
+    protected JvmType generateForLongLong(GhostWriter writer) {
+        Numbers.generateComparison(writer, Opcodes.LCMP, Opcodes.IFGE);
+        return BOOL;
+    }
+
+    @Override
+    protected JvmType generateForDoubleDouble(GhostWriter writer) {
+        Numbers.generateComparison(writer, Opcodes.DCMPG, Opcodes.IFGE);
+        return BOOL;
+    }
+
     @Override
     public Optional<OptimizedIfForm> optimizedFormFor(PrimitiveNode ifCondition) {
         var primitive = (Primitive2Node) ifCondition; // cast must succeed
@@ -103,17 +117,21 @@ public class LT extends Primitive2 implements IfAware {
 
     @SuppressWarnings("unused") // called by generated code
     public static boolean lessThan(Object a, Object b) {
-        return (Integer) a < (Integer) b;
+        if (a instanceof Integer && b instanceof Integer) return (Integer) a < (Integer) b;
+        var type = Numbers.promotedType(a, b);
+        if (type == JvmType.LONG) return ((Number) a).longValue() < ((Number) b).longValue();
+        if (type == JvmType.DOUBLE) return ((Number) a).doubleValue() < ((Number) b).doubleValue();
+        throw RuntimeError.numberExpected(a, b);
     }
 
     @SuppressWarnings("unused") // called by generated code
     public static boolean lessThan(Object a, int b) {
-        return (Integer) a < b;
+        return a instanceof Integer ? (Integer) a < b : lessThan(a, (Object) b);
     }
 
     @SuppressWarnings("unused") // called by generated code
     public static boolean lessThan(int a, Object b) {
-        return a < (Integer) b;
+        return b instanceof Integer ? a < (Integer) b : lessThan((Object) a, b);
     }
 
     @SuppressWarnings("unused") // called by generated code
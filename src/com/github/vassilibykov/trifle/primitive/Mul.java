@@ -2,43 +2,33 @@
 
 package com.github.vassilibykov.trifle.primitive;
 
-import com.github.vassilibykov.trifle.core.ExpressionType;
 import com.github.vassilibykov.trifle.core.GhostWriter;
 import com.github.vassilibykov.trifle.core.JvmType;
 import com.github.vassilibykov.trifle.core.RuntimeError;
 
 import static com.github.vassilibykov.trifle.core.JvmType.INT;
-import static com.github.vassilibykov.trifle.core.JvmType.REFERENCE;
+import static org.objectweb.asm.Opcodes.DMUL;
 import static org.objectweb.asm.Opcodes.IMUL;
+import static org.objectweb.asm.Opcodes.LMUL;
 
 /**
- * Integer multiplication with the semantics of Java {@code *}.
+ * Multiplication with the semantics of Java {@code *} on ints, longs and
+ * doubles.
  */
-public class Mul extends Primitive2 {
-    @Override
-    public ExpressionType inferredType(ExpressionType argument1Type, ExpressionType argument2Type) {
-        return ExpressionType.known(INT);
-    }
+public class Mul extends ArithmeticPrimitive2 {
 
-    @Override
-    public Object apply(Object arg1, Object arg2) {
-        try {
-            return (Integer) arg1 * (Integer) arg2;
-        } catch (ClassCastException e) {
-            throw RuntimeError.integerExpected();
-        }
+    public Mul() {
+        super(IMUL, LMUL, DMUL, "mul");
     }
 
     @Override
-    protected JvmType generateForReferenceReference(GhostWriter writer) {
-        writer.invokeStatic(Mul.class, "mul", int.class, Object.class, Object.class);
-        return INT;
+    public Object apply(Object arg1, Object arg2) {
+        return mul(arg1, arg2);
     }
 
     @Override
-    protected JvmType generateForReferenceInt(GhostWriter writer) {
-        writer.invokeStatic(Mul.class, "mul", int.class, Object.class, int.class);
-        return INT;
+    public int applyToInts(int arg1, int arg2) {
+        return arg1 * arg2;
     }
 
     @Override
@@ -47,20 +37,6 @@ public class Mul extends Primitive2 {
         return INT;
     }
 
-    @Override
-    protected JvmType generateForIntReference(GhostWriter writer) {
-        writer
-            .adaptValue(REFERENCE, INT)
-            .asm().visitInsn(IMUL);
-        return INT;
-    }
-
-    @Override
-    protected JvmType generateForIntInt(GhostWriter writer) {
-        writer.asm().visitInsn(IMUL);
-        return INT;
-    }
-
     @Override
     protected JvmType generateForIntBoolean(GhostWriter writer) {
         writer.throwError("cannot multiply by a boolean");
@@ -85,14 +61,12 @@ public class Mul extends Primitive2 {
         return INT;
     }
 
-    public static int mul(Object a, Object b) {
-        return (Integer) a * (Integer) b;
-    }
-
-    public static int mul(Object a, int b) {
-        return (Integer) a * b;
-    }
-    public static int mul(int a, Object b) {
-        return a * (Integer) b;
+    @SuppressWarnings("unused") // called by generated code
+    public static Object mul(Object arg1, Object arg2) {
+        if (arg1 instanceof Integer && arg2 instanceof Integer) return (Integer) arg1 * (Integer) arg2;
+        var type = Numbers.promotedType(arg1, arg2);
+        if (type == JvmType.LONG) return ((Number) arg1).longValue() * ((Number) arg2).longValue();
+        if (type == JvmType.DOUBLE) return ((Number) arg1).doubleValue() * ((Number) arg2).doubleValue();
+        throw RuntimeError.numberExpected(arg1, arg2);
     }
 }
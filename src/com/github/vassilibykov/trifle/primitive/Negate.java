@@ -7,33 +7,40 @@ import com.github.vassilibykov.trifle.core.GhostWriter;
 import com.github.vassilibykov.trifle.core.JvmType;
 import com.github.vassilibykov.trifle.core.RuntimeError;
 
+import static com.github.vassilibykov.trifle.core.JvmType.DOUBLE;
 import static com.github.vassilibykov.trifle.core.JvmType.INT;
+import static com.github.vassilibykov.trifle.core.JvmType.LONG;
 import static com.github.vassilibykov.trifle.core.JvmType.REFERENCE;
+import static org.objectweb.asm.Opcodes.DNEG;
 import static org.objectweb.asm.Opcodes.ISUB;
+import static org.objectweb.asm.Opcodes.LNEG;
 
 public class Negate extends Primitive1 {
     @Override
     public ExpressionType inferredType(ExpressionType argumentType) {
-        return ExpressionType.known(INT);
+        var type = argumentType.jvmType().orElse(INT);
+        return ExpressionType.known(Numbers.isNumeric(type) ? type : REFERENCE);
     }
 
     @Override
     public Object apply(Object arg) {
-        try {
-            return -((Integer) arg);
-        } catch (ClassCastException e) {
-            throw RuntimeError.integerExpected(arg);
-        }
+        return negate(arg);
+    }
+
+    @Override
+    public boolean isIntOperation() {
+        return true;
+    }
+
+    @Override
+    public int applyToInt(int arg) {
+        return -arg;
     }
 
     @Override
     protected JvmType generateForReference(GhostWriter writer) {
-        writer
-            .adaptValue(REFERENCE, INT)
-            .loadInt(0)
-            .swap()
-            .asm().visitInsn(ISUB);
-        return INT;
+        writer.invokeStatic(Negate.class, "negate", Object.class, Object.class);
+        return REFERENCE;
     }
 
     @Override
@@ -50,4 +57,24 @@ public class Negate extends Primitive1 {
         writer.throwError("cannot negate a boolean");
         return INT;
     }
+
+    @Override
+    protected JvmType generateForLong(GhostWriter writer) {
+        writer.asm().visitInsn(LNEG);
+        return LONG;
+    }
+
+    @Override
+    protected JvmType generateForDouble(GhostWriter writer) {
+        writer.asm().visitInsn(DNEG);
+        return DOUBLE;
+    }
+
+    @SuppressWarnings("unused") // called by generated code
+    public static Object negate(Object arg) {
+        if (arg instanceof Integer) return -(Integer) arg;
+        if (arg instanceof Long) return -(Long) arg;
+        if (arg instanceof Double) return -(Double) arg;
+        throw RuntimeError.numberExpected(arg);
+    }
 }
@@ -0,0 +1,87 @@
+// Copyright (c) 2018 Vassili Bykov. Licensed under the Apache License, Version 2.0.
+
+package com.github.vassilibykov.trifle.primitive;
+
+import com.github.vassilibykov.trifle.core.ExpressionType;
+import com.github.vassilibykov.trifle.core.GhostWriter;
+import com.github.vassilibykov.trifle.core.JvmType;
+import org.jetbrains.annotations.Nullable;
+import org.objectweb.asm.Label;
+
+import static com.github.vassilibykov.trifle.core.JvmType.DOUBLE;
+import static com.github.vassilibykov.trifle.core.JvmType.INT;
+import static com.github.vassilibykov.trifle.core.JvmType.LONG;
+import static com.github.vassilibykov.trifle.core.JvmType.REFERENCE;
+
+/**
+ * Type logic shared by numeric primitives. Numbers are {@code Integer},
+ * {@code Long} and {@code Double} values. Operands of different numeric types
+ * are promoted to the wider of the two types, as by Java's binary numeric
+ * promotion.
+ */
+final class Numbers {
+
+    private Numbers() {}
+
+    /**
+     * Return the type to which both values are promoted by a binary numeric
+     * operation, or null if either of the values is not a number.
+     */
+    static @Nullable JvmType promotedType(Object a, Object b) {
+        var type1 = JvmType.ofObject(a);
+        var type2 = JvmType.ofObject(b);
+        if (!isNumeric(type1) || !isNumeric(type2)) return null;
+        if (type1 == DOUBLE || type2 == DOUBLE) return DOUBLE;
+        if (type1 == LONG || type2 == LONG) return LONG;
+        return INT;
+    }
+
+    static boolean isNumeric(JvmType type) {
+        return type == INT || type == LONG || type == DOUBLE;
+    }
+
+    /**
+     * The inferred type of the result of an arithmetic operation. Operands of
+     * the same numeric type produce a result of that type, and any other
+     * known combination produces a (wrapped) reference. In the absence of any
+     * type information, an {@code int} result is assumed.
+     */
+    static ExpressionType inferredResultType(ExpressionType argument1Type, ExpressionType argument2Type) {
+        var type1 = argument1Type.jvmType().orElse(null);
+        var type2 = argument2Type.jvmType().orElse(null);
+        if (type1 == null) type1 = type2 != null ? type2 : INT;
+        if (type2 == null) type2 = type1;
+        return ExpressionType.known(type1 == type2 && isNumeric(type1) ? type1 : REFERENCE);
+    }
+
+    /**
+     * Generate code producing a boolean result of comparing two values on the
+     * stack.
+     *
+     * @param compareOpcode The instruction comparing the values, such as
+     *        {@code LCMP}, to leave an {@code int} on the stack.
+     * @param jumpIfFalseOpcode The {@code IF...} instruction testing that
+     *        {@code int} which jumps if the comparison result is false.
+     */
+    static void generateComparison(GhostWriter writer, int compareOpcode, int jumpIfFalseOpcode) {
+        writer.asm().visitInsn(compareOpcode);
+        generateTest(writer, jumpIfFalseOpcode);
+    }
+
+    /**
+     * Generate code converting the {@code int} result of a comparison on the
+     * stack into a boolean, using the specified {@code IF...} instruction which
+     * jumps if the result is false.
+     */
+    static void generateTest(GhostWriter writer, int jumpIfFalseOpcode) {
+        writer.withLabelAtEnd(end -> {
+            var isFalse = new Label();
+            writer.asm().visitJumpInsn(jumpIfFalseOpcode, isFalse);
+            writer
+                .loadInt(1)
+                .jump(end);
+            writer.setLabelHere(isFalse);
+            writer.loadInt(0);
+        });
+    }
+}
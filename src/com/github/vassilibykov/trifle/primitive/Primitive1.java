@@ -23,6 +23,34 @@ public abstract class Primitive1 implements Primitive {
      */
     public abstract Object apply(Object argument);
 
+    /**
+     * Indicate whether the operation on an {@code int} argument always
+     * produces an {@code int}. The interpreter then performs it using {@link
+     * #applyToInt(int)}, without boxing the argument or the result.
+     */
+    public boolean isIntOperation() {
+        return false;
+    }
+
+    /**
+     * Perform the operation on an {@code int} argument, if it {@link
+     * #isIntOperation()}. By default, the argument is boxed and passed to
+     * {@link #apply(Object)}, and the result is unboxed. An int operation
+     * should override this to avoid the boxing.
+     */
+    public int applyToInt(int argument) {
+        return (Integer) apply((Object) argument);
+    }
+
+    /**
+     * Perform the operation on an {@code int} argument, if it is not an
+     * {@linkplain #isIntOperation() int operation}. By default, the argument is
+     * boxed and passed to {@link #apply(Object)}.
+     */
+    public Object apply(int argument) {
+        return apply((Object) argument);
+    }
+
     /**
      * Generate code to perform the operation when the argument (already
      * on the stack) is a reference.
@@ -41,6 +69,26 @@ public abstract class Primitive1 implements Primitive {
      */
     protected abstract JvmType generateForBoolean(GhostWriter writer);
 
+    /**
+     * Generate code to perform the operation when the argument (already
+     * on the stack) is a {@code long}. By default, the argument is wrapped
+     * and the operation is performed as if on a reference.
+     */
+    protected JvmType generateForLong(GhostWriter writer) {
+        writer.wrapLong();
+        return generateForReference(writer);
+    }
+
+    /**
+     * Generate code to perform the operation when the argument (already
+     * on the stack) is a {@code double}. By default, the argument is wrapped
+     * and the operation is performed as if on a reference.
+     */
+    protected JvmType generateForDouble(GhostWriter writer) {
+        writer.wrapDouble();
+        return generateForReference(writer);
+    }
+
     /**
      * Generate code to perform the operation when the argument on the
      * stack is of the specified type. Instead of overriding this method,
@@ -59,6 +107,14 @@ public abstract class Primitive1 implements Primitive {
             public JvmType ifBoolean() {
                 return generateForBoolean(writer);
             }
+
+            public JvmType ifLong() {
+                return generateForLong(writer);
+            }
+
+            public JvmType ifDouble() {
+                return generateForDouble(writer);
+            }
         });
     }
 }
@@ -23,6 +23,34 @@ public abstract class Primitive2 implements Primitive {
      */
     public abstract Object apply(Object argument1, Object argument2);
 
+    /**
+     * Indicate whether the operation on two {@code int} arguments always
+     * produces an {@code int}. The interpreter then performs it using {@link
+     * #applyToInts(int, int)}, without boxing the arguments or the result.
+     */
+    public boolean isIntOperation() {
+        return false;
+    }
+
+    /**
+     * Perform the operation on two {@code int} arguments, if it {@link
+     * #isIntOperation()}. By default, the arguments are boxed and passed to
+     * {@link #apply(Object, Object)}, and the result is unboxed. An int
+     * operation should override this to avoid the boxing.
+     */
+    public int applyToInts(int argument1, int argument2) {
+        return (Integer) apply((Object) argument1, (Object) argument2);
+    }
+
+    /**
+     * Perform the operation on two {@code int} arguments, if it is not an
+     * {@linkplain #isIntOperation() int operation}. By default, the arguments
+     * are boxed and passed to {@link #apply(Object, Object)}.
+     */
+    public Object apply(int argument1, int argument2) {
+        return apply((Object) argument1, (Object) argument2);
+    }
+
     /**
      * Generate code to perform the operation when both arguments on the stack
      * are of a reference type.
@@ -71,12 +99,41 @@ public abstract class Primitive2 implements Primitive {
      */
     protected abstract JvmType generateForBooleanBoolean(GhostWriter writer);
 
+    /**
+     * Generate code for the {@code (long, long)} argument combination. By
+     * default, the arguments are wrapped and the operation is performed as
+     * if on references.
+     */
+    protected JvmType generateForLongLong(GhostWriter writer) {
+        writer.wrapLong().wrapUnderTop(JvmType.LONG);
+        return generateForReferenceReference(writer);
+    }
+
+    /**
+     * Generate code for the {@code (double, double)} argument combination.
+     * By default, the arguments are wrapped and the operation is performed as
+     * if on references.
+     */
+    protected JvmType generateForDoubleDouble(GhostWriter writer) {
+        writer.wrapDouble().wrapUnderTop(JvmType.DOUBLE);
+        return generateForReferenceReference(writer);
+    }
+
     /**
      * Generate code for the specified argument type combination. This method
      * should not be overridden. Instead, a subclass should implement the ones
      * for the specific type cases.
      */
     public final JvmType generate(GhostWriter writer, JvmType arg1type, JvmType arg2type) {
+        if (arg1type == arg2type) {
+            if (arg1type == JvmType.LONG) return generateForLongLong(writer);
+            if (arg1type == JvmType.DOUBLE) return generateForDoubleDouble(writer);
+        }
+        if (arg1type.slotSize() == 2 || arg2type.slotSize() == 2) {
+            // Mixed combinations involving longs or doubles are rare enough to be handled generically.
+            writer.wrap(arg2type).wrapUnderTop(arg1type);
+            return generateForReferenceReference(writer);
+        }
         return arg1type.match(new JvmType.Matcher<>() {
             public JvmType ifReference() {
                 return arg2type.match(new JvmType.Matcher<>() {
@@ -91,6 +148,10 @@ public abstract class Primitive2 implements Primitive {
                     public JvmType ifBoolean() { // (Object, boolean)
                         return generateForReferenceBoolean(writer);
                     }
+
+                    public JvmType ifLong() { throw new AssertionError(); }
+
+                    public JvmType ifDouble() { throw new AssertionError(); }
                 });
             }
 
@@ -107,6 +168,10 @@ public abstract class Primitive2 implements Primitive {
                     public JvmType ifBoolean() {
                         return generateForIntBoolean(writer);
                     }
+
+                    public JvmType ifLong() { throw new AssertionError(); }
+
+                    public JvmType ifDouble() { throw new AssertionError(); }
                 });
             }
 
@@ -123,8 +188,16 @@ public abstract class Primitive2 implements Primitive {
                     public JvmType ifBoolean() {
                         return generateForBooleanBoolean(writer);
                     }
+
+                    public JvmType ifLong() { throw new AssertionError(); }
+
+                    public JvmType ifDouble() { throw new AssertionError(); }
                 });
             }
+
+            public JvmType ifLong() { throw new AssertionError(); }
+
+            public JvmType ifDouble() { throw new AssertionError(); }
         });
     }
 }
@@ -2,39 +2,33 @@
 
 package com.github.vassilibykov.trifle.primitive;
 
-import com.github.vassilibykov.trifle.core.ExpressionType;
 import com.github.vassilibykov.trifle.core.GhostWriter;
 import com.github.vassilibykov.trifle.core.JvmType;
 import com.github.vassilibykov.trifle.core.RuntimeError;
 
 import static com.github.vassilibykov.trifle.core.JvmType.INT;
+import static org.objectweb.asm.Opcodes.DSUB;
 import static org.objectweb.asm.Opcodes.ISUB;
+import static org.objectweb.asm.Opcodes.LSUB;
 
-public class Sub extends Primitive2 {
-    @Override
-    public ExpressionType inferredType(ExpressionType argument1Type, ExpressionType argument2Type) {
-        return ExpressionType.known(INT);
+/**
+ * Subtraction with the semantics of Java {@code -} on ints, longs and
+ * doubles.
+ */
+public class Sub extends ArithmeticPrimitive2 {
+
+    public Sub() {
+        super(ISUB, LSUB, DSUB, "sub");
     }
 
     @Override
     public Object apply(Object arg1, Object arg2) {
-        try {
-            return (Integer) arg1 - (Integer) arg2;
-        } catch (ClassCastException e) {
-            throw RuntimeError.integerExpected();
-        }
+        return sub(arg1, arg2);
     }
 
     @Override
-    protected JvmType generateForReferenceReference(GhostWriter writer) {
-        writer.invokeStatic(Sub.class, "sub", int.class, Object.class, Object.class);
-        return INT;
-    }
-
-    @Override
-    protected JvmType generateForReferenceInt(GhostWriter writer) {
-        writer.invokeStatic(Sub.class, "sub", int.class, Object.class, int.class);
-        return INT;
+    public int applyToInts(int arg1, int arg2) {
+        return arg1 - arg2;
     }
 
     @Override
@@ -43,18 +37,6 @@ public class Sub extends Primitive2 {
         return INT;
     }
 
-    @Override
-    protected JvmType generateForIntReference(GhostWriter writer) {
-        writer.invokeStatic(Sub.class, "sub", int.class, int.class, Object.class);
-        return INT;
-    }
-
-    @Override
-    protected JvmType generateForIntInt(GhostWriter writer) {
-        writer.asm().visitInsn(ISUB);
-        return INT;
-    }
-
     @Override
     protected JvmType generateForIntBoolean(GhostWriter writer) {
         writer.throwError("cannot subtract a boolean");
@@ -80,18 +62,11 @@ public class Sub extends Primitive2 {
     }
 
     @SuppressWarnings("unused") // called by generated code
-    public static int sub(Object arg1, Object arg2) {
-        return (Integer) arg1 - (Integer) arg2;
+    public static Object sub(Object arg1, Object arg2) {
+        if (arg1 instanceof Integer && arg2 instanceof Integer) return (Integer) arg1 - (Integer) arg2;
+        var type = Numbers.promotedType(arg1, arg2);
+        if (type == JvmType.LONG) return ((Number) arg1).longValue() - ((Number) arg2).longValue();
+        if (type == JvmType.DOUBLE) return ((Number) arg1).doubleValue() - ((Number) arg2).doubleValue();
+        throw RuntimeError.numberExpected(arg1, arg2);
     }
-
-    @SuppressWarnings("unused") // called by generated code
-    public static int sub(Object arg1, int arg2) {
-        return (Integer) arg1 - arg2;
-    }
-
-    @SuppressWarnings("unused") // called by generated code
-    public static int sub(int arg1, Object arg2) {
-        return arg1 - (Integer) arg2;
-    }
-
 }
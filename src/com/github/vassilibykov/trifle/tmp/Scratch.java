@@ -6,29 +6,15 @@ package com.github.vassilibykov.trifle.tmp;
 
 import org.objectweb.asm.ClassWriter;
 import org.objectweb.asm.MethodVisitor;
-import sun.misc.Unsafe;
 
 import static org.objectweb.asm.Opcodes.*;
 
 import java.lang.invoke.MethodHandle;
 import java.lang.invoke.MethodHandles;
 import java.lang.invoke.MethodType;
-import java.lang.reflect.Field;
 import java.util.function.Consumer;
 
 public class Scratch {
-    private static final Unsafe UNSAFE = getUnsafe();
-
-    private static Unsafe getUnsafe() {
-        try {
-            Field singleoneInstanceField = Unsafe.class.getDeclaredField("theUnsafe");
-            singleoneInstanceField.setAccessible(true);
-            return (Unsafe) singleoneInstanceField.get(null);
-        } catch (NoSuchFieldException | IllegalAccessException e) {
-            throw new AssertionError(e);
-        }
-    }
-
     public static void main(String[] args) {
         var bytecode = withClassWriter(classWriter -> {
             withMethodWriter(classWriter, methodWriter -> {
@@ -40,8 +26,8 @@ public class Scratch {
                 methodWriter.visitInsn(ARETURN);
             });
         });
-        Class<?> generatedClass = UNSAFE.defineAnonymousClass(Scratch.class, bytecode, null);
         try {
+            Class<?> generatedClass = MethodHandles.lookup().defineHiddenClass(bytecode, true).lookupClass();
             MethodHandle testMethod = MethodHandles.lookup().findStatic(
                 generatedClass, "test", MethodType.methodType(Object.class));
             var result = (Object) testMethod.invoke();
@@ -56,7 +42,7 @@ public class Scratch {
         classWriter.visit(
             V9,
             ACC_PUBLIC | ACC_FINAL | ACC_SUPER,
-            "foobar",
+            "com/github/vassilibykov/trifle/tmp/Foobar",
             null,
             "java/lang/Object",
             null);
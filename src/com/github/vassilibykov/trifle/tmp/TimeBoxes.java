@@ -0,0 +1,54 @@
+// Copyright (c) 2018 Vassili Bykov. Licensed under the Apache License, Version 2.0.
+
+package com.github.vassilibykov.trifle.tmp;
+
+import com.github.vassilibykov.trifle.core.Library;
+import com.github.vassilibykov.trifle.core.UserFunction;
+
+import static com.github.vassilibykov.trifle.expression.ExpressionLanguage.bind;
+import static com.github.vassilibykov.trifle.expression.ExpressionLanguage.block;
+import static com.github.vassilibykov.trifle.expression.ExpressionLanguage.call;
+import static com.github.vassilibykov.trifle.expression.ExpressionLanguage.const_;
+import static com.github.vassilibykov.trifle.expression.ExpressionLanguage.lambda;
+import static com.github.vassilibykov.trifle.expression.ExpressionLanguage.set;
+import static com.github.vassilibykov.trifle.expression.ExpressionLanguage.while_;
+import static com.github.vassilibykov.trifle.primitive.StandardPrimitiveLanguage.add;
+import static com.github.vassilibykov.trifle.primitive.StandardPrimitiveLanguage.lessThan;
+
+/**
+ * Times a compiled loop calling a closure which adds the loop counter to a
+ * captured mutable variable, so each iteration reads and writes a box.
+ */
+public class TimeBoxes {
+    private static final int ITERATIONS = 10_000_000;
+
+    public static void main(String[] args) {
+        var function = accumulator();
+        function.invoke(1000);
+        function.forceCompile();
+        for (int i = 0; i < 5; i++) {
+            function.invoke(ITERATIONS);
+        }
+        long best = Long.MAX_VALUE;
+        for (int i = 0; i < 10; i++) {
+            var start = System.nanoTime();
+            function.invoke(ITERATIONS);
+            best = Math.min(best, System.nanoTime() - start);
+        }
+        System.out.format("accumulator: %s iterations, best of 10: %s ms\n", ITERATIONS, best / 1_000_000L);
+    }
+
+    private static UserFunction accumulator() {
+        Library toplevel = new Library();
+        return toplevel.define("accumulator",
+            lambda(n ->
+                bind(const_(0), total ->
+                    bind(const_(0), i ->
+                        bind(lambda(x -> set(total, add(total, x))), accumulate ->
+                            block(
+                                while_(lessThan(i, n),
+                                    call(accumulate, i),
+                                    set(i, add(i, const_(1)))),
+                                total))))));
+    }
+}
@@ -0,0 +1,69 @@
+// Copyright (c) 2018 Vassili Bykov. Licensed under the Apache License, Version 2.0.
+
+package com.github.vassilibykov.trifle.tmp;
+
+import com.github.vassilibykov.trifle.core.Library;
+import com.github.vassilibykov.trifle.core.UserFunction;
+
+import static com.github.vassilibykov.trifle.expression.ExpressionLanguage.bind;
+import static com.github.vassilibykov.trifle.expression.ExpressionLanguage.block;
+import static com.github.vassilibykov.trifle.expression.ExpressionLanguage.call;
+import static com.github.vassilibykov.trifle.expression.ExpressionLanguage.const_;
+import static com.github.vassilibykov.trifle.expression.ExpressionLanguage.lambda;
+import static com.github.vassilibykov.trifle.expression.ExpressionLanguage.set;
+import static com.github.vassilibykov.trifle.expression.ExpressionLanguage.while_;
+import static com.github.vassilibykov.trifle.primitive.StandardPrimitiveLanguage.add;
+import static com.github.vassilibykov.trifle.primitive.StandardPrimitiveLanguage.lessThan;
+
+/**
+ * Times a compiled higher-order loop calling the closure it is passed, once
+ * with a closure which captures a value and once with one which doesn't.
+ * The loop is short and invoked many times rather than once for all the
+ * calls. A generated loop keeps a value on the operand stack, so HotSpot
+ * can't compile it on stack replacement, and a loop invoked only a few
+ * times would stay interpreted.
+ */
+public class TimeClosureCalls {
+    private static final int ITERATIONS = 10_000;
+    private static final int REPEATS = 1_000;
+
+    public static void main(String[] args) {
+        var library = new Library();
+        var loop = library.define("loop",
+            lambda((n, f) ->
+                bind(const_(0), i ->
+                    bind(const_(0), total ->
+                        block(
+                            while_(lessThan(i, n),
+                                bind(call(f, i), result ->
+                                    set(total, result)),
+                                set(i, add(i, const_(1)))),
+                            total)))));
+        var capturing = library.define("capturing", lambda(k -> lambda(x -> add(x, k))));
+        var plain = library.define("plain", lambda(() -> lambda(x -> add(x, const_(1)))));
+        var capturingClosure = capturing.invoke(1);
+        var plainClosure = plain.invoke();
+        loop.invoke(1000, capturingClosure);
+        loop.invoke(1000, plainClosure);
+        capturing.forceCompile();
+        plain.forceCompile();
+        loop.forceCompile();
+        time("capturing closure", loop, capturingClosure);
+        time("non-capturing closure", loop, plainClosure);
+    }
+
+    private static void time(String label, UserFunction loop, Object closure) {
+        for (int i = 0; i < 5 * REPEATS; i++) {
+            loop.invoke(ITERATIONS, closure);
+        }
+        long best = Long.MAX_VALUE;
+        for (int i = 0; i < 10; i++) {
+            var start = System.nanoTime();
+            for (int j = 0; j < REPEATS; j++) {
+                loop.invoke(ITERATIONS, closure);
+            }
+            best = Math.min(best, System.nanoTime() - start);
+        }
+        System.out.format("%s: %s calls, best of 10: %s ms\n", label, ITERATIONS * REPEATS, best / 1_000_000L);
+    }
+}
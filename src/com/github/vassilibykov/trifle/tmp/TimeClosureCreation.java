@@ -0,0 +1,75 @@
+// Copyright (c) 2018 Vassili Bykov. Licensed under the Apache License, Version 2.0.
+
+package com.github.vassilibykov.trifle.tmp;
+
+import com.github.vassilibykov.trifle.core.Library;
+import com.github.vassilibykov.trifle.core.UserFunction;
+
+import java.lang.management.ManagementFactory;
+import java.util.function.Consumer;
+
+import static com.github.vassilibykov.trifle.expression.ExpressionLanguage.bind;
+import static com.github.vassilibykov.trifle.expression.ExpressionLanguage.block;
+import static com.github.vassilibykov.trifle.expression.ExpressionLanguage.call;
+import static com.github.vassilibykov.trifle.expression.ExpressionLanguage.const_;
+import static com.github.vassilibykov.trifle.expression.ExpressionLanguage.lambda;
+import static com.github.vassilibykov.trifle.expression.ExpressionLanguage.set;
+import static com.github.vassilibykov.trifle.expression.ExpressionLanguage.while_;
+import static com.github.vassilibykov.trifle.primitive.StandardPrimitiveLanguage.add;
+import static com.github.vassilibykov.trifle.primitive.StandardPrimitiveLanguage.lessThan;
+
+/**
+ * Times a loop which creates a closure capturing the loop counter on each
+ * iteration and calls it once, the way a block argument of a Smalltalk
+ * {@code ifTrue:} or a lambda passed to a Scheme {@code map} is used. Reports
+ * the bytes allocated per iteration, in the a-code interpreter and in
+ * compiled code.
+ */
+public class TimeClosureCreation {
+    private static final int ITERATIONS = 1_000_000;
+
+    public static void main(String[] args) {
+        time("a-code interpreter", UserFunction::useACodeInterpreter);
+        time("compiled", function -> {
+            function.invoke(1000);
+            function.forceCompile();
+        });
+    }
+
+    private static void time(String label, Consumer<UserFunction> setup) {
+        var loop = closureLoop();
+        setup.accept(loop);
+        for (int i = 0; i < 5; i++) {
+            loop.invoke(ITERATIONS);
+        }
+        var threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        var threadId = Thread.currentThread().getId();
+        long best = Long.MAX_VALUE;
+        long allocated = Long.MAX_VALUE;
+        for (int i = 0; i < 10; i++) {
+            var allocatedBefore = threads.getThreadAllocatedBytes(threadId);
+            var start = System.nanoTime();
+            loop.invoke(ITERATIONS);
+            best = Math.min(best, System.nanoTime() - start);
+            allocated = Math.min(allocated, threads.getThreadAllocatedBytes(threadId) - allocatedBefore);
+        }
+        System.out.format("%s: %s closures, best of 10: %s ms, %.1f bytes per closure\n",
+            label, ITERATIONS, best / 1_000_000L, (double) allocated / ITERATIONS);
+    }
+
+    private static UserFunction closureLoop() {
+        Library toplevel = new Library();
+        return toplevel.define("closureLoop",
+            lambda(n ->
+                bind(const_(0), i ->
+                    bind(const_(0), total ->
+                        block(
+                            while_(lessThan(i, n),
+                                bind(i, j ->
+                                    bind(lambda(x -> add(x, j)), f ->
+                                        bind(call(f, total), result ->
+                                            set(total, result)))),
+                                set(i, add(i, const_(1)))),
+                            total)))));
+    }
+}
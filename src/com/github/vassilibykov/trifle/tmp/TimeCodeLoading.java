@@ -0,0 +1,100 @@
+// Copyright (c) 2018 Vassili Bykov. Licensed under the Apache License, Version 2.0.
+
+package com.github.vassilibykov.trifle.tmp;
+
+import com.github.vassilibykov.trifle.core.CompilationQueue;
+import com.github.vassilibykov.trifle.core.FunctionImplementation;
+import com.github.vassilibykov.trifle.core.Library;
+import com.github.vassilibykov.trifle.core.UserFunction;
+
+import java.lang.management.ManagementFactory;
+
+import static com.github.vassilibykov.trifle.expression.ExpressionLanguage.bind;
+import static com.github.vassilibykov.trifle.expression.ExpressionLanguage.call;
+import static com.github.vassilibykov.trifle.expression.ExpressionLanguage.const_;
+import static com.github.vassilibykov.trifle.expression.ExpressionLanguage.direct;
+import static com.github.vassilibykov.trifle.expression.ExpressionLanguage.if_;
+import static com.github.vassilibykov.trifle.expression.ExpressionLanguage.lambda;
+import static com.github.vassilibykov.trifle.primitive.StandardPrimitiveLanguage.add;
+import static com.github.vassilibykov.trifle.primitive.StandardPrimitiveLanguage.lessThan;
+import static com.github.vassilibykov.trifle.primitive.StandardPrimitiveLanguage.mul;
+import static com.github.vassilibykov.trifle.primitive.StandardPrimitiveLanguage.sub;
+
+/**
+ * Measures the two things affected by the way generated code is loaded: the
+ * speed of specialized code, using the same fibonacci(35) as {@link TimeFib},
+ * and whether the classes of compiled units defined in short-lived libraries
+ * are unloaded once the libraries are dropped.
+ */
+public class TimeCodeLoading {
+    private static final int THROWAWAY_LIBRARIES = 2000;
+
+    public static void main(String[] args) throws InterruptedException {
+        timeSpecializedCode();
+        churnLibraries();
+    }
+
+    private static void timeSpecializedCode() {
+        var n = 35;
+        var fibonacci = fibonacci();
+        System.out.print("Warming up");
+        for (int i = 0; i < 20; i++) {
+            fibonacci.invoke(n);
+            System.out.print(".");
+        }
+        System.out.println("done.");
+        long best = Long.MAX_VALUE;
+        for (int i = 0; i < 10; i++) {
+            var start = System.nanoTime();
+            fibonacci.invoke(n);
+            best = Math.min(best, System.nanoTime() - start);
+        }
+        System.out.format("fibonacci(%s), best of 10: %s ms\n", n, best / 1_000_000L);
+    }
+
+    private static void churnLibraries() throws InterruptedException {
+        var classLoading = ManagementFactory.getClassLoadingMXBean();
+        var loadedBefore = classLoading.getTotalLoadedClassCount();
+        var unloadedBefore = classLoading.getUnloadedClassCount();
+        var compiledBefore = CompilationQueue.INSTANCE.completedCount();
+        var start = System.nanoTime();
+        for (int i = 0; i < THROWAWAY_LIBRARIES; i++) {
+            var function = throwawayFunction(i);
+            for (int j = 0; j <= FunctionImplementation.PROFILING_TARGET; j++) {
+                function.invoke(j);
+            }
+            while (!function.implementation().isCompiled()) {
+                Thread.sleep(1);
+            }
+        }
+        var elapsed = System.nanoTime() - start;
+        System.gc();
+        Thread.sleep(100);
+        System.gc();
+        System.out.format("%s units compiled in %s ms (%s us per unit)\n",
+            CompilationQueue.INSTANCE.completedCount() - compiledBefore,
+            elapsed / 1_000_000L,
+            elapsed / 1_000L / THROWAWAY_LIBRARIES);
+        System.out.format("classes loaded: %s, unloaded: %s\n",
+            classLoading.getTotalLoadedClassCount() - loadedBefore,
+            classLoading.getUnloadedClassCount() - unloadedBefore);
+    }
+
+    private static UserFunction throwawayFunction(int serial) {
+        var library = new Library();
+        library.define("f", lambda(x -> add(mul(x, x), const_(serial))));
+        return library.get("f");
+    }
+
+    private static UserFunction fibonacci() {
+        Library toplevel = new Library();
+        toplevel.define("fibonacci",
+            fibonacci -> lambda(n ->
+                if_(lessThan(n, const_(2)),
+                    const_(1),
+                    bind(call(direct(fibonacci), sub(n, const_(1))), t1 ->
+                        bind(call(direct(fibonacci), sub(n, const_(2))), t2 ->
+                            add(t1, t2))))));
+        return toplevel.get("fibonacci");
+    }
+}
@@ -0,0 +1,161 @@
+// Copyright (c) 2018 Vassili Bykov. Licensed under the Apache License, Version 2.0.
+
+package com.github.vassilibykov.trifle.tmp;
+
+import com.github.vassilibykov.trifle.core.Dictionary;
+import com.github.vassilibykov.trifle.core.Library;
+import com.github.vassilibykov.trifle.core.UserFunction;
+import com.github.vassilibykov.trifle.expression.DictionaryGetter;
+
+import java.lang.management.ManagementFactory;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
+
+import static com.github.vassilibykov.trifle.expression.ExpressionLanguage.bind;
+import static com.github.vassilibykov.trifle.expression.ExpressionLanguage.call;
+import static com.github.vassilibykov.trifle.expression.ExpressionLanguage.const_;
+import static com.github.vassilibykov.trifle.expression.ExpressionLanguage.direct;
+import static com.github.vassilibykov.trifle.expression.ExpressionLanguage.if_;
+import static com.github.vassilibykov.trifle.expression.ExpressionLanguage.lambda;
+import static com.github.vassilibykov.trifle.expression.ExpressionLanguage.ret;
+import static com.github.vassilibykov.trifle.expression.ExpressionLanguage.set;
+import static com.github.vassilibykov.trifle.expression.ExpressionLanguage.while_;
+import static com.github.vassilibykov.trifle.primitive.StandardPrimitiveLanguage.add;
+import static com.github.vassilibykov.trifle.primitive.StandardPrimitiveLanguage.lessThan;
+import static com.github.vassilibykov.trifle.primitive.StandardPrimitiveLanguage.sub;
+
+/**
+ * Times the fibonacci function of {@link TimeFib} run entirely by the plain
+ * a-code interpreter, by the tree-walking interpreter it replaced, and by the
+ * profiling interpreter, and reports the bytes allocated per function
+ * call. A second variant of the function returns from its base case using an
+ * explicit {@code return}, to include the cost of non-local return. Also times
+ * loops, reporting the bytes allocated per iteration: one summing integers,
+ * one calling a closure, and one reading a dictionary entry.
+ *
+ * <p>If arguments are given, only the benchmarks whose labels contain one of
+ * them are run. The labels of the fibonacci benchmarks end with {@code ",
+ * fibonacci"}, and those of the loops with {@code ", loop"}. Running each benchmark in a JVM of its own keeps the
+ * interpreters from being compiled by the JIT with the type profiles of the
+ * benchmarks run before.
+ */
+public class TimeInterpreters {
+    private static final int N = 27;
+    private static final int CALLS = 635_621; // invocations of fibonacci for fibonacci(27)
+    private static final int ITERATIONS = 1_000_000;
+
+    private static String[] filters = new String[0];
+
+    public static void main(String[] args) {
+        filters = args;
+        time("a-code interpreter", false, UserFunction::useACodeInterpreter);
+        time("a-code interpreter, explicit return", true, UserFunction::useACodeInterpreter);
+        time("tree interpreter", false, UserFunction::useTreeInterpreter);
+        time("tree interpreter, explicit return", true, UserFunction::useTreeInterpreter);
+        time("profiling interpreter", false, UserFunction::useProfilingInterpreter);
+        time("profiling interpreter, explicit return", true, UserFunction::useProfilingInterpreter);
+        timeLoop("a-code interpreter", sumLoop(), UserFunction::useACodeInterpreter);
+        timeLoop("tree interpreter", sumLoop(), UserFunction::useTreeInterpreter);
+        timeLoop("profiling interpreter", sumLoop(), UserFunction::useProfilingInterpreter);
+        timeLoop("a-code interpreter, closure calls", closureCallLoop(), UserFunction::useACodeInterpreter);
+        timeLoop("tree interpreter, closure calls", closureCallLoop(), UserFunction::useTreeInterpreter);
+        timeLoop("profiling interpreter, closure calls", closureCallLoop(), UserFunction::useProfilingInterpreter);
+        timeLoop("a-code interpreter, dictionary reads", dictionaryReadLoop(), UserFunction::useACodeInterpreter);
+        timeLoop("tree interpreter, dictionary reads", dictionaryReadLoop(), UserFunction::useTreeInterpreter);
+        timeLoop("profiling interpreter, dictionary reads", dictionaryReadLoop(), UserFunction::useProfilingInterpreter);
+    }
+
+    private static boolean isSelected(String label) {
+        return filters.length == 0 || Stream.of(filters).anyMatch(label::contains);
+    }
+
+    private static void timeLoop(String label, UserFunction loop, Consumer<UserFunction> setup) {
+        if (!isSelected(label + ", loop")) return;
+        setup.accept(loop);
+        for (int i = 0; i < 5; i++) {
+            loop.invoke(ITERATIONS);
+        }
+        var threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        var threadId = Thread.currentThread().getId();
+        long best = Long.MAX_VALUE;
+        long allocated = Long.MAX_VALUE;
+        for (int i = 0; i < 5; i++) {
+            var allocatedBefore = threads.getThreadAllocatedBytes(threadId);
+            var start = System.nanoTime();
+            loop.invoke(ITERATIONS);
+            best = Math.min(best, System.nanoTime() - start);
+            allocated = Math.min(allocated, threads.getThreadAllocatedBytes(threadId) - allocatedBefore);
+        }
+        System.out.format("%s: %s loop iterations, best of 5: %s ms, %.1f bytes per iteration\n",
+            label, ITERATIONS, best / 1_000_000L, (double) allocated / ITERATIONS);
+    }
+
+    private static UserFunction sumLoop() {
+        Library toplevel = new Library();
+        return toplevel.define("sum",
+            lambda(n ->
+                bind(const_(0), i ->
+                    bind(const_(0), sum ->
+                        while_(lessThan(i, n),
+                            set(sum, add(sum, i)),
+                            set(i, add(i, const_(1))))))));
+    }
+
+    private static UserFunction closureCallLoop() {
+        Library toplevel = new Library();
+        return toplevel.define("count",
+            lambda(n ->
+                bind(lambda(x -> add(x, const_(1))), increment ->
+                    bind(const_(0), i ->
+                        while_(lessThan(i, n),
+                            bind(call(increment, i), next ->
+                                set(i, next)))))));
+    }
+
+    private static UserFunction dictionaryReadLoop() {
+        Library toplevel = new Library();
+        var dictionary = Dictionary.create();
+        dictionary.defineEntry("step").setValue(1);
+        var step = DictionaryGetter.create(dictionary, "step");
+        return toplevel.define("count",
+            lambda(n ->
+                bind(const_(0), i ->
+                    while_(lessThan(i, n),
+                        bind(call(step), delta ->
+                            set(i, add(i, delta)))))));
+    }
+
+    private static void time(String label, boolean useReturn, Consumer<UserFunction> setup) {
+        if (!isSelected(label + ", fibonacci")) return;
+        var fibonacci = fibonacci(useReturn);
+        setup.accept(fibonacci);
+        for (int i = 0; i < 5; i++) {
+            fibonacci.invoke(N);
+        }
+        var threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        var threadId = Thread.currentThread().getId();
+        long best = Long.MAX_VALUE;
+        long allocated = Long.MAX_VALUE;
+        for (int i = 0; i < 5; i++) {
+            var allocatedBefore = threads.getThreadAllocatedBytes(threadId);
+            var start = System.nanoTime();
+            fibonacci.invoke(N);
+            best = Math.min(best, System.nanoTime() - start);
+            allocated = Math.min(allocated, threads.getThreadAllocatedBytes(threadId) - allocatedBefore);
+        }
+        System.out.format("%s: fibonacci(%s), best of 5: %s ms, %.1f bytes per call\n",
+            label, N, best / 1_000_000L, (double) allocated / CALLS);
+    }
+
+    private static UserFunction fibonacci(boolean useReturn) {
+        Library toplevel = new Library();
+        toplevel.define("fibonacci",
+            fibonacci -> lambda(n ->
+                if_(lessThan(n, const_(2)),
+                    useReturn ? ret(const_(1)) : const_(1),
+                    bind(call(direct(fibonacci), sub(n, const_(1))), t1 ->
+                        bind(call(direct(fibonacci), sub(n, const_(2))), t2 ->
+                            add(t1, t2))))));
+        return toplevel.get("fibonacci");
+    }
+}
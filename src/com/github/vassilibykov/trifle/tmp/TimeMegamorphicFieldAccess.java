@@ -0,0 +1,79 @@
+// Copyright (c) 2018 Vassili Bykov. Licensed under the Apache License, Version 2.0.
+
+package com.github.vassilibykov.trifle.tmp;
+
+import com.github.vassilibykov.trifle.core.UserFunction;
+import com.github.vassilibykov.trifle.object.FixedObject;
+import com.github.vassilibykov.trifle.object.FixedObjectDefinition;
+import com.github.vassilibykov.trifle.object.GetField;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodType;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+
+import static com.github.vassilibykov.trifle.expression.ExpressionLanguage.call;
+import static com.github.vassilibykov.trifle.expression.ExpressionLanguage.lambda;
+
+/**
+ * Times a compiled function with a single field access site, called from Java
+ * with objects of 1, 4 and 16 different layouts in rotation. The accessed
+ * field is at a different index in each layout. With more than three layouts
+ * the site is megamorphic. The function is called through its generic
+ * invoker, obtained once. Also reports the bytes allocated per access.
+ */
+public class TimeMegamorphicFieldAccess {
+    private static final int ITERATIONS = 10_000_000;
+
+    public static void main(String[] args) {
+        timeAccess(1);
+        timeAccess(4);
+        timeAccess(16);
+    }
+
+    private static void timeAccess(int layoutCount) {
+        var definitions = new FixedObjectDefinition[layoutCount];
+        for (int i = 0; i < layoutCount; i++) {
+            var fieldNames = new ArrayList<String>();
+            for (int j = 0; j < i; j++) fieldNames.add("pad" + j);
+            fieldNames.add("foo");
+            definitions[i] = new FixedObjectDefinition(fieldNames);
+        }
+        var objects = new FixedObject[16];
+        for (int i = 0; i < objects.length; i++) {
+            objects[i] = definitions[i % layoutCount].instantiate();
+            objects[i].set("foo", i);
+        }
+        var getFoo = UserFunction.construct("getFoo", lambda(o -> call(GetField.named("foo"), o)));
+        getFoo.forceCompile();
+        var invoker = getFoo.invoker(MethodType.genericMethodType(1));
+        for (int i = 0; i < 5; i++) {
+            accessLoop(invoker, objects);
+        }
+        var threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        var threadId = Thread.currentThread().getId();
+        long best = Long.MAX_VALUE;
+        long allocated = Long.MAX_VALUE;
+        for (int i = 0; i < 5; i++) {
+            var allocatedBefore = threads.getThreadAllocatedBytes(threadId);
+            var start = System.nanoTime();
+            accessLoop(invoker, objects);
+            best = Math.min(best, System.nanoTime() - start);
+            allocated = Math.min(allocated, threads.getThreadAllocatedBytes(threadId) - allocatedBefore);
+        }
+        System.out.format("%s-way access site: %s accesses, best of 5: %s ms, %.1f bytes per access\n",
+            layoutCount, ITERATIONS, best / 1_000_000L, (double) allocated / ITERATIONS);
+    }
+
+    private static long accessLoop(MethodHandle invoker, FixedObject[] objects) {
+        long sum = 0;
+        try {
+            for (int i = 0; i < ITERATIONS; i++) {
+                sum += (Integer) (Object) invoker.invokeExact((Object) objects[i & 15]);
+            }
+        } catch (Throwable throwable) {
+            throw new AssertionError(throwable);
+        }
+        return sum;
+    }
+}
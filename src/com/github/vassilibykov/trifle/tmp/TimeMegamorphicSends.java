@@ -0,0 +1,114 @@
+// Copyright (c) 2018 Vassili Bykov. Licensed under the Apache License, Version 2.0.
+
+package com.github.vassilibykov.trifle.tmp;
+
+import com.github.vassilibykov.trifle.core.Invocable;
+import com.github.vassilibykov.trifle.core.UserFunction;
+import com.github.vassilibykov.trifle.object.MessageReceiver;
+import com.github.vassilibykov.trifle.object.MessageSend;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodType;
+import java.lang.invoke.SwitchPoint;
+import java.lang.management.ManagementFactory;
+import java.util.Optional;
+
+import static com.github.vassilibykov.trifle.expression.ExpressionLanguage.call;
+import static com.github.vassilibykov.trifle.expression.ExpressionLanguage.const_;
+import static com.github.vassilibykov.trifle.expression.ExpressionLanguage.lambda;
+
+/**
+ * Times a compiled function with a single send site, called from Java with
+ * receivers of 1, 4 and 16 different classes in rotation. With more than
+ * three classes the site is megamorphic. The function is called through
+ * its generic invoker, obtained once, rather than {@code invoke()}, which
+ * adapts an invoker on every call. Also reports the bytes allocated per
+ * send.
+ */
+public class TimeMegamorphicSends {
+    private static final int ITERATIONS = 10_000_000;
+
+    public static void main(String[] args) {
+        timeSends(1);
+        timeSends(4);
+        timeSends(16);
+    }
+
+    private static void timeSends(int classCount) {
+        var behaviors = new Behavior[classCount];
+        for (int i = 0; i < classCount; i++) {
+            behaviors[i] = new Behavior(i);
+        }
+        var receivers = new Receiver[16];
+        for (int i = 0; i < receivers.length; i++) {
+            receivers[i] = new Receiver(behaviors[i % classCount]);
+        }
+        var send = UserFunction.construct("send", lambda(r -> call(MessageSend.selector("value"), r)));
+        send.forceCompile();
+        var invoker = send.invoker(MethodType.genericMethodType(1));
+        for (int i = 0; i < 5; i++) {
+            sendLoop(invoker, receivers);
+        }
+        var threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        var threadId = Thread.currentThread().getId();
+        long best = Long.MAX_VALUE;
+        long allocated = Long.MAX_VALUE;
+        for (int i = 0; i < 5; i++) {
+            var allocatedBefore = threads.getThreadAllocatedBytes(threadId);
+            var start = System.nanoTime();
+            sendLoop(invoker, receivers);
+            best = Math.min(best, System.nanoTime() - start);
+            allocated = Math.min(allocated, threads.getThreadAllocatedBytes(threadId) - allocatedBefore);
+        }
+        System.out.format("%s-way send site: %s sends, best of 5: %s ms, %.1f bytes per send\n",
+            classCount, ITERATIONS, best / 1_000_000L, (double) allocated / ITERATIONS);
+    }
+
+    private static long sendLoop(MethodHandle invoker, Receiver[] receivers) {
+        long sum = 0;
+        try {
+            for (int i = 0; i < ITERATIONS; i++) {
+                sum += (Integer) (Object) invoker.invokeExact((Object) receivers[i & 15]);
+            }
+        } catch (Throwable throwable) {
+            throw new AssertionError(throwable);
+        }
+        return sum;
+    }
+
+    /**
+     * A class-like behavior with a single method {@code value} returning the
+     * index of the behavior.
+     */
+    private static class Behavior {
+        private final UserFunction valueMethod;
+        private final SwitchPoint switchPoint = new SwitchPoint();
+
+        private Behavior(int index) {
+            this.valueMethod = UserFunction.construct("value", lambda(self -> const_(index)));
+        }
+    }
+
+    private static class Receiver implements MessageReceiver {
+        private final Behavior behavior;
+
+        private Receiver(Behavior behavior) {
+            this.behavior = behavior;
+        }
+
+        @Override
+        public Optional<? extends Invocable> lookupSelector(String messageSelector) {
+            return messageSelector.equals("value") ? Optional.of(behavior.valueMethod) : Optional.empty();
+        }
+
+        @Override
+        public Object behaviorToken() {
+            return behavior;
+        }
+
+        @Override
+        public SwitchPoint invalidationSwitchPoint() {
+            return behavior.switchPoint;
+        }
+    }
+}
@@ -0,0 +1,113 @@
+// Copyright (c) 2018 Vassili Bykov. Licensed under the Apache License, Version 2.0.
+
+package com.github.vassilibykov.trifle.tmp;
+
+import com.github.vassilibykov.trifle.core.UserFunction;
+import com.github.vassilibykov.trifle.object.FixedObject;
+import com.github.vassilibykov.trifle.object.FixedObjectDefinition;
+import com.github.vassilibykov.trifle.object.GetField;
+import com.github.vassilibykov.trifle.object.SetField;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodType;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+
+import static com.github.vassilibykov.trifle.expression.ExpressionLanguage.call;
+import static com.github.vassilibykov.trifle.expression.ExpressionLanguage.lambda;
+
+/**
+ * Compares the two storage modes of fixed objects. Reports the bytes
+ * allocated per instance of definitions with 4 and 10 fields, and times
+ * compiled monomorphic {@code GetField} and {@code SetField} sites.
+ */
+public class TimeObjectStorage {
+    private static final int ITERATIONS = 10_000_000;
+    private static final int INSTANCES = 1_000_000;
+
+    public static void main(String[] args) {
+        for (var storage : FixedObjectDefinition.Storage.values()) {
+            measureFootprint(storage, 4);
+            measureFootprint(storage, 10);
+            timeAccess(storage);
+        }
+    }
+
+    private static FixedObjectDefinition definition(FixedObjectDefinition.Storage storage, int size) {
+        var fieldNames = new ArrayList<String>();
+        for (int i = 0; i < size - 1; i++) fieldNames.add("field" + i);
+        fieldNames.add("foo");
+        return new FixedObjectDefinition(fieldNames, storage);
+    }
+
+    private static void measureFootprint(FixedObjectDefinition.Storage storage, int size) {
+        var definition = definition(storage, size);
+        var instances = new FixedObject[INSTANCES];
+        var threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        var threadId = Thread.currentThread().getId();
+        long allocated = Long.MAX_VALUE;
+        for (int j = 0; j < 5; j++) {
+            var allocatedBefore = threads.getThreadAllocatedBytes(threadId);
+            for (int i = 0; i < INSTANCES; i++) {
+                instances[i] = definition.instantiate();
+            }
+            allocated = Math.min(allocated, threads.getThreadAllocatedBytes(threadId) - allocatedBefore);
+        }
+        System.out.format("%s, %s fields: %.1f bytes per instance\n",
+            storage, size, (double) allocated / INSTANCES);
+    }
+
+    private static void timeAccess(FixedObjectDefinition.Storage storage) {
+        var definition = definition(storage, 4);
+        var objects = new FixedObject[16];
+        for (int i = 0; i < objects.length; i++) {
+            objects[i] = definition.instantiate();
+            objects[i].set("foo", i);
+        }
+        var getFoo = UserFunction.construct("getFoo", lambda(o -> call(GetField.named("foo"), o)));
+        getFoo.forceCompile();
+        var getter = getFoo.invoker(MethodType.genericMethodType(1));
+        var setFoo = UserFunction.construct("setFoo", lambda((o, v) -> call(SetField.named("foo"), o, v)));
+        setFoo.forceCompile();
+        var setter = setFoo.invoker(MethodType.genericMethodType(2));
+        for (int i = 0; i < 5; i++) {
+            getLoop(getter, objects);
+            setLoop(setter, objects);
+        }
+        long bestGet = Long.MAX_VALUE;
+        long bestSet = Long.MAX_VALUE;
+        for (int i = 0; i < 5; i++) {
+            var start = System.nanoTime();
+            getLoop(getter, objects);
+            bestGet = Math.min(bestGet, System.nanoTime() - start);
+            start = System.nanoTime();
+            setLoop(setter, objects);
+            bestSet = Math.min(bestSet, System.nanoTime() - start);
+        }
+        System.out.format("%s: %s gets, best of 5: %s ms; %s sets, best of 5: %s ms\n",
+            storage, ITERATIONS, bestGet / 1_000_000L, ITERATIONS, bestSet / 1_000_000L);
+    }
+
+    private static long getLoop(MethodHandle getter, FixedObject[] objects) {
+        long sum = 0;
+        try {
+            for (int i = 0; i < ITERATIONS; i++) {
+                sum += (Integer) (Object) getter.invokeExact((Object) objects[i & 15]);
+            }
+        } catch (Throwable throwable) {
+            throw new AssertionError(throwable);
+        }
+        return sum;
+    }
+
+    private static void setLoop(MethodHandle setter, FixedObject[] objects) {
+        Object value = 42;
+        try {
+            for (int i = 0; i < ITERATIONS; i++) {
+                var result = (Object) setter.invokeExact((Object) objects[i & 15], value);
+            }
+        } catch (Throwable throwable) {
+            throw new AssertionError(throwable);
+        }
+    }
+}
@@ -0,0 +1,86 @@
+// Copyright (c) 2018 Vassili Bykov. Licensed under the Apache License, Version 2.0.
+
+package com.github.vassilibykov.trifle.tmp;
+
+import com.github.vassilibykov.trifle.core.Library;
+import com.github.vassilibykov.trifle.core.UserFunction;
+
+import java.util.ArrayList;
+import java.util.concurrent.CountDownLatch;
+
+import static com.github.vassilibykov.trifle.expression.ExpressionLanguage.bind;
+import static com.github.vassilibykov.trifle.expression.ExpressionLanguage.call;
+import static com.github.vassilibykov.trifle.expression.ExpressionLanguage.const_;
+import static com.github.vassilibykov.trifle.expression.ExpressionLanguage.direct;
+import static com.github.vassilibykov.trifle.expression.ExpressionLanguage.if_;
+import static com.github.vassilibykov.trifle.expression.ExpressionLanguage.lambda;
+import static com.github.vassilibykov.trifle.primitive.StandardPrimitiveLanguage.add;
+import static com.github.vassilibykov.trifle.primitive.StandardPrimitiveLanguage.lessThan;
+import static com.github.vassilibykov.trifle.primitive.StandardPrimitiveLanguage.sub;
+
+/**
+ * Runs the same fibonacci function in the profiling interpreter on 1, 2, 4
+ * and so on threads, up to the number of available processors or the number
+ * given as the argument, and reports the combined throughput in calls per
+ * millisecond. All threads update the same profiles, so the throughput
+ * should grow with the number of threads up to the number of cores.
+ */
+public class TimeProfilingThreads {
+    private static final int N = 20;
+    private static final int CALLS = 21_891; // invocations of fibonacci for fibonacci(20)
+    private static final int ROUNDS = 20;
+
+    public static void main(String[] args) throws InterruptedException {
+        var maxThreads = args.length > 0 ? Integer.parseInt(args[0]) : Runtime.getRuntime().availableProcessors();
+        var fibonacci = fibonacci();
+        fibonacci.useProfilingInterpreter();
+        for (int i = 0; i < 5; i++) {
+            run(fibonacci, 1);
+        }
+        double baseline = 0;
+        for (int threads = 1; threads <= maxThreads; threads *= 2) {
+            long best = Long.MAX_VALUE;
+            for (int i = 0; i < 5; i++) {
+                best = Math.min(best, run(fibonacci, threads));
+            }
+            var callsPerMs = (double) threads * ROUNDS * CALLS / (best / 1_000_000.0);
+            if (threads == 1) baseline = callsPerMs;
+            System.out.format("%s threads: best of 5: %s ms, %.0f calls/ms, %.2fx one thread\n",
+                threads, best / 1_000_000L, callsPerMs, callsPerMs / baseline);
+        }
+    }
+
+    private static long run(UserFunction function, int threadCount) throws InterruptedException {
+        var start = new CountDownLatch(1);
+        var threads = new ArrayList<Thread>();
+        for (int i = 0; i < threadCount; i++) {
+            var thread = new Thread(() -> {
+                try {
+                    start.await();
+                } catch (InterruptedException e) {
+                    return;
+                }
+                for (int j = 0; j < ROUNDS; j++) {
+                    function.invoke(N);
+                }
+            });
+            thread.start();
+            threads.add(thread);
+        }
+        var startTime = System.nanoTime();
+        start.countDown();
+        for (var thread : threads) thread.join();
+        return System.nanoTime() - startTime;
+    }
+
+    private static UserFunction fibonacci() {
+        Library toplevel = new Library();
+        return toplevel.define("fibonacci",
+            fibonacci -> lambda(n ->
+                if_(lessThan(n, const_(2)),
+                    const_(1),
+                    bind(call(direct(fibonacci), sub(n, const_(1))), t1 ->
+                        bind(call(direct(fibonacci), sub(n, const_(2))), t2 ->
+                            add(t1, t2))))));
+    }
+}
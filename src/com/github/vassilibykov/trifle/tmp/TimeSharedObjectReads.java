@@ -0,0 +1,108 @@
+// Copyright (c) 2018 Vassili Bykov. Licensed under the Apache License, Version 2.0.
+
+package com.github.vassilibykov.trifle.tmp;
+
+import com.github.vassilibykov.trifle.core.UserFunction;
+import com.github.vassilibykov.trifle.object.FixedObject;
+import com.github.vassilibykov.trifle.object.FixedObjectDefinition;
+import com.github.vassilibykov.trifle.object.GetField;
+import com.github.vassilibykov.trifle.object.SetField;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodType;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static com.github.vassilibykov.trifle.expression.ExpressionLanguage.call;
+import static com.github.vassilibykov.trifle.expression.ExpressionLanguage.lambda;
+
+/**
+ * Times several threads reading a field of the same 16 objects through a
+ * compiled field access site, with the field access implementation selected
+ * by the {@code trifle.fieldAccess} system property. Run it once per
+ * implementation: {@code -Dtrifle.fieldAccess=default}, {@code concurrent}
+ * or {@code optimistic}. The default implementation assumes thread
+ * confinement and is only a baseline. The others are also timed with an
+ * additional thread continuously writing the field through another compiled
+ * site. Reports the wall clock time for all reader threads to complete their
+ * reads.
+ */
+public class TimeSharedObjectReads {
+    private static final int READERS = 4;
+    private static final int ITERATIONS = 2_500_000; // per reader
+
+    public static void main(String[] args) throws InterruptedException {
+        var name = System.getProperty("trifle.fieldAccess", "default");
+        time(name, false);
+        if (!name.equals("default")) time(name, true);
+    }
+
+    private static void time(String name, boolean withWriter) throws InterruptedException {
+        var definition = new FixedObjectDefinition(List.of("foo", "bar"));
+        var objects = new FixedObject[16];
+        for (int i = 0; i < objects.length; i++) {
+            objects[i] = definition.instantiate();
+            objects[i].set("foo", i);
+        }
+        var getFoo = UserFunction.construct("getFoo", lambda(o -> call(GetField.named("foo"), o)));
+        getFoo.forceCompile();
+        var getter = getFoo.invoker(MethodType.genericMethodType(1));
+        var setFoo = UserFunction.construct("setFoo", lambda((o, v) -> call(SetField.named("foo"), o, v)));
+        setFoo.forceCompile();
+        var setter = setFoo.invoker(MethodType.genericMethodType(2));
+        for (int i = 0; i < 5; i++) {
+            readLoop(getter, objects);
+        }
+        long best = Long.MAX_VALUE;
+        for (int i = 0; i < 5; i++) {
+            best = Math.min(best, timeReaders(getter, setter, objects, withWriter));
+        }
+        System.out.format("%s%s: %s threads x %s reads, best of 5: %s ms\n",
+            name, withWriter ? " with a writer" : "", READERS, ITERATIONS, best / 1_000_000L);
+    }
+
+    private static long timeReaders(MethodHandle getter, MethodHandle setter, FixedObject[] objects, boolean withWriter)
+        throws InterruptedException
+    {
+        var done = new AtomicBoolean();
+        Thread writer = null;
+        if (withWriter) {
+            writer = new Thread(() -> writeLoop(setter, objects, done));
+            writer.start();
+        }
+        var readers = new Thread[READERS];
+        for (int i = 0; i < READERS; i++) {
+            readers[i] = new Thread(() -> readLoop(getter, objects));
+        }
+        var start = System.nanoTime();
+        for (var each : readers) each.start();
+        for (var each : readers) each.join();
+        var time = System.nanoTime() - start;
+        done.set(true);
+        if (writer != null) writer.join();
+        return time;
+    }
+
+    private static long readLoop(MethodHandle getter, FixedObject[] objects) {
+        long sum = 0;
+        try {
+            for (int i = 0; i < ITERATIONS; i++) {
+                sum += (Integer) (Object) getter.invokeExact((Object) objects[i & 15]);
+            }
+        } catch (Throwable throwable) {
+            throw new AssertionError(throwable);
+        }
+        return sum;
+    }
+
+    private static void writeLoop(MethodHandle setter, FixedObject[] objects, AtomicBoolean done) {
+        try {
+            for (int i = 0; !done.get(); i++) {
+                var object = (Object) objects[i & 15];
+                var ignored = (Object) setter.invokeExact(object, (Object) (i & 15));
+            }
+        } catch (Throwable throwable) {
+            throw new AssertionError(throwable);
+        }
+    }
+}
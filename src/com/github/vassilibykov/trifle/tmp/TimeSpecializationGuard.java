@@ -0,0 +1,87 @@
+// Copyright (c) 2018 Vassili Bykov. Licensed under the Apache License, Version 2.0.
+
+package com.github.vassilibykov.trifle.tmp;
+
+import com.github.vassilibykov.trifle.core.Library;
+import com.github.vassilibykov.trifle.core.UserFunction;
+
+import java.lang.management.ManagementFactory;
+
+import static com.github.vassilibykov.trifle.expression.ExpressionLanguage.bind;
+import static com.github.vassilibykov.trifle.expression.ExpressionLanguage.call;
+import static com.github.vassilibykov.trifle.expression.ExpressionLanguage.const_;
+import static com.github.vassilibykov.trifle.expression.ExpressionLanguage.lambda;
+import static com.github.vassilibykov.trifle.expression.ExpressionLanguage.set;
+import static com.github.vassilibykov.trifle.expression.ExpressionLanguage.while_;
+import static com.github.vassilibykov.trifle.primitive.StandardPrimitiveLanguage.add;
+import static com.github.vassilibykov.trifle.primitive.StandardPrimitiveLanguage.lessThan;
+import static com.github.vassilibykov.trifle.primitive.StandardPrimitiveLanguage.sub;
+
+/**
+ * Measures the generic entry path into a specialized compiled form: the path
+ * taken by interpreted callers and megamorphic call sites, which invoke a
+ * function through its core call site with boxed arguments, so the call site
+ * has to test the arguments before entering the specialized form. An
+ * interpreted caller runs a loop calling four compiled callees specialized for
+ * {@code (int, int)}, so that the JIT compiler sees the invocations of their
+ * core call sites as megamorphic and can't eliminate allocations on the path
+ * by inlining it. Reports the time and the number of bytes allocated per call,
+ * which includes the interpreter's own allocation. Loop counters, arguments
+ * and results are kept within the {@link Integer} cache so that boxing doesn't
+ * allocate.
+ */
+public class TimeSpecializationGuard {
+    private static final int CALLS_PER_RUN = 4 * 100;
+    private static final int RUNS = 50_000;
+    private static final int CALLS = CALLS_PER_RUN * RUNS;
+
+    public static void main(String[] args) {
+        var function = interpretedCaller();
+        for (int i = 0; i < 20; i++) {
+            run(function);
+        }
+        var threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        var threadId = Thread.currentThread().getId();
+        long best = Long.MAX_VALUE;
+        long allocated = Long.MAX_VALUE;
+        for (int i = 0; i < 10; i++) {
+            var allocatedBefore = threads.getThreadAllocatedBytes(threadId);
+            var start = System.nanoTime();
+            run(function);
+            best = Math.min(best, System.nanoTime() - start);
+            allocated = Math.min(allocated, threads.getThreadAllocatedBytes(threadId) - allocatedBefore);
+        }
+        System.out.format("%s interpreted calls of specialized (int, int) functions, best of 10: %s ms, %.1f ns and %.1f bytes per call\n",
+            CALLS, best / 1_000_000L, (double) best / CALLS, (double) allocated / CALLS);
+    }
+
+    private static void run(UserFunction caller) {
+        for (int i = 0; i < RUNS; i++) {
+            caller.invoke(CALLS_PER_RUN / 4);
+        }
+    }
+
+    private static UserFunction interpretedCaller() {
+        var library = new Library();
+        library.define("add", lambda((a, b) -> add(a, b)));
+        library.define("sub", lambda((a, b) -> sub(a, b)));
+        library.define("first", lambda((a, b) -> a));
+        library.define("second", lambda((a, b) -> b));
+        library.define("caller", lambda(n ->
+            bind(const_(0), i ->
+                while_(lessThan(i, n),
+                    call(library.at("add"), i, const_(1)),
+                    call(library.at("sub"), i, const_(1)),
+                    call(library.at("first"), i, const_(1)),
+                    call(library.at("second"), i, const_(1)),
+                    set(i, add(i, const_(1)))))));
+        for (var name : new String[] {"add", "sub", "first", "second"}) {
+            var callee = library.get(name);
+            callee.invoke(1, 2);
+            callee.forceCompile();
+        }
+        var caller = library.get("caller");
+        caller.useSimpleInterpreter();
+        return caller;
+    }
+}
@@ -0,0 +1,62 @@
+// Copyright (c) 2018 Vassili Bykov. Licensed under the Apache License, Version 2.0.
+
+package com.github.vassilibykov.trifle.tmp;
+
+import com.github.vassilibykov.trifle.core.Library;
+import com.github.vassilibykov.trifle.core.UserFunction;
+
+import java.lang.management.ManagementFactory;
+
+import static com.github.vassilibykov.trifle.expression.ExpressionLanguage.const_;
+import static com.github.vassilibykov.trifle.expression.ExpressionLanguage.if_;
+import static com.github.vassilibykov.trifle.expression.ExpressionLanguage.lambda;
+import static com.github.vassilibykov.trifle.primitive.StandardPrimitiveLanguage.lessThan;
+
+/**
+ * Measures the cost of specialization failures. A function is specialized as
+ * {@code (int)int} after being profiled with non-negative arguments, and is
+ * then called with a negative argument half of the time. For those calls, the
+ * specialized form returns a string, which doesn't fit its return type and
+ * comes back as a {@link com.github.vassilibykov.trifle.core.SquarePegException}.
+ * Reports the time and the bytes allocated per call.
+ */
+public class TimeSquarePeg {
+    private static final int CALLS = 10_000_000;
+
+    public static void main(String[] args) {
+        var function = function();
+        for (int i = 0; i < 20; i++) {
+            run(function);
+        }
+        var threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        var threadId = Thread.currentThread().getId();
+        long best = Long.MAX_VALUE;
+        long allocated = Long.MAX_VALUE;
+        for (int i = 0; i < 10; i++) {
+            var allocatedBefore = threads.getThreadAllocatedBytes(threadId);
+            var start = System.nanoTime();
+            run(function);
+            best = Math.min(best, System.nanoTime() - start);
+            allocated = Math.min(allocated, threads.getThreadAllocatedBytes(threadId) - allocatedBefore);
+        }
+        System.out.format("%s calls, half of them failing, best of 10: %s ms, %.1f ns and %.1f bytes per call\n",
+            CALLS, best / 1_000_000L, (double) best / CALLS, (double) allocated / CALLS);
+    }
+
+    private static int run(UserFunction function) {
+        int failures = 0;
+        for (int i = 0; i < CALLS; i++) {
+            if (function.invoke((i & 1) - 1) instanceof String) failures++;
+        }
+        return failures;
+    }
+
+    private static UserFunction function() {
+        var library = new Library();
+        library.define("f", lambda(x -> if_(lessThan(x, const_(0)), const_("negative"), x)));
+        var function = library.get("f");
+        function.invoke(1);
+        function.forceCompile();
+        return function;
+    }
+}
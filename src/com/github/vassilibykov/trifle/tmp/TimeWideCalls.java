@@ -0,0 +1,119 @@
+// Copyright (c) 2018 Vassili Bykov. Licensed under the Apache License, Version 2.0.
+
+package com.github.vassilibykov.trifle.tmp;
+
+import com.github.vassilibykov.trifle.core.Library;
+import com.github.vassilibykov.trifle.core.UserFunction;
+import com.github.vassilibykov.trifle.expression.Call;
+import com.github.vassilibykov.trifle.expression.Lambda;
+
+import java.lang.management.ManagementFactory;
+import java.util.List;
+import java.util.function.Consumer;
+
+import static com.github.vassilibykov.trifle.expression.ExpressionLanguage.bind;
+import static com.github.vassilibykov.trifle.expression.ExpressionLanguage.block;
+import static com.github.vassilibykov.trifle.expression.ExpressionLanguage.const_;
+import static com.github.vassilibykov.trifle.expression.ExpressionLanguage.lambda;
+import static com.github.vassilibykov.trifle.expression.ExpressionLanguage.set;
+import static com.github.vassilibykov.trifle.expression.ExpressionLanguage.var;
+import static com.github.vassilibykov.trifle.expression.ExpressionLanguage.while_;
+import static com.github.vassilibykov.trifle.primitive.StandardPrimitiveLanguage.add;
+import static com.github.vassilibykov.trifle.primitive.StandardPrimitiveLanguage.lessThan;
+
+/**
+ * Times loops calling a function of six arguments, one more than the fast
+ * paths of the interpreters enumerate, both directly and as a closure, and
+ * reports the bytes allocated per call. Also times calls of the function
+ * from Java via {@code invokeWithArguments}. Like {@link TimeClosureCalls},
+ * times many short loops so that the compiled loop is not stuck in the
+ * bytecode interpreter.
+ */
+public class TimeWideCalls {
+    private static final int ITERATIONS = 1_000_000;
+    private static final int LOOP_LENGTH = 10_000;
+
+    public static void main(String[] args) {
+        timeLoop("a-code interpreter, direct", directLoop(), UserFunction::useACodeInterpreter);
+        timeLoop("tree interpreter, direct", directLoop(), UserFunction::useTreeInterpreter);
+        timeLoop("a-code interpreter, closure", closureLoop(), UserFunction::useACodeInterpreter);
+        timeLoop("tree interpreter, closure", closureLoop(), UserFunction::useTreeInterpreter);
+        timeLoop("compiled, closure", closureLoop(), function -> {
+            function.invoke(1000);
+            function.forceCompile();
+        });
+        timeJavaCalls();
+    }
+
+    private static void timeLoop(String label, UserFunction loop, Consumer<UserFunction> setup) {
+        setup.accept(loop);
+        for (int i = 0; i < 5 * ITERATIONS / LOOP_LENGTH; i++) {
+            loop.invoke(LOOP_LENGTH);
+        }
+        var threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        var threadId = Thread.currentThread().getId();
+        long best = Long.MAX_VALUE;
+        long allocated = Long.MAX_VALUE;
+        for (int i = 0; i < 5; i++) {
+            var allocatedBefore = threads.getThreadAllocatedBytes(threadId);
+            var start = System.nanoTime();
+            for (int j = 0; j < ITERATIONS / LOOP_LENGTH; j++) {
+                loop.invoke(LOOP_LENGTH);
+            }
+            best = Math.min(best, System.nanoTime() - start);
+            allocated = Math.min(allocated, threads.getThreadAllocatedBytes(threadId) - allocatedBefore);
+        }
+        System.out.format("%s: %s calls, best of 5: %s ms, %.1f bytes per call\n",
+            label, ITERATIONS, best / 1_000_000L, (double) allocated / ITERATIONS);
+    }
+
+    private static void timeJavaCalls() {
+        var function = new Library().define("sixArgs", sixArgs());
+        function.useSimpleInterpreter();
+        var arguments = new Object[] {1, 2, 3, 4, 5, 6};
+        for (int i = 0; i < 5 * ITERATIONS; i++) {
+            function.invokeWithArguments(arguments);
+        }
+        long best = Long.MAX_VALUE;
+        for (int j = 0; j < 5; j++) {
+            var start = System.nanoTime();
+            for (int i = 0; i < ITERATIONS; i++) {
+                function.invokeWithArguments(arguments);
+            }
+            best = Math.min(best, System.nanoTime() - start);
+        }
+        System.out.format("invokeWithArguments from Java: %s calls, best of 5: %s ms\n",
+            ITERATIONS, best / 1_000_000L);
+    }
+
+    private static Lambda sixArgs() {
+        var parameters = List.of(var("a"), var("b"), var("c"), var("d"), var("e"), var("f"));
+        return Lambda.with(parameters, add(parameters.get(0), parameters.get(5)));
+    }
+
+    private static UserFunction directLoop() {
+        var library = new Library();
+        library.define("sixArgs", sixArgs());
+        return library.define("directLoop",
+            lambda(n ->
+                bind(const_(0), i ->
+                    block(
+                        while_(lessThan(i, n),
+                            bind(Call.with(library.at("sixArgs"), i, i, i, i, i, i), ignored ->
+                                set(i, add(i, const_(1))))),
+                        i))));
+    }
+
+    private static UserFunction closureLoop() {
+        var library = new Library();
+        return library.define("closureLoop",
+            lambda(n ->
+                bind(sixArgs(), f ->
+                    bind(const_(0), i ->
+                        block(
+                            while_(lessThan(i, n),
+                                bind(Call.with(f, i, i, i, i, i, i), ignored ->
+                                    set(i, add(i, const_(1))))),
+                            i)))));
+    }
+}
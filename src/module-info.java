@@ -1,5 +1,5 @@
 module Enfilade {
-    requires jdk.unsupported;
+    requires java.management;
     requires org.objectweb.asm;
     requires annotations.java8;
     exports com.github.vassilibykov.trifle.core;
@@ -0,0 +1,145 @@
+// Copyright (c) 2018 Vassili Bykov. Licensed under the Apache License, Version 2.0.
+
+package com.github.vassilibykov.trifle.core;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import static com.github.vassilibykov.trifle.expression.ExpressionLanguage.bind;
+import static com.github.vassilibykov.trifle.expression.ExpressionLanguage.block;
+import static com.github.vassilibykov.trifle.expression.ExpressionLanguage.call;
+import static com.github.vassilibykov.trifle.expression.ExpressionLanguage.const_;
+import static com.github.vassilibykov.trifle.expression.ExpressionLanguage.direct;
+import static com.github.vassilibykov.trifle.expression.ExpressionLanguage.if_;
+import static com.github.vassilibykov.trifle.expression.ExpressionLanguage.lambda;
+import static com.github.vassilibykov.trifle.expression.ExpressionLanguage.ret;
+import static com.github.vassilibykov.trifle.expression.ExpressionLanguage.set;
+import static com.github.vassilibykov.trifle.expression.ExpressionLanguage.while_;
+import static com.github.vassilibykov.trifle.primitive.StandardPrimitiveLanguage.add;
+import static com.github.vassilibykov.trifle.primitive.StandardPrimitiveLanguage.lessThan;
+import static com.github.vassilibykov.trifle.primitive.StandardPrimitiveLanguage.mul;
+import static com.github.vassilibykov.trifle.primitive.StandardPrimitiveLanguage.sub;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests of {@link ACodeInterpreter}. Each function is run by it and by the
+ * tree-walking {@link Interpreter}, and the results are expected to agree.
+ */
+public class ACodeInterpreterTests {
+    private Library library;
+
+    @Before
+    public void setUp() throws Exception {
+        library = new Library();
+    }
+
+    @Test
+    public void loop() {
+        var function = library.define("sum", lambda(n ->
+            bind(const_(0), i ->
+                bind(const_(0), total ->
+                    block(
+                        while_(lessThan(i, n),
+                            set(total, add(total, i)),
+                            set(i, add(i, const_(1)))),
+                        total)))));
+        assertAgree(499500, function, 1000);
+    }
+
+    @Test
+    public void loopResult() {
+        var function = library.define("count", lambda(n ->
+            bind(const_(0), i ->
+                while_(lessThan(i, n),
+                    set(i, add(i, const_(1)))))));
+        assertAgree(10, function, 10);
+        assertAgree(null, function, 0);
+    }
+
+    @Test
+    public void ifBranches() {
+        var function = library.define("max", lambda((a, b) ->
+            if_(lessThan(a, b), b, a)));
+        assertAgree(4, function, 3, 4);
+        assertAgree(5, function, 5, 4);
+    }
+
+    @Test
+    public void recursion() {
+        var function = library.define("factorial", self -> lambda(n ->
+            if_(lessThan(n, const_(1)),
+                const_(1),
+                bind(call(direct(self), sub(n, const_(1))), m ->
+                    mul(n, m)))));
+        assertAgree(3628800, function, 10);
+    }
+
+    @Test
+    public void earlyReturn() {
+        var function = library.define("function", lambda(n ->
+            block(
+                if_(lessThan(n, const_(0)), ret(const_("negative")), const_(null)),
+                add(n, const_(1000)))));
+        assertAgree("negative", function, -1);
+        assertAgree(1001, function, 1);
+    }
+
+    @Test
+    public void closureCall() {
+        var function = library.define("function", lambda(n ->
+            bind(add(n, const_(1000)), x ->
+                bind(lambda(y -> add(x, y)), f ->
+                    call(f, n)))));
+        assertAgree(1004, function, 2);
+    }
+
+    @Test
+    public void boxedVariable() {
+        var function = library.define("function", lambda(n ->
+            bind(const_(0), counter ->
+                bind(lambda(() -> set(counter, add(counter, const_(1000)))), increment ->
+                    block(
+                        call(increment),
+                        call(increment),
+                        add(counter, n))))));
+        assertAgree(2001, function, 1);
+    }
+
+    @Test
+    public void loopOverBoxedVariable() {
+        var function = library.define("function", lambda(n ->
+            bind(const_(0), i ->
+                bind(lambda(() -> i), current ->
+                    block(
+                        while_(lessThan(i, n),
+                            set(i, add(i, const_(1)))),
+                        call(current))))));
+        assertAgree(10, function, 10);
+    }
+
+    @Test
+    public void mixedValues() {
+        var function = library.define("function", lambda(n ->
+            bind(const_("hello"), x ->
+                block(
+                    if_(lessThan(n, const_(0)), set(x, add(n, const_(1000))), const_(null)),
+                    x))));
+        assertAgree("hello", function, 1);
+        assertAgree(999, function, -1);
+    }
+
+    @Test
+    public void codeIsCached() {
+        var function = library.define("function", lambda(n -> add(n, const_(1))));
+        var implementation = function.implementation();
+        assertTrue(implementation.acode() == implementation.acode());
+    }
+
+    private void assertAgree(Object expected, UserFunction function, Object... args) {
+        function.useTreeInterpreter();
+        assertEquals(expected, function.invokeWithArguments(args));
+        function.useACodeInterpreter();
+        assertEquals(expected, function.invokeWithArguments(args));
+    }
+}
@@ -6,6 +6,7 @@ import org.junit.Before;
 import org.junit.Test;
 
 import java.lang.invoke.MethodType;
+import java.util.List;
 
 import static com.github.vassilibykov.trifle.core.JvmType.INT;
 import static com.github.vassilibykov.trifle.core.JvmType.REFERENCE;
@@ -91,7 +92,7 @@ public class BlockNodeTests {
     @Test
     public void noSpecializationPossible() {
         // because there are no parameters to make up a specialized signature
-        assertEquals(null, emptyBlockFunction.specializedImplementation());
-        assertEquals(null, blockFunction.specializedImplementation());
+        assertEquals(List.of(), emptyBlockFunction.specializedImplementations());
+        assertEquals(List.of(), blockFunction.specializedImplementations());
     }
 }
\ No newline at end of file
@@ -0,0 +1,119 @@
+// Copyright (c) 2018 Vassili Bykov. Licensed under the Apache License, Version 2.0.
+
+package com.github.vassilibykov.trifle.core;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import static com.github.vassilibykov.trifle.expression.ExpressionLanguage.bind;
+import static com.github.vassilibykov.trifle.expression.ExpressionLanguage.block;
+import static com.github.vassilibykov.trifle.expression.ExpressionLanguage.call;
+import static com.github.vassilibykov.trifle.expression.ExpressionLanguage.const_;
+import static com.github.vassilibykov.trifle.expression.ExpressionLanguage.lambda;
+import static com.github.vassilibykov.trifle.expression.ExpressionLanguage.set;
+import static com.github.vassilibykov.trifle.expression.ExpressionLanguage.while_;
+import static com.github.vassilibykov.trifle.primitive.StandardPrimitiveLanguage.add;
+import static com.github.vassilibykov.trifle.primitive.StandardPrimitiveLanguage.lessThan;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests of the decision whether a mutable variable referenced by a closure
+ * needs to be boxed, which is only the case if it may be assigned after the
+ * closure has been created.
+ */
+public class BoxingTests {
+    private Library library;
+
+    @Before
+    public void setUp() throws Exception {
+        library = new Library();
+    }
+
+    @Test
+    public void assignedBeforeCapture() {
+        var function = library.define("function", lambda(n ->
+            bind(const_(0), x ->
+                block(
+                    set(x, add(n, const_(1))),
+                    bind(lambda(() -> x), f ->
+                        call(f))))));
+        assertFalse(outerVariable(function).isBoxed());
+        assertResults(4, function, 3);
+    }
+
+    @Test
+    public void assignedAfterCapture() {
+        var function = library.define("function", lambda(n ->
+            bind(const_(0), x ->
+                bind(lambda(() -> x), f ->
+                    block(
+                        set(x, add(n, const_(1))),
+                        call(f))))));
+        assertTrue(outerVariable(function).isBoxed());
+        assertResults(4, function, 3);
+    }
+
+    @Test
+    public void assignedInClosure() {
+        var function = library.define("function", lambda(n ->
+            bind(const_(0), x ->
+                bind(lambda(() -> set(x, n)), f ->
+                    block(
+                        call(f),
+                        x)))));
+        assertTrue(outerVariable(function).isBoxed());
+        assertResults(3, function, 3);
+    }
+
+    @Test
+    public void assignedAndCapturedInLoop() {
+        var function = library.define("function", lambda(n ->
+            bind(const_(0), x ->
+                bind(const_(null), f ->
+                    block(
+                        while_(lessThan(x, n),
+                            bind(lambda(() -> x), g ->
+                                block(
+                                    set(f, g),
+                                    set(x, add(x, const_(1)))))),
+                        call(f))))));
+        assertTrue(outerVariable(function).isBoxed());
+        assertResults(3, function, 3);
+    }
+
+    @Test
+    public void definedInLoop() {
+        var function = library.define("function", lambda(n ->
+            bind(const_(0), i ->
+                bind(const_(null), f ->
+                    block(
+                        while_(lessThan(i, n),
+                            bind(const_(0), x ->
+                                block(
+                                    set(x, add(i, const_(100))),
+                                    set(i, add(i, const_(1))),
+                                    bind(lambda(() -> x), g ->
+                                        set(f, g))))),
+                        call(f))))));
+        var loop = (WhileNode) ((BlockNode) ((LetNode) ((LetNode) function.implementation().body()).body()).body()).expressions()[0];
+        var x = ((LetNode) loop.body()).variable();
+        assertFalse(x.isBoxed());
+        assertResults(102, function, 3);
+    }
+
+    private VariableDefinition outerVariable(UserFunction function) {
+        return ((LetNode) function.implementation().body()).variable();
+    }
+
+    private void assertResults(Object expected, UserFunction function, Object arg) {
+        assertEquals(expected, function.invoke(arg));
+        function.useTreeInterpreter();
+        assertEquals(expected, function.invoke(arg));
+        function.useSimpleInterpreter();
+        assertEquals(expected, function.invoke(arg));
+        function.forceCompile();
+        assertEquals(expected, function.invoke(arg));
+    }
+}
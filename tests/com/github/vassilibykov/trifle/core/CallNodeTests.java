@@ -2,16 +2,28 @@
 
 package com.github.vassilibykov.trifle.core;
 
+import com.github.vassilibykov.trifle.expression.Call;
+import com.github.vassilibykov.trifle.expression.DictionaryGetter;
+import com.github.vassilibykov.trifle.expression.Lambda;
 import org.junit.Before;
 import org.junit.Test;
 
+import java.util.List;
+
 import static com.github.vassilibykov.trifle.core.JvmType.INT;
 import static com.github.vassilibykov.trifle.core.JvmType.REFERENCE;
 import static com.github.vassilibykov.trifle.expression.ExpressionLanguage.bind;
 import static com.github.vassilibykov.trifle.expression.ExpressionLanguage.call;
+import static com.github.vassilibykov.trifle.expression.ExpressionLanguage.const_;
 import static com.github.vassilibykov.trifle.expression.ExpressionLanguage.lambda;
+import static com.github.vassilibykov.trifle.expression.ExpressionLanguage.var;
+import static com.github.vassilibykov.trifle.primitive.StandardPrimitiveLanguage.add;
+import static com.github.vassilibykov.trifle.primitive.StandardPrimitiveLanguage.sub;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
 import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
 
 @SuppressWarnings("ConstantConditions")
 public class CallNodeTests {
@@ -73,6 +85,78 @@ public class CallNodeTests {
         assertEquals(42, directEcho.invoke(42));
     }
 
+    @Test
+    public void treeInterpretedEvaluationLambda() {
+        lambdaEchoFunction.useTreeInterpreter();
+        assertEquals("hello", lambdaEcho.invoke("hello"));
+        assertEquals(42, lambdaEcho.invoke(42));
+    }
+
+    @Test
+    public void treeInterpretedEvaluationDirect() {
+        directEchoFunction.useTreeInterpreter();
+        assertEquals("hello", directEcho.invoke("hello"));
+        assertEquals(42, directEcho.invoke(42));
+    }
+
+    @Test
+    public void interpretedDirectCallRewritesItsDispatcher() {
+        directEchoFunction.useTreeInterpreter();
+        var original = directEchoCall.dispatcher();
+        assertEquals("hello", directEcho.invoke("hello"));
+        var rewritten = directEchoCall.dispatcher();
+        assertNotSame(original, rewritten);
+        assertTrue(rewritten instanceof FreeFunctionCallDispatcher);
+        assertEquals(42, directEcho.invoke(42));
+        assertSame(rewritten, directEchoCall.dispatcher());
+    }
+
+    @Test
+    public void interpretedClosureCallSpecializesAndDespecializes() {
+        var topLevel = new Library();
+        var apply = topLevel.define("apply", lambda((f, x) -> call(f, x)));
+        var increment = Closure.with(topLevel.define("increment", lambda(x -> add(x, const_(1)))).implementation());
+        var decrement = Closure.with(topLevel.define("decrement", lambda(x -> sub(x, const_(1)))).implementation());
+        apply.useTreeInterpreter();
+        var call = (CallNode) apply.implementation().body();
+        var generic = call.dispatcher();
+        assertEquals(4, apply.invoke(increment, 3));
+        var monomorphic = call.dispatcher();
+        assertNotSame(generic, monomorphic);
+        assertEquals(5, apply.invoke(increment, 4));
+        assertSame(monomorphic, call.dispatcher());
+        assertEquals(2, apply.invoke(decrement, 3));
+        var megamorphic = call.dispatcher();
+        assertNotSame(monomorphic, megamorphic);
+        assertEquals(4, apply.invoke(increment, 3));
+        assertSame(megamorphic, call.dispatcher());
+        assertTrue(megamorphic instanceof ExpressionCallDispatcher);
+    }
+
+    @Test
+    public void interpretedCallOfNonClosure() {
+        var function = new Library().define("function", lambda(arg -> call(arg, arg)));
+        function.useTreeInterpreter();
+        try {
+            function.invoke(42);
+            fail();
+        } catch (RuntimeError e) {
+            assertEquals("closure expected", e.getMessage());
+        }
+    }
+
+    @Test
+    public void interpretedDictionaryReadSeesUpdates() {
+        var dictionary = Dictionary.create();
+        var entry = dictionary.defineEntry("global");
+        var function = new Library().define("function", lambda(() -> call(DictionaryGetter.of(entry))));
+        function.useTreeInterpreter();
+        entry.setValue("hello");
+        assertEquals("hello", function.invoke());
+        entry.setValue(42);
+        assertEquals(42, function.invoke());
+    }
+
     @Test
     public void inferredType() {
         profileAndCompileAll("hello");
@@ -121,4 +205,36 @@ public class CallNodeTests {
         assertEquals(42, directEcho.invoke(42));
         assertEquals("hello", directEcho.invoke("hello"));
     }
-}
\ No newline at end of file
+
+    @Test
+    public void sixArgumentCalls() {
+        var topLevel = new Library();
+        topLevel.define("sixArgs", firstMinusLast());
+        var direct = topLevel.define("direct", lambda(x ->
+            Call.with(topLevel.at("sixArgs"), x, const_(2), const_(3), const_(4), const_(5), const_(6))));
+        var closure = topLevel.define("closure", lambda(x ->
+            bind(firstMinusLast(), g ->
+                Call.with(g, x, const_(2), const_(3), const_(4), const_(5), const_(6)))));
+        for (var function : List.of(direct, closure)) {
+            assertEquals(94, function.invoke(100));
+            function.useTreeInterpreter();
+            assertEquals(94, function.invoke(100));
+            function.useACodeInterpreter();
+            assertEquals(94, function.invoke(100));
+            function.useSimpleInterpreter();
+            assertEquals(94, function.invoke(100));
+            function.forceCompile();
+            assertEquals(94, function.invoke(100));
+            assertEquals(94, function.invoke(100));
+        }
+        var sixArgsFunction = topLevel.get("sixArgs");
+        assertEquals(-5, sixArgsFunction.invokeWithArguments(new Object[] {1, 2, 3, 4, 5, 6}));
+        var closureValue = (Invocable) topLevel.define("maker", lambda(() -> firstMinusLast())).invoke();
+        assertEquals(-5, closureValue.invokeWithArguments(new Object[] {1, 2, 3, 4, 5, 6}));
+    }
+
+    private static Lambda firstMinusLast() {
+        var parameters = List.of(var("a"), var("b"), var("c"), var("d"), var("e"), var("f"));
+        return Lambda.with(parameters, sub(parameters.get(0), parameters.get(5)));
+    }
+}
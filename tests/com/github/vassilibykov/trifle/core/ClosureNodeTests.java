@@ -10,8 +10,12 @@ import java.lang.invoke.MethodType;
 
 import static com.github.vassilibykov.trifle.core.JvmType.INT;
 import static com.github.vassilibykov.trifle.core.JvmType.REFERENCE;
+import static com.github.vassilibykov.trifle.expression.ExpressionLanguage.call;
 import static com.github.vassilibykov.trifle.expression.ExpressionLanguage.const_;
+import static com.github.vassilibykov.trifle.expression.ExpressionLanguage.if_;
 import static com.github.vassilibykov.trifle.expression.ExpressionLanguage.lambda;
+import static com.github.vassilibykov.trifle.primitive.StandardPrimitiveLanguage.add;
+import static com.github.vassilibykov.trifle.primitive.StandardPrimitiveLanguage.lessThan;
 import static org.junit.Assert.*;
 
 @SuppressWarnings("ConstantConditions")
@@ -108,7 +112,7 @@ public class ClosureNodeTests {
     @Test
     public void specializedImplementation() throws Throwable {
         invokeAndCompileAll();
-        MethodHandle implementation = freeVarReturningClosureImplementation.specializedImplementation();
+        MethodHandle implementation = freeVarReturningClosureImplementation.specializedImplementations().get(0);
         assertEquals(MethodType.methodType(int.class, int.class), implementation.type());
         // This is a raw invocation; the argument is the copied value of the closed over variable.
         assertEquals(42, implementation.invoke(42));
@@ -122,6 +126,28 @@ public class ClosureNodeTests {
         assertEquals(42, invoker.invoke());
     }
 
+    @Test
+    public void closureInvokerIsShared() throws Throwable {
+        invokeAndCompileAll();
+        var closure1 = (Closure) freeVarReturningClosureClosure.invoke(3);
+        var closure2 = (Closure) freeVarReturningClosureClosure.invoke(4);
+        var invoker = freeVarReturningClosureImplementation.closureInvoker();
+        assertSame(invoker, freeVarReturningClosureImplementation.closureInvoker());
+        assertEquals(3, invoker.invoke(closure1));
+        assertEquals(4, invoker.invoke(closure2));
+        assertEquals(4, closure2.invoke());
+    }
+
+    @Test
+    public void optimalInvokerWithoutCopiedValuesIsShared() throws Throwable {
+        invokeAndCompileAll();
+        var closure1 = (Closure) stringReturningClosureClosure.invoke();
+        var closure2 = (Closure) stringReturningClosureClosure.invoke();
+        var type = MethodType.genericMethodType(0);
+        assertSame(closure1.optimalInvoker(type), closure2.optimalInvoker(type));
+        assertEquals("hello", closure2.optimalInvoker(type).invoke());
+    }
+
     @Test
     public void optimalInvokerIntoReference() throws Throwable {
         invokeAndCompileAll();
@@ -166,4 +192,44 @@ public class ClosureNodeTests {
         }
         assertEquals("hello", result);
     }
-}
\ No newline at end of file
+
+    @Test
+    public void sharedClosureInvoker() throws Throwable {
+        invokeAndCompileAll();
+        var invoker = freeVarReturningClosureImplementation.sharedClosureInvoker(
+            MethodType.methodType(Object.class, Object.class));
+        assertEquals(42, invoker.invoke(freeVarReturningClosureClosure.invoke(42)));
+        assertEquals("hello", invoker.invoke(freeVarReturningClosureClosure.invoke("hello")));
+    }
+
+    @Test
+    public void sharedClosureInvokerIntoInt() throws Throwable {
+        invokeAndCompileAll();
+        var invoker = freeVarReturningClosureImplementation.sharedClosureInvoker(
+            MethodType.methodType(int.class, Object.class));
+        assertEquals(42, invoker.invoke(freeVarReturningClosureClosure.invoke(42)));
+        Object result;
+        try {
+            result = invoker.invoke(freeVarReturningClosureClosure.invoke("hello"));
+        } catch (SquarePegException e) {
+            result = e.value;
+        }
+        assertEquals("hello", result);
+    }
+
+    @Test
+    public void cachedCallOfClosuresWithCopiedValues() {
+        var library = new Library();
+        var maker = library.define("maker",
+            lambda(n -> lambda(x -> if_(lessThan(x, const_(0)), n, add(x, n)))));
+        var apply = library.define("apply",
+            lambda((f, x) -> call(f, x)));
+        assertEquals(3, apply.invoke(maker.invoke(1), 2));
+        maker.forceCompile();
+        apply.forceCompile();
+        assertEquals(5, apply.invoke(maker.invoke(3), 2));
+        assertEquals(6, apply.invoke(maker.invoke(4), 2));
+        assertEquals("negative", apply.invoke(maker.invoke("negative"), -1));
+        assertEquals(7, apply.invoke(maker.invoke(5), 2));
+    }
+}
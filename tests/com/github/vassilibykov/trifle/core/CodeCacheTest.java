@@ -0,0 +1,94 @@
+// Copyright (c) 2018 Vassili Bykov. Licensed under the Apache License, Version 2.0.
+
+package com.github.vassilibykov.trifle.core;
+
+import com.github.vassilibykov.trifle.expression.Lambda;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.function.Function;
+
+import static com.github.vassilibykov.trifle.expression.ExpressionLanguage.bind;
+import static com.github.vassilibykov.trifle.expression.ExpressionLanguage.call;
+import static com.github.vassilibykov.trifle.expression.ExpressionLanguage.const_;
+import static com.github.vassilibykov.trifle.expression.ExpressionLanguage.lambda;
+import static com.github.vassilibykov.trifle.primitive.StandardPrimitiveLanguage.add;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class CodeCacheTest {
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private CodeCache cache;
+
+    @Before
+    public void setUp() throws Exception {
+        cache = new CodeCache(folder.getRoot().toPath());
+    }
+
+    @Test
+    public void cachedUnitIsInstalledInNewDefinition() {
+        var original = defineCaller(library -> lambda(arg -> bind(call(library.at("echo"), arg), t -> add(t, const_(1)))));
+        storeCompiled(original);
+        assertEquals(1, cache.storeCount());
+
+        var copy = defineCaller(library -> lambda(arg -> bind(call(library.at("echo"), arg), t -> add(t, const_(1)))));
+        assertTrue(copy.implementation().installFromCodeCache(cache));
+        assertTrue(copy.implementation().isCompiled());
+        assertEquals(1, cache.hitCount());
+        assertEquals(4, copy.invoke(3));
+        assertEquals(4, copy.invoke(3));
+    }
+
+    @Test
+    public void changedDefinitionMisses() {
+        storeCompiled(defineCaller(library -> lambda(arg -> bind(call(library.at("echo"), arg), t -> add(t, const_(1))))));
+        var changed = defineCaller(library -> lambda(arg -> bind(call(library.at("echo"), arg), t -> add(t, const_(2)))));
+        assertFalse(changed.implementation().installFromCodeCache(cache));
+        assertFalse(changed.implementation().isCompiled());
+        assertEquals(1, cache.missCount());
+        assertEquals(5, changed.invoke(3));
+    }
+
+    @Test
+    public void invalidEntryIsRejected() throws Exception {
+        storeCompiled(defineCaller(library -> lambda(arg -> bind(call(library.at("echo"), arg), t -> add(t, const_(1))))));
+        try (var entries = Files.list(folder.getRoot().toPath())) {
+            for (var each : (Iterable<Path>) entries::iterator) Files.write(each, new byte[] {1, 2, 3});
+        }
+        var copy = defineCaller(library -> lambda(arg -> bind(call(library.at("echo"), arg), t -> add(t, const_(1)))));
+        assertFalse(copy.implementation().installFromCodeCache(cache));
+        assertEquals(1, cache.rejectCount());
+        assertEquals(4, copy.invoke(3));
+    }
+
+    @Test
+    public void entryOfDifferentBuildIsRejected() {
+        var cache = new CodeCache(folder.getRoot().toPath(), "build 1");
+        var original = defineCaller(library -> lambda(arg -> bind(call(library.at("echo"), arg), t -> add(t, const_(1)))));
+        for (int i = 0; i < FunctionImplementation.PROFILING_TARGET; i++) original.invoke(i);
+        cache.store(original.implementation(), Compiler.compile(original.implementation()));
+        var otherBuildCache = new CodeCache(folder.getRoot().toPath(), "build 2");
+        var copy = defineCaller(library -> lambda(arg -> bind(call(library.at("echo"), arg), t -> add(t, const_(1)))));
+        assertFalse(copy.implementation().installFromCodeCache(otherBuildCache));
+        assertEquals(1, otherBuildCache.rejectCount());
+        assertTrue(copy.implementation().installFromCodeCache(cache));
+    }
+
+    private UserFunction defineCaller(Function<Library, Lambda> definer) {
+        var library = new Library();
+        library.define("echo", lambda(arg -> arg));
+        return library.define("caller", definer.apply(library));
+    }
+
+    private void storeCompiled(UserFunction function) {
+        for (int i = 0; i < FunctionImplementation.PROFILING_TARGET; i++) function.invoke(i);
+        cache.store(function.implementation(), Compiler.compile(function.implementation()));
+    }
+}
@@ -0,0 +1,80 @@
+// Copyright (c) 2018 Vassili Bykov. Licensed under the Apache License, Version 2.0.
+
+package com.github.vassilibykov.trifle.core;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static com.github.vassilibykov.trifle.expression.ExpressionLanguage.const_;
+import static com.github.vassilibykov.trifle.expression.ExpressionLanguage.lambda;
+import static com.github.vassilibykov.trifle.primitive.StandardPrimitiveLanguage.add;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class CompilationQueueTest {
+    private UserFunction function;
+
+    @Before
+    public void setUp() throws Exception {
+        var library = new Library();
+        function = library.define("increment", lambda(arg -> add(arg, const_(1))));
+    }
+
+    @Test
+    public void compilesOnceProfiled() throws InterruptedException {
+        var completedBefore = CompilationQueue.INSTANCE.completedCount();
+        for (int i = 0; i < FunctionImplementation.PROFILING_TARGET; i++) {
+            assertEquals(i + 1, function.invoke(i));
+        }
+        assertFalse(function.implementation().isCompiled());
+        function.invoke(0); // crosses the profiling target and submits the unit
+        for (int i = 0; i < 500 && !function.implementation().isCompiled(); i++) {
+            assertEquals(4, function.invoke(3)); // keeps running while the unit is being compiled
+            Thread.sleep(10);
+        }
+        assertTrue(function.implementation().isCompiled());
+        assertTrue(CompilationQueue.INSTANCE.completedCount() > completedBefore);
+        assertEquals(4, function.invoke(3));
+    }
+
+    @Test
+    public void compilesHotterUnitsFirst() throws InterruptedException {
+        var library = new Library();
+        var first = library.define("first", lambda(arg -> add(arg, const_(1))));
+        var cold = library.define("cold", lambda(arg -> add(arg, const_(2))));
+        var hot = library.define("hot", lambda(arg -> add(arg, const_(3))));
+        var queue = new CompilationQueue(1);
+        var firstStarted = new CountDownLatch(1);
+        var firstReleased = new CountDownLatch(1);
+        var allCompiled = new CountDownLatch(3);
+        var compiled = Collections.synchronizedList(new ArrayList<FunctionImplementation>());
+        queue.setListener((unit, waitNanos, compileNanos) -> {
+            if (unit == first.implementation()) {
+                firstStarted.countDown();
+                try {
+                    firstReleased.await();
+                } catch (InterruptedException e) {
+                    throw new AssertionError(e);
+                }
+            }
+            compiled.add(unit);
+            allCompiled.countDown();
+        });
+        for (var each : List.of(first, cold, hot)) each.implementation().useSimpleInterpreter();
+        queue.submit(first.implementation());
+        assertTrue(firstStarted.await(10, TimeUnit.SECONDS)); // the only worker is now busy
+        queue.submit(cold.implementation());
+        queue.submit(hot.implementation());
+        for (int i = 0; i < 100; i++) assertEquals(i + 3, hot.invoke(i));
+        firstReleased.countDown();
+        assertTrue(allCompiled.await(10, TimeUnit.SECONDS));
+        assertEquals(List.of(first.implementation(), hot.implementation(), cold.implementation()), compiled);
+    }
+}
@@ -0,0 +1,73 @@
+// Copyright (c) 2018 Vassili Bykov. Licensed under the Apache License, Version 2.0.
+
+package com.github.vassilibykov.trifle.core;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import static com.github.vassilibykov.trifle.expression.ExpressionLanguage.bind;
+import static com.github.vassilibykov.trifle.expression.ExpressionLanguage.call;
+import static com.github.vassilibykov.trifle.expression.ExpressionLanguage.lambda;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class DeoptimizationTest {
+    private UserFunction caller;
+    private FunctionImplementation implementation;
+    private CallNode callNode;
+
+    @Before
+    public void setUp() throws Exception {
+        var library = new Library();
+        library.define("echo", lambda(arg -> arg));
+        caller = library.define("caller", lambda(arg -> bind(call(library.at("echo"), arg), t -> t)));
+        implementation = caller.implementation();
+        callNode = (CallNode) ((LetNode) implementation.body()).initializer();
+        for (int i = 0; i < FunctionImplementation.PROFILING_TARGET; i++) caller.invoke(i);
+        implementation.forceCompile();
+    }
+
+    @Test
+    public void repeatedFailuresWidenProfilesAndRecompile() throws InterruptedException {
+        assertEquals(JvmType.INT, callNode.profile.jvmType());
+        for (int i = 0; i < FunctionImplementation.DEOPTIMIZATION_THRESHOLD; i++) {
+            assertEquals("foo", caller.invoke("foo"));
+        }
+        assertEquals(1, implementation.deoptimizationCount());
+        assertEquals(JvmType.REFERENCE, callNode.profile.jvmType());
+        awaitCompilation();
+        assertEquals("foo", caller.invoke("foo"));
+        assertEquals(3, caller.invoke(3));
+    }
+
+    @Test
+    public void deoptimizedUnitIsReprofiled() throws InterruptedException {
+        for (int i = 0; i < FunctionImplementation.DEOPTIMIZATION_THRESHOLD; i++) caller.invoke("foo");
+        awaitCompilation();
+        for (int i = 0; i < FunctionImplementation.REPROFILING_WINDOW; i++) caller.invoke(i);
+        assertFalse(implementation.isCompiled());
+        assertEquals(2, implementation.deoptimizationCount());
+        for (int i = 0; i <= FunctionImplementation.PROFILING_TARGET; i++) caller.invoke(i);
+        awaitCompilation();
+        assertEquals(JvmType.INT, callNode.profile.jvmType());
+        assertEquals(3, caller.invoke(3));
+    }
+
+    @Test
+    public void deoptimizedUnitIsNotReprofiledWhileFailuresContinue() throws InterruptedException {
+        for (int i = 0; i < FunctionImplementation.DEOPTIMIZATION_THRESHOLD; i++) caller.invoke("foo");
+        awaitCompilation();
+        for (int i = 0; i < 2 * FunctionImplementation.REPROFILING_WINDOW; i++) {
+            assertEquals(i, caller.invoke(i));
+            if (i % 1000 == 0) assertEquals("foo", caller.invoke("foo"));
+        }
+        assertTrue(implementation.isCompiled());
+        assertEquals(1, implementation.deoptimizationCount());
+    }
+
+    private void awaitCompilation() throws InterruptedException {
+        for (int i = 0; i < 500 && !implementation.isCompiled(); i++) Thread.sleep(10);
+        assertTrue(implementation.isCompiled());
+    }
+}
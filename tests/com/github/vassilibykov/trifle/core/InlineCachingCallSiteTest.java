@@ -0,0 +1,159 @@
+// Copyright (c) 2018 Vassili Bykov. Licensed under the Apache License, Version 2.0.
+
+package com.github.vassilibykov.trifle.core;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.util.Objects;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class InlineCachingCallSiteTest {
+
+    /**
+     * A dispatch method which caches a path returning "cached " + the
+     * argument for calls with an equal argument.
+     */
+    @SuppressWarnings("unused") // called via DISPATCH
+    private static Object dispatch(InlineCachingCallSite thisSite, Object arg) {
+        var guard = MethodHandles.insertArguments(EQUALS, 0, arg);
+        var path = MethodHandles.dropArguments(MethodHandles.constant(Object.class, "cached " + arg), 0, Object.class);
+        thisSite.addCacheEntry(guard, path);
+        return "dispatched " + arg;
+    }
+
+    private static final MethodHandle DISPATCH;
+    private static final MethodHandle EQUALS;
+    static {
+        try {
+            var lookup = MethodHandles.lookup();
+            DISPATCH = lookup.findStatic(InlineCachingCallSiteTest.class, "dispatch",
+                MethodType.methodType(Object.class, InlineCachingCallSite.class, Object.class));
+            EQUALS = lookup.findStatic(Objects.class, "equals",
+                MethodType.methodType(boolean.class, Object.class, Object.class));
+        } catch (NoSuchMethodException | IllegalAccessException e) {
+            throw new AssertionError(e);
+        }
+    }
+
+    private InlineCachingCallSite site;
+    private MethodHandle invoker;
+
+    @Before
+    public void setUp() throws Exception {
+        site = new InlineCachingCallSite(MethodType.genericMethodType(1), DISPATCH);
+        invoker = site.dynamicInvoker();
+    }
+
+    private Object call(Object arg) throws Throwable {
+        return invoker.invoke(arg);
+    }
+
+    @Test
+    public void cacheHit() throws Throwable {
+        assertEquals("dispatched 1", call(1));
+        assertEquals("cached 1", call(1));
+        assertEquals("dispatched 2", call(2));
+        assertEquals("cached 2", call(2));
+        assertArrayEquals(new int[] {1, 1}, site.hitCounts());
+    }
+
+    @Test
+    public void entriesOrderedByHits() throws Throwable {
+        call(1);
+        call(2);
+        for (int i = 0; i < 5; i++) call(2);
+        call(1);
+        call(3);
+        assertArrayEquals(new int[] {5, 1, 0}, site.hitCounts());
+        assertEquals("cached 1", call(1));
+        assertEquals("cached 3", call(3));
+    }
+
+    @Test
+    public void hotEntriesSettle() throws Throwable {
+        call(1);
+        call(2);
+        for (int i = 0; i < 10_000; i++) call(2);
+        var settledCount = site.hitCounts()[0];
+        assertTrue(settledCount < 10_000);
+        for (int i = 0; i < 10; i++) call(1);
+        assertArrayEquals(new int[] {settledCount, 10}, site.hitCounts());
+        assertEquals("cached 2", call(2));
+        assertEquals("cached 1", call(1));
+    }
+
+    @Test
+    public void hotEntriesSettleUnderConcurrentHits() throws Throwable {
+        call(1);
+        var threads = new Thread[4];
+        for (int t = 0; t < threads.length; t++) {
+            threads[t] = new Thread(() -> {
+                try {
+                    for (int i = 0; i < 10_000; i++) call(1);
+                } catch (Throwable e) {
+                    throw new AssertionError(e);
+                }
+            });
+            threads[t].start();
+        }
+        for (var thread : threads) thread.join();
+        var settledCount = site.hitCounts()[0];
+        for (int i = 0; i < 10_000; i++) call(1);
+        assertEquals(settledCount, site.hitCounts()[0]);
+    }
+
+    @Test
+    public void limitGrowsForHotEntries() throws Throwable {
+        assertEquals(InlineCachingCallSite.defaultCacheLimit(), site.cacheLimit());
+        var limit = site.cacheLimit();
+        for (int round = 0; round < 3; round++) {
+            for (int i = 0; i <= limit; i++) call(i);
+        }
+        assertFalse(site.isMegamorphic());
+        assertTrue(site.cacheLimit() > limit);
+        assertEquals("cached " + limit, call(limit));
+    }
+
+    @Test
+    public void manyReceiversMakeSiteMegamorphic() throws Throwable {
+        for (int i = 0; i < 2 * InlineCachingCallSite.MAX_CACHE_LIMIT; i++) call(i);
+        assertTrue(site.isMegamorphic());
+        assertEquals(0, site.hitCounts().length);
+        assertEquals("dispatched 1", call(1));
+        assertEquals("dispatched 1", call(1));
+    }
+
+    @Test
+    public void resetKeepsAdaptedLimit() throws Throwable {
+        var limit = site.cacheLimit();
+        for (int round = 0; round < 3; round++) {
+            for (int i = 0; i <= limit; i++) call(i);
+        }
+        var adaptedLimit = site.cacheLimit();
+        site.reset();
+        assertEquals(0, site.hitCounts().length);
+        assertEquals(adaptedLimit, site.cacheLimit());
+        assertEquals("dispatched 1", call(1));
+        assertEquals("cached 1", call(1));
+    }
+
+    @Test
+    public void configurableDefaultLimit() throws Throwable {
+        var originalLimit = InlineCachingCallSite.defaultCacheLimit();
+        try {
+            InlineCachingCallSite.defaultCacheLimit(1);
+            var site = new InlineCachingCallSite(MethodType.genericMethodType(1), DISPATCH);
+            assertEquals(1, site.cacheLimit());
+        } finally {
+            InlineCachingCallSite.defaultCacheLimit(originalLimit);
+        }
+    }
+}
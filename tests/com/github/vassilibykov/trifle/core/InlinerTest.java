@@ -0,0 +1,148 @@
+// Copyright (c) 2018 Vassili Bykov. Licensed under the Apache License, Version 2.0.
+
+package com.github.vassilibykov.trifle.core;
+
+import com.github.vassilibykov.trifle.expression.AtomicExpression;
+import com.github.vassilibykov.trifle.expression.Expression;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.List;
+
+import static com.github.vassilibykov.trifle.expression.ExpressionLanguage.bind;
+import static com.github.vassilibykov.trifle.expression.ExpressionLanguage.call;
+import static com.github.vassilibykov.trifle.expression.ExpressionLanguage.const_;
+import static com.github.vassilibykov.trifle.expression.ExpressionLanguage.if_;
+import static com.github.vassilibykov.trifle.expression.ExpressionLanguage.lambda;
+import static com.github.vassilibykov.trifle.primitive.StandardPrimitiveLanguage.add;
+import static com.github.vassilibykov.trifle.primitive.StandardPrimitiveLanguage.lessThan;
+import static com.github.vassilibykov.trifle.primitive.StandardPrimitiveLanguage.sub;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class InlinerTest {
+    private Library library;
+    private UserFunction first;
+    private UserFunction caller;
+
+    @Before
+    public void setUp() throws Exception {
+        library = new Library();
+        first = library.define("first", lambda((a, b) -> a));
+        caller = library.define("caller", lambda(arg ->
+            bind(call(library.at("first"), arg, const_(0)), t -> add(t, const_(1)))));
+    }
+
+    @Test
+    public void smallCompiledCalleeIsInlined() {
+        profileAndCompile(first, 3, 4);
+        profileAndCompile(caller, 3);
+        var result = Compiler.compile(caller.implementation());
+        assertTrue(result.inlinedFunctions().containsKey(first.implementation()));
+        assertEquals(4, caller.invoke(3));
+    }
+
+    @Test
+    public void uncompiledCalleeIsNotInlined() {
+        profileAndCompile(caller, 3);
+        var result = Compiler.compile(caller.implementation());
+        assertFalse(result.inlinedFunctions().containsKey(first.implementation()));
+    }
+
+    @Test
+    public void largeCalleeIsNotInlined() {
+        var large = library.define("large", lambda(arg -> increments(arg, Inliner.NODE_BUDGET)));
+        var largeCaller = library.define("largeCaller", lambda(arg -> call(library.at("large"), arg)));
+        assertTrue(Inliner.nodeCount(large.implementation()) > Inliner.NODE_BUDGET);
+        profileAndCompile(large, 3);
+        profileAndCompile(largeCaller, 3);
+        var result = Compiler.compile(largeCaller.implementation());
+        assertFalse(result.inlinedFunctions().containsKey(large.implementation()));
+    }
+
+    @Test
+    public void inliningKeepsCalleeAnnotations() {
+        profileAndCompile(first, 3, 4);
+        var callee = first.implementation();
+        var parameterType = callee.declaredParameters().get(0).specializedType();
+        var bodyType = callee.body().specializedType();
+        var returnType = callee.specializedReturnType();
+        assertEquals(JvmType.INT, parameterType);
+        var genericCaller = library.define("genericCaller", lambda(arg -> call(library.at("first"), arg, arg)));
+        profileAndCompile(genericCaller, "foo");
+        var result = Compiler.compile(genericCaller.implementation());
+        assertTrue(result.inlinedFunctions().containsKey(callee));
+        assertEquals(parameterType, callee.declaredParameters().get(0).specializedType());
+        assertEquals(bodyType, callee.body().specializedType());
+        assertEquals(returnType, callee.specializedReturnType());
+    }
+
+    @Test
+    public void inlinedSpecializedCodeRecovers() {
+        profileAndCompile(first, 3, 4);
+        profileAndCompile(caller, 3);
+        assertEquals(4, caller.invoke(3));
+        var identity = library.define("identity", lambda(arg -> call(library.at("first"), arg, const_(0))));
+        profileAndCompile(identity, 3);
+        assertEquals(3, identity.invoke(3));
+        assertEquals("foo", identity.invoke("foo"));
+    }
+
+    @Test
+    public void recompiledCalleeRecompilesCaller() throws InterruptedException {
+        profileAndCompile(first, 3, 4);
+        profileAndCompile(caller, 3);
+        var completedBefore = CompilationQueue.INSTANCE.completedCount();
+        first.forceCompile();
+        for (int i = 0; i < 500 && CompilationQueue.INSTANCE.completedCount() == completedBefore; i++) {
+            Thread.sleep(10);
+        }
+        for (int i = 0; i < 500 && !caller.implementation().isCompiled(); i++) Thread.sleep(10);
+        assertTrue(CompilationQueue.INSTANCE.completedCount() > completedBefore);
+        assertTrue(caller.implementation().isCompiled());
+        assertEquals(4, caller.invoke(3));
+    }
+
+    @Test
+    public void mutuallyInliningFunctionsSettle() throws InterruptedException {
+        var functions = library.define(
+            List.of("isEven", "isOdd"),
+            List.of(
+                isEvenFunction -> lambda(n -> bind(lessThan(n, const_(1)), isZero ->
+                    if_(isZero, const_(true), bind(sub(n, const_(1)), m -> call(library.at("isOdd"), m))))),
+                isOddFunction -> lambda(n -> bind(lessThan(n, const_(1)), isZero ->
+                    if_(isZero, const_(false), bind(sub(n, const_(1)), m -> call(library.at("isEven"), m)))))));
+        var isEven = functions.get(0);
+        var isOdd = functions.get(1);
+        for (int i = 0; i < 1000; i++) isEven.invoke(10);
+        for (int i = 0; i < 500 && !(isEven.implementation().isCompiled() && isOdd.implementation().isCompiled()); i++) {
+            Thread.sleep(10);
+        }
+        isEven.forceCompile();
+        var queue = CompilationQueue.INSTANCE;
+        var completed = queue.completedCount();
+        for (int i = 0; i < 50; i++) {
+            Thread.sleep(100);
+            var nowCompleted = queue.completedCount();
+            if (nowCompleted == completed && queue.queueDepth() == 0 && queue.activeCount() == 0) break;
+            completed = nowCompleted;
+        }
+        Thread.sleep(200);
+        assertEquals(completed, queue.completedCount());
+        assertTrue(isEven.implementation().isCompiled());
+        assertTrue(isOdd.implementation().isCompiled());
+        assertEquals(true, isEven.invoke(10));
+        assertEquals(false, isOdd.invoke(10));
+    }
+
+    private static Expression increments(AtomicExpression value, int count) {
+        if (count == 0) return value;
+        return bind(add(value, const_(1)), t -> increments(t, count - 1));
+    }
+
+    private static void profileAndCompile(UserFunction function, Object... args) {
+        for (int i = 0; i < FunctionImplementation.PROFILING_TARGET; i++) function.invokeWithArguments(args);
+        function.forceCompile();
+    }
+}
@@ -0,0 +1,96 @@
+// Copyright (c) 2018 Vassili Bykov. Licensed under the Apache License, Version 2.0.
+
+package com.github.vassilibykov.trifle.core;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import static com.github.vassilibykov.trifle.expression.ExpressionLanguage.bind;
+import static com.github.vassilibykov.trifle.expression.ExpressionLanguage.block;
+import static com.github.vassilibykov.trifle.expression.ExpressionLanguage.call;
+import static com.github.vassilibykov.trifle.expression.ExpressionLanguage.const_;
+import static com.github.vassilibykov.trifle.expression.ExpressionLanguage.lambda;
+import static com.github.vassilibykov.trifle.expression.ExpressionLanguage.set;
+import static com.github.vassilibykov.trifle.expression.ExpressionLanguage.while_;
+import static com.github.vassilibykov.trifle.primitive.StandardPrimitiveLanguage.add;
+import static com.github.vassilibykov.trifle.primitive.StandardPrimitiveLanguage.lessThan;
+import static com.github.vassilibykov.trifle.primitive.StandardPrimitiveLanguage.negate;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests of the int lane of interpreter frames, which holds the {@code int}
+ * values of variables so that the interpreter doesn't box them.
+ */
+public class IntLaneTests {
+    private Library library;
+
+    @Before
+    public void setUp() throws Exception {
+        library = new Library();
+    }
+
+    @Test
+    public void loopBeyondIntegerCache() {
+        var sum = library.define("sum", lambda(n ->
+            bind(const_(0), i ->
+                bind(const_(0), total ->
+                    block(
+                        while_(lessThan(i, n),
+                            set(total, add(total, i)),
+                            set(i, add(i, const_(1)))),
+                        negate(total))))));
+        assertEquals(-499500, sum.invoke(1000));
+        var total = ((LetNode) ((LetNode) sum.implementation().body()).body()).variable();
+        assertTrue(total.profile().isPureInt());
+        sum.useSimpleInterpreter();
+        assertEquals(-499500, sum.invoke(1000));
+    }
+
+    @Test
+    public void closureCopiesValueInLane() {
+        var function = library.define("function", lambda(n ->
+            bind(add(n, const_(1000)), x ->
+                bind(lambda(() -> x), f ->
+                    call(f)))));
+        assertEquals(1001, function.invoke(1));
+        function.useSimpleInterpreter();
+        assertEquals(1001, function.invoke(1));
+    }
+
+    @Test
+    public void boxedVariableHoldsInt() {
+        var function = library.define("function", lambda(n ->
+            bind(add(n, const_(1000)), x ->
+                bind(lambda(() -> x), f ->
+                    block(
+                        set(x, add(x, const_(1))),
+                        call(f))))));
+        assertEquals(1002, function.invoke(1));
+        function.useSimpleInterpreter();
+        assertEquals(1002, function.invoke(1));
+    }
+
+    @Test
+    public void variableChangesLanes() {
+        var function = library.define("function", lambda(n ->
+            bind(add(n, n), x ->
+                block(
+                    set(x, const_("hello")),
+                    bind(x, y ->
+                        block(
+                            set(x, add(n, const_(1000))),
+                            y))))));
+        var function2 = library.define("function2", lambda(n ->
+            bind(const_("hello"), x ->
+                block(
+                    set(x, add(n, const_(1000))),
+                    x))));
+        assertEquals("hello", function.invoke(1));
+        assertEquals(1001, function2.invoke(1));
+        function.useSimpleInterpreter();
+        function2.useSimpleInterpreter();
+        assertEquals("hello", function.invoke(1));
+        assertEquals(1001, function2.invoke(1));
+    }
+}
@@ -58,4 +58,16 @@ public class JvmTypeTest {
         unionExpectations.forEach(each -> assertEquals(each.result, each.first.union(each.second)));
 
     }
+
+    @Test
+    public void compatibilityTestAgreesWithIsCompatibleValue() throws Throwable {
+        Class<?>[] types = {int.class, boolean.class, long.class, double.class};
+        Object[] values = {3, true, 3L, 3.0, "three", null};
+        for (var type : types) {
+            var test = JvmType.compatibilityTest(type);
+            for (var value : values) {
+                assertEquals(JvmType.isCompatibleValue(type, value), (boolean) test.invokeExact(value));
+            }
+        }
+    }
 }
\ No newline at end of file
@@ -0,0 +1,132 @@
+// Copyright (c) 2018 Vassili Bykov. Licensed under the Apache License, Version 2.0.
+
+package com.github.vassilibykov.trifle.core;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.lang.invoke.MethodType;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import static com.github.vassilibykov.trifle.expression.ExpressionLanguage.call;
+import static com.github.vassilibykov.trifle.expression.ExpressionLanguage.lambda;
+import static com.github.vassilibykov.trifle.primitive.StandardPrimitiveLanguage.add;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests of functions with more than one specialized compiled form.
+ */
+public class PolymorphicSpecializationTest {
+    private static final MethodType INT_SIGNATURE = MethodType.methodType(int.class, int.class);
+    private static final MethodType DOUBLE_SIGNATURE = MethodType.methodType(double.class, double.class);
+
+    private Library library;
+    private UserFunction twice;
+
+    @Before
+    public void setUp() throws Exception {
+        library = new Library();
+        twice = library.define("twice", lambda(x -> add(x, x)));
+    }
+
+    @Test
+    public void mixedProfileHasNoPrimarySpecialization() {
+        twice.invoke(1);
+        twice.invoke(1.5);
+        twice.forceCompile();
+        assertTrue(twice.implementation().specializedImplementations().isEmpty());
+    }
+
+    @Test
+    public void requestedSpecializationsAreCompiled() throws Throwable {
+        twice.invoke(1);
+        twice.invoke(1.5);
+        twice.forceCompile();
+        var implementation = twice.implementation();
+        implementation.requestSpecialization(INT_SIGNATURE);
+        implementation.requestSpecialization(DOUBLE_SIGNATURE);
+        twice.forceCompile();
+        var types = implementation.specializedImplementations().stream()
+            .map(each -> each.type())
+            .collect(Collectors.toList());
+        assertTrue(types.contains(INT_SIGNATURE));
+        assertTrue(types.contains(DOUBLE_SIGNATURE));
+        assertEquals(6, (int) implementation.invoker(INT_SIGNATURE).invokeExact(3));
+        assertEquals(5.0, (double) implementation.invoker(DOUBLE_SIGNATURE).invokeExact(2.5), 0.0);
+        assertEquals(8, twice.invoke(4));
+        assertEquals(3.0, twice.invoke(1.5));
+        assertEquals(4L, twice.invoke(2L));
+    }
+
+    @Test
+    public void callSiteRequestsItsSpecialization() {
+        var caller = library.define("caller", lambda(n -> call(library.at("twice"), n)));
+        twice.invoke(1.5);
+        caller.invoke(1);
+        twice.forceCompile();
+        caller.forceCompile();
+        assertEquals(6, caller.invoke(3)); // links the call site
+        assertTrue(twice.implementation().requestedSpecializations().isEmpty());
+        for (int i = 1; i < FunctionImplementation.SPECIALIZATION_DEMAND_THRESHOLD; i++) {
+            assertEquals(2 * i, caller.invoke(i)); // requests an (int)int specialization on the last call
+        }
+        assertEquals(List.of(INT_SIGNATURE), twice.implementation().requestedSpecializations());
+        twice.forceCompile();
+        var types = twice.implementation().specializedImplementations().stream()
+            .map(each -> each.type())
+            .collect(Collectors.toList());
+        assertTrue(types.contains(INT_SIGNATURE));
+        assertEquals(10, caller.invoke(5)); // relinked to the new specialization
+        assertEquals(3.0, caller.invoke(1.5));
+    }
+
+    @Test
+    public void bestMatchMayHaveFewerPrimitiveParameters() {
+        var first = library.define("first", lambda((a, b) -> a));
+        first.invoke(1, 2);
+        first.invoke(1, "two");
+        first.forceCompile();
+        var implementation = first.implementation();
+        var specialized = implementation.bestSpecializationFor(
+            MethodType.methodType(Object.class, int.class, int.class), 0);
+        assertEquals(MethodType.methodType(int.class, int.class, Object.class), specialized.type());
+        assertNull(implementation.bestSpecializationFor(
+            MethodType.methodType(Object.class, Object.class, int.class), 0));
+    }
+
+    @Test
+    public void requestsAreBounded() {
+        var sum = library.define("sum", lambda((a, b) -> add(a, b)));
+        sum.invoke(1, 2);
+        sum.invoke(1.5, 2.5);
+        var implementation = sum.implementation();
+        Class<?>[] types = {int.class, long.class, double.class, Object.class};
+        for (var type1 : types) {
+            for (var type2 : types) {
+                implementation.requestSpecialization(MethodType.methodType(Object.class, type1, type2));
+            }
+        }
+        assertEquals(FunctionImplementation.MAX_SPECIALIZATIONS - 1, implementation.requestedSpecializations().size());
+        sum.forceCompile();
+        assertEquals(FunctionImplementation.MAX_SPECIALIZATIONS - 1, implementation.specializedImplementations().size());
+        assertEquals(3.0, sum.invoke(1.5, 1.5));
+        assertEquals(3L, sum.invoke(1L, 2L));
+    }
+
+    @Test
+    public void guardsTestEachPrimitiveArgument() {
+        var sum = library.define("sum", lambda((a, b) -> add(a, b)));
+        sum.invoke(1, 2);
+        sum.forceCompile();
+        sum.implementation().requestSpecialization(MethodType.methodType(double.class, int.class, double.class));
+        sum.forceCompile();
+        assertEquals(2, sum.implementation().specializedImplementations().size());
+        assertEquals(3, sum.invoke(1, 2));
+        assertEquals(3.5, sum.invoke(1, 2.5));
+        assertEquals(3.5, sum.invoke(1.5, 2.0));
+        assertEquals(3L, sum.invoke(1, 2L));
+    }
+}
@@ -49,6 +49,26 @@ public class PrimitiveNodeTests {
         assertEquals(7, closure.invoke(3, "four"));
     }
 
+    @Test
+    public void treeInterpretedEvaluationSpecializesToInts() {
+        function.useTreeInterpreter();
+        assertTrue(node.isIntSpecialized);
+        assertEquals(7, closure.invoke(3, 4));
+        assertTrue(node.isIntSpecialized);
+        assertEquals(9, closure.invoke(4, 5));
+        assertTrue(node.isIntSpecialized);
+    }
+
+    @Test
+    public void treeInterpretedEvaluationDespecializesOnNonInt() {
+        function.useTreeInterpreter();
+        assertEquals(7, closure.invoke(3, 4));
+        assertEquals(4.5, closure.invoke(3, 1.5));
+        assertFalse(node.isIntSpecialized);
+        assertEquals(7, closure.invoke(3, 4));
+        assertFalse(node.isIntSpecialized);
+    }
+
     @Test
     public void inferredType() {
         function.forceCompile();
@@ -8,10 +8,17 @@ import org.junit.Test;
 import static com.github.vassilibykov.trifle.core.JvmType.INT;
 import static com.github.vassilibykov.trifle.core.JvmType.REFERENCE;
 import static com.github.vassilibykov.trifle.core.JvmType.VOID;
+import static com.github.vassilibykov.trifle.expression.ExpressionLanguage.bind;
 import static com.github.vassilibykov.trifle.expression.ExpressionLanguage.block;
+import static com.github.vassilibykov.trifle.expression.ExpressionLanguage.call;
 import static com.github.vassilibykov.trifle.expression.ExpressionLanguage.const_;
+import static com.github.vassilibykov.trifle.expression.ExpressionLanguage.direct;
+import static com.github.vassilibykov.trifle.expression.ExpressionLanguage.if_;
 import static com.github.vassilibykov.trifle.expression.ExpressionLanguage.lambda;
 import static com.github.vassilibykov.trifle.expression.ExpressionLanguage.ret;
+import static com.github.vassilibykov.trifle.primitive.StandardPrimitiveLanguage.add;
+import static com.github.vassilibykov.trifle.primitive.StandardPrimitiveLanguage.lessThan;
+import static com.github.vassilibykov.trifle.primitive.StandardPrimitiveLanguage.sub;
 import static org.junit.Assert.assertEquals;
 
 @SuppressWarnings("ConstantConditions")
@@ -45,6 +52,34 @@ public class ReturnNodeTests {
         assertEquals(42, closure.invoke());
     }
 
+    @Test
+    public void returnFromCalleeResumesCaller() {
+        var library = new Library();
+        library.define("inner", lambda(x -> block(ret(x), const_("hello"))));
+        var outer = library.define("outer", lambda(a ->
+            bind(call(library.at("inner"), add(a, const_(1))), b ->
+                add(a, b))));
+        library.get("inner").useSimpleInterpreter();
+        assertEquals(7, outer.invoke(3));
+        outer.useSimpleInterpreter();
+        assertEquals(7, outer.invoke(3));
+    }
+
+    @Test
+    public void recursiveReturns() {
+        var library = new Library();
+        var sum = library.define("sum", self -> lambda(n ->
+            if_(lessThan(n, const_(1)),
+                ret(const_(0)),
+                bind(call(direct(self), sub(n, const_(1))), s ->
+                    block(
+                        ret(add(n, s)),
+                        const_("hello"))))));
+        assertEquals(55, sum.invoke(10));
+        sum.useSimpleInterpreter();
+        assertEquals(55, sum.invoke(10));
+    }
+
     @Test
     public void inferredType() {
         function.forceCompile();
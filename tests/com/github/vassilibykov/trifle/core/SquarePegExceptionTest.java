@@ -0,0 +1,21 @@
+// Copyright (c) 2018 Vassili Bykov. Licensed under the Apache License, Version 2.0.
+
+package com.github.vassilibykov.trifle.core;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+
+public class SquarePegExceptionTest {
+
+    @Test
+    public void isStackless() {
+        var value = new Object();
+        var exception = SquarePegException.with(value);
+        assertSame(value, exception.value);
+        assertEquals(0, exception.getStackTrace().length);
+        exception.addSuppressed(new RuntimeException());
+        assertEquals(0, exception.getSuppressed().length);
+    }
+}
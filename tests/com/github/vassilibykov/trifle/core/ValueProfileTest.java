@@ -6,7 +6,9 @@ import org.junit.Before;
 import org.junit.Test;
 
 import static com.github.vassilibykov.trifle.core.JvmType.BOOL;
+import static com.github.vassilibykov.trifle.core.JvmType.DOUBLE;
 import static com.github.vassilibykov.trifle.core.JvmType.INT;
+import static com.github.vassilibykov.trifle.core.JvmType.LONG;
 import static com.github.vassilibykov.trifle.core.JvmType.REFERENCE;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
@@ -81,4 +83,53 @@ public class ValueProfileTest {
         assertFalse(profile.isPureBool());
         assertEquals(REFERENCE, profile.jvmType());
     }
+
+    @Test
+    public void longCases() {
+        profile.recordValue(1L);
+        profile.recordValue(2L);
+        assertEquals(2, profile.longCases());
+        assertEquals(0, profile.intCases());
+        assertFalse(profile.isPureInt());
+        assertEquals(LONG, profile.jvmType());
+    }
+
+    @Test
+    public void doubleCases() {
+        profile.recordValue(1.5);
+        assertEquals(1, profile.doubleCases());
+        assertEquals(DOUBLE, profile.jvmType());
+    }
+
+    @Test
+    public void mixedNumericCases() {
+        profile.recordValue(1);
+        profile.recordValue(1L);
+        profile.recordValue(1.0);
+        assertEquals(REFERENCE, profile.jvmType());
+    }
+
+    @Test
+    public void saturation() {
+        for (long i = 0; i < ValueProfile.SATURATION + 10; i++) {
+            profile.recordIntValue();
+        }
+        assertEquals(ValueProfile.SATURATION, profile.intCases());
+        profile.recordValue("hello");
+        assertEquals(1, profile.referenceCases());
+        assertEquals(REFERENCE, profile.jvmType());
+    }
+
+    @Test
+    public void reset() {
+        profile.recordValue(1);
+        profile.recordValue("hello");
+        profile.reset();
+        assertFalse(profile.hasProfileData());
+        assertEquals(0, profile.intCases());
+        assertEquals(0, profile.referenceCases());
+        profile.recordValue(true);
+        assertTrue(profile.isPureBool());
+        assertEquals(BOOL, profile.jvmType());
+    }
 }
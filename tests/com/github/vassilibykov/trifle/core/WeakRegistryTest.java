@@ -0,0 +1,87 @@
+// Copyright (c) 2018 Vassili Bykov. Licensed under the Apache License, Version 2.0.
+
+package com.github.vassilibykov.trifle.core;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.lang.ref.WeakReference;
+import java.util.function.BooleanSupplier;
+
+import static com.github.vassilibykov.trifle.expression.ExpressionLanguage.const_;
+import static com.github.vassilibykov.trifle.expression.ExpressionLanguage.lambda;
+import static com.github.vassilibykov.trifle.primitive.StandardPrimitiveLanguage.add;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class WeakRegistryTest {
+    private WeakRegistry<Object> registry;
+
+    @Before
+    public void setUp() throws Exception {
+        registry = new WeakRegistry<>();
+    }
+
+    @Test
+    public void registeredObjectsHaveDistinctIds() {
+        var first = new Object();
+        var second = new Object();
+        var firstId = registry.register(first);
+        var secondId = registry.register(second);
+        assertTrue(firstId != secondId);
+        assertSame(first, registry.get(firstId));
+        assertSame(second, registry.get(secondId));
+        assertEquals(2, registry.size());
+    }
+
+    @Test
+    public void reclaimedObjectIsNotFound() {
+        var id = registry.register(new Object());
+        assertTrue(collectUntil(() -> registry.get(id) == null));
+        assertEquals(0, registry.size());
+        assertTrue(registry.register(new Object()) != id);
+    }
+
+    @Test
+    public void literalIsKeptAliveByCompiledCode() {
+        var unit = new Compiler.UnitResult();
+        var literal = new WeakReference<Object>(new Object());
+        var id = unit.registerLiteral(literal.get());
+        collectUntil(() -> false);
+        assertSame(literal.get(), LiteralPool.INSTANCE.get(id));
+        assertEquals(1, unit.retainedObjects().size());
+    }
+
+    @Test
+    public void droppedFunctionIsReclaimed() throws InterruptedException {
+        var implementation = new WeakReference<>(compiledThrowawayFunction());
+        assertTrue(collectUntil(() -> implementation.get() == null));
+    }
+
+    private FunctionImplementation compiledThrowawayFunction() throws InterruptedException {
+        var library = new Library();
+        var function = library.define("increment", lambda(arg -> add(arg, const_(1))));
+        for (int i = 0; i <= FunctionImplementation.PROFILING_TARGET; i++) {
+            function.invoke(i);
+        }
+        for (int i = 0; i < 500 && !function.implementation().isCompiled(); i++) {
+            Thread.sleep(10);
+        }
+        assertTrue(function.implementation().isCompiled());
+        return function.implementation();
+    }
+
+    private static boolean collectUntil(BooleanSupplier condition) {
+        for (int i = 0; i < 20; i++) {
+            if (condition.getAsBoolean()) return true;
+            System.gc();
+            try {
+                Thread.sleep(10);
+            } catch (InterruptedException e) {
+                throw new AssertionError(e);
+            }
+        }
+        return condition.getAsBoolean();
+    }
+}
@@ -111,6 +111,40 @@ public class WhileNodeTests {
         assertEquals(10, adder.invoke(4));
     }
 
+    @Test
+    public void loopEntryNotGeneratedForUnexecutedLoop() {
+        implementation.forceCompile();
+        assertNull(whileNode.loopEntry);
+    }
+
+    @Test
+    public void loopEntry() throws Throwable {
+        assertEquals(3, adder.invoke(2));
+        implementation.forceCompile();
+        assertNotNull(whileNode.loopEntry);
+        var frame = new Object[implementation.frameSize()];
+        frame[0] = 2; // arg
+        frame[1] = 10; // sum
+        assertEquals(13, whileNode.loopEntry.invoke(frame, null));
+    }
+
+    @Test
+    public void interpretedLoopTransfersIntoCompiledCode() {
+        for (int i = 0; i < WhileNode.OSR_THRESHOLD; i++) adder.invoke(1);
+        implementation.forceCompile();
+        // the loop is past the threshold, so the interpreter enters compiled code after one iteration
+        assertEquals(5050, ProfilingInterpreter.INSTANCE.interpret(implementation, new Object[] {100}));
+        assertEquals(5050, Interpreter.INSTANCE.interpret(implementation, new Object[] {100}));
+    }
+
+    @Test
+    public void longRunningLoopRequestsCompilation() throws InterruptedException {
+        assertEquals(50005000, adder.invoke(10000));
+        for (int i = 0; i < 500 && !implementation.isCompiled(); i++) Thread.sleep(10);
+        assertTrue(implementation.isCompiled());
+        assertNotNull(whileNode.loopEntry);
+    }
+
     @Test
     public void inferredType() {
         implementation.forceCompile();
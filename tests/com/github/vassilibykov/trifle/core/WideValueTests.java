@@ -0,0 +1,149 @@
+// Copyright (c) 2018 Vassili Bykov. Licensed under the Apache License, Version 2.0.
+
+package com.github.vassilibykov.trifle.core;
+
+import com.github.vassilibykov.trifle.builtin.Add;
+import com.github.vassilibykov.trifle.builtin.LessThan;
+import com.github.vassilibykov.trifle.builtin.Multiply;
+import com.github.vassilibykov.trifle.builtin.Subtract;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.math.BigInteger;
+
+import static com.github.vassilibykov.trifle.core.JvmType.DOUBLE;
+import static com.github.vassilibykov.trifle.core.JvmType.LONG;
+import static com.github.vassilibykov.trifle.expression.ExpressionLanguage.bind;
+import static com.github.vassilibykov.trifle.expression.ExpressionLanguage.block;
+import static com.github.vassilibykov.trifle.expression.ExpressionLanguage.call;
+import static com.github.vassilibykov.trifle.expression.ExpressionLanguage.const_;
+import static com.github.vassilibykov.trifle.expression.ExpressionLanguage.direct;
+import static com.github.vassilibykov.trifle.expression.ExpressionLanguage.lambda;
+import static com.github.vassilibykov.trifle.expression.ExpressionLanguage.set;
+import static com.github.vassilibykov.trifle.expression.ExpressionLanguage.while_;
+import static com.github.vassilibykov.trifle.primitive.StandardPrimitiveLanguage.add;
+import static com.github.vassilibykov.trifle.primitive.StandardPrimitiveLanguage.lessThan;
+import static com.github.vassilibykov.trifle.primitive.StandardPrimitiveLanguage.mul;
+import static com.github.vassilibykov.trifle.primitive.StandardPrimitiveLanguage.negate;
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Tests of code specialized to {@code long} and {@code double} values.
+ */
+public class WideValueTests {
+    private Library library;
+
+    @Before
+    public void setUp() throws Exception {
+        library = new Library();
+    }
+
+    @Test
+    public void specializedLongArithmetic() {
+        var function = library.define("f", lambda((a, b) -> bind(mul(a, b), p -> add(p, a))));
+        assertEquals(12L, function.invoke(3L, 3L));
+        function.forceCompile();
+        assertEquals(LONG, function.implementation().declaredParameters().get(0).specializedType());
+        assertEquals(6_000_000_002L, function.invoke(2L, 3_000_000_000L));
+    }
+
+    @Test
+    public void specializedDoubleArithmetic() {
+        var function = library.define("f", lambda((a, b) -> bind(mul(a, b), p -> negate(p))));
+        assertEquals(-3.0, function.invoke(1.5, 2.0));
+        function.forceCompile();
+        assertEquals(DOUBLE, function.implementation().specializedReturnType());
+        assertEquals(-1.25, function.invoke(0.5, 2.5));
+    }
+
+    @Test
+    public void builtinLongArithmetic() {
+        var function = library.define("f", lambda((a, b) ->
+            bind(call(direct(Multiply.INSTANCE), a, b), p -> call(direct(Subtract.INSTANCE), p, a))));
+        assertEquals(6L, function.invoke(3L, 3L));
+        function.forceCompile();
+        assertEquals(LONG, function.implementation().declaredParameters().get(0).specializedType());
+        assertEquals(6_000_000_000L, function.invoke(2L, 3_000_000_001L));
+        assertEquals(
+            BigInteger.valueOf(Long.MAX_VALUE).multiply(BigInteger.TWO).subtract(BigInteger.valueOf(Long.MAX_VALUE)),
+            function.invoke(Long.MAX_VALUE, 2L));
+    }
+
+    @Test
+    public void builtinDoubleArithmetic() {
+        var function = library.define("f", lambda((a, b) -> call(direct(Add.INSTANCE), a, b)));
+        assertEquals(3.5, function.invoke(1.5, 2.0));
+        function.forceCompile();
+        assertEquals(DOUBLE, function.implementation().specializedReturnType());
+        assertEquals(0.75, function.invoke(0.5, 0.25));
+    }
+
+    @Test
+    public void builtinMixedArithmetic() {
+        assertEquals(3L, Add.add((Object) 1, (Object) 2L));
+        assertEquals(2.5, Add.add((Object) 2L, (Object) 0.5));
+        assertEquals(BigInteger.valueOf(Long.MAX_VALUE).add(BigInteger.ONE), Add.add((Object) Long.MAX_VALUE, (Object) 1));
+        assertEquals(BigInteger.valueOf(-3), Subtract.subtract((Object) BigInteger.ONE, (Object) 4L));
+        assertEquals(BigInteger.valueOf(Integer.MAX_VALUE).add(BigInteger.ONE), Add.add((Object) Integer.MAX_VALUE, (Object) 1));
+        assertEquals(true, LessThan.lessThan((Object) 1, (Object) 2L));
+        assertEquals(false, LessThan.lessThan((Object) 2.5, (Object) BigInteger.TWO));
+    }
+
+    @Test
+    public void wideLocalsNextToNarrowOnes() {
+        var function = library.define("f", lambda((a, b) ->
+            bind(add(b, const_(1)), i ->
+                bind(add(a, a), d ->
+                    bind(add(i, const_(1)), j ->
+                        bind(add(d, const_(0.5)), e -> block(j, e)))))));
+        assertEquals(4.5, function.invoke(2.0, 1));
+        function.forceCompile();
+        assertEquals(6.5, function.invoke(3.0, 1));
+    }
+
+    @Test
+    public void doubleAccumulatorLoop() {
+        var function = library.define("f", lambda(n ->
+            bind(const_(0.0), sum ->
+                bind(const_(0), i ->
+                    block(
+                        while_(lessThan(i, n),
+                            set(sum, add(sum, const_(0.5))),
+                            set(i, add(i, const_(1)))),
+                        sum)))));
+        assertEquals(2.0, function.invoke(4));
+        function.forceCompile();
+        assertEquals(5.0, function.invoke(10));
+    }
+
+    @Test
+    public void comparisons() {
+        var function = library.define("f", lambda((a, b) -> lessThan(a, b)));
+        assertEquals(true, function.invoke(1L, 2L));
+        function.forceCompile();
+        assertEquals(false, function.invoke(3L, 2L));
+        assertEquals(true, function.invoke(1.5, 2.5));
+        assertEquals(true, function.invoke(1, 2.5));
+    }
+
+    @Test
+    public void specializationFailureRecovers() {
+        var function = library.define("f", lambda((a, b) -> bind(add(a, b), s -> add(s, s))));
+        assertEquals(6L, function.invoke(1L, 2L));
+        function.forceCompile();
+        assertEquals(6L, function.invoke(1L, 2L));
+        assertEquals(7.0, function.invoke(1.5, 2L));
+        assertEquals(6, function.invoke(1, 2));
+    }
+
+    @Test
+    public void mixedTypesArePromoted() {
+        var function = library.define("f", lambda((a, b) -> add(a, b)));
+        assertEquals(3L, function.invoke(1, 2L));
+        assertEquals(3.5, function.invoke(1L, 2.5));
+        function.forceCompile();
+        assertEquals(3L, function.invoke(1, 2L));
+        assertEquals(3.5, function.invoke(1L, 2.5));
+        assertEquals(3, function.invoke(1, 2));
+    }
+}
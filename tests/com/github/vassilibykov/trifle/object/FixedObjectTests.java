@@ -6,6 +6,8 @@ import org.junit.Before;
 import org.junit.Test;
 
 import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
 
 import static org.junit.Assert.*;
 
@@ -45,4 +47,85 @@ public class FixedObjectTests {
         assertEquals("frobozz", instance.get("zork"));
         assertEquals("hello", instance.get("bar"));
     }
+
+    @Test
+    public void layoutClassStorage() {
+        var definition = new FixedObjectDefinition(List.of("foo", "bar"), FixedObjectDefinition.Storage.LAYOUT_CLASS);
+        var instance = definition.instantiate();
+        assertNull(instance.referenceData);
+        assertNotNull(instance.storage);
+        assertEquals(null, instance.get("foo"));
+        instance.set("foo", 42);
+        instance.set("bar", "hello");
+        assertEquals(42, instance.get("foo"));
+        assertEquals("hello", instance.get("bar"));
+    }
+
+    @Test
+    public void layoutClassStorageDefinitionUpdate() {
+        var definition = new FixedObjectDefinition(List.of("foo", "bar"), FixedObjectDefinition.Storage.LAYOUT_CLASS);
+        var instance = definition.instantiate();
+        instance.set("foo", 42);
+        instance.set("bar", "hello");
+        definition.setFieldNames(List.of("foo", "zork", "bar"));
+        instance.set("zork", "frobozz");
+        assertEquals(42, instance.get("foo"));
+        assertEquals("frobozz", instance.get("zork"));
+        assertEquals("hello", instance.get("bar"));
+        definition.setFieldNames(List.of("bar"));
+        assertEquals("hello", instance.get("bar"));
+    }
+
+    @Test
+    public void layoutStorageClassesAreSharedBySize() {
+        var a = new FixedObjectDefinition(List.of("foo", "bar"), FixedObjectDefinition.Storage.LAYOUT_CLASS);
+        var b = new FixedObjectDefinition(List.of("zork", "frobozz"), FixedObjectDefinition.Storage.LAYOUT_CLASS);
+        var c = new FixedObjectDefinition(List.of("foo"), FixedObjectDefinition.Storage.LAYOUT_CLASS);
+        assertSame(a.instantiate().storage.getClass(), b.instantiate().storage.getClass());
+        assertNotSame(a.instantiate().storage.getClass(), c.instantiate().storage.getClass());
+    }
+
+    @Test
+    public void layoutFieldIndices() {
+        var fieldNames = List.of("a", "b", "c", "d", "e", "f", "g");
+        var layout = new FixedObjectLayout(fieldNames);
+        for (int i = 0; i < fieldNames.size(); i++) {
+            assertEquals(i, layout.fieldIndex(fieldNames.get(i)));
+        }
+        assertEquals(-1, layout.fieldIndex("h"));
+        assertEquals(-1, new FixedObjectLayout(List.of()).fieldIndex("a"));
+    }
+
+    @Test
+    public void getDuringConcurrentDefinitionUpdates() throws InterruptedException {
+        instance.set("foo", 42);
+        instance.set("bar", "hello");
+        var failure = new AtomicReference<Object>();
+        var done = new AtomicBoolean();
+        var reader = new Thread(() -> {
+            try {
+                while (!done.get()) {
+                    var foo = instance.get("foo");
+                    var bar = instance.get("bar");
+                    if (!Integer.valueOf(42).equals(foo) || !"hello".equals(bar)) {
+                        failure.set(foo + " " + bar);
+                        return;
+                    }
+                }
+            } catch (Throwable t) {
+                failure.set(t);
+            }
+        });
+        reader.start();
+        try {
+            for (int i = 0; i < 2000; i++) {
+                definition.setFieldNames(i % 2 == 0 ? List.of("zork", "bar", "foo") : List.of("foo", "bar"));
+                instance.get("foo");
+            }
+        } finally {
+            done.set(true);
+            reader.join();
+        }
+        assertNull(failure.get());
+    }
 }
\ No newline at end of file
@@ -7,7 +7,10 @@ import com.github.vassilibykov.trifle.core.UserFunction;
 import org.junit.Before;
 import org.junit.Test;
 
+import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
 
 import static com.github.vassilibykov.trifle.expression.ExpressionLanguage.call;
 import static com.github.vassilibykov.trifle.expression.ExpressionLanguage.lambda;
@@ -64,4 +67,159 @@ public class GetFieldTest {
         assertEquals("hello", getFoo.invoke(instance));
         assertEquals(42, getBar.invoke(instance));
     }
+
+    @Test
+    public void compiledLayoutClassStorage() {
+        var definition = new FixedObjectDefinition(List.of("foo", "bar"), FixedObjectDefinition.Storage.LAYOUT_CLASS);
+        var instance = definition.instantiate();
+        instance.set("foo", "hello");
+        instance.set("bar", 42);
+        getFoo.forceCompile();
+        getBar.forceCompile();
+        assertEquals("hello", getFoo.invoke(instance));
+        assertEquals(42, getBar.invoke(instance));
+        assertEquals("hello", getFoo.invoke(instance));
+        assertEquals(42, getBar.invoke(instance));
+        definition.setFieldNames(List.of("bar", "zork", "foo"));
+        assertEquals("hello", getFoo.invoke(instance));
+        assertEquals(42, getBar.invoke(instance));
+    }
+
+    @Test
+    public void compiledMegamorphic() {
+        getFoo.forceCompile();
+        var instances = instancesWithDistinctLayouts(10);
+        for (int round = 0; round < 3; round++) {
+            for (int i = 0; i < instances.size(); i++) {
+                assertEquals(i, getFoo.invoke(instances.get(i)));
+            }
+        }
+        assertEquals("hello", getFoo.invoke(instance));
+    }
+
+    @Test
+    public void compiledMegamorphicWithDefinitionUpdate() {
+        getFoo.forceCompile();
+        var instances = instancesWithDistinctLayouts(10);
+        for (var each : instances) getFoo.invoke(each);
+        var last = instances.get(9);
+        last.definition().setFieldNames(List.of("zork", "foo"));
+        assertEquals(9, getFoo.invoke(last));
+        assertEquals(8, getFoo.invoke(instances.get(8)));
+    }
+
+    @Test
+    public void compiledMegamorphicLayoutClassStorage() {
+        getFoo.forceCompile();
+        var instances = instancesWithDistinctLayouts(10, FixedObjectDefinition.Storage.LAYOUT_CLASS);
+        for (int round = 0; round < 3; round++) {
+            for (int i = 0; i < instances.size(); i++) {
+                assertEquals(i, getFoo.invoke(instances.get(i)));
+            }
+        }
+    }
+
+    @Test
+    public void compiledMegamorphicConcurrent() {
+        FixedObject.accessImplementation(FieldAccessInvokeDynamicConcurrent.FACTORY);
+        try {
+            getFoo.forceCompile();
+            var instances = instancesWithDistinctLayouts(10);
+            for (int round = 0; round < 3; round++) {
+                for (int i = 0; i < instances.size(); i++) {
+                    assertEquals(i, getFoo.invoke(instances.get(i)));
+                }
+            }
+        } finally {
+            FixedObject.accessImplementation(FieldAccessInvokeDynamic.FACTORY);
+        }
+    }
+
+    @Test
+    public void compiledOptimistic() {
+        FixedObject.accessImplementation(FieldAccessInvokeDynamicOptimistic.FACTORY);
+        try {
+            getFoo.forceCompile();
+            getBar.forceCompile();
+            for (int i = 0; i < 2; i++) {
+                assertEquals("hello", getFoo.invoke(instance));
+                assertEquals(42, getBar.invoke(instance));
+            }
+            definition.setFieldNames(List.of("bar", "zork", "foo"));
+            assertEquals("hello", getFoo.invoke(instance));
+            assertEquals(42, getBar.invoke(instance));
+            var instances = instancesWithDistinctLayouts(10, FixedObjectDefinition.Storage.LAYOUT_CLASS);
+            for (int round = 0; round < 3; round++) {
+                for (int i = 0; i < instances.size(); i++) {
+                    assertEquals(i, getFoo.invoke(instances.get(i)));
+                }
+            }
+        } finally {
+            FixedObject.accessImplementation(FieldAccessInvokeDynamic.FACTORY);
+        }
+    }
+
+    @Test
+    public void compiledOptimisticWithConcurrentDefinitionUpdates() throws InterruptedException {
+        FixedObject.accessImplementation(FieldAccessInvokeDynamicOptimistic.FACTORY);
+        try {
+            getFoo.forceCompile();
+            getBar.forceCompile();
+            var failure = new AtomicReference<Object>();
+            var done = new AtomicBoolean();
+            var readers = new ArrayList<Thread>();
+            for (int i = 0; i < 2; i++) {
+                var reader = new Thread(() -> {
+                    try {
+                        while (!done.get()) {
+                            var foo = getFoo.invoke(instance);
+                            var bar = getBar.invoke(instance);
+                            if (!"hello".equals(foo) || !Integer.valueOf(42).equals(bar)) {
+                                failure.set(foo + " " + bar);
+                                return;
+                            }
+                        }
+                    } catch (Throwable t) {
+                        failure.set(t);
+                    }
+                });
+                readers.add(reader);
+                reader.start();
+            }
+            try {
+                for (int i = 0; i < 2000; i++) {
+                    definition.setFieldNames(i % 2 == 0 ? List.of("zork", "bar", "foo") : List.of("foo", "bar"));
+                    instance.set("foo", "hello");
+                }
+            } finally {
+                done.set(true);
+                for (var each : readers) each.join();
+            }
+            assertNull(failure.get());
+        } finally {
+            FixedObject.accessImplementation(FieldAccessInvokeDynamic.FACTORY);
+        }
+    }
+
+    /**
+     * Return instances of the specified number of definitions, each with the
+     * field {@code foo} at a different index. The instance at index {@code i}
+     * has {@code foo} set to {@code i}.
+     */
+    static List<FixedObject> instancesWithDistinctLayouts(int count) {
+        return instancesWithDistinctLayouts(count, FixedObjectDefinition.Storage.ARRAYS);
+    }
+
+    static List<FixedObject> instancesWithDistinctLayouts(int count, FixedObjectDefinition.Storage storage) {
+        var instances = new ArrayList<FixedObject>();
+        for (int i = 0; i < count; i++) {
+            var fieldNames = new ArrayList<String>();
+            for (int j = 0; j < i; j++) fieldNames.add("pad" + j);
+            fieldNames.add("foo");
+            var instance = new FixedObjectDefinition(fieldNames, storage).instantiate();
+            instance.set("foo", i);
+            instances.add(instance);
+        }
+        return instances;
+    }
 }
\ No newline at end of file
@@ -7,6 +7,7 @@ import com.github.vassilibykov.trifle.primitive.Add;
 import org.junit.Before;
 import org.junit.Test;
 
+import java.util.ArrayList;
 import java.util.List;
 
 import static com.github.vassilibykov.trifle.expression.ExpressionLanguage.bind;
@@ -73,4 +74,43 @@ public class MessageSendTests {
         classB.defineMethod("add", lambda(self -> const_("replaced")));
         assertEquals("replaced", sendAdd.invoke(instB));
     }
+
+    @Test
+    public void megamorphicSend() {
+        sendAdd.forceCompile();
+        var instances = megamorphicInstances(10);
+        for (int round = 0; round < 3; round++) {
+            for (int i = 0; i < instances.size(); i++) {
+                assertEquals(i, sendAdd.invoke(instances.get(i)));
+            }
+        }
+        assertEquals(7, sendAdd.invoke(instA));
+    }
+
+    @Test
+    public void megamorphicSendMethodReplacement() {
+        sendAdd.forceCompile();
+        var instances = megamorphicInstances(10);
+        for (var each : instances) sendAdd.invoke(each);
+        var last = instances.get(9);
+        assertEquals(9, sendAdd.invoke(last));
+        ((ToySmalltalkClass) last.behaviorToken()).defineMethod("add", lambda(self -> const_("replaced")));
+        assertEquals("replaced", sendAdd.invoke(last));
+        assertEquals(8, sendAdd.invoke(instances.get(8)));
+    }
+
+    /**
+     * Return instances of the specified number of distinct classes, enough to
+     * make a send site megamorphic. The {@code add} method of the instance at
+     * index {@code i} returns {@code i}.
+     */
+    private List<ToySmalltalkObject> megamorphicInstances(int count) {
+        var instances = new ArrayList<ToySmalltalkObject>();
+        for (int i = 0; i < count; i++) {
+            var klass = new ToySmalltalkClass(List.of());
+            klass.defineMethod("add", lambda(self -> const_(instances.size())));
+            instances.add(klass.newInstance());
+        }
+        return instances;
+    }
 }
@@ -70,4 +70,64 @@ public class SetFieldTest {
         assertEquals("hello there", instance.get("foo"));
         assertEquals(7, instance.get("bar"));
     }
-}
\ No newline at end of file
+
+    @Test
+    public void compiledLayoutClassStorage() {
+        var definition = new FixedObjectDefinition(List.of("foo", "bar"), FixedObjectDefinition.Storage.LAYOUT_CLASS);
+        var instance = definition.instantiate();
+        setFoo.forceCompile();
+        setBar.forceCompile();
+        for (int i = 0; i < 2; i++) {
+            setFoo.invoke(instance, "hello there");
+            setBar.invoke(instance, 7);
+            assertEquals("hello there", instance.get("foo"));
+            assertEquals(7, instance.get("bar"));
+        }
+        definition.setFieldNames(List.of("bar", "foo"));
+        setFoo.invoke(instance, "changed");
+        assertEquals("changed", instance.get("foo"));
+        assertEquals(7, instance.get("bar"));
+    }
+
+    @Test
+    public void compiledMegamorphic() {
+        setFoo.forceCompile();
+        var instances = GetFieldTest.instancesWithDistinctLayouts(10);
+        for (int round = 0; round < 3; round++) {
+            for (int i = 0; i < instances.size(); i++) {
+                setFoo.invoke(instances.get(i), round == 1 ? "round 1" : i * 10 + round);
+            }
+            for (int i = 0; i < instances.size(); i++) {
+                assertEquals(round == 1 ? "round 1" : i * 10 + round, instances.get(i).get("foo"));
+            }
+        }
+    }
+
+    @Test
+    public void compiledOptimistic() {
+        FixedObject.accessImplementation(FieldAccessInvokeDynamicOptimistic.FACTORY);
+        try {
+            setFoo.forceCompile();
+            setBar.forceCompile();
+            for (int i = 0; i < 2; i++) {
+                setFoo.invoke(instance, "hello there");
+                setBar.invoke(instance, 7);
+                assertEquals("hello there", instance.get("foo"));
+                assertEquals(7, instance.get("bar"));
+            }
+            definition.setFieldNames(List.of("bar", "foo"));
+            setFoo.invoke(instance, "changed");
+            assertEquals("changed", instance.get("foo"));
+            assertEquals(7, instance.get("bar"));
+            var instances = GetFieldTest.instancesWithDistinctLayouts(10);
+            for (int i = 0; i < instances.size(); i++) {
+                setFoo.invoke(instances.get(i), i * 10);
+            }
+            for (int i = 0; i < instances.size(); i++) {
+                assertEquals(i * 10, instances.get(i).get("foo"));
+            }
+        } finally {
+            FixedObject.accessImplementation(FieldAccessInvokeDynamic.FACTORY);
+        }
+    }
+}